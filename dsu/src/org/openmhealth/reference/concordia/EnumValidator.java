@@ -15,8 +15,10 @@
  ******************************************************************************/
 package org.openmhealth.reference.concordia;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import name.jenkins.paul.john.concordia.exception.ConcordiaException;
 import name.jenkins.paul.john.concordia.schema.StringSchema;
@@ -143,13 +145,66 @@ public class EnumValidator
 			// Check each of our allowed values against the given value.
 			if(! enumFieldIter.contains(value)) {
 				// If one was not found, throw an exception.
-				throw
-					new ConcordiaException(
-						"The value, '" +
-							value +
-							"', is not in our list of acceptable values: " +
-							enumField.toString());
+				throw createInvalidValueException(value, enumField);
 			}
 		}
 	}
+	
+	/**
+	 * Returns the allowed values for a string schema. The schema must have
+	 * already been validated.
+	 * 
+	 * @param schema
+	 *        The string schema.
+	 * 
+	 * @return The allowed values or null if any value is allowed.
+	 */
+	static List<?> getAllowedValues(final StringSchema schema) {
+		return (List<?>) schema.getAdditionalFields().get(ENUM_SCHEMA_FIELD);
+	}
+	
+	/**
+	 * Converts a list of allowed values into a set, so that values can be
+	 * checked without searching the list.
+	 * 
+	 * @param allowedValues
+	 *        The allowed values, which may be null.
+	 * 
+	 * @return The set of allowed values or null if the list was null.
+	 */
+	static Set<String> toAllowedValueSet(final List<?> allowedValues) {
+		if(allowedValues == null) {
+			return null;
+		}
+		
+		Set<String> result = new HashSet<String>(allowedValues.size() * 2);
+		for(Object allowedValue : allowedValues) {
+			result.add((String) allowedValue);
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates the exception for a value that is not one of the allowed
+	 * values.
+	 * 
+	 * @param value
+	 *        The value.
+	 * 
+	 * @param allowedValues
+	 *        The allowed values.
+	 * 
+	 * @return The exception to throw.
+	 */
+	static ConcordiaException createInvalidValueException(
+		final String value,
+		final Object allowedValues) {
+		
+		return
+			new ConcordiaException(
+				"The value, '" +
+					value +
+					"', is not in our list of acceptable values: " +
+					allowedValues.toString());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.concordia;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>
+ * The shapes of the data that have already passed a schema's structural
+ * validation. The shape of some data is its types, the names of its objects'
+ * fields, and the lengths of its arrays, but not its values. Whether or not
+ * data is structurally valid depends only on its shape, so data with a known
+ * shape only needs its values checked.
+ * </p>
+ * 
+ * <p>
+ * The least recently used shapes are discarded once the cache is full. The
+ * number of hits and misses is kept and the hit rate is logged periodically.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class ShapeCache {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(ShapeCache.class.getName());
+	
+	/**
+	 * The default maximum number of shapes that are kept.
+	 */
+	public static final int DEFAULT_MAX_SHAPES = 64;
+	/**
+	 * The number of lookups between logging the hit rate.
+	 */
+	public static final long REPORT_INTERVAL = 100000;
+	
+	/**
+	 * The name of the schema for which the shapes are kept, for logging.
+	 */
+	private final String name;
+	/**
+	 * The known shapes, in least recently used order. This must be
+	 * synchronized on.
+	 */
+	private final Map<String, Boolean> shapes;
+	
+	/**
+	 * The number of lookups that found the shape.
+	 */
+	private final AtomicLong hits = new AtomicLong(0);
+	/**
+	 * The number of lookups that did not find the shape.
+	 */
+	private final AtomicLong misses = new AtomicLong(0);
+	
+	/**
+	 * Creates an empty cache.
+	 * 
+	 * @param name
+	 *        The name of the schema for which the shapes are kept.
+	 * 
+	 * @param maxShapes
+	 *        The maximum number of shapes that are kept.
+	 */
+	public ShapeCache(final String name, final int maxShapes) {
+		this.name = name;
+		shapes =
+			new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+				/**
+				 * The version of this class for serialization purposes.
+				 */
+				private static final long serialVersionUID = 1L;
+				
+				/**
+				 * Removes the least recently used shape once the cache is
+				 * full.
+				 */
+				@Override
+				protected boolean removeEldestEntry(
+					final Map.Entry<String, Boolean> eldest) {
+					
+					return size() > maxShapes;
+				}
+			};
+	}
+	
+	/**
+	 * Returns whether or not a shape is known and records the lookup.
+	 * 
+	 * @param shape
+	 *        The shape, from {@link #getShape(JsonNode)}.
+	 * 
+	 * @return Whether or not the shape is known.
+	 */
+	public boolean contains(final String shape) {
+		boolean result;
+		synchronized(shapes) {
+			result = shapes.get(shape) != null;
+		}
+		
+		long lookups;
+		if(result) {
+			lookups = hits.incrementAndGet() + misses.get();
+		}
+		else {
+			lookups = misses.incrementAndGet() + hits.get();
+		}
+		if((lookups % REPORT_INTERVAL) == 0) {
+			LOGGER
+				.log(
+					Level.INFO,
+					"Shape cache hit rate for " +
+						name +
+						": " +
+						getHitRate());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Adds a shape that has passed structural validation.
+	 * 
+	 * @param shape
+	 *        The shape, from {@link #getShape(JsonNode)}.
+	 */
+	public void add(final String shape) {
+		synchronized(shapes) {
+			shapes.put(shape, Boolean.TRUE);
+		}
+	}
+	
+	/**
+	 * Returns the number of lookups that found the shape.
+	 * 
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of lookups that did not find the shape.
+	 * 
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the fraction of lookups that found the shape.
+	 * 
+	 * @return The hit rate, between 0 and 1, or 0 if there have been no
+	 *         lookups.
+	 */
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long lookups = hits + misses.get();
+		return (lookups == 0) ? 0 : ((double) hits) / lookups;
+	}
+	
+	/**
+	 * Builds the shape of some data. Two pieces of data have the same shape
+	 * exactly when they have the same types at the same places, the same
+	 * field names in the same order, and the same array lengths.
+	 * 
+	 * @param data
+	 *        The data.
+	 * 
+	 * @return The data's shape.
+	 */
+	public static String getShape(final JsonNode data) {
+		StringBuilder builder = new StringBuilder();
+		appendShape(data, builder);
+		return builder.toString();
+	}
+	
+	/**
+	 * Appends the shape of some data.
+	 * 
+	 * @param data
+	 *        The data.
+	 * 
+	 * @param builder
+	 *        The builder to which the shape is appended.
+	 */
+	private static void appendShape(
+		final JsonNode data,
+		final StringBuilder builder) {
+		
+		if(data.isObject()) {
+			builder.append('{');
+			Iterator<Map.Entry<String, JsonNode>> fields = data.fields();
+			while(fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				
+				// The name's length is given first so that a name cannot be
+				// confused with the shapes around it.
+				String fieldName = field.getKey();
+				builder.append(fieldName.length()).append(':');
+				builder.append(fieldName);
+				appendShape(field.getValue(), builder);
+			}
+			builder.append('}');
+		}
+		else if(data.isArray()) {
+			builder.append('[');
+			for(JsonNode element : data) {
+				appendShape(element, builder);
+			}
+			builder.append(']');
+		}
+		else if(data.isTextual()) {
+			builder.append('s');
+		}
+		else if(data.isNumber()) {
+			builder.append('n');
+		}
+		else if(data.isBoolean()) {
+			builder.append('b');
+		}
+		else if(data.isNull()) {
+			builder.append('z');
+		}
+		else {
+			builder.append('?');
+		}
+	}
+}
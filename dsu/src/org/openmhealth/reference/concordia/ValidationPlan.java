@@ -0,0 +1,830 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.concordia;
+
+import java.util.List;
+import java.util.Set;
+
+import name.jenkins.paul.john.concordia.Concordia;
+import name.jenkins.paul.john.concordia.exception.ConcordiaException;
+import name.jenkins.paul.john.concordia.schema.ArraySchema;
+import name.jenkins.paul.john.concordia.schema.BooleanSchema;
+import name.jenkins.paul.john.concordia.schema.NumberSchema;
+import name.jenkins.paul.john.concordia.schema.ObjectSchema;
+import name.jenkins.paul.john.concordia.schema.Schema;
+import name.jenkins.paul.john.concordia.schema.StringSchema;
+import name.jenkins.paul.john.concordia.validator.ValidationController;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * <p>
+ * A Concordia schema compiled into a tree of validation steps. Validating
+ * data with a plan accepts and rejects exactly the same data as
+ * {@link Concordia#validateData(JsonNode)}, but the work of walking the
+ * schema is done once, when the plan is compiled, instead of for every
+ * point. Each object's fields are flattened into arrays, each type check is
+ * bound to its node class, and each enum's allowed values are turned into a
+ * hash set.
+ * </p>
+ * 
+ * <p>
+ * Only the {@link OmhValidationController#VALIDATION_CONTROLLER} and the
+ * {@link ValidationController#BASIC_CONTROLLER} can be compiled, as their
+ * validators are known. For any other controller, and for any part of a
+ * schema that cannot be compiled, such as a reference to another schema, the
+ * plan defers to the controller.
+ * </p>
+ * 
+ * <p>
+ * If no part of the plan defers to the controller, the plan also keeps a
+ * {@link ShapeCache} of the shapes of the data that it has accepted. Whether
+ * or not data is valid depends only on its shape except for the enums, so
+ * data with an accepted shape only needs its enums checked. Batches from a
+ * single source tend to have the same shape for every point, so most points
+ * skip the structural checks.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class ValidationPlan {
+	/**
+	 * <p>
+	 * A single step of a plan, which validates the data at one place in the
+	 * schema.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private abstract static class Step {
+		/**
+		 * Whether or not the data may be missing or null.
+		 */
+		private final boolean optional;
+		
+		/**
+		 * Creates a step.
+		 * 
+		 * @param optional
+		 *        Whether or not the data may be missing or null.
+		 */
+		protected Step(final boolean optional) {
+			this.optional = optional;
+		}
+		
+		/**
+		 * Validates the data.
+		 * 
+		 * @param data
+		 *        The data to validate, which may be null if it was missing.
+		 * 
+		 * @throws ConcordiaException
+		 *         The data is invalid.
+		 */
+		public abstract void validate(
+			final JsonNode data)
+			throws ConcordiaException;
+		
+		/**
+		 * Validates only the values of data whose shape is already known to
+		 * be valid.
+		 * 
+		 * @param data
+		 *        The data to validate, which may be null if it was missing.
+		 * 
+		 * @throws ConcordiaException
+		 *         The data is invalid.
+		 */
+		public abstract void validateValues(
+			final JsonNode data)
+			throws ConcordiaException;
+		
+		/**
+		 * Returns whether or not this step checks any values. If not,
+		 * {@link #validateValues(JsonNode)} does nothing.
+		 * 
+		 * @return Whether or not this step checks any values.
+		 */
+		public abstract boolean hasValueChecks();
+		
+		/**
+		 * Returns whether or not this step, or any step below it, defers to
+		 * the controller, whose checks may depend on more than the data's
+		 * shape.
+		 * 
+		 * @return Whether or not this step defers to the controller.
+		 */
+		public abstract boolean defers();
+		
+		/**
+		 * Checks data that is not of the expected type, which is only valid
+		 * if it is missing or null and the data is optional.
+		 * 
+		 * @param data
+		 *        The data that is not of the expected type.
+		 * 
+		 * @param type
+		 *        The name of the expected type, for the error message.
+		 * 
+		 * @throws ConcordiaException
+		 *         The data is invalid.
+		 */
+		protected void validateNull(
+			final JsonNode data,
+			final String type)
+			throws ConcordiaException {
+			
+			if((data == null) || (data instanceof NullNode)) {
+				if(optional) {
+					return;
+				}
+				throw
+					new ConcordiaException(
+						"The value is null but not optional.");
+			}
+			throw
+				new ConcordiaException(
+					"The data was not " + type + " value: " + data.toString());
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A step for a string, number, or boolean.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class ValueStep extends Step {
+		/**
+		 * The class of the nodes that have the expected type.
+		 */
+		private final Class<? extends JsonNode> nodeClass;
+		/**
+		 * The name of the expected type, for the error message.
+		 */
+		private final String type;
+		/**
+		 * The values a string may have or null if it may have any value.
+		 */
+		private final Set<String> allowedValues;
+		/**
+		 * The values a string may have as they were given in the schema, for
+		 * the error message.
+		 */
+		private final List<?> allowedValuesList;
+		
+		/**
+		 * Creates a step for a value.
+		 * 
+		 * @param optional
+		 *        Whether or not the data may be missing or null.
+		 * 
+		 * @param nodeClass
+		 *        The class of the nodes that have the expected type.
+		 * 
+		 * @param type
+		 *        The name of the expected type, for the error message.
+		 * 
+		 * @param allowedValuesList
+		 *        The values a string may have or null if it may have any
+		 *        value.
+		 */
+		private ValueStep(
+			final boolean optional,
+			final Class<? extends JsonNode> nodeClass,
+			final String type,
+			final List<?> allowedValuesList) {
+			
+			super(optional);
+			
+			this.nodeClass = nodeClass;
+			this.type = type;
+			this.allowedValuesList = allowedValuesList;
+			allowedValues =
+				EnumValidator.toAllowedValueSet(allowedValuesList);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validate(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validate(final JsonNode data) throws ConcordiaException {
+			if(! nodeClass.isInstance(data)) {
+				validateNull(data, type);
+				return;
+			}
+			
+			validateValues(data);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validateValues(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validateValues(
+			final JsonNode data)
+			throws ConcordiaException {
+			
+			// Optional values that are missing or null have nothing to check.
+			if((allowedValues != null) && (data instanceof TextNode)) {
+				String value = data.textValue();
+				if(! allowedValues.contains(value)) {
+					throw
+						EnumValidator
+							.createInvalidValueException(
+								value,
+								allowedValuesList);
+				}
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#hasValueChecks()
+		 */
+		@Override
+		public boolean hasValueChecks() {
+			return allowedValues != null;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#defers()
+		 */
+		@Override
+		public boolean defers() {
+			return false;
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A step for an object, which validates each of its fields.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class ObjectStep extends Step {
+		/**
+		 * The names of the fields. A null name means that the field's schema
+		 * applies to the whole object.
+		 */
+		private final String[] names;
+		/**
+		 * The steps for the fields, indexed the same as their names.
+		 */
+		private final Step[] fields;
+		/**
+		 * The indices of the fields whose steps check values.
+		 */
+		private final int[] valueFields;
+		
+		/**
+		 * Creates a step for an object.
+		 * 
+		 * @param optional
+		 *        Whether or not the data may be missing or null.
+		 * 
+		 * @param names
+		 *        The names of the fields.
+		 * 
+		 * @param fields
+		 *        The steps for the fields.
+		 */
+		private ObjectStep(
+			final boolean optional,
+			final String[] names,
+			final Step[] fields) {
+			
+			super(optional);
+			
+			this.names = names;
+			this.fields = fields;
+			valueFields = getValueSteps(fields);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validate(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validate(final JsonNode data) throws ConcordiaException {
+			if(! (data instanceof ObjectNode)) {
+				validateNull(data, "an object");
+				return;
+			}
+			
+			for(int i = 0; i < fields.length; i++) {
+				String name = names[i];
+				fields[i].validate((name == null) ? data : data.get(name));
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validateValues(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validateValues(
+			final JsonNode data)
+			throws ConcordiaException {
+			
+			if(! (data instanceof ObjectNode)) {
+				return;
+			}
+			
+			for(int i : valueFields) {
+				String name = names[i];
+				fields[i]
+					.validateValues((name == null) ? data : data.get(name));
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#hasValueChecks()
+		 */
+		@Override
+		public boolean hasValueChecks() {
+			return valueFields.length > 0;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#defers()
+		 */
+		@Override
+		public boolean defers() {
+			return anyDefers(fields);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A step for an array, which either validates every element with the
+	 * same step or validates each element with its own step.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class ArrayStep extends Step {
+		/**
+		 * The step for every element or null if each element has its own
+		 * step.
+		 */
+		private final Step constType;
+		/**
+		 * The steps for each element or null if every element has the same
+		 * step.
+		 */
+		private final Step[] constLength;
+		/**
+		 * The indices of the steps in {@link #constLength} that check values
+		 * or null if every element has the same step.
+		 */
+		private final int[] valueElements;
+		
+		/**
+		 * Creates a step for an array.
+		 * 
+		 * @param optional
+		 *        Whether or not the data may be missing or null.
+		 * 
+		 * @param constType
+		 *        The step for every element or null if each element has its
+		 *        own step.
+		 * 
+		 * @param constLength
+		 *        The steps for each element or null if every element has the
+		 *        same step.
+		 */
+		private ArrayStep(
+			final boolean optional,
+			final Step constType,
+			final Step[] constLength) {
+			
+			super(optional);
+			
+			this.constType = constType;
+			this.constLength = constLength;
+			valueElements =
+				(constLength == null) ? null : getValueSteps(constLength);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validate(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validate(final JsonNode data) throws ConcordiaException {
+			if(! (data instanceof ArrayNode)) {
+				validateNull(data, "an array");
+				return;
+			}
+			
+			if(constType != null) {
+				for(JsonNode element : data) {
+					constType.validate(element);
+				}
+			}
+			else {
+				if(constLength.length != data.size()) {
+					throw
+						new ConcordiaException(
+							"The schemas array and the data array are " +
+								"different lengths.");
+				}
+				for(int i = 0; i < constLength.length; i++) {
+					constLength[i].validate(data.get(i));
+				}
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validateValues(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validateValues(
+			final JsonNode data)
+			throws ConcordiaException {
+			
+			if(! (data instanceof ArrayNode)) {
+				return;
+			}
+			
+			if(constType != null) {
+				if(constType.hasValueChecks()) {
+					for(JsonNode element : data) {
+						constType.validateValues(element);
+					}
+				}
+			}
+			else {
+				for(int i : valueElements) {
+					constLength[i].validateValues(data.get(i));
+				}
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#hasValueChecks()
+		 */
+		@Override
+		public boolean hasValueChecks() {
+			if(constType != null) {
+				return constType.hasValueChecks();
+			}
+			return valueElements.length > 0;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#defers()
+		 */
+		@Override
+		public boolean defers() {
+			if(constType != null) {
+				return constType.defers();
+			}
+			return anyDefers(constLength);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A step that defers to the validation controller.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class ControllerStep extends Step {
+		/**
+		 * The schema for the data.
+		 */
+		private final Schema schema;
+		/**
+		 * The controller that validates the data.
+		 */
+		private final ValidationController controller;
+		
+		/**
+		 * Creates a step that defers to the validation controller.
+		 * 
+		 * @param schema
+		 *        The schema for the data.
+		 * 
+		 * @param controller
+		 *        The controller that validates the data.
+		 */
+		private ControllerStep(
+			final Schema schema,
+			final ValidationController controller) {
+			
+			super(schema.isOptional());
+			
+			this.schema = schema;
+			this.controller = controller;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validate(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validate(final JsonNode data) throws ConcordiaException {
+			controller.validate(schema, data);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#validateValues(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		public void validateValues(
+			final JsonNode data)
+			throws ConcordiaException {
+			
+			validate(data);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#hasValueChecks()
+		 */
+		@Override
+		public boolean hasValueChecks() {
+			return true;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.ValidationPlan.Step#defers()
+		 */
+		@Override
+		public boolean defers() {
+			return true;
+		}
+	}
+	
+	/**
+	 * The step for the root of the schema.
+	 */
+	private final Step root;
+	/**
+	 * The shapes of the data that this plan has accepted or null if the plan
+	 * defers to the controller.
+	 */
+	private final ShapeCache shapeCache;
+	
+	/**
+	 * Creates a plan from its root step.
+	 * 
+	 * @param name
+	 *        The name of the schema, for logging.
+	 * 
+	 * @param root
+	 *        The step for the root of the schema.
+	 */
+	private ValidationPlan(final String name, final Step root) {
+		this.root = root;
+		
+		shapeCache =
+			(root.defers()) ?
+				null :
+				new ShapeCache(name, ShapeCache.DEFAULT_MAX_SHAPES);
+	}
+	
+	/**
+	 * Compiles a schema into a plan.
+	 * 
+	 * @param name
+	 *        The name of the schema, for logging.
+	 * 
+	 * @param concordia
+	 *        The schema.
+	 * 
+	 * @param controller
+	 *        The controller with which the schema was built, which may be
+	 *        null if the basic controller was used.
+	 * 
+	 * @return The plan for the schema.
+	 */
+	public static ValidationPlan compile(
+		final String name,
+		final Concordia concordia,
+		final ValidationController controller) {
+		
+		Schema schema = concordia.getSchema();
+		
+		// Only the validators of the known controllers can be compiled. A
+		// missing controller means that the basic one was used.
+		if(controller == OmhValidationController.VALIDATION_CONTROLLER) {
+			return new ValidationPlan(name, compile(schema, controller, true));
+		}
+		else if(
+			(controller == null) ||
+			(controller == ValidationController.BASIC_CONTROLLER)) {
+			
+			return
+				new ValidationPlan(
+					name,
+					compile(
+						schema,
+						ValidationController.BASIC_CONTROLLER,
+						false));
+		}
+		else {
+			return
+				new ValidationPlan(
+					name,
+					new ControllerStep(schema, controller));
+		}
+	}
+	
+	/**
+	 * Validates some data.
+	 * 
+	 * @param data
+	 *        The data to validate.
+	 * 
+	 * @throws ConcordiaException
+	 *         The data is invalid.
+	 */
+	public void validate(final JsonNode data) throws ConcordiaException {
+		if(shapeCache == null) {
+			root.validate(data);
+			return;
+		}
+		
+		// If data of the same shape has already been accepted, only the
+		// values need to be checked.
+		String shape = ShapeCache.getShape(data);
+		if(shapeCache.contains(shape)) {
+			root.validateValues(data);
+			return;
+		}
+		
+		// Otherwise, validate everything and remember the shape only if it
+		// was accepted.
+		root.validate(data);
+		shapeCache.add(shape);
+	}
+	
+	/**
+	 * Returns the shapes of the data that this plan has accepted.
+	 * 
+	 * @return The shapes of the data that this plan has accepted or null if
+	 *         the plan defers to the controller and does not keep them.
+	 */
+	public ShapeCache getShapeCache() {
+		return shapeCache;
+	}
+	
+	/**
+	 * Compiles a part of a schema into a step. As with the controller, the
+	 * schema's exact class determines how it is validated.
+	 * 
+	 * @param schema
+	 *        The part of the schema.
+	 * 
+	 * @param controller
+	 *        The controller to which any part of the schema that cannot be
+	 *        compiled is deferred.
+	 * 
+	 * @param enums
+	 *        Whether or not the controller includes the
+	 *        {@link EnumValidator}.
+	 * 
+	 * @return The step for the part of the schema.
+	 */
+	private static Step compile(
+		final Schema schema,
+		final ValidationController controller,
+		final boolean enums) {
+		
+		Class<?> schemaClass = schema.getClass();
+		boolean optional = schema.isOptional();
+		
+		if(schemaClass == StringSchema.class) {
+			return
+				new ValueStep(
+					optional,
+					TextNode.class,
+					"a string",
+					(enums) ?
+						EnumValidator
+							.getAllowedValues((StringSchema) schema) :
+						null);
+		}
+		else if(schemaClass == NumberSchema.class) {
+			return new ValueStep(optional, NumericNode.class, "a number", null);
+		}
+		else if(schemaClass == BooleanSchema.class) {
+			return
+				new ValueStep(optional, BooleanNode.class, "a boolean", null);
+		}
+		else if(schemaClass == ObjectSchema.class) {
+			List<Schema> fieldSchemas = ((ObjectSchema) schema).getFields();
+			String[] names = new String[fieldSchemas.size()];
+			Step[] fields = new Step[fieldSchemas.size()];
+			for(int i = 0; i < fields.length; i++) {
+				Schema fieldSchema = fieldSchemas.get(i);
+				names[i] = fieldSchema.getName();
+				fields[i] = compile(fieldSchema, controller, enums);
+			}
+			return new ObjectStep(optional, names, fields);
+		}
+		else if(schemaClass == ArraySchema.class) {
+			ArraySchema arraySchema = (ArraySchema) schema;
+			if(arraySchema.getConstType() != null) {
+				return
+					new ArrayStep(
+						optional,
+						compile(arraySchema.getConstType(), controller, enums),
+						null);
+			}
+			
+			List<Schema> elementSchemas = arraySchema.getConstLength();
+			Step[] elements = new Step[elementSchemas.size()];
+			for(int i = 0; i < elements.length; i++) {
+				elements[i] =
+					compile(elementSchemas.get(i), controller, enums);
+			}
+			return new ArrayStep(optional, null, elements);
+		}
+		else {
+			return new ControllerStep(schema, controller);
+		}
+	}
+	
+	/**
+	 * Returns the indices of the steps that check values.
+	 * 
+	 * @param steps
+	 *        The steps.
+	 * 
+	 * @return The indices of the steps that check values.
+	 */
+	private static int[] getValueSteps(final Step[] steps) {
+		int count = 0;
+		for(Step step : steps) {
+			if(step.hasValueChecks()) {
+				count++;
+			}
+		}
+		
+		int[] result = new int[count];
+		int index = 0;
+		for(int i = 0; i < steps.length; i++) {
+			if(steps[i].hasValueChecks()) {
+				result[index++] = i;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns whether or not any of the steps defers to the controller.
+	 * 
+	 * @param steps
+	 *        The steps.
+	 * 
+	 * @return Whether or not any of the steps defers to the controller.
+	 */
+	private static boolean anyDefers(final Step[] steps) {
+		for(Step step : steps) {
+			if(step.defers()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,5 +1,9 @@
 package org.openmhealth.reference.data;
 
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationCodeResponse;
 import org.openmhealth.reference.exception.OmhException;
@@ -68,4 +72,93 @@ public abstract class AuthorizationCodeResponseBin {
 	public abstract AuthorizationCodeResponse getResponse(
 		final String code)
 		throws OmhException;
+	
+	/**
+	 * Retrieves the users who granted a third-party access to a scope and
+	 * whose access is still valid. Only the responses that were made at or
+	 * before a point in time are considered, so a set of users that was found
+	 * at that point can be found again later even if more users have granted
+	 * access since. Of those, only the users whose authorization codes have
+	 * been exchanged for a token that has not expired by another point in
+	 * time are returned, so users whose access has lapsed are left out.
+	 * 
+	 * @param thirdPartyId
+	 *        The unique identifier for the third-party.
+	 * 
+	 * @param scope
+	 *        The scope, which is a schema's ID.
+	 * 
+	 * @param grantedBefore
+	 *        The latest time of the responses to consider in milliseconds
+	 *        since the epoch, inclusive.
+	 * 
+	 * @param validAt
+	 *        The time at which the users' tokens must not have expired in
+	 *        milliseconds since the epoch.
+	 * 
+	 * @return The usernames of the users who granted access.
+	 * 
+	 * @throws OmhException
+	 *         A parameter is null or the responses or tokens could not be
+	 *         read.
+	 * 
+	 * @see #getGrantedCodes(String, String, long)
+	 * @see AuthorizationTokenBin#getLatestExpirationTimes(String)
+	 */
+	public Set<String> getGrantedOwners(
+		final String thirdPartyId,
+		final String scope,
+		final long grantedBefore,
+		final long validAt)
+		throws OmhException {
+		
+		// Get the granted codes and when their latest tokens expire.
+		Map<String, String> grantedCodes =
+			getGrantedCodes(thirdPartyId, scope, grantedBefore);
+		Map<String, Long> expirationTimes =
+			AuthorizationTokenBin
+				.getInstance()
+				.getLatestExpirationTimes(thirdPartyId);
+		
+		// Keep the owners of the codes whose tokens are still valid. A code
+		// that was never exchanged for a token has no expiration time.
+		Set<String> result = new HashSet<String>();
+		for(Map.Entry<String, String> grantedCode : grantedCodes.entrySet()) {
+			Long expirationTime = expirationTimes.get(grantedCode.getKey());
+			if((expirationTime != null) && (expirationTime > validAt)) {
+				result.add(grantedCode.getValue());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Retrieves the authorization codes for which users granted a
+	 * third-party access to a scope. Only the responses that were made at or
+	 * before a point in time are considered. Responses that were stored
+	 * before their times were recorded are considered to have been made when
+	 * their authorization codes expired, which is the latest they could have
+	 * been made.
+	 * 
+	 * @param thirdPartyId
+	 *        The unique identifier for the third-party.
+	 * 
+	 * @param scope
+	 *        The scope, which is a schema's ID.
+	 * 
+	 * @param grantedBefore
+	 *        The latest time of the responses to consider in milliseconds
+	 *        since the epoch, inclusive.
+	 * 
+	 * @return The granted authorization codes mapped to the usernames of the
+	 *         users who granted them.
+	 * 
+	 * @throws OmhException
+	 *         A parameter is null or the responses could not be read.
+	 */
+	public abstract Map<String, String> getGrantedCodes(
+		final String thirdPartyId,
+		final String scope,
+		final long grantedBefore)
+		throws OmhException;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package org.openmhealth.reference.data;
 
+import java.util.Map;
+
 import org.openmhealth.reference.domain.AuthorizationToken;
 import org.openmhealth.reference.exception.OmhException;
 
@@ -84,4 +86,24 @@ public abstract class AuthorizationTokenBin {
 	public abstract AuthorizationToken getTokenFromRefreshToken(
 		final String refreshToken)
 		throws OmhException;
+	
+	/**
+	 * Retrieves, for each of a third-party's authorization codes that has
+	 * been exchanged for a token, the expiration time of the latest token.
+	 * Refreshing a token creates a new token for the same code, so the latest
+	 * one determines how long the code's access lasts.
+	 * 
+	 * @param thirdPartyId
+	 *        The unique identifier for the third-party.
+	 * 
+	 * @return The authorization codes mapped to the latest expiration times
+	 *         of their tokens in milliseconds since the epoch. Codes that
+	 *         have no tokens are not included.
+	 * 
+	 * @throws OmhException
+	 *         The third-party ID is null or the tokens could not be read.
+	 */
+	public abstract Map<String, Long> getLatestExpirationTimes(
+		final String thirdPartyId)
+		throws OmhException;
 }
\ No newline at end of file
@@ -15,11 +15,23 @@
  ******************************************************************************/
 package org.openmhealth.reference.data;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.CursorMultiValueResult;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataCursor;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MetaData;
 import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialStoreException;
 
 /**
  * <p>
@@ -29,6 +41,64 @@ import org.openmhealth.reference.domain.MultiValueResult;
  * @author John Jenkins
  */
 public abstract class DataSet {
+	/**
+	 * <p>
+	 * Receives a page of data, one point at a time, as it is read.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface DataHandler {
+		/**
+		 * Called once the page has been counted and positioned but before any
+		 * of its points are read.
+		 * 
+		 * @param count
+		 *        The total number of points before paging or -1 if they were
+		 *        not counted.
+		 * 
+		 * @param nextCursor
+		 *        The position after the last point on the page or null if
+		 *        there is no more data.
+		 * 
+		 * @throws IOException
+		 *         The handler could not begin the page.
+		 */
+		public void begin(
+			final int count,
+			final DataCursor nextCursor)
+			throws IOException;
+		
+		/**
+		 * Called for each point on the page, in order.
+		 * 
+		 * @param point
+		 *        The point.
+		 * 
+		 * @throws IOException
+		 *         The handler could not handle the point.
+		 */
+		public void handle(final Data point) throws IOException;
+	}
+	
+	/**
+	 * <p>
+	 * Receives the meta-data IDs of a stream, one at a time, as they are
+	 * read.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface MetaDataIdHandler {
+		/**
+		 * Called for each meta-data ID in the stream.
+		 * 
+		 * @param metaDataId
+		 *        The meta-data ID.
+		 */
+		public void handle(final String metaDataId);
+	}
+	
 	/**
 	 * The name of the DB document/table/whatever that contains the data.
 	 */
@@ -60,8 +130,13 @@ public abstract class DataSet {
 	 * 
 	 * @param data
 	 *        The data to store.
+	 * 
+	 * @throws PartialStoreException
+	 *         Some of the data may have been stored before the failure, so
+	 *         storing it again may duplicate those points.
 	 */
-	public abstract void storeData(final List<Data> data);
+	public abstract void storeData(final List<Data> data)
+		throws PartialStoreException;
 
 	/**
 	 * Retrieves some data based on the parameters. Some parameters are
@@ -85,20 +160,353 @@ public abstract class DataSet {
 	 *        both meta-data and data columns. This is optional, and null
 	 *        indicates that all data should be returned.
 	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the points to return, inclusive. This
+	 *        is optional, and null indicates that there is no lower bound.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the points to return, inclusive. This is
+	 *        optional, and null indicates that there is no upper bound.
+	 * 
+	 * @param cursor
+	 *        The position after which to begin returning data. This is
+	 *        optional, and null indicates that the data should begin with the
+	 *        most recent point. If given, the number to skip must be zero.
+	 * 
+	 * @param numToSkip
+	 *        The number of data points to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @param includeCount
+	 *        Whether or not to count all of the applicable data. Unless either
+	 *        date is given, this comes from the {@link StreamStatisticsBin}
+	 *        and does not require scanning the data.
+	 * 
+	 * @return A {@link CursorMultiValueResult} that references all of the
+	 *         applicable data, ordered as described by {@link DataCursor}, and
+	 *         the position after the last point if there is more data. If
+	 *         either date is given, points without a timestamp are excluded.
+	 *         If the data was not counted, its count is -1.
+	 */
+	public abstract CursorMultiValueResult<Data> getData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final boolean includeCount);
+	
+	/**
+	 * Reads the same page of data as
+	 * {@link #getData(String, String, long, ColumnList, DateTime, DateTime, DataCursor, long, long, boolean)}
+	 * but passes each point to a handler as it is read instead of keeping the
+	 * whole page in memory. The handler is {@link DataHandler#begin(int,
+	 * DataCursor) told} the count and where the next page begins before any
+	 * points are read. The page then ends at that point rather than after a
+	 * number of points, so points that are stored while the page is being
+	 * read may lengthen it but are never skipped or repeated by the next
+	 * page.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 * 
+	 * @param columnList
+	 *        The list of columns within the data to return.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the points to return, inclusive, or
+	 *        null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the points to return, inclusive, or null.
+	 * 
+	 * @param cursor
+	 *        The position after which to begin returning data or null.
+	 * 
 	 * @param numToSkip
 	 *        The number of data points to skip.
 	 * 
 	 * @param numToReturn
 	 *        The number of data points to return.
 	 * 
-	 * @return A {@link MultiValueResult} that references all of the applicable
-	 *         data.
+	 * @param includeCount
+	 *        Whether or not to count all of the applicable data.
+	 * 
+	 * @param handler
+	 *        The handler that receives the data.
+	 * 
+	 * @throws OmhException
+	 *         The data could not be read or the handler failed.
+	 */
+	public abstract void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final boolean includeCount,
+		final DataHandler handler)
+		throws OmhException;
+	
+	/**
+	 * Returns the snapshot point of the data that has been stored so far.
+	 * Every point that is part of the snapshot is already visible when it is
+	 * taken, and the points that become visible later are never part of it,
+	 * regardless of the order in which concurrent stores finish.
+	 * 
+	 * @return The snapshot point or null if no data has been stored.
+	 * 
+	 * @throws OmhException
+	 *         The snapshot point could not be read.
+	 */
+	public abstract String getSnapshot() throws OmhException;
+	
+	/**
+	 * Retrieves a page of the data in a stream that is part of a
+	 * {@link #getSnapshot() snapshot}. The data is ordered the same way as
+	 * {@link #getData(String, String, long, ColumnList, DateTime, DateTime,
+	 * DataCursor, long, long, boolean)}, so the same cursors apply, but
+	 * storing more data never changes the pages.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 * 
+	 * @param columnList
+	 *        The list of columns within the data to return.
+	 * 
+	 * @param snapshot
+	 *        The snapshot point.
+	 * 
+	 * @param cursor
+	 *        The position after which to begin returning data or null.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @return The page of data, which is not counted.
+	 * 
+	 * @throws OmhException
+	 *         The snapshot point or cursor is invalid or the data could not
+	 *         be read.
+	 */
+	public abstract CursorMultiValueResult<Data> getSnapshotData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final String snapshot,
+		final DataCursor cursor,
+		final long numToReturn)
+		throws OmhException;
+	
+	/**
+	 * Summarizes a stream by periods of time, e.g. hours. The periods are
+	 * aligned to the local time of a time zone and are returned with the most
+	 * recent first. Only periods that contain points are returned. The
+	 * summaries are computed by the database, so the points themselves are
+	 * never read.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 * 
+	 * @param columnList
+	 *        The fields of the data to summarize. Only the points in which a
+	 *        field is a number are included in its summary. If this is empty,
+	 *        only the points are counted.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the points to summarize, inclusive, or
+	 *        null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the points to summarize, inclusive, or
+	 *        null.
+	 * 
+	 * @param period
+	 *        The length of time that each summary covers.
+	 * 
+	 * @param timeZone
+	 *        The time zone to whose local time the periods are aligned.
+	 * 
+	 * @param numToSkip
+	 *        The number of periods to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of periods to return.
+	 * 
+	 * @return The summaries, whose count is the total number of periods that
+	 *         contain points.
+	 * 
+	 * @throws OmhException
+	 *         The data could not be summarized.
 	 */
-	public abstract MultiValueResult<Data> getData(
+	public abstract MultiValueResult<DataSummary> summarizeData(
 		final String owner,
 		final String schemaId,
 		final long version,
 		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period period,
+		final DateTimeZone timeZone,
 		final long numToSkip,
-		final long numToReturn);
-}
\ No newline at end of file
+		final long numToReturn)
+		throws OmhException;
+	
+	/**
+	 * Reads the meta-data ID of every point in a stream and passes each to a
+	 * handler as it is read, so the IDs are never all held in memory at once.
+	 * Points without a meta-data ID are ignored.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param handler
+	 *        The handler that receives the meta-data IDs.
+	 * 
+	 * @throws OmhException
+	 *         The meta-data IDs could not be read.
+	 */
+	public abstract void streamMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final MetaDataIdHandler handler)
+		throws OmhException;
+	
+	/**
+	 * Determines which of the given meta-data IDs are already used by points
+	 * in a stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param metaDataIds
+	 *        The meta-data IDs to check.
+	 * 
+	 * @return The subset of the given meta-data IDs that are already used.
+	 */
+	public abstract Set<String> getExistingMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final Collection<String> metaDataIds);
+	
+	/**
+	 * Builds a page of data from the points that were read for it. One more
+	 * point than the page holds should be read, if it exists, to determine if
+	 * there is more data.
+	 * 
+	 * @param points
+	 *        The points that were read, in order.
+	 * 
+	 * @param ids
+	 *        The database IDs of the points, indexed the same as the points.
+	 * 
+	 * @param count
+	 *        The total number of points before paging.
+	 * 
+	 * @param numToReturn
+	 *        The number of points the page holds.
+	 * 
+	 * @return The page, which has a cursor if there is more data.
+	 */
+	protected static CursorMultiValueResult<Data> buildPage(
+		final List<Data> points,
+		final List<String> ids,
+		final int count,
+		final long numToReturn) {
+		
+		// If there is no more data, there is no cursor.
+		if(points.size() <= numToReturn) {
+			return new CursorMultiValueResult<Data>(points, count, null);
+		}
+		
+		// Otherwise, drop the extra point and position the cursor at the
+		// last point on the page.
+		int size = (int) numToReturn;
+		List<Data> page = new ArrayList<Data>(points.subList(0, size));
+		DataCursor nextCursor = null;
+		if(size > 0) {
+			MetaData metaData = page.get(size - 1).getMetaData();
+			DateTime timestamp =
+				(metaData == null) ? null : metaData.getTimestamp();
+			nextCursor =
+				new DataCursor(
+					(timestamp == null) ? null : timestamp.getMillis(),
+					ids.get(size - 1));
+		}
+		return new CursorMultiValueResult<Data>(page, count, nextCursor);
+	}
+	
+	/**
+	 * Begins a page for a handler.
+	 * 
+	 * @param handler
+	 *        The handler.
+	 * 
+	 * @param count
+	 *        The total number of points before paging or -1 if they were not
+	 *        counted.
+	 * 
+	 * @param nextCursor
+	 *        The position after the last point on the page or null if there is
+	 *        no more data.
+	 * 
+	 * @throws OmhException
+	 *         The handler could not begin the page.
+	 */
+	protected static void begin(
+		final DataHandler handler,
+		final int count,
+		final DataCursor nextCursor)
+		throws OmhException {
+		
+		try {
+			handler.begin(count, nextCursor);
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be written.", e);
+		}
+	}
+}
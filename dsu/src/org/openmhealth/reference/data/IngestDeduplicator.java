@@ -0,0 +1,561 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.BloomFilter;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Removes points from an upload that have already been stored, which
+ * happens when a device retries an upload that actually succeeded.
+ * </p>
+ * 
+ * <p>
+ * A point is identified by its meta-data ID. If a point has no meta-data ID,
+ * one is generated from a hash of its time stamp and data and is stored with
+ * the point, so that a retry of the same point generates the same ID.
+ * </p>
+ * 
+ * <p>
+ * For each stream, i.e. each owner, schema ID, and schema version, a
+ * {@link BloomFilter} of the stream's meta-data IDs is kept. A point whose ID
+ * is definitely not in the filter is new and requires no database access.
+ * Only the points whose IDs might be in the filter are checked against the
+ * {@link DataSet}, and all of those for a single upload are checked at once.
+ * </p>
+ * 
+ * <p>
+ * If the {@link IngestJournal} is enabled, a point may have been accepted
+ * but not yet stored. Such points are added to the filters when they are
+ * built and are checked against the journal before the {@link DataSet}. The
+ * journal is checked first, because a point only leaves it once it has been
+ * stored, so a point that is in neither was never accepted.
+ * </p>
+ * 
+ * <p>
+ * The filters are built lazily from the {@link DataSet} the first time a
+ * stream is uploaded to, which includes the first upload after a restart.
+ * If a filter has more IDs than it was sized for, it is discarded and will
+ * be rebuilt when it is next needed. The least-recently used filters are
+ * also discarded once there are more than {@link #PROPERTY_KEY_MAX_STREAMS}
+ * of them or they have more than {@link #PROPERTY_KEY_MAX_BITS} bits in
+ * total, which bounds the memory they use. The most recently used filter is
+ * always kept, even if it alone has more bits than that.
+ * </p>
+ * 
+ * <p>
+ * Two concurrent uploads of the same point may both be stored.
+ * </p>
+ * 
+ * <p>
+ * There is only ever one instance of this class, which is only created if
+ * the {@link #PROPERTY_KEY_ENABLED} property is "true". Otherwise,
+ * {@link #getInstance()} returns null.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class IngestDeduplicator {
+	/**
+	 * The property key for whether or not deduplication is enabled.
+	 */
+	public static final String PROPERTY_KEY_ENABLED = "dedup.enabled";
+	/**
+	 * The property key for the maximum number of streams whose filters are
+	 * kept in memory.
+	 */
+	public static final String PROPERTY_KEY_MAX_STREAMS = "dedup.maxStreams";
+	/**
+	 * The property key for the maximum total number of bits of the filters
+	 * that are kept in memory.
+	 */
+	public static final String PROPERTY_KEY_MAX_BITS = "dedup.maxBits";
+	/**
+	 * The property key for the minimum number of IDs a filter is sized for.
+	 */
+	public static final String PROPERTY_KEY_MIN_CAPACITY =
+		"dedup.minCapacity";
+	/**
+	 * The property key for the false-positive rate of the filters.
+	 */
+	public static final String PROPERTY_KEY_FALSE_POSITIVE_RATE =
+		"dedup.falsePositiveRate";
+	
+	/**
+	 * The default maximum number of streams whose filters are kept.
+	 */
+	public static final int DEFAULT_MAX_STREAMS = 10000;
+	/**
+	 * The default maximum total number of bits of the filters that are kept,
+	 * which is 128 MiB.
+	 */
+	public static final long DEFAULT_MAX_BITS = 1L << 30;
+	/**
+	 * The default minimum number of IDs a filter is sized for.
+	 */
+	public static final int DEFAULT_MIN_CAPACITY = 1024;
+	/**
+	 * The default false-positive rate of the filters.
+	 */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+	
+	/**
+	 * The character set used to hash the points.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The object mapper used to serialize the points' data for hashing.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	
+	/**
+	 * The filters for the streams, in least-recently used order. This must
+	 * be synchronized on.
+	 */
+	private final Map<String, BloomFilter> filters =
+		new LinkedHashMap<String, BloomFilter>(16, 0.75f, true);
+	/**
+	 * The total number of bits of the {@link #filters}. This must only be
+	 * used while synchronized on the filters.
+	 */
+	private long totalBits = 0;
+	/**
+	 * The maximum number of streams whose filters are kept.
+	 */
+	private final int maxStreams;
+	/**
+	 * The maximum total number of bits of the filters that are kept.
+	 */
+	private final long maxBits;
+	/**
+	 * The minimum number of IDs a filter is sized for.
+	 */
+	private final int minCapacity;
+	/**
+	 * The false-positive rate of the filters.
+	 */
+	private final double falsePositiveRate;
+	
+	/**
+	 * The singular instance of this class.
+	 */
+	private static IngestDeduplicator instance = null;
+	
+	/**
+	 * Creates the deduplicator.
+	 * 
+	 * @param properties
+	 *        The properties that configure the deduplicator.
+	 * 
+	 * @throws OmhException
+	 *         A property is invalid.
+	 */
+	public IngestDeduplicator(
+		final Properties properties)
+		throws OmhException {
+		
+		// Read the configuration.
+		try {
+			maxStreams =
+				Integer
+					.decode(
+						properties
+							.getProperty(
+								PROPERTY_KEY_MAX_STREAMS,
+								Integer.toString(DEFAULT_MAX_STREAMS)));
+			maxBits =
+				Long
+					.decode(
+						properties
+							.getProperty(
+								PROPERTY_KEY_MAX_BITS,
+								Long.toString(DEFAULT_MAX_BITS)));
+			minCapacity =
+				Integer
+					.decode(
+						properties
+							.getProperty(
+								PROPERTY_KEY_MIN_CAPACITY,
+								Integer.toString(DEFAULT_MIN_CAPACITY)));
+			falsePositiveRate =
+				Double
+					.parseDouble(
+						properties
+							.getProperty(
+								PROPERTY_KEY_FALSE_POSITIVE_RATE,
+								Double.toString(DEFAULT_FALSE_POSITIVE_RATE)));
+		}
+		catch(NumberFormatException e) {
+			throw
+				new OmhException(
+					"A deduplication property is not a number.",
+					e);
+		}
+		if(maxStreams <= 0) {
+			throw
+				new OmhException(
+					"The maximum number of streams must be positive.");
+		}
+		if(maxBits <= 0) {
+			throw
+				new OmhException(
+					"The maximum number of bits must be positive.");
+		}
+		if(minCapacity <= 0) {
+			throw new OmhException("The minimum capacity must be positive.");
+		}
+		
+		// Save the instance.
+		instance = this;
+	}
+	
+	/**
+	 * Returns the singular instance of this class.
+	 * 
+	 * @return The singular instance of this class or null if deduplication
+	 *         is not enabled.
+	 */
+	public static IngestDeduplicator getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns whether or not deduplication is enabled by the given
+	 * properties.
+	 * 
+	 * @param properties
+	 *        The properties to check.
+	 * 
+	 * @return Whether or not deduplication is enabled.
+	 */
+	public static boolean isEnabled(final Properties properties) {
+		return
+			Boolean
+				.parseBoolean(
+					properties.getProperty(PROPERTY_KEY_ENABLED, "false"));
+	}
+	
+	/**
+	 * Removes the points that have already been stored or that appear more
+	 * than once in the given points. Any point without a meta-data ID is
+	 * given one based on its contents.
+	 * 
+	 * @param data
+	 *        The validated points.
+	 * 
+	 * @return The points that should be stored, in their original order.
+	 * 
+	 * @throws OmhException
+	 *         The points could not be checked.
+	 */
+	public List<Data> deduplicate(final List<Data> data) throws OmhException {
+		// Validate the input.
+		if(data == null) {
+			throw new OmhException("The data is null.");
+		}
+		
+		// Make sure every point has an ID and group the points by stream.
+		List<Data> identified = new ArrayList<Data>(data.size());
+		Map<String, List<Integer>> streams =
+			new LinkedHashMap<String, List<Integer>>();
+		for(int i = 0; i < data.size(); i++) {
+			Data point = identify(data.get(i));
+			identified.add(point);
+			
+			String streamKey =
+				getStreamKey(
+					point.getOwner(),
+					point.getSchemaId(),
+					point.getSchemaVersion());
+			List<Integer> indices = streams.get(streamKey);
+			if(indices == null) {
+				indices = new ArrayList<Integer>();
+				streams.put(streamKey, indices);
+			}
+			indices.add(i);
+		}
+		
+		// Check each stream.
+		boolean[] duplicates = new boolean[identified.size()];
+		for(List<Integer> indices : streams.values()) {
+			Data first = identified.get(indices.get(0));
+			String owner = first.getOwner();
+			String schemaId = first.getSchemaId();
+			long version = first.getSchemaVersion();
+			BloomFilter filter = getFilter(owner, schemaId, version);
+			
+			// Find the points that repeat an earlier point in this upload and
+			// the points that might already be stored.
+			Set<String> seen = new HashSet<String>();
+			Set<String> candidates = new HashSet<String>();
+			for(int index : indices) {
+				String id = identified.get(index).getMetaData().getId();
+				if(! seen.add(id)) {
+					duplicates[index] = true;
+				}
+				else if(filter.mightContain(id)) {
+					candidates.add(id);
+				}
+			}
+			
+			// Check the candidates against the journal and then against the
+			// store all at once.
+			Set<String> existing = new HashSet<String>();
+			IngestJournal journal = IngestJournal.getInstance();
+			if((candidates.size() > 0) && (journal != null)) {
+				existing
+					.addAll(
+						journal
+							.getPendingMetaDataIds(owner, schemaId, version));
+				existing.retainAll(candidates);
+				candidates.removeAll(existing);
+			}
+			if(candidates.size() > 0) {
+				existing
+					.addAll(
+						DataSet
+							.getInstance()
+							.getExistingMetaDataIds(
+								owner,
+								schemaId,
+								version,
+								candidates));
+			}
+			
+			// Drop the stored points and remember the new ones.
+			for(int index : indices) {
+				if(duplicates[index]) {
+					continue;
+				}
+				
+				String id = identified.get(index).getMetaData().getId();
+				if(existing.contains(id)) {
+					duplicates[index] = true;
+				}
+				else {
+					filter.put(id);
+				}
+			}
+			
+			// If the filter has become too full to be useful, discard it so
+			// that a larger one will be built the next time it is needed.
+			if(filter.isOverCapacity()) {
+				synchronized(filters) {
+					String streamKey = getStreamKey(owner, schemaId, version);
+					if(filters.get(streamKey) == filter) {
+						filters.remove(streamKey);
+						totalBits -= filter.getNumBits();
+					}
+				}
+			}
+		}
+		
+		// Build the result.
+		List<Data> result = new ArrayList<Data>(identified.size());
+		for(int i = 0; i < identified.size(); i++) {
+			if(! duplicates[i]) {
+				result.add(identified.get(i));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the filter for a stream, building it from the {@link DataSet}
+	 * if necessary.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The filter for the stream.
+	 */
+	private BloomFilter getFilter(
+		final String owner,
+		final String schemaId,
+		final long version) {
+		
+		// Check if the filter has already been built.
+		String streamKey = getStreamKey(owner, schemaId, version);
+		synchronized(filters) {
+			BloomFilter result = filters.get(streamKey);
+			if(result != null) {
+				return result;
+			}
+		}
+		
+		// Get the IDs of the points that are journaled but not yet stored.
+		// This is done before the stored IDs are read, so that a point that
+		// is stored in between is still found.
+		Set<String> pending = new HashSet<String>(0);
+		IngestJournal journal = IngestJournal.getInstance();
+		if(journal != null) {
+			pending = journal.getPendingMetaDataIds(owner, schemaId, version);
+		}
+		
+		// Size the filter from the stream's count, leaving room for the
+		// stream to grow, and build it from the IDs that are already stored
+		// as they are read. Points without an ID are counted, so the filter
+		// is never too small, unless data is stored while it is being built,
+		// in which case it will be discarded and rebuilt once it is full.
+		long count =
+			StreamStatisticsBin
+				.getInstance()
+				.getCount(owner, schemaId, version) +
+			pending.size();
+		final BloomFilter filter =
+			new BloomFilter(
+				Math.max(minCapacity, 2L * count),
+				falsePositiveRate);
+		for(String metaDataId : pending) {
+			filter.put(metaDataId);
+		}
+		DataSet
+			.getInstance()
+			.streamMetaDataIds(
+				owner,
+				schemaId,
+				version,
+				new DataSet.MetaDataIdHandler() {
+					/**
+					 * Adds the meta-data ID to the filter.
+					 */
+					@Override
+					public void handle(final String metaDataId) {
+						filter.put(metaDataId);
+					}
+				});
+		
+		// Save the filter unless another upload already built one, and
+		// discard the least-recently used filters that no longer fit.
+		synchronized(filters) {
+			BloomFilter result = filters.get(streamKey);
+			if(result == null) {
+				filters.put(streamKey, filter);
+				totalBits += filter.getNumBits();
+				result = filter;
+				
+				Iterator<BloomFilter> eldest = filters.values().iterator();
+				while(
+					(filters.size() > 1) &&
+					((filters.size() > maxStreams) || (totalBits > maxBits))) {
+					
+					totalBits -= eldest.next().getNumBits();
+					eldest.remove();
+				}
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Returns the given point if it has a meta-data ID or a copy of it with
+	 * a meta-data ID that is generated from its time stamp and data.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return A point with a meta-data ID.
+	 * 
+	 * @throws OmhException
+	 *         The point could not be hashed.
+	 */
+	private static Data identify(final Data point) throws OmhException {
+		// If the point already has an ID, use it.
+		MetaData metaData = point.getMetaData();
+		if((metaData != null) && (metaData.getId() != null)) {
+			return point;
+		}
+		
+		// Build the contents to hash.
+		StringBuilder contents = new StringBuilder();
+		if((metaData != null) && (metaData.getTimestamp() != null)) {
+			contents
+				.append(
+					ISOW3CDateTimeFormat
+						.dateTime()
+						.print(metaData.getTimestamp()));
+		}
+		contents.append('\n');
+		try {
+			contents.append(JSON_MAPPER.writeValueAsString(point.getData()));
+		}
+		catch(JsonProcessingException e) {
+			throw new OmhException("The data could not be hashed.", e);
+		}
+		
+		// Create the new point.
+		String id =
+			UUID
+				.nameUUIDFromBytes(contents.toString().getBytes(CHARSET))
+				.toString();
+		return
+			new Data(
+				point.getOwner(),
+				point.getSchemaId(),
+				point.getSchemaVersion(),
+				new MetaData(
+					id,
+					(metaData == null) ? null : metaData.getTimestamp()),
+				point.getData());
+	}
+	
+	/**
+	 * Builds the key for a stream's filter.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The key for the stream's filter.
+	 */
+	private static String getStreamKey(
+		final String owner,
+		final String schemaId,
+		final long version) {
+		
+		return owner + '\n' + schemaId + '\n' + version;
+	}
+}
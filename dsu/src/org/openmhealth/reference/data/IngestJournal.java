@@ -0,0 +1,1675 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialStoreException;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * A durable, write-behind journal for uploaded data. When it is enabled,
+ * validated data points are appended to a local, append-only journal and
+ * the upload is acknowledged as soon as the journal has been synchronized to
+ * disk. Background flushers then drain the journal into the {@link DataSet}
+ * in large batches.
+ * </p>
+ * 
+ * <p>
+ * Appends are group-committed: every writer appends its points and then
+ * waits for a single {@link FileChannel#force(boolean)} that covers all of
+ * the points written up to that moment, so concurrent uploads share the cost
+ * of a sync.
+ * </p>
+ * 
+ * <p>
+ * Each user's points are assigned to a single flusher based on the user's
+ * username, and a flusher always stores its points in the order in which
+ * they were journaled, so the order of each user's points is preserved. If a
+ * flush fails, the flusher waits and retries the same batch. A batch that
+ * still cannot be stored after {@link #PROPERTY_KEY_MAX_RETRIES} retries, or
+ * that was only partially stored and so cannot safely be retried, is
+ * appended to a dead-letter file in the journal's directory and the flusher
+ * moves on.
+ * </p>
+ * 
+ * <p>
+ * Every point is given a sequence number. The lowest sequence number that
+ * has not yet been stored is periodically written to a checkpoint file, and
+ * journal segments that only contain points before the checkpoint are
+ * deleted. At startup, every point at or after the checkpoint is replayed.
+ * This means that a point that was stored but not yet covered by a
+ * checkpoint when the server stopped will be stored again.
+ * </p>
+ * 
+ * <p>
+ * If an append fails, whatever it wrote is truncated from the segment before
+ * another append is accepted, so a later entry can never be joined to a
+ * partially written one. If the segment cannot be truncated, a new segment
+ * is started instead. In that case, the complete entries that the failed
+ * append wrote to the old segment may still be stored.
+ * </p>
+ * 
+ * <p>
+ * There is only ever one instance of this class, which is only created if
+ * the {@link #PROPERTY_KEY_ENABLED} property is "true". Otherwise,
+ * {@link #getInstance()} returns null.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class IngestJournal {
+	/**
+	 * The property key for whether or not the journal is enabled.
+	 */
+	public static final String PROPERTY_KEY_ENABLED = "journal.enabled";
+	/**
+	 * The property key for the directory in which the journal is kept. This
+	 * is required when the journal is enabled.
+	 */
+	public static final String PROPERTY_KEY_DIRECTORY = "journal.directory";
+	/**
+	 * The property key for the number of flusher threads.
+	 */
+	public static final String PROPERTY_KEY_FLUSHERS = "journal.flushers";
+	/**
+	 * The property key for the maximum number of points stored at once by a
+	 * flusher.
+	 */
+	public static final String PROPERTY_KEY_BATCH_SIZE = "journal.batchSize";
+	/**
+	 * The property key for the maximum number of points that may be waiting
+	 * to be stored before new uploads are rejected.
+	 */
+	public static final String PROPERTY_KEY_MAX_PENDING =
+		"journal.maxPending";
+	/**
+	 * The property key for the size, in bytes, after which a new journal
+	 * segment is started.
+	 */
+	public static final String PROPERTY_KEY_SEGMENT_SIZE =
+		"journal.segmentSize";
+	/**
+	 * The property key for the number of milliseconds between checkpoints.
+	 */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL =
+		"journal.checkpointInterval";
+	/**
+	 * The property key for the number of milliseconds a flusher waits before
+	 * retrying a batch that could not be stored.
+	 */
+	public static final String PROPERTY_KEY_RETRY_INTERVAL =
+		"journal.retryInterval";
+	/**
+	 * The property key for the number of times a flusher retries a batch
+	 * before giving up on it and writing it to the dead-letter file.
+	 */
+	public static final String PROPERTY_KEY_MAX_RETRIES =
+		"journal.maxRetries";
+	
+	/**
+	 * The default number of flusher threads.
+	 */
+	public static final int DEFAULT_FLUSHERS = 4;
+	/**
+	 * The default maximum number of points stored at once by a flusher.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	/**
+	 * The default maximum number of points that may be waiting to be stored.
+	 */
+	public static final long DEFAULT_MAX_PENDING = 1000000;
+	/**
+	 * The default size, in bytes, after which a new segment is started.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	/**
+	 * The default number of milliseconds between checkpoints.
+	 */
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 1000;
+	/**
+	 * The default number of milliseconds to wait before retrying a batch.
+	 */
+	public static final long DEFAULT_RETRY_INTERVAL = 5000;
+	/**
+	 * The default number of times to retry a batch.
+	 */
+	public static final long DEFAULT_MAX_RETRIES = 10;
+	
+	/**
+	 * The prefix for the names of the journal segment files. The rest of the
+	 * name is the sequence number of the first point in the segment.
+	 */
+	private static final String SEGMENT_PREFIX = "journal-";
+	/**
+	 * The suffix for the names of the journal segment files.
+	 */
+	private static final String SEGMENT_SUFFIX = ".log";
+	/**
+	 * The name of the checkpoint file.
+	 */
+	private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+	/**
+	 * The name of the file to which batches that could not be stored are
+	 * appended. Its entries have the same format as the segments'.
+	 */
+	private static final String DEAD_LETTER_FILE_NAME = "dead-letter.log";
+	
+	/**
+	 * The JSON key for a journal entry's sequence number.
+	 */
+	private static final String JSON_KEY_SEQUENCE = "seq";
+	
+	/**
+	 * The character set used for the journal.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The JSON factory used to read and write journal entries.
+	 */
+	private static final MappingJsonFactory JSON_FACTORY =
+		new MappingJsonFactory(new ObjectMapper());
+	
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(IngestJournal.class.getName());
+	
+	/**
+	 * A single point that has been journaled but not yet stored.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class Entry {
+		/**
+		 * The sequence number of this point.
+		 */
+		private final long sequence;
+		/**
+		 * The time, in milliseconds since the epoch, at which this point was
+		 * journaled.
+		 */
+		private final long journaled;
+		/**
+		 * The point.
+		 */
+		private final Data data;
+		
+		/**
+		 * Creates a new entry.
+		 * 
+		 * @param sequence
+		 *        The sequence number of the point.
+		 * 
+		 * @param journaled
+		 *        The time at which the point was journaled.
+		 * 
+		 * @param data
+		 *        The point.
+		 */
+		private Entry(
+			final long sequence,
+			final long journaled,
+			final Data data) {
+			
+			this.sequence = sequence;
+			this.journaled = journaled;
+			this.data = data;
+		}
+	}
+	
+	/**
+	 * The points for a single flusher and the thread that stores them.
+	 * 
+	 * @author John Jenkins
+	 */
+	private class Partition implements Runnable {
+		/**
+		 * The points that have been journaled but not yet stored, in the
+		 * order in which they were journaled.
+		 */
+		private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+		/**
+		 * The meta-data IDs of the points in this partition, by stream, with
+		 * the number of points that have each ID.
+		 */
+		private final Map<String, Map<String, Integer>> metaDataIds =
+			new HashMap<String, Map<String, Integer>>();
+		
+		/**
+		 * Adds a point to this partition.
+		 * 
+		 * @param entry
+		 *        The point to add.
+		 */
+		private synchronized void add(final Entry entry) {
+			entries.addLast(entry);
+			
+			// Index its meta-data ID.
+			String metaDataId = getMetaDataId(entry.data);
+			if(metaDataId != null) {
+				String streamKey = getStreamKey(entry.data);
+				Map<String, Integer> streamIds = metaDataIds.get(streamKey);
+				if(streamIds == null) {
+					streamIds = new HashMap<String, Integer>();
+					metaDataIds.put(streamKey, streamIds);
+				}
+				Integer count = streamIds.get(metaDataId);
+				streamIds.put(metaDataId, (count == null) ? 1 : count + 1);
+			}
+			
+			notifyAll();
+		}
+		
+		/**
+		 * Returns the meta-data IDs of a stream's points in this partition.
+		 * 
+		 * @param streamKey
+		 *        The stream's key.
+		 * 
+		 * @return The meta-data IDs of the stream's points.
+		 */
+		private synchronized Set<String> getMetaDataIds(
+			final String streamKey) {
+			
+			Map<String, Integer> streamIds = metaDataIds.get(streamKey);
+			if(streamIds == null) {
+				return new HashSet<String>(0);
+			}
+			return new HashSet<String>(streamIds.keySet());
+		}
+		
+		/**
+		 * Returns the oldest point in this partition that has not yet been
+		 * stored.
+		 * 
+		 * @return The oldest point or null if there are none.
+		 */
+		private synchronized Entry oldest() {
+			return entries.peekFirst();
+		}
+		
+		/**
+		 * Wakes the flusher, which is done when the journal has been synced
+		 * or is being shut down.
+		 */
+		private synchronized void wake() {
+			notifyAll();
+		}
+		
+		/**
+		 * Waits for the next batch of synced points.
+		 * 
+		 * @return The next batch of points, which is empty only if the
+		 *         journal has been shut down and there is nothing left to
+		 *         store.
+		 * 
+		 * @throws InterruptedException
+		 *         The flusher was interrupted while waiting.
+		 */
+		private synchronized List<Entry> nextBatch()
+			throws InterruptedException {
+			
+			while(true) {
+				// Gather the synced points at the front of the queue.
+				List<Entry> result = new ArrayList<Entry>();
+				long synced = getSyncedSequence();
+				for(Entry entry : entries) {
+					if(
+						(entry.sequence > synced) ||
+						(result.size() >= batchSize)) {
+						
+						break;
+					}
+					result.add(entry);
+				}
+				
+				// If there was anything to store or there is nothing left to
+				// wait for, return.
+				if((result.size() > 0) || (closed && entries.isEmpty())) {
+					return result;
+				}
+				
+				// Otherwise, wait for more points or for them to be synced.
+				wait(checkpointInterval);
+			}
+		}
+		
+		/**
+		 * Removes the given number of points from the front of the queue
+		 * once they have been stored.
+		 * 
+		 * @param count
+		 *        The number of points to remove.
+		 */
+		private synchronized void remove(final int count) {
+			for(int i = 0; i < count; i++) {
+				Entry entry = entries.removeFirst();
+				
+				// Remove its meta-data ID from the index.
+				String metaDataId = getMetaDataId(entry.data);
+				if(metaDataId != null) {
+					String streamKey = getStreamKey(entry.data);
+					Map<String, Integer> streamIds =
+						metaDataIds.get(streamKey);
+					int remaining = streamIds.get(metaDataId) - 1;
+					if(remaining > 0) {
+						streamIds.put(metaDataId, remaining);
+					}
+					else {
+						streamIds.remove(metaDataId);
+						if(streamIds.isEmpty()) {
+							metaDataIds.remove(streamKey);
+						}
+					}
+				}
+			}
+			pending.addAndGet(-count);
+		}
+		
+		/**
+		 * Stores the points in this partition until the journal is shut down
+		 * and every point has been stored.
+		 */
+		@Override
+		public void run() {
+			try {
+				List<Entry> batch;
+				while((batch = nextBatch()).size() > 0) {
+					List<Data> data = new ArrayList<Data>(batch.size());
+					for(Entry entry : batch) {
+						data.add(entry.data);
+					}
+					
+					// Attempt to store the batch until it succeeds or it
+					// has been retried too many times.
+					int retries = 0;
+					while(true) {
+						List<Data> unstored;
+						try {
+							DataSet.getInstance().storeData(data);
+							break;
+						}
+						catch(PartialStoreException e) {
+							// Some of the batch may have been stored, so
+							// storing it again could duplicate those points.
+							LOGGER
+								.log(
+									Level.SEVERE,
+									"A journaled batch was only partially " +
+										"stored.",
+									e);
+							unstored = e.getUnstored();
+						}
+						catch(Exception e) {
+							if(retries++ < maxRetries) {
+								LOGGER
+									.log(
+										Level.WARNING,
+										"A journaled batch could not be " +
+											"stored and will be retried.",
+										e);
+								Thread.sleep(retryInterval);
+								continue;
+							}
+							
+							LOGGER
+								.log(
+									Level.SEVERE,
+									"A journaled batch could not be stored " +
+										"after " +
+										maxRetries +
+										" retries.",
+									e);
+							unstored = data;
+						}
+						
+						// Set aside whatever may not have been stored. Only
+						// writing it is retried, because storing it again may
+						// duplicate the points that were stored.
+						while(! deadLetter(batch, unstored)) {
+							Thread.sleep(retryInterval);
+						}
+						break;
+					}
+					
+					// Remove the stored points.
+					remove(batch.size());
+				}
+			}
+			catch(InterruptedException e) {
+				LOGGER
+					.log(
+						Level.WARNING,
+						"A journal flusher was interrupted. Its remaining " +
+							"points will be replayed on restart.");
+			}
+		}
+	}
+	
+	/**
+	 * The directory that contains the journal.
+	 */
+	private final File directory;
+	/**
+	 * The maximum number of points that may be stored at once.
+	 */
+	private final int batchSize;
+	/**
+	 * The maximum number of points that may be waiting to be stored.
+	 */
+	private final long maxPending;
+	/**
+	 * The size after which a new segment is started.
+	 */
+	private final long segmentSize;
+	/**
+	 * The number of milliseconds between checkpoints.
+	 */
+	private final long checkpointInterval;
+	/**
+	 * The number of milliseconds to wait before retrying a batch.
+	 */
+	private final long retryInterval;
+	/**
+	 * The number of times to retry a batch before dead-lettering it.
+	 */
+	private final long maxRetries;
+	
+	/**
+	 * The partitions, one for each flusher.
+	 */
+	private final Partition[] partitions;
+	/**
+	 * The flusher threads.
+	 */
+	private final Thread[] flushers;
+	/**
+	 * The thread that periodically writes the checkpoint.
+	 */
+	private final Thread checkpointer;
+	
+	/**
+	 * The lock that must be held while writing to the journal.
+	 */
+	private final Object writeLock = new Object();
+	/**
+	 * The channel for the current segment. This must only be used while
+	 * holding the {@link #writeLock}.
+	 */
+	private FileChannel segment;
+	/**
+	 * The number of bytes in the current segment.
+	 */
+	private long segmentBytes;
+	/**
+	 * Whether or not the current segment may end with bytes from a failed
+	 * append, which must be removed before anything else is written.
+	 */
+	private boolean torn = false;
+	/**
+	 * The sequence number that will be given to the next point.
+	 */
+	private long nextSequence;
+	
+	/**
+	 * The lock that must be held while checking or updating the sync state.
+	 */
+	private final Object syncLock = new Object();
+	/**
+	 * The highest sequence number that has been synced to disk.
+	 */
+	private long syncedSequence;
+	/**
+	 * Whether or not a writer is currently syncing the journal.
+	 */
+	private boolean syncing = false;
+	
+	/**
+	 * The lock that must be held while appending to the dead-letter file.
+	 */
+	private final Object deadLetterLock = new Object();
+	
+	/**
+	 * The number of points that have been journaled but not yet stored.
+	 */
+	private final AtomicLong pending = new AtomicLong(0);
+	/**
+	 * Whether or not the journal has been shut down.
+	 */
+	private volatile boolean closed = false;
+	
+	/**
+	 * The singular instance of this class.
+	 */
+	private static IngestJournal instance = null;
+	
+	/**
+	 * Creates the journal, replays any points that were not stored before
+	 * the last shutdown, and starts the flushers.
+	 * 
+	 * @param properties
+	 *        The properties that configure the journal.
+	 * 
+	 * @throws OmhException
+	 *         The journal could not be created or replayed.
+	 */
+	public IngestJournal(final Properties properties) throws OmhException {
+		// Read the configuration. The directory must be given explicitly so
+		// that the journal is never kept somewhere that may be cleaned out
+		// from under it, such as the temporary directory.
+		String directoryName = properties.getProperty(PROPERTY_KEY_DIRECTORY);
+		if((directoryName == null) || (directoryName.trim().length() == 0)) {
+			throw
+				new OmhException(
+					"The journal directory must be configured: " +
+						PROPERTY_KEY_DIRECTORY);
+		}
+		directory = new File(directoryName.trim());
+		int numFlushers =
+			(int) getLong(properties, PROPERTY_KEY_FLUSHERS, DEFAULT_FLUSHERS);
+		batchSize =
+			(int)
+				getLong(
+					properties,
+					PROPERTY_KEY_BATCH_SIZE,
+					DEFAULT_BATCH_SIZE);
+		maxPending =
+			getLong(properties, PROPERTY_KEY_MAX_PENDING, DEFAULT_MAX_PENDING);
+		segmentSize =
+			getLong(
+				properties,
+				PROPERTY_KEY_SEGMENT_SIZE,
+				DEFAULT_SEGMENT_SIZE);
+		checkpointInterval =
+			getLong(
+				properties,
+				PROPERTY_KEY_CHECKPOINT_INTERVAL,
+				DEFAULT_CHECKPOINT_INTERVAL);
+		retryInterval =
+			getLong(
+				properties,
+				PROPERTY_KEY_RETRY_INTERVAL,
+				DEFAULT_RETRY_INTERVAL);
+		maxRetries =
+			getLong(
+				properties,
+				PROPERTY_KEY_MAX_RETRIES,
+				DEFAULT_MAX_RETRIES);
+		
+		// Make sure the journal's directory exists.
+		if((! directory.isDirectory()) && (! directory.mkdirs())) {
+			throw
+				new OmhException(
+					"The journal directory could not be created: " +
+						directory.getAbsolutePath());
+		}
+		
+		// Create the partitions.
+		partitions = new Partition[numFlushers];
+		for(int i = 0; i < numFlushers; i++) {
+			partitions[i] = new Partition();
+		}
+		
+		// Replay everything after the last checkpoint.
+		long checkpoint = readCheckpoint();
+		nextSequence = checkpoint;
+		try {
+			for(File segmentFile : getSegments()) {
+				nextSequence =
+					Math.max(nextSequence, replay(segmentFile, checkpoint));
+			}
+		}
+		catch(IOException e) {
+			throw new OmhException("The journal could not be replayed.", e);
+		}
+		syncedSequence = nextSequence - 1;
+		if(pending.get() > 0) {
+			LOGGER
+				.log(
+					Level.INFO,
+					"Replaying " + pending.get() + " journaled points.");
+		}
+		
+		// Start a new segment for the new points.
+		try {
+			openSegment();
+		}
+		catch(IOException e) {
+			throw
+				new OmhException(
+					"The journal segment could not be created.",
+					e);
+		}
+		
+		// Start the flushers.
+		flushers = new Thread[numFlushers];
+		for(int i = 0; i < numFlushers; i++) {
+			flushers[i] =
+				new Thread(partitions[i], "omh-journal-flusher-" + i);
+			flushers[i].start();
+		}
+		
+		// Start the checkpointer.
+		checkpointer =
+			new Thread("omh-journal-checkpointer") {
+				/**
+				 * Periodically writes the checkpoint until the journal is shut
+				 * down.
+				 */
+				@Override
+				public void run() {
+					try {
+						while(! closed) {
+							Thread.sleep(checkpointInterval);
+							checkpoint();
+						}
+					}
+					catch(InterruptedException e) {
+						// Shutting down.
+					}
+				}
+			};
+		checkpointer.setDaemon(true);
+		checkpointer.start();
+		
+		// Save the instance.
+		instance = this;
+	}
+	
+	/**
+	 * Returns the singular instance of this class.
+	 * 
+	 * @return The singular instance of this class or null if the journal is
+	 *         not enabled.
+	 */
+	public static IngestJournal getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns whether or not the journal is enabled by the given properties.
+	 * 
+	 * @param properties
+	 *        The properties to check.
+	 * 
+	 * @return Whether or not the journal is enabled.
+	 */
+	public static boolean isEnabled(final Properties properties) {
+		return
+			Boolean
+				.parseBoolean(
+					properties.getProperty(PROPERTY_KEY_ENABLED, "false"));
+	}
+	
+	/**
+	 * Durably appends the given points to the journal. When this returns,
+	 * the points are on disk and will eventually be stored in the
+	 * {@link DataSet}.
+	 * 
+	 * @param data
+	 *        The points to append.
+	 * 
+	 * @throws OmhException
+	 *         The journal is full or shut down, or the points could not be
+	 *         written.
+	 */
+	public void append(final List<Data> data) throws OmhException {
+		// Validate the input.
+		if(data == null) {
+			throw new OmhException("The data is null.");
+		}
+		if(data.size() == 0) {
+			return;
+		}
+		
+		// Make sure there is room for the data.
+		if(pending.get() + data.size() > maxPending) {
+			throw
+				new OmhException(
+					"The server is too busy to accept the data. Please " +
+						"try again later.");
+		}
+		
+		// Write the data.
+		long lastSequence;
+		synchronized(writeLock) {
+			if(closed) {
+				throw new OmhException("The journal has been shut down.");
+			}
+			
+			// Encode the points.
+			long firstSequence = nextSequence;
+			byte[] bytes = encode(data, firstSequence);
+			
+			// Reserve their sequence numbers. They are never reused, even if
+			// the write fails, so a partially written entry can never be
+			// confused with a later one.
+			nextSequence += data.size();
+			lastSequence = nextSequence - 1;
+			
+			// Write them. If this fails partway, the segment is repaired
+			// before anything else is written to it.
+			try {
+				if(torn) {
+					repairSegment();
+				}
+				torn = true;
+				if(segmentBytes >= segmentSize) {
+					rollSegment();
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while(buffer.hasRemaining()) {
+					segment.write(buffer);
+				}
+				segmentBytes += bytes.length;
+				torn = false;
+			}
+			catch(IOException e) {
+				// Try to repair the segment now, so that the next append
+				// does not have to.
+				try {
+					repairSegment();
+				}
+				catch(IOException repairException) {
+					LOGGER
+						.log(
+							Level.WARNING,
+							"The journal segment could not be repaired.",
+							repairException);
+				}
+				throw new OmhException("The data could not be journaled.", e);
+			}
+			
+			// Queue the points. This is done while holding the write lock so
+			// that each partition's points are in sequence order.
+			long now = System.currentTimeMillis();
+			pending.addAndGet(data.size());
+			for(int i = 0; i < data.size(); i++) {
+				Data point = data.get(i);
+				getPartition(point.getOwner())
+					.add(new Entry(firstSequence + i, now, point));
+			}
+		}
+		
+		// Wait for the points to be synced.
+		sync(lastSequence);
+	}
+	
+	/**
+	 * Returns the meta-data IDs of a stream's points that have been journaled
+	 * but not yet stored. A point is only removed from the journal once it
+	 * has been stored or set aside in the dead-letter file, so a point that
+	 * is not returned here has either been removed that way or was never
+	 * journaled.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The meta-data IDs of the stream's points that have not yet
+	 *         been stored.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	public Set<String> getPendingMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		return
+			getPartition(owner)
+				.getMetaDataIds(getStreamKey(owner, schemaId, version));
+	}
+	
+	/**
+	 * Returns the number of points that have been journaled but not yet
+	 * stored.
+	 * 
+	 * @return The number of points waiting to be stored.
+	 */
+	public long getQueueDepth() {
+		return pending.get();
+	}
+	
+	/**
+	 * Returns how long the oldest point that has not yet been stored has been
+	 * waiting.
+	 * 
+	 * @return The number of milliseconds the oldest waiting point has been
+	 *         waiting or 0 if there are no waiting points.
+	 */
+	public long getFlushLag() {
+		long oldest = Long.MAX_VALUE;
+		for(Partition partition : partitions) {
+			Entry entry = partition.oldest();
+			if(entry != null) {
+				oldest = Math.min(oldest, entry.journaled);
+			}
+		}
+		
+		if(oldest == Long.MAX_VALUE) {
+			return 0;
+		}
+		return Math.max(0, System.currentTimeMillis() - oldest);
+	}
+	
+	/**
+	 * Stops accepting new points, waits for the flushers to store the points
+	 * that have already been journaled, and writes a final checkpoint. Any
+	 * points that could not be stored will be replayed on the next startup.
+	 * 
+	 * @param timeout
+	 *        The maximum number of milliseconds to wait for each flusher.
+	 */
+	public void shutdown(final long timeout) {
+		// Stop accepting new points.
+		synchronized(writeLock) {
+			closed = true;
+		}
+		
+		// Wake and wait for the flushers.
+		for(int i = 0; i < partitions.length; i++) {
+			partitions[i].wake();
+		}
+		for(Thread flusher : flushers) {
+			try {
+				flusher.join(timeout);
+			}
+			catch(InterruptedException e) {
+				break;
+			}
+			flusher.interrupt();
+		}
+		checkpointer.interrupt();
+		
+		// Write the final checkpoint and close the journal.
+		checkpoint();
+		synchronized(writeLock) {
+			try {
+				segment.close();
+			}
+			catch(IOException e) {
+				LOGGER
+					.log(
+						Level.WARNING,
+						"The journal segment could not be closed.",
+						e);
+			}
+		}
+		
+		// Remove the instance.
+		instance = null;
+	}
+	
+	/**
+	 * Returns the highest sequence number that has been synced to disk.
+	 * 
+	 * @return The highest synced sequence number.
+	 */
+	private long getSyncedSequence() {
+		synchronized(syncLock) {
+			return syncedSequence;
+		}
+	}
+	
+	/**
+	 * Waits until the journal has been synced through the given sequence
+	 * number. If no other writer is syncing the journal, this writer syncs
+	 * it on behalf of every writer that is waiting.
+	 * 
+	 * @param sequence
+	 *        The sequence number that must be synced.
+	 * 
+	 * @throws OmhException
+	 *         The journal could not be synced.
+	 */
+	private void sync(final long sequence) throws OmhException {
+		// Wait until the sequence has been synced or this writer becomes the
+		// one that syncs.
+		synchronized(syncLock) {
+			while(syncedSequence < sequence) {
+				if(! syncing) {
+					syncing = true;
+					break;
+				}
+				
+				try {
+					syncLock.wait();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw
+						new OmhException(
+							"Interrupted while waiting for the journal.",
+							e);
+				}
+			}
+			
+			if(syncedSequence >= sequence) {
+				return;
+			}
+		}
+		
+		// Sync everything that has been written so far.
+		long target = -1;
+		try {
+			synchronized(writeLock) {
+				target = nextSequence - 1;
+				segment.force(false);
+			}
+		}
+		catch(IOException e) {
+			throw new OmhException("The journal could not be synced.", e);
+		}
+		finally {
+			synchronized(syncLock) {
+				syncing = false;
+				if(target > syncedSequence) {
+					syncedSequence = target;
+				}
+				syncLock.notifyAll();
+			}
+		}
+		
+		// Let the flushers know that there are new points to store.
+		for(Partition partition : partitions) {
+			partition.wake();
+		}
+	}
+	
+	/**
+	 * Writes the checkpoint, which is the lowest sequence number that has not
+	 * yet been stored, and deletes any segments that are entirely before it.
+	 */
+	private void checkpoint() {
+		// Determine the lowest sequence number that has not been stored. This
+		// must be read before the partitions so that any point journaled
+		// after it is not mistaken as stored.
+		long checkpoint;
+		synchronized(writeLock) {
+			checkpoint = nextSequence;
+		}
+		for(Partition partition : partitions) {
+			Entry entry = partition.oldest();
+			if(entry != null) {
+				checkpoint = Math.min(checkpoint, entry.sequence);
+			}
+		}
+		
+		// Write the checkpoint by replacing the old one.
+		File checkpointFile = new File(directory, CHECKPOINT_FILE_NAME);
+		File tempFile = new File(directory, CHECKPOINT_FILE_NAME + ".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(tempFile);
+			try {
+				out.write(Long.toString(checkpoint).getBytes(CHARSET));
+				out.getFD().sync();
+			}
+			finally {
+				out.close();
+			}
+			Files
+				.move(
+					tempFile.toPath(),
+					checkpointFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"The journal checkpoint could not be written.",
+					e);
+			return;
+		}
+		
+		// Delete every segment that is followed by a segment that begins at
+		// or before the checkpoint. The current segment is always last, so it
+		// is never deleted.
+		List<File> segments = getSegments();
+		for(int i = 0; i < segments.size() - 1; i++) {
+			if(getFirstSequence(segments.get(i + 1)) <= checkpoint) {
+				if(! segments.get(i).delete()) {
+					LOGGER
+						.log(
+							Level.WARNING,
+							"A journal segment could not be deleted: " +
+								segments.get(i).getAbsolutePath());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Durably appends the points in a batch that may not have been stored to
+	 * the dead-letter file, so that they can be examined and stored by hand.
+	 * 
+	 * @param batch
+	 *        The batch, which gives the points their sequence numbers.
+	 * 
+	 * @param unstored
+	 *        The points from the batch that may not have been stored.
+	 * 
+	 * @return Whether or not the points were written.
+	 */
+	private boolean deadLetter(
+		final List<Entry> batch,
+		final List<Data> unstored) {
+		
+		// The points are compared by identity, because they are the very
+		// objects that were given to the data set.
+		Set<Data> unstoredSet =
+			Collections.newSetFromMap(new IdentityHashMap<Data, Boolean>());
+		unstoredSet.addAll(unstored);
+		
+		// Encode each point with its original sequence number.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			for(Entry entry : batch) {
+				if(unstoredSet.contains(entry.data)) {
+					bytes
+						.write(
+							encode(
+								Collections.singletonList(entry.data),
+								entry.sequence));
+				}
+			}
+			
+			// Append them to the dead-letter file.
+			synchronized(deadLetterLock) {
+				FileOutputStream out =
+					new FileOutputStream(
+						new File(directory, DEAD_LETTER_FILE_NAME),
+						true);
+				try {
+					out.write(bytes.toByteArray());
+					out.getFD().sync();
+				}
+				finally {
+					out.close();
+				}
+			}
+		}
+		catch(IOException | OmhException e) {
+			LOGGER
+				.log(
+					Level.SEVERE,
+					"A journaled batch could not be written to the " +
+						"dead-letter file and will be retried.",
+					e);
+			return false;
+		}
+		
+		LOGGER
+			.log(
+				Level.SEVERE,
+				unstored.size() +
+					" journaled points were written to the dead-letter " +
+					"file: " +
+					new File(directory, DEAD_LETTER_FILE_NAME)
+						.getAbsolutePath());
+		return true;
+	}
+	
+	/**
+	 * Reads the last checkpoint.
+	 * 
+	 * @return The last checkpoint or 0 if there is none.
+	 * 
+	 * @throws OmhException
+	 *         The checkpoint exists but could not be read.
+	 */
+	private long readCheckpoint() throws OmhException {
+		File checkpointFile = new File(directory, CHECKPOINT_FILE_NAME);
+		if(! checkpointFile.exists()) {
+			return 0;
+		}
+		
+		try {
+			BufferedReader reader =
+				new BufferedReader(
+					new InputStreamReader(
+						new FileInputStream(checkpointFile),
+						CHARSET));
+			try {
+				String checkpoint = reader.readLine();
+				if(checkpoint == null) {
+					throw
+						new OmhException(
+							"The journal checkpoint is empty.");
+				}
+				return Long.parseLong(checkpoint.trim());
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch(IOException | NumberFormatException e) {
+			throw
+				new OmhException(
+					"The journal checkpoint could not be read.",
+					e);
+		}
+	}
+	
+	/**
+	 * Replays a single segment by queuing every point at or after the
+	 * checkpoint.
+	 * 
+	 * @param segmentFile
+	 *        The segment to replay.
+	 * 
+	 * @param checkpoint
+	 *        The lowest sequence number that has not been stored.
+	 * 
+	 * @return The sequence number after the last point in the segment.
+	 * 
+	 * @throws IOException
+	 *         The segment could not be read.
+	 */
+	private long replay(
+		final File segmentFile,
+		final long checkpoint)
+		throws IOException {
+		
+		long result = getFirstSequence(segmentFile);
+		long now = System.currentTimeMillis();
+		BufferedReader reader =
+			new BufferedReader(
+				new InputStreamReader(
+					new FileInputStream(segmentFile),
+					CHARSET));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				// Decode the entry. If the server stopped while the entry was
+				// being written, it was never acknowledged, so it is
+				// ignored.
+				Entry entry;
+				try {
+					entry = decode(line, now);
+				}
+				catch(IOException | OmhException e) {
+					LOGGER
+						.log(
+							Level.WARNING,
+							"Ignoring an incomplete journal entry in: " +
+								segmentFile.getAbsolutePath());
+					continue;
+				}
+				
+				// Queue it if it has not been stored.
+				if(entry.sequence >= checkpoint) {
+					getPartition(entry.data.getOwner()).add(entry);
+					pending.incrementAndGet();
+				}
+				result = entry.sequence + 1;
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Starts a new segment. This must only be called while holding the
+	 * {@link #writeLock}.
+	 * 
+	 * @throws IOException
+	 *         The old segment could not be synced or the new segment could
+	 *         not be created.
+	 */
+	private void rollSegment() throws IOException {
+		// Sync and close the old segment.
+		segment.force(false);
+		segment.close();
+		
+		// Open the new one.
+		openSegment();
+	}
+	
+	/**
+	 * Removes whatever a failed append wrote to the current segment by
+	 * truncating it to the {@link #segmentBytes} that were written
+	 * successfully. If it cannot be truncated, it is abandoned and a new
+	 * segment is started. This must only be called while holding the
+	 * {@link #writeLock}.
+	 * 
+	 * @throws IOException
+	 *         The segment could not be truncated and a new segment could not
+	 *         be created.
+	 */
+	private void repairSegment() throws IOException {
+		try {
+			segment.truncate(segmentBytes);
+		}
+		catch(IOException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"The journal segment could not be truncated, so a new " +
+						"one will be started.",
+					e);
+			try {
+				segment.close();
+			}
+			catch(IOException closeException) {
+				// The segment is being abandoned anyway.
+			}
+			openSegment();
+		}
+		torn = false;
+	}
+	
+	/**
+	 * Opens a new segment that begins with the next sequence number. This
+	 * must only be called while holding the {@link #writeLock} or from the
+	 * constructor.
+	 * 
+	 * @throws IOException
+	 *         The new segment could not be created.
+	 */
+	@SuppressWarnings("resource")
+	private void openSegment() throws IOException {
+		File segmentFile =
+			new File(
+				directory,
+				SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX);
+		segment = new FileOutputStream(segmentFile, true).getChannel();
+		segmentBytes = segment.size();
+		
+		// If the segment already existed and ended with an incomplete entry,
+		// end that entry's line so that it cannot be joined to a new one.
+		if(segmentBytes > 0) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			FileInputStream in = new FileInputStream(segmentFile);
+			try {
+				in.getChannel().read(last, segmentBytes - 1);
+			}
+			finally {
+				in.close();
+			}
+			if(last.get(0) != '\n') {
+				segmentBytes +=
+					segment.write(ByteBuffer.wrap(new byte[] { '\n' }));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the segments in the order they were written.
+	 * 
+	 * @return The segments in the order they were written.
+	 */
+	private List<File> getSegments() {
+		File[] files = directory.listFiles();
+		if(files == null) {
+			return Collections.emptyList();
+		}
+		
+		List<File> result = new ArrayList<File>(files.length);
+		for(File file : files) {
+			String name = file.getName();
+			if(
+				name.startsWith(SEGMENT_PREFIX) &&
+				name.endsWith(SEGMENT_SUFFIX)) {
+				
+				result.add(file);
+			}
+		}
+		
+		File[] sorted = result.toArray(new File[result.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			/*
+			 * (non-Javadoc)
+			 * @see java.util.Comparator#compare(java.lang.Object,
+			 *      java.lang.Object)
+			 */
+			@Override
+			public int compare(final File first, final File second) {
+				return
+					Long.compare(
+						getFirstSequence(first),
+						getFirstSequence(second));
+			}
+		});
+		return Arrays.asList(sorted);
+	}
+	
+	/**
+	 * Returns the partition for the given owner.
+	 * 
+	 * @param owner
+	 *        The owner's username.
+	 * 
+	 * @return The partition for the owner.
+	 */
+	private Partition getPartition(final String owner) {
+		return
+			partitions[(owner.hashCode() & Integer.MAX_VALUE) %
+			           partitions.length];
+	}
+	
+	/**
+	 * Returns a point's meta-data ID.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return The point's meta-data ID or null if it has none.
+	 */
+	private static String getMetaDataId(final Data point) {
+		MetaData metaData = point.getMetaData();
+		return (metaData == null) ? null : metaData.getId();
+	}
+	
+	/**
+	 * Builds the key for the stream that a point belongs to.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return The key for the point's stream.
+	 */
+	private static String getStreamKey(final Data point) {
+		return
+			getStreamKey(
+				point.getOwner(),
+				point.getSchemaId(),
+				point.getSchemaVersion());
+	}
+	
+	/**
+	 * Builds the key for a stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The key for the stream.
+	 */
+	private static String getStreamKey(
+		final String owner,
+		final String schemaId,
+		final long version) {
+		
+		return owner + '\n' + schemaId + '\n' + version;
+	}
+	
+	/**
+	 * Returns the sequence number of the first point in a segment, which is
+	 * part of its name.
+	 * 
+	 * @param segmentFile
+	 *        The segment.
+	 * 
+	 * @return The sequence number of the first point in the segment.
+	 */
+	private static long getFirstSequence(final File segmentFile) {
+		String name = segmentFile.getName();
+		return
+			Long
+				.parseLong(
+					name
+						.substring(
+							SEGMENT_PREFIX.length(),
+							name.length() - SEGMENT_SUFFIX.length()));
+	}
+	
+	/**
+	 * Encodes points as journal entries, one per line.
+	 * 
+	 * @param data
+	 *        The points to encode.
+	 * 
+	 * @param firstSequence
+	 *        The sequence number of the first point.
+	 * 
+	 * @return The encoded entries.
+	 * 
+	 * @throws OmhException
+	 *         A point could not be encoded.
+	 */
+	private static byte[] encode(
+		final Collection<Data> data,
+		final long firstSequence)
+		throws OmhException {
+		
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		long sequence = firstSequence;
+		try {
+			for(Data point : data) {
+				JsonGenerator generator =
+					JSON_FACTORY.createGenerator(result);
+				generator.writeStartObject();
+				generator.writeNumberField(JSON_KEY_SEQUENCE, sequence++);
+				generator
+					.writeStringField(Data.JSON_KEY_OWNER, point.getOwner());
+				generator
+					.writeStringField(Schema.JSON_KEY_ID, point.getSchemaId());
+				generator
+					.writeNumberField(
+						Schema.JSON_KEY_VERSION,
+						point.getSchemaVersion());
+				
+				// The time stamp is written as an ISO string so that its time
+				// zone is kept.
+				MetaData metaData = point.getMetaData();
+				if(metaData != null) {
+					generator.writeObjectFieldStart(Data.JSON_KEY_METADATA);
+					if(metaData.getId() != null) {
+						generator
+							.writeStringField(
+								MetaData.JSON_KEY_ID,
+								metaData.getId());
+					}
+					if(metaData.getTimestamp() != null) {
+						generator
+							.writeStringField(
+								MetaData.JSON_KEY_TIMESTAMP,
+								ISOW3CDateTimeFormat
+									.dateTime()
+									.print(metaData.getTimestamp()));
+					}
+					generator.writeEndObject();
+				}
+				
+				generator.writeFieldName(Data.JSON_KEY_DATA);
+				generator.writeTree(point.getData());
+				generator.writeEndObject();
+				generator.close();
+				result.write('\n');
+			}
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be journaled.", e);
+		}
+		
+		return result.toByteArray();
+	}
+	
+	/**
+	 * Decodes a single journal entry.
+	 * 
+	 * @param line
+	 *        The encoded entry.
+	 * 
+	 * @param journaled
+	 *        The time to use as the time the point was journaled.
+	 * 
+	 * @return The decoded entry.
+	 * 
+	 * @throws IOException
+	 *         The entry is not valid JSON.
+	 * 
+	 * @throws OmhException
+	 *         The entry is incomplete.
+	 */
+	private static Entry decode(
+		final String line,
+		final long journaled)
+		throws IOException, OmhException {
+		
+		JsonNode node = JSON_FACTORY.createParser(line).readValueAsTree();
+		if(
+			(node == null) ||
+			(! node.has(JSON_KEY_SEQUENCE)) ||
+			(! node.has(Data.JSON_KEY_OWNER)) ||
+			(! node.has(Schema.JSON_KEY_ID)) ||
+			(! node.has(Schema.JSON_KEY_VERSION)) ||
+			(! node.has(Data.JSON_KEY_DATA))) {
+			
+			throw new OmhException("The journal entry is incomplete.");
+		}
+		
+		// Rebuild the meta-data.
+		MetaData metaData = null;
+		JsonNode metaDataNode = node.get(Data.JSON_KEY_METADATA);
+		if(metaDataNode != null) {
+			MetaData.Builder builder = new MetaData.Builder();
+			JsonNode idNode = metaDataNode.get(MetaData.JSON_KEY_ID);
+			if(idNode != null) {
+				builder.setId(idNode.asText());
+			}
+			JsonNode timestampNode =
+				metaDataNode.get(MetaData.JSON_KEY_TIMESTAMP);
+			if(timestampNode != null) {
+				DateTime timestamp =
+					ISOW3CDateTimeFormat
+						.any()
+						.parseDateTime(timestampNode.asText());
+				builder.setTimestamp(timestamp);
+			}
+			metaData = builder.build();
+		}
+		
+		// Rebuild the point.
+		return
+			new Entry(
+				node.get(JSON_KEY_SEQUENCE).asLong(),
+				journaled,
+				new Data(
+					node.get(Data.JSON_KEY_OWNER).asText(),
+					node.get(Schema.JSON_KEY_ID).asText(),
+					node.get(Schema.JSON_KEY_VERSION).asLong(),
+					metaData,
+					node.get(Data.JSON_KEY_DATA)));
+	}
+	
+	/**
+	 * Reads a numeric property.
+	 * 
+	 * @param properties
+	 *        The properties.
+	 * 
+	 * @param key
+	 *        The property's key.
+	 * 
+	 * @param defaultValue
+	 *        The value to use if the property is missing.
+	 * 
+	 * @return The property's value.
+	 * 
+	 * @throws OmhException
+	 *         The property is not a positive number.
+	 */
+	private static long getLong(
+		final Properties properties,
+		final String key,
+		final long defaultValue)
+		throws OmhException {
+		
+		String value = properties.getProperty(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			long result = Long.decode(value.trim());
+			if(result <= 0) {
+				throw new OmhException("The property must be positive: " + key);
+			}
+			return result;
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The property is not a number: " + key, e);
+		}
+	}
+}
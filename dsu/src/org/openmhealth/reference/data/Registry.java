@@ -15,6 +15,10 @@
  ******************************************************************************/
 package org.openmhealth.reference.data;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmhealth.reference.domain.EncodedSchema;
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.Schema;
 
@@ -31,11 +35,31 @@ public abstract class Registry {
 	 */
 	public static final String DB_NAME = "registry";
 	
+	/**
+	 * The maximum number of schemas that are cached by
+	 * {@link #getCachedSchema(String, long)} and by
+	 * {@link #getEncodedSchema(String, long)}.
+	 */
+	public static final int MAX_CACHED_SCHEMAS = 1000;
+	
 	/**
 	 * The instance of this Registry to use. 
 	 */
 	private static Registry instance;
 	
+	/**
+	 * The schemas that have already been retrieved and compiled, keyed by
+	 * their ID and version.
+	 */
+	private final ConcurrentMap<String, Schema> schemaCache =
+		new ConcurrentHashMap<String, Schema>();
+	/**
+	 * The schemas whose definitions have already been encoded, keyed by their
+	 * ID and version.
+	 */
+	private final ConcurrentMap<String, EncodedSchema> encodedSchemaCache =
+		new ConcurrentHashMap<String, EncodedSchema>();
+	
 	/**
 	 * Default constructor.
 	 */
@@ -104,6 +128,99 @@ public abstract class Registry {
 		final String schemaId,
 		final long schemaVersion);
 
+	/**
+	 * <p>
+	 * Retrieves the schema for a specific schema ID-version pair, reusing the
+	 * same {@link Schema} object for every call.
+	 * </p>
+	 * 
+	 * <p>
+	 * A {@link Schema} compiles its validation plan when it is created, so
+	 * this should be used whenever data is going to be validated. Registered
+	 * schemas never change, so they are cached until more than
+	 * {@link #MAX_CACHED_SCHEMAS} have been requested, at which point the
+	 * cache is cleared.
+	 * </p>
+	 * 
+	 * @param schemaId
+	 *        The schema ID.
+	 * 
+	 * @param schemaVersion
+	 *        The schema version.
+	 * 
+	 * @return The Schema that corresponds to the given ID-version pair or null
+	 *         if no such ID-version pair exists.
+	 */
+	public Schema getCachedSchema(
+		final String schemaId,
+		final long schemaVersion) {
+		
+		if(schemaId == null) {
+			return getSchema(schemaId, schemaVersion);
+		}
+		
+		// Check if the schema has already been compiled.
+		String key = schemaId + ":" + schemaVersion;
+		Schema result = schemaCache.get(key);
+		if(result != null) {
+			return result;
+		}
+		
+		// Retrieve and compile the schema. Unknown schemas are not cached, as
+		// they may be registered later.
+		result = getSchema(schemaId, schemaVersion);
+		if(result != null) {
+			if(schemaCache.size() >= MAX_CACHED_SCHEMAS) {
+				schemaCache.clear();
+			}
+			schemaCache.put(key, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Retrieves the schema for a specific schema ID-version pair with its
+	 * definition already encoded, reusing the same {@link EncodedSchema}
+	 * object for every call. Like {@link #getCachedSchema(String, long)},
+	 * these are cached until more than {@link #MAX_CACHED_SCHEMAS} have been
+	 * requested.
+	 * 
+	 * @param schemaId
+	 *        The schema ID.
+	 * 
+	 * @param schemaVersion
+	 *        The schema version.
+	 * 
+	 * @return The encoded schema that corresponds to the given ID-version
+	 *         pair or null if no such ID-version pair exists.
+	 */
+	public EncodedSchema getEncodedSchema(
+		final String schemaId,
+		final long schemaVersion) {
+		
+		// Check if the schema has already been encoded.
+		String key = schemaId + ":" + schemaVersion;
+		EncodedSchema result = encodedSchemaCache.get(key);
+		if(result != null) {
+			return result;
+		}
+		
+		// Retrieve and encode the schema. Unknown schemas are not cached, as
+		// they may be registered later.
+		Schema schema = getCachedSchema(schemaId, schemaVersion);
+		if(schema == null) {
+			return null;
+		}
+		result = new EncodedSchema(schema);
+		if(schemaId != null) {
+			if(encodedSchemaCache.size() >= MAX_CACHED_SCHEMAS) {
+				encodedSchemaCache.clear();
+			}
+			encodedSchemaCache.put(key, result);
+		}
+		return result;
+	}
+	
 	/**
 	 * Retrieves all of the schemas that are part of the registry. All of the
 	 * parameters are optional and limit the results.
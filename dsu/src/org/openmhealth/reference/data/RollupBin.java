@@ -0,0 +1,923 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataRollup;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.RollupBuilder;
+import org.openmhealth.reference.util.TimeZoneOffsets;
+
+/**
+ * <p>
+ * The collection of {@link DataRollup rollups}, which summarize the
+ * configured fields of each stream by minute, hour, and day of UTC time. The
+ * rollups are kept up to date as data is stored, so a summary whose periods
+ * are made up of whole rollups can be read from them instead of from every
+ * point in its range.
+ * </p>
+ * 
+ * <p>
+ * Rollups are only kept for the schemas that have a property whose key is
+ * {@link #PROPERTY_KEY_PREFIX_FIELDS} followed by the schema's ID, a
+ * {@link #PROPERTY_KEY_SEPARATOR}, and the schema's version. Its value is the
+ * comma-separated list of fields to roll up, which may be empty to only
+ * count the points. If a schema's fields change, or it had data before its
+ * rollups were configured, its rollups must be
+ * {@link #rebuild(String, long) rebuilt}.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public abstract class RollupBin {
+	/**
+	 * The name of the DB document/table/whatever that contains the rollups.
+	 */
+	public static final String DB_NAME = "data_rollup";
+	
+	/**
+	 * The prefix of the properties that list the fields to roll up for each
+	 * schema.
+	 */
+	public static final String PROPERTY_KEY_PREFIX_FIELDS = "rollup.fields.";
+	/**
+	 * The separator between a schema's ID and its version in a property key.
+	 */
+	public static final char PROPERTY_KEY_SEPARATOR = '.';
+	/**
+	 * The separator between the fields in a property value.
+	 */
+	public static final String PROPERTY_VALUE_SEPARATOR = ",";
+	
+	/**
+	 * The JSON key for the length of time that a rollup covers.
+	 */
+	public static final String JSON_KEY_PERIOD = "period";
+	/**
+	 * The JSON key for a rollup's field.
+	 */
+	public static final String JSON_KEY_FIELD = "field";
+	/**
+	 * The JSON key for the start of a rollup's period.
+	 */
+	public static final String JSON_KEY_START = "start";
+	/**
+	 * The JSON key for the number of points in a rollup.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the minimum of a rollup.
+	 */
+	public static final String JSON_KEY_MIN = "min";
+	/**
+	 * The JSON key for the maximum of a rollup.
+	 */
+	public static final String JSON_KEY_MAX = "max";
+	/**
+	 * The JSON key for the sum of a rollup.
+	 */
+	public static final String JSON_KEY_SUM = "sum";
+	
+	/**
+	 * The number of daily summaries to read at a time while rebuilding.
+	 */
+	private static final int REBUILD_PAGE_SIZE = 1000;
+	/**
+	 * The most days whose hourly and minutely rollups are rebuilt with one
+	 * summary.
+	 */
+	private static final int REBUILD_WINDOW_DAYS = 7;
+	
+	/**
+	 * The instance of this RollupBin to use.
+	 */
+	private static RollupBin instance;
+	
+	/**
+	 * The fields to roll up, keyed by the ID and version of their schema.
+	 */
+	private final Map<List<Object>, List<String>> fields;
+	
+	/**
+	 * Creates the rollup bin.
+	 * 
+	 * @param properties
+	 *        The properties that list the fields to roll up for each schema.
+	 * 
+	 * @throws OmhException
+	 *         A property's key does not have a valid version.
+	 */
+	protected RollupBin(final Properties properties) throws OmhException {
+		fields = Collections.unmodifiableMap(parseFields(properties));
+		
+		instance = this;
+	}
+	
+	/**
+	 * Returns the singular instance of this class.
+	 * 
+	 * @return The singular instance of this class.
+	 */
+	public static RollupBin getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns the fields that are rolled up for a schema.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema.
+	 * 
+	 * @param version
+	 *        The version of the schema.
+	 * 
+	 * @return The {@link ColumnList#COLUMN_SEPARATOR}-separated paths to the
+	 *         fields, which may be empty, or null if the schema is not rolled
+	 *         up.
+	 */
+	public List<String> getFields(final String schemaId, final long version) {
+		return fields.get(Arrays.<Object>asList(schemaId, version));
+	}
+	
+	/**
+	 * Builds the rollups of the points whose schemas are rolled up.
+	 * 
+	 * @param data
+	 *        The points.
+	 * 
+	 * @return The rollups, which only cover the given points.
+	 */
+	public List<DataRollup> buildRollups(final List<Data> data) {
+		RollupBuilder builder = new RollupBuilder();
+		for(Data point : data) {
+			List<String> pointFields =
+				getFields(point.getSchemaId(), point.getSchemaVersion());
+			if(pointFields != null) {
+				builder.add(point, pointFields);
+			}
+		}
+		return builder.getRollups();
+	}
+	
+	/**
+	 * Summarizes a stream from its rollups, if they can answer the request.
+	 * They can if the stream's schema is rolled up, every requested field is
+	 * rolled up, and there is a rollup period by which the range and every
+	 * local period are evenly divided. Otherwise, the points must be
+	 * {@link DataSet#summarizeData(String, String, long, ColumnList, DateTime, DateTime, DataSummary.Period, DateTimeZone, long, long) summarized}
+	 * directly.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 * 
+	 * @param columnList
+	 *        The fields of the data to summarize. If this is empty, only the
+	 *        points are counted.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the points to summarize, inclusive, or
+	 *        null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the points to summarize, inclusive, or
+	 *        null.
+	 * 
+	 * @param period
+	 *        The length of time that each summary covers.
+	 * 
+	 * @param timeZone
+	 *        The time zone to whose local time the periods are aligned.
+	 * 
+	 * @param numToSkip
+	 *        The number of periods to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of periods to return.
+	 * 
+	 * @return The summaries, whose count is the total number of periods that
+	 *         contain points, or null if the rollups cannot answer the
+	 *         request.
+	 * 
+	 * @throws OmhException
+	 *         The rollups could not be read.
+	 */
+	public MultiValueResult<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period period,
+		final DateTimeZone timeZone,
+		final long numToSkip,
+		final long numToReturn)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		else if(period == null) {
+			throw new OmhException("The period is null.");
+		}
+		else if(timeZone == null) {
+			throw new OmhException("The time zone is null.");
+		}
+		
+		// Make sure that every requested field is rolled up.
+		List<String> rolledUp = getFields(schemaId, version);
+		List<String> requested =
+			(columnList == null) ?
+				Collections.<String>emptyList() :
+				columnList.toList();
+		if((rolledUp == null) || (! rolledUp.containsAll(requested))) {
+			return null;
+		}
+		
+		// Get the range of time that the rollups actually cover. If there
+		// are none, the stream may have data that was never rolled up.
+		List<Long> range =
+			getRange(owner, schemaId, version, startDate, endDate);
+		if(range == null) {
+			return null;
+		}
+		
+		// Find the rollups that make up whole local periods, if any.
+		TimeZoneOffsets offsets =
+			new TimeZoneOffsets(
+				timeZone,
+				range.get(0),
+				range.get(1) + DataSummary.Period.MINUTE.getMillis() - 1);
+		DataSummary.Period level =
+			getLevel(period, startDate, endDate, offsets);
+		if(level == null) {
+			return null;
+		}
+		
+		return
+			readSummaries(
+				owner,
+				schemaId,
+				version,
+				requested,
+				startDate,
+				endDate,
+				level,
+				period,
+				offsets,
+				timeZone,
+				numToSkip,
+				numToReturn);
+	}
+	
+	/**
+	 * Rebuilds the rollups of every stream of a schema from its data, or
+	 * deletes them if the schema is no longer rolled up. This should be done
+	 * whenever the schema's fields change.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema.
+	 * 
+	 * @param version
+	 *        The version of the schema.
+	 * 
+	 * @throws OmhException
+	 *         The schema ID is null or the rollups could not be rebuilt.
+	 */
+	public void rebuild(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		for(String owner :
+			StreamStatisticsBin.getInstance().getOwners(schemaId, version)) {
+			
+			rebuild(owner, schemaId, version, null, null);
+		}
+	}
+	
+	/**
+	 * Rebuilds the rollups of a stream from its data, or deletes them if the
+	 * stream's schema is no longer rolled up. The range is widened to whole
+	 * UTC days, so that every rollup in it is rebuilt from all of its points.
+	 * Data that is stored in the range while it is being rebuilt may be
+	 * rolled up twice.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp whose rollups should be rebuilt or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp whose rollups should be rebuilt or null.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the rollups could not be
+	 *         rebuilt.
+	 */
+	public void rebuild(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Widen the range to whole days.
+		long day = DataSummary.Period.DAY.getMillis();
+		DateTime start =
+			(startDate == null) ?
+				null :
+				new DateTime(
+					DataSummary.Period.DAY.getStart(startDate.getMillis()),
+					DateTimeZone.UTC);
+		DateTime end =
+			(endDate == null) ?
+				null :
+				new DateTime(
+					DataSummary.Period.DAY.getStart(endDate.getMillis()) +
+						day -
+						1,
+					DateTimeZone.UTC);
+		
+		// Remove the old rollups.
+		deleteRollups(
+			owner,
+			schemaId,
+			version,
+			(start == null) ? null : start.getMillis(),
+			(end == null) ? null : end.getMillis());
+		
+		// If the schema is no longer rolled up, there is nothing to rebuild.
+		List<String> rolledUp = getFields(schemaId, version);
+		if(rolledUp == null) {
+			return;
+		}
+		ColumnList columnList = new ColumnList(rolledUp);
+		
+		// Rebuild the daily rollups, which also finds the days with data.
+		List<Long> days = new ArrayList<Long>();
+		long numToSkip = 0;
+		int size;
+		do {
+			MultiValueResult<DataSummary> summaries =
+				DataSet
+					.getInstance()
+					.summarizeData(
+						owner,
+						schemaId,
+						version,
+						columnList,
+						start,
+						end,
+						DataSummary.Period.DAY,
+						DateTimeZone.UTC,
+						numToSkip,
+						REBUILD_PAGE_SIZE);
+			for(DataSummary summary : summaries) {
+				days.add(summary.getStart().getMillis());
+			}
+			addRollups(
+				toRollups(
+					owner,
+					schemaId,
+					version,
+					DataSummary.Period.DAY,
+					summaries));
+			
+			size = summaries.size();
+			numToSkip += size;
+		} while(size == REBUILD_PAGE_SIZE);
+		
+		// Rebuild the hourly and minutely rollups of a few days at a time,
+		// so that each summary only reads those days' data. The days are
+		// ordered with the most recent first.
+		int index = 0;
+		while(index < days.size()) {
+			long windowEnd = days.get(index) + day - 1;
+			long windowStart = days.get(index);
+			index++;
+			while(
+				(index < days.size()) &&
+				(days.get(index) > windowEnd - (REBUILD_WINDOW_DAYS * day))) {
+				
+				windowStart = days.get(index);
+				index++;
+			}
+			
+			for(DataSummary.Period period :
+				Arrays
+					.asList(
+						DataSummary.Period.HOUR,
+						DataSummary.Period.MINUTE)) {
+				
+				addRollups(
+					toRollups(
+						owner,
+						schemaId,
+						version,
+						period,
+						DataSet
+							.getInstance()
+							.summarizeData(
+								owner,
+								schemaId,
+								version,
+								columnList,
+								new DateTime(windowStart, DateTimeZone.UTC),
+								new DateTime(windowEnd, DateTimeZone.UTC),
+								period,
+								DateTimeZone.UTC,
+								0,
+								(windowEnd + 1 - windowStart) /
+									period.getMillis())));
+			}
+		}
+	}
+	
+	/**
+	 * Adds rollups to the existing rollups, creating any that do not yet
+	 * exist.
+	 * 
+	 * @param rollups
+	 *        The rollups to add.
+	 * 
+	 * @throws OmhException
+	 *         The rollups could not be added.
+	 */
+	protected abstract void addRollups(
+		final List<DataRollup> rollups)
+		throws OmhException;
+	
+	/**
+	 * Deletes the rollups of a stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param start
+	 *        The earliest start of the rollups to delete in milliseconds since
+	 *        the epoch, inclusive, or null.
+	 * 
+	 * @param end
+	 *        The latest start of the rollups to delete in milliseconds since
+	 *        the epoch, inclusive, or null.
+	 * 
+	 * @throws OmhException
+	 *         The rollups could not be deleted.
+	 */
+	protected abstract void deleteRollups(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final Long start,
+		final Long end)
+		throws OmhException;
+	
+	/**
+	 * Returns the range of time that the minutely rollups of a stream cover.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param startDate
+	 *        The earliest start of the rollups, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest start of the rollups, inclusive, or null.
+	 * 
+	 * @return The earliest and latest start of the rollups in milliseconds
+	 *         since the epoch, or null if there are no rollups.
+	 * 
+	 * @throws OmhException
+	 *         The rollups could not be read.
+	 */
+	protected abstract List<Long> getRange(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException;
+	
+	/**
+	 * Summarizes a stream by adding together the rollups in each local
+	 * period. The rollups must make up whole local periods.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param fields
+	 *        The fields to summarize, all of which are rolled up.
+	 * 
+	 * @param startDate
+	 *        The earliest start of the rollups, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest start of the rollups, inclusive, or null.
+	 * 
+	 * @param level
+	 *        The length of time of the rollups to add together.
+	 * 
+	 * @param period
+	 *        The length of time that each summary covers.
+	 * 
+	 * @param offsets
+	 *        The offsets that the time zone uses over the range of the
+	 *        rollups.
+	 * 
+	 * @param timeZone
+	 *        The time zone to whose local time the periods are aligned.
+	 * 
+	 * @param numToSkip
+	 *        The number of periods to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of periods to return.
+	 * 
+	 * @return The summaries, whose count is the total number of periods that
+	 *         contain points.
+	 * 
+	 * @throws OmhException
+	 *         The rollups could not be read.
+	 */
+	protected abstract MultiValueResult<DataSummary> readSummaries(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final List<String> fields,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period level,
+		final DataSummary.Period period,
+		final TimeZoneOffsets offsets,
+		final DateTimeZone timeZone,
+		final long numToSkip,
+		final long numToReturn)
+		throws OmhException;
+	
+	/**
+	 * Builds the summaries of a page of periods from the totals of their
+	 * rollups.
+	 * 
+	 * @param counts
+	 *        The number of points in each period, keyed by the start of the
+	 *        period in local time, in the order of the page.
+	 * 
+	 * @param fieldSummaries
+	 *        The summaries of the fields in each period, keyed by the start
+	 *        of the period in local time and then by the field. A field that
+	 *        is missing had no numbers in the period.
+	 * 
+	 * @param fields
+	 *        The fields that were summarized, in order.
+	 * 
+	 * @param timeZone
+	 *        The time zone of the periods.
+	 * 
+	 * @return The summaries.
+	 */
+	protected static List<DataSummary> buildSummaries(
+		final Map<Long, Long> counts,
+		final Map<Long, Map<String, DataSummary.FieldSummary>> fieldSummaries,
+		final List<String> fields,
+		final DateTimeZone timeZone) {
+		
+		List<DataSummary> result = new ArrayList<DataSummary>(counts.size());
+		for(Map.Entry<Long, Long> count : counts.entrySet()) {
+			Map<String, DataSummary.FieldSummary> periodSummaries =
+				fieldSummaries.get(count.getKey());
+			
+			Map<String, DataSummary.FieldSummary> summaries =
+				new LinkedHashMap<String, DataSummary.FieldSummary>();
+			for(String field : fields) {
+				DataSummary.FieldSummary summary =
+					(periodSummaries == null) ?
+						null :
+						periodSummaries.get(field);
+				summaries
+					.put(
+						field,
+						(summary == null) ?
+							new DataSummary.FieldSummary(0, null, null, null) :
+							summary);
+			}
+			
+			result
+				.add(
+					new DataSummary(
+						DataSummary.toStart(count.getKey(), timeZone),
+						count.getValue(),
+						summaries));
+		}
+		return result;
+	}
+	
+	/**
+	 * Finds the longest rollup period that evenly divides a local period and
+	 * the range of time, and for which every offset and transition of the
+	 * time zone is a whole number of periods. Each local period is then made
+	 * up of whole rollups.
+	 * 
+	 * @param period
+	 *        The length of time of the local periods.
+	 * 
+	 * @param startDate
+	 *        The start of the range, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The end of the range, inclusive, or null.
+	 * 
+	 * @param offsets
+	 *        The offsets that the time zone uses over the range of the data.
+	 * 
+	 * @return The rollup period or null if there is none.
+	 */
+	private static DataSummary.Period getLevel(
+		final DataSummary.Period period,
+		final DateTime startDate,
+		final DateTime endDate,
+		final TimeZoneOffsets offsets) {
+		
+		DataSummary.Period[] periods = DataSummary.Period.values();
+		for(int i = period.ordinal(); i >= 0; i--) {
+			DataSummary.Period level = periods[i];
+			if(isAligned(level, period, startDate, endDate, offsets)) {
+				return level;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns whether a local period and the range of time are made up of
+	 * whole rollups of a period.
+	 * 
+	 * @param level
+	 *        The length of time of the rollups.
+	 * 
+	 * @param period
+	 *        The length of time of the local periods.
+	 * 
+	 * @param startDate
+	 *        The start of the range, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The end of the range, inclusive, or null.
+	 * 
+	 * @param offsets
+	 *        The offsets that the time zone uses over the range of the data.
+	 * 
+	 * @return Whether the local periods are made up of whole rollups.
+	 */
+	private static boolean isAligned(
+		final DataSummary.Period level,
+		final DataSummary.Period period,
+		final DateTime startDate,
+		final DateTime endDate,
+		final TimeZoneOffsets offsets) {
+		
+		if(period.getMillis() % level.getMillis() != 0) {
+			return false;
+		}
+		if(
+			(startDate != null) &&
+			(level.getStart(startDate.getMillis()) != startDate.getMillis())) {
+			
+			return false;
+		}
+		if(
+			(endDate != null) &&
+			(level.getStart(endDate.getMillis() + 1) !=
+				endDate.getMillis() + 1)) {
+			
+			return false;
+		}
+		for(int i = 0; i < offsets.size(); i++) {
+			if(offsets.getOffset(i) % level.getMillis() != 0) {
+				return false;
+			}
+			if(
+				(i > 0) &&
+				(level.getStart(offsets.getTransition(i)) !=
+					offsets.getTransition(i))) {
+				
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Converts the summaries of UTC periods to rollups.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param period
+	 *        The length of time of the summaries.
+	 * 
+	 * @param summaries
+	 *        The summaries.
+	 * 
+	 * @return The rollups.
+	 */
+	private static List<DataRollup> toRollups(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DataSummary.Period period,
+		final MultiValueResult<DataSummary> summaries) {
+		
+		List<DataRollup> result = new ArrayList<DataRollup>();
+		for(DataSummary summary : summaries) {
+			long start = summary.getStart().getMillis();
+			result
+				.add(
+					new DataRollup(
+						owner,
+						schemaId,
+						version,
+						period,
+						DataRollup.FIELD_POINTS,
+						start,
+						summary.getCount(),
+						null,
+						null,
+						0));
+			
+			for(Map.Entry<String, DataSummary.FieldSummary> field :
+				summary.getFields().entrySet()) {
+				
+				DataSummary.FieldSummary fieldSummary = field.getValue();
+				if(fieldSummary.getCount() == 0) {
+					continue;
+				}
+				result
+					.add(
+						new DataRollup(
+							owner,
+							schemaId,
+							version,
+							period,
+							field.getKey(),
+							start,
+							fieldSummary.getCount(),
+							fieldSummary.getMin(),
+							fieldSummary.getMax(),
+							fieldSummary.getSum()));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Reads the fields to roll up for each schema from the properties.
+	 * 
+	 * @param properties
+	 *        The properties.
+	 * 
+	 * @return The fields to roll up, keyed by the ID and version of their
+	 *         schema.
+	 * 
+	 * @throws OmhException
+	 *         A property's key does not have a valid version.
+	 */
+	private static Map<List<Object>, List<String>> parseFields(
+		final Properties properties)
+		throws OmhException {
+		
+		Map<List<Object>, List<String>> result =
+			new HashMap<List<Object>, List<String>>();
+		if(properties == null) {
+			return result;
+		}
+		
+		for(String key : properties.stringPropertyNames()) {
+			if(! key.startsWith(PROPERTY_KEY_PREFIX_FIELDS)) {
+				continue;
+			}
+			
+			// Split the key into the schema ID and version.
+			String schema = key.substring(PROPERTY_KEY_PREFIX_FIELDS.length());
+			int separator = schema.lastIndexOf(PROPERTY_KEY_SEPARATOR);
+			if(separator <= 0) {
+				throw
+					new OmhException(
+						"The rollup property does not have a version: " + key);
+			}
+			long version;
+			try {
+				version = Long.parseLong(schema.substring(separator + 1));
+			}
+			catch(NumberFormatException e) {
+				throw
+					new OmhException(
+						"The rollup property's version is not a number: " +
+							key,
+						e);
+			}
+			
+			// Get the fields, without duplicates.
+			List<String> schemaFields = new ArrayList<String>();
+			for(String field :
+				properties
+					.getProperty(key)
+					.split(PROPERTY_VALUE_SEPARATOR)) {
+				
+				field = field.trim();
+				if(field.length() > 0) {
+					schemaFields.add(field);
+				}
+			}
+			
+			result
+				.put(
+					Arrays
+						.<Object>asList(
+							schema.substring(0, separator),
+							version),
+					Collections
+						.unmodifiableList(
+							(new ColumnList(schemaFields)).toList()));
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.util.List;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The collection of statistics about each stream, where a stream is all of
+ * the data for one owner and one version of one schema. The statistics are
+ * kept up to date as data is stored, so reading them does not require
+ * scanning the stream.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public abstract class StreamStatisticsBin {
+	/**
+	 * The name of the DB document/table/whatever that contains the
+	 * statistics.
+	 */
+	public static final String DB_NAME = "stream_statistics";
+	
+	/**
+	 * The JSON key for the number of points in a stream.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the revision of a stream, which is increased every
+	 * time data is stored in it.
+	 */
+	public static final String JSON_KEY_REVISION = "revision";
+	
+	/**
+	 * The instance of this StreamStatisticsBin to use. 
+	 */
+	private static StreamStatisticsBin instance;
+
+	/**
+	 * Default constructor.
+	 */
+	protected StreamStatisticsBin() {
+		instance = this;
+	}
+	
+	/**
+	 * Returns the singular instance of this class.
+	 * 
+	 * @return The singular instance of this class.
+	 */
+	public static StreamStatisticsBin getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns the number of points in a stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The number of points in the stream, which is zero if nothing
+	 *         has ever been stored in it.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	public abstract long getCount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException;
+	
+	/**
+	 * Returns the revision of a stream, which is increased every time data is
+	 * stored in it. A reader that has seen a revision can tell that the
+	 * stream has not changed since without reading its data.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The revision of the stream, which is zero if nothing has ever
+	 *         been stored in it.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	public abstract long getRevision(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException;
+	
+	/**
+	 * Returns the owners of every stream of a schema that has ever had data
+	 * stored in it.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema.
+	 * 
+	 * @param version
+	 *        The version of the schema.
+	 * 
+	 * @return The unique identifiers of the owners.
+	 * 
+	 * @throws OmhException
+	 *         The schema ID is null.
+	 */
+	public abstract List<String> getOwners(
+		final String schemaId,
+		final long version)
+		throws OmhException;
+}
@@ -0,0 +1,822 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The file-backed storage for resumable uploads.
+ * </p>
+ * 
+ * <p>
+ * Each upload has two files in the configured directory: a data file that
+ * holds the committed chunks, in order, and a properties file that records
+ * the upload's owner, schema, and how many chunks and bytes have been
+ * committed. A chunk is written to the end of the data file and synced to
+ * disk before the properties file is atomically replaced. This means that,
+ * if the server stops while a chunk is being written, the partial chunk is
+ * ignored and is overwritten when the chunk is sent again.
+ * </p>
+ * 
+ * <p>
+ * A chunk that has already been committed may be sent again, e.g. when its
+ * response was lost, and is ignored. A chunk that is past the next expected
+ * chunk is rejected.
+ * </p>
+ * 
+ * <p>
+ * Only one request may finalize an upload at a time. While it does, the
+ * number of points that have been stored is recorded after each batch, and
+ * no more chunks are accepted. Once the upload has been finalized, its data
+ * file is deleted, but its session file is kept, marked as finalized, so
+ * that a retried request can return the earlier result.
+ * </p>
+ * 
+ * <p>
+ * Uploads that have not been touched for the configured expiration are
+ * deleted whenever a new upload is opened.
+ * </p>
+ * 
+ * <p>
+ * There is only ever one instance of this class, which is created when the
+ * database is set up.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class UploadSessionStore {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(UploadSessionStore.class.getName());
+	
+	/**
+	 * The property key for the directory in which the uploads are kept.
+	 */
+	public static final String PROPERTY_KEY_DIRECTORY = "upload.directory";
+	/**
+	 * The property key for the maximum number of bytes in a single chunk.
+	 */
+	public static final String PROPERTY_KEY_MAX_CHUNK_SIZE =
+		"upload.maxChunkSize";
+	/**
+	 * The property key for the number of milliseconds after which an upload
+	 * that has not been touched is deleted.
+	 */
+	public static final String PROPERTY_KEY_EXPIRATION = "upload.expiration";
+	
+	/**
+	 * The default directory in which the uploads are kept.
+	 */
+	public static final String DEFAULT_DIRECTORY =
+		System.getProperty("java.io.tmpdir") +
+			File.separator +
+			"omh-uploads";
+	/**
+	 * The default maximum number of bytes in a single chunk.
+	 */
+	public static final long DEFAULT_MAX_CHUNK_SIZE = 5 * 1024 * 1024;
+	/**
+	 * The default number of milliseconds after which an upload that has not
+	 * been touched is deleted.
+	 */
+	public static final long DEFAULT_EXPIRATION = 24 * 60 * 60 * 1000;
+	
+	/**
+	 * The extension of the files that hold the uploads' states.
+	 */
+	private static final String SESSION_EXTENSION = ".session";
+	/**
+	 * The extension of the files that hold the uploads' data.
+	 */
+	private static final String DATA_EXTENSION = ".data";
+	/**
+	 * The extension of the files that hold the uploads' new states before
+	 * they replace the old ones.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	
+	/**
+	 * The key in a session file for the upload's owner.
+	 */
+	private static final String KEY_OWNER = "owner";
+	/**
+	 * The key in a session file for the upload's schema ID.
+	 */
+	private static final String KEY_SCHEMA_ID = "schema_id";
+	/**
+	 * The key in a session file for the upload's schema version.
+	 */
+	private static final String KEY_SCHEMA_VERSION = "schema_version";
+	/**
+	 * The key in a session file for the number of committed chunks.
+	 */
+	private static final String KEY_CHUNKS = "chunks";
+	/**
+	 * The key in a session file for the number of committed bytes.
+	 */
+	private static final String KEY_OFFSET = "offset";
+	/**
+	 * The key in a session file for the number of points that have been
+	 * stored while finalizing.
+	 */
+	private static final String KEY_STORED_POINTS = "stored_points";
+	/**
+	 * The key in a session file for whether or not the upload has been
+	 * finalized.
+	 */
+	private static final String KEY_FINALIZED = "finalized";
+	/**
+	 * The key in a session file for whether or not storing the data was
+	 * deferred when the upload was finalized.
+	 */
+	private static final String KEY_DEFERRED = "deferred";
+	
+	/**
+	 * The character set for the session files.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The size of the buffer used to copy a chunk to disk.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The directory in which the uploads are kept.
+	 */
+	private final File directory;
+	/**
+	 * The maximum number of bytes in a single chunk.
+	 */
+	private final long maxChunkSize;
+	/**
+	 * The number of milliseconds after which an upload that has not been
+	 * touched is deleted.
+	 */
+	private final long expiration;
+	
+	/**
+	 * The locks that serialize the changes to each upload.
+	 */
+	private final ConcurrentMap<String, Object> locks =
+		new ConcurrentHashMap<String, Object>();
+	/**
+	 * The IDs of the uploads that are being finalized.
+	 */
+	private final Set<String> finalizing =
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * The singular instance of this class.
+	 */
+	private static UploadSessionStore instance = null;
+	
+	/**
+	 * Creates the store.
+	 * 
+	 * @param properties
+	 *        The properties that configure the store.
+	 * 
+	 * @throws OmhException
+	 *         The configuration is invalid or the directory could not be
+	 *         created.
+	 */
+	public UploadSessionStore(final Properties properties) throws OmhException {
+		// Read the configuration.
+		directory =
+			new File(
+				properties
+					.getProperty(PROPERTY_KEY_DIRECTORY, DEFAULT_DIRECTORY));
+		maxChunkSize =
+			getLong(
+				properties,
+				PROPERTY_KEY_MAX_CHUNK_SIZE,
+				DEFAULT_MAX_CHUNK_SIZE);
+		expiration =
+			getLong(properties, PROPERTY_KEY_EXPIRATION, DEFAULT_EXPIRATION);
+		
+		// Make sure the directory exists.
+		if((! directory.isDirectory()) && (! directory.mkdirs())) {
+			throw
+				new OmhException(
+					"The upload directory could not be created: " +
+						directory.getAbsolutePath());
+		}
+		
+		// Save the instance.
+		instance = this;
+	}
+	
+	/**
+	 * Returns the singular instance of this class.
+	 * 
+	 * @return The singular instance of this class.
+	 */
+	public static UploadSessionStore getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Opens a new, empty upload.
+	 * 
+	 * @param owner
+	 *        The username of the user that is uploading the data.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 * 
+	 * @return The new upload.
+	 * 
+	 * @throws OmhException
+	 *         The upload could not be created.
+	 */
+	public UploadSession open(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Remove any uploads that were abandoned.
+		deleteExpired();
+		
+		// Create the upload and its empty data file.
+		UploadSession session =
+			new UploadSession(
+				UUID.randomUUID().toString(),
+				owner,
+				schemaId,
+				version,
+				0,
+				0,
+				0,
+				false,
+				false);
+		try {
+			if(! getDataFile(session.getId()).createNewFile()) {
+				throw new OmhException("The upload ID is already in use.");
+			}
+			writeSession(session);
+		}
+		catch(IOException e) {
+			throw new OmhException("The upload could not be created.", e);
+		}
+		
+		return session;
+	}
+	
+	/**
+	 * Returns the current state of an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @return The upload's state.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown or could not be read.
+	 */
+	public UploadSession get(final String id) throws OmhException {
+		synchronized(getLock(id)) {
+			return readSession(id);
+		}
+	}
+	
+	/**
+	 * Commits a chunk of an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @param chunk
+	 *        The number of the chunk, starting at zero.
+	 * 
+	 * @param data
+	 *        The chunk's bytes.
+	 * 
+	 * @return The upload's new state.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown, the chunk is out of order or too large,
+	 *         or it could not be written.
+	 */
+	public UploadSession addChunk(
+		final String id,
+		final long chunk,
+		final InputStream data)
+		throws OmhException {
+		
+		if(data == null) {
+			throw new OmhException("The chunk is missing.");
+		}
+		
+		synchronized(getLock(id)) {
+			// Get the upload's state.
+			UploadSession session = readSession(id);
+			
+			// If the chunk was already committed, there is nothing to do.
+			if(chunk < session.getChunks()) {
+				return session;
+			}
+			// Once finalizing has begun, the data may not change.
+			if(
+				finalizing.contains(id) ||
+				session.isFinalized() ||
+				(session.getStoredPoints() > 0)) {
+				
+				throw
+					new OmhException(
+						"The upload has already been finalized: " + id);
+			}
+			// If a chunk was skipped, reject it.
+			if(chunk > session.getChunks()) {
+				throw
+					new OmhException(
+						"The next chunk for the upload is " +
+							session.getChunks() +
+							", not " +
+							chunk +
+							".");
+			}
+			
+			// Write the chunk after the committed data, overwriting any part
+			// of a chunk that was not committed.
+			long length = 0;
+			try(
+				FileChannel channel =
+					new FileOutputStream(getDataFile(id), true).getChannel()) {
+				
+				channel.truncate(session.getOffset());
+				channel.position(session.getOffset());
+				
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while((read = data.read(buffer)) != -1) {
+					length += read;
+					if(length > maxChunkSize) {
+						channel.truncate(session.getOffset());
+						throw
+							new OmhException(
+								"The chunk is larger than the maximum of " +
+									maxChunkSize +
+									" bytes.");
+					}
+					channel.write(ByteBuffer.wrap(buffer, 0, read));
+				}
+				
+				// Make sure the chunk is on disk before it is committed.
+				channel.force(false);
+			}
+			catch(IOException e) {
+				throw new OmhException("The chunk could not be written.", e);
+			}
+			
+			// Commit the chunk.
+			session = session.addChunk(length);
+			try {
+				writeSession(session);
+			}
+			catch(IOException e) {
+				throw new OmhException("The chunk could not be committed.", e);
+			}
+			
+			return session;
+		}
+	}
+	
+	/**
+	 * Begins finalizing an upload. Only one request may finalize an upload at
+	 * a time, so this must be followed by {@link #endFinalizing(String)}.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @return The upload's state.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown or is already being finalized.
+	 */
+	public UploadSession beginFinalizing(final String id) throws OmhException {
+		synchronized(getLock(id)) {
+			UploadSession session = readSession(id);
+			if(! finalizing.add(id)) {
+				throw
+					new OmhException(
+						"The upload is already being finalized: " + id);
+			}
+			return session;
+		}
+	}
+	
+	/**
+	 * Records the number of an upload's points that have been stored while
+	 * finalizing it.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @param points
+	 *        The total number of points that have been stored.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown or could not be updated.
+	 */
+	public void setStoredPoints(
+		final String id,
+		final long points)
+		throws OmhException {
+		
+		synchronized(getLock(id)) {
+			try {
+				writeSession(readSession(id).setStoredPoints(points));
+			}
+			catch(IOException e) {
+				throw
+					new OmhException(
+						"The upload's progress could not be recorded.",
+						e);
+			}
+		}
+	}
+	
+	/**
+	 * Marks an upload as finalized and deletes its data, which is no longer
+	 * needed.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @param deferred
+	 *        Whether or not storing the data was deferred.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown or could not be updated.
+	 */
+	public void setFinalized(
+		final String id,
+		final boolean deferred)
+		throws OmhException {
+		
+		synchronized(getLock(id)) {
+			try {
+				writeSession(readSession(id).setFinalized(deferred));
+			}
+			catch(IOException e) {
+				throw
+					new OmhException(
+						"The upload could not be marked as finalized.",
+						e);
+			}
+			
+			File dataFile = getDataFile(id);
+			if(dataFile.exists() && (! dataFile.delete())) {
+				LOGGER
+					.log(
+						Level.WARNING,
+						"An upload file could not be deleted: " +
+							dataFile.getAbsolutePath());
+			}
+		}
+	}
+	
+	/**
+	 * Ends finalizing an upload, whether or not it succeeded.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 */
+	public void endFinalizing(final String id) {
+		finalizing.remove(id);
+	}
+	
+	/**
+	 * Opens the committed data of an upload. The caller is responsible for
+	 * closing the stream.
+	 * 
+	 * @param session
+	 *        The upload, whose state determines how much data is read.
+	 * 
+	 * @return A stream of the upload's committed data.
+	 * 
+	 * @throws OmhException
+	 *         The data could not be opened.
+	 */
+	public InputStream openData(
+		final UploadSession session)
+		throws OmhException {
+		
+		try {
+			return
+				new BoundedInputStream(
+					new BufferedInputStream(
+						new FileInputStream(getDataFile(session.getId())),
+						BUFFER_SIZE),
+					session.getOffset());
+		}
+		catch(FileNotFoundException e) {
+			throw new OmhException("The upload's data is missing.", e);
+		}
+	}
+	
+	/**
+	 * Deletes an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 */
+	public void delete(final String id) {
+		synchronized(getLock(id)) {
+			deleteFiles(id);
+			locks.remove(id);
+		}
+	}
+	
+	/**
+	 * Deletes the uploads that have not been touched for longer than the
+	 * expiration.
+	 */
+	private void deleteExpired() {
+		File[] sessionFiles = directory.listFiles();
+		if(sessionFiles == null) {
+			return;
+		}
+		
+		long cutoff = System.currentTimeMillis() - expiration;
+		for(File sessionFile : sessionFiles) {
+			String name = sessionFile.getName();
+			if(
+				name.endsWith(SESSION_EXTENSION) &&
+				(sessionFile.lastModified() < cutoff)) {
+				
+				String id =
+					name
+						.substring(
+							0,
+							name.length() - SESSION_EXTENSION.length());
+				
+				// An upload that is being finalized is still in use.
+				if(finalizing.contains(id)) {
+					continue;
+				}
+				
+				LOGGER.log(Level.INFO, "Deleting an expired upload: " + id);
+				delete(id);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the lock for an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @return The lock for the upload.
+	 * 
+	 * @throws OmhException
+	 *         The ID is not a valid upload ID.
+	 */
+	private Object getLock(final String id) throws OmhException {
+		// Make sure the ID cannot refer to a file outside of the directory.
+		if(id == null) {
+			throw new OmhException("The upload ID is null.");
+		}
+		try {
+			UUID.fromString(id);
+		}
+		catch(IllegalArgumentException e) {
+			throw new OmhException("The upload ID is invalid.", e);
+		}
+		
+		Object lock = new Object();
+		Object existing = locks.putIfAbsent(id, lock);
+		return (existing == null) ? lock : existing;
+	}
+	
+	/**
+	 * Reads the state of an upload from its session file.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @return The upload's state.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown or its state could not be read.
+	 */
+	private UploadSession readSession(final String id) throws OmhException {
+		Properties properties = new Properties();
+		try(
+			Reader reader =
+				new InputStreamReader(
+					new FileInputStream(
+						new File(directory, id + SESSION_EXTENSION)),
+					CHARSET)) {
+			
+			properties.load(reader);
+		}
+		catch(FileNotFoundException e) {
+			throw new OmhException("The upload is unknown: " + id, e);
+		}
+		catch(IOException e) {
+			throw new OmhException("The upload could not be read.", e);
+		}
+		
+		try {
+			return
+				new UploadSession(
+					id,
+					properties.getProperty(KEY_OWNER),
+					properties.getProperty(KEY_SCHEMA_ID),
+					Long.parseLong(properties.getProperty(KEY_SCHEMA_VERSION)),
+					Long.parseLong(properties.getProperty(KEY_CHUNKS)),
+					Long.parseLong(properties.getProperty(KEY_OFFSET)),
+					Long
+						.parseLong(
+							properties.getProperty(KEY_STORED_POINTS, "0")),
+					Boolean
+						.parseBoolean(properties.getProperty(KEY_FINALIZED)),
+					Boolean
+						.parseBoolean(properties.getProperty(KEY_DEFERRED)));
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The upload is corrupt: " + id, e);
+		}
+	}
+	
+	/**
+	 * Atomically replaces the session file of an upload.
+	 * 
+	 * @param session
+	 *        The upload's new state.
+	 * 
+	 * @throws IOException
+	 *         The session file could not be written.
+	 */
+	private void writeSession(final UploadSession session) throws IOException {
+		// Build the new state.
+		Properties properties = new Properties();
+		properties.setProperty(KEY_OWNER, session.getOwner());
+		properties.setProperty(KEY_SCHEMA_ID, session.getSchemaId());
+		properties
+			.setProperty(
+				KEY_SCHEMA_VERSION,
+				Long.toString(session.getVersion()));
+		properties.setProperty(KEY_CHUNKS, Long.toString(session.getChunks()));
+		properties.setProperty(KEY_OFFSET, Long.toString(session.getOffset()));
+		properties
+			.setProperty(
+				KEY_STORED_POINTS,
+				Long.toString(session.getStoredPoints()));
+		properties
+			.setProperty(
+				KEY_FINALIZED,
+				Boolean.toString(session.isFinalized()));
+		properties
+			.setProperty(KEY_DEFERRED, Boolean.toString(session.isDeferred()));
+		
+		// Write it to a temporary file and sync it.
+		File temporaryFile =
+			new File(
+				directory,
+				session.getId() + SESSION_EXTENSION + TEMPORARY_EXTENSION);
+		try(FileOutputStream output = new FileOutputStream(temporaryFile)) {
+			Writer writer = new OutputStreamWriter(output, CHARSET);
+			properties.store(writer, null);
+			writer.flush();
+			output.getFD().sync();
+		}
+		
+		// Replace the old state.
+		Files
+			.move(
+				temporaryFile.toPath(),
+				new File(directory, session.getId() + SESSION_EXTENSION)
+					.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Deletes all of the files for an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 */
+	private void deleteFiles(final String id) {
+		// Delete the session file first so that the upload is unknown even if
+		// the data file cannot be deleted.
+		String[] extensions =
+			new String[] {
+				SESSION_EXTENSION,
+				SESSION_EXTENSION + TEMPORARY_EXTENSION,
+				DATA_EXTENSION };
+		for(String extension : extensions) {
+			File file = new File(directory, id + extension);
+			if(file.exists() && (! file.delete())) {
+				LOGGER
+					.log(
+						Level.WARNING,
+						"An upload file could not be deleted: " +
+							file.getAbsolutePath());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the data file for an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @return The upload's data file.
+	 */
+	private File getDataFile(final String id) {
+		return new File(directory, id + DATA_EXTENSION);
+	}
+	
+	/**
+	 * Reads a positive number from the properties.
+	 * 
+	 * @param properties
+	 *        The properties.
+	 * 
+	 * @param key
+	 *        The property's key.
+	 * 
+	 * @param defaultValue
+	 *        The value to use if the property is missing.
+	 * 
+	 * @return The property's value.
+	 * 
+	 * @throws OmhException
+	 *         The property is not a positive number.
+	 */
+	private static long getLong(
+		final Properties properties,
+		final String key,
+		final long defaultValue)
+		throws OmhException {
+		
+		String value = properties.getProperty(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			long result = Long.decode(value.trim());
+			if(result <= 0) {
+				throw new OmhException("The property must be positive: " + key);
+			}
+			return result;
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The property is not a number: " + key, e);
+		}
+	}
+}
@@ -9,6 +9,7 @@ import org.openmhealth.reference.exception.OmhException;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
 
 /**
@@ -33,6 +34,20 @@ public class MongoAuthorizationCodeBin extends AuthorizationCodeBin {
 				new BasicDBObject(AuthorizationCode.JSON_KEY_CODE, 1),
 				DB_NAME + "_" + AuthorizationCode.JSON_KEY_CODE + "_unique",
 				true);
+		
+		// Ensure that there is an index for finding a third-party's codes for
+		// a scope.
+		DBObject thirdPartyIndex = new BasicDBObject();
+		thirdPartyIndex.put(AuthorizationCode.JSON_KEY_THIRD_PARTY, 1);
+		thirdPartyIndex.put(AuthorizationCode.JSON_KEY_SCOPES, 1);
+		collection
+			.ensureIndex(
+				thirdPartyIndex,
+				DB_NAME +
+					"_" +
+					AuthorizationCode.JSON_KEY_THIRD_PARTY +
+					"_index",
+				false);
 	}
 
 	/*
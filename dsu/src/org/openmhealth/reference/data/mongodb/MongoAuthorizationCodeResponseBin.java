@@ -1,14 +1,23 @@
 package org.openmhealth.reference.data.mongodb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.mongojack.DBCursor;
 import org.mongojack.JacksonDBCollection;
+import org.openmhealth.reference.data.AuthorizationCodeBin;
 import org.openmhealth.reference.data.AuthorizationCodeResponseBin;
+import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationCodeResponse;
 import org.openmhealth.reference.domain.mongodb.MongoAuthorizationCodeResponse;
 import org.openmhealth.reference.exception.OmhException;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
 
 /**
@@ -133,4 +142,122 @@ public class MongoAuthorizationCodeResponseBin
 			return result.next();
 		}
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.AuthorizationCodeResponseBin#getGrantedCodes(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public Map<String, String> getGrantedCodes(
+		final String thirdPartyId,
+		final String scope,
+		final long grantedBefore)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(thirdPartyId == null) {
+			throw new OmhException("The third-party ID is null.");
+		}
+		if(scope == null) {
+			throw new OmhException("The scope is null.");
+		}
+		
+		DB db = MongoDao.getInstance().getDb();
+		
+		// Find the third-party's codes that include the scope. A code is
+		// always created before it is responded to, so the later codes can be
+		// ignored. Remember which codes had expired by then, because their
+		// expiration times stand in for the times of responses that were
+		// stored before the times were recorded.
+		QueryBuilder codeQueryBuilder = QueryBuilder.start();
+		codeQueryBuilder
+			.and(AuthorizationCode.JSON_KEY_THIRD_PARTY)
+			.is(thirdPartyId);
+		codeQueryBuilder.and(AuthorizationCode.JSON_KEY_SCOPES).is(scope);
+		codeQueryBuilder
+			.and(AuthorizationCode.JSON_KEY_CREATION_TIME)
+			.lessThanEquals(grantedBefore);
+		DBObject codeProjection =
+			new BasicDBObject(AuthorizationCode.JSON_KEY_CODE, 1);
+		codeProjection.put(AuthorizationCode.JSON_KEY_EXPIRATION_TIME, 1);
+		List<Object> codes = new ArrayList<Object>();
+		List<Object> expiredCodes = new ArrayList<Object>();
+		com.mongodb.DBCursor codeResult =
+			db
+				.getCollection(AuthorizationCodeBin.DB_NAME)
+				.find(codeQueryBuilder.get(), codeProjection);
+		try {
+			while(codeResult.hasNext()) {
+				DBObject code = codeResult.next();
+				codes.add(code.get(AuthorizationCode.JSON_KEY_CODE));
+				
+				Object expirationTime =
+					code.get(AuthorizationCode.JSON_KEY_EXPIRATION_TIME);
+				if(
+					(expirationTime instanceof Number) &&
+					(((Number) expirationTime).longValue() <= grantedBefore)) {
+					
+					expiredCodes.add(code.get(AuthorizationCode.JSON_KEY_CODE));
+				}
+			}
+		}
+		finally {
+			codeResult.close();
+		}
+		if(codes.size() == 0) {
+			return new HashMap<String, String>();
+		}
+		
+		// Find the responses to those codes that were granted by then.
+		QueryBuilder responseQueryBuilder = QueryBuilder.start();
+		responseQueryBuilder
+			.and(AuthorizationCodeResponse.JSON_KEY_AUTHORIZATION_CODE)
+			.in(codes);
+		responseQueryBuilder
+			.and(AuthorizationCodeResponse.JSON_KEY_GRANTED)
+			.is(true);
+		QueryBuilder untimedQueryBuilder = QueryBuilder.start();
+		untimedQueryBuilder
+			.and(AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME)
+			.exists(false);
+		untimedQueryBuilder
+			.and(AuthorizationCodeResponse.JSON_KEY_AUTHORIZATION_CODE)
+			.in(expiredCodes);
+		responseQueryBuilder
+			.or(
+				QueryBuilder
+					.start(AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME)
+					.lessThanEquals(grantedBefore)
+					.get(),
+				untimedQueryBuilder.get());
+		DBObject responseProjection =
+			new BasicDBObject(
+				AuthorizationCodeResponse.JSON_KEY_AUTHORIZATION_CODE,
+				1);
+		responseProjection.put(AuthorizationCodeResponse.JSON_KEY_OWNER, 1);
+		Map<String, String> result = new HashMap<String, String>();
+		com.mongodb.DBCursor responseResult =
+			db
+				.getCollection(DB_NAME)
+				.find(responseQueryBuilder.get(), responseProjection);
+		try {
+			while(responseResult.hasNext()) {
+				DBObject response = responseResult.next();
+				result
+					.put(
+						response
+							.get(
+								AuthorizationCodeResponse
+									.JSON_KEY_AUTHORIZATION_CODE)
+							.toString(),
+						response
+							.get(AuthorizationCodeResponse.JSON_KEY_OWNER)
+							.toString());
+			}
+		}
+		finally {
+			responseResult.close();
+		}
+		return result;
+	}
 }
\ No newline at end of file
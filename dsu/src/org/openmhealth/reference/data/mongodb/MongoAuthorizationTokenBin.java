@@ -1,14 +1,23 @@
 package org.openmhealth.reference.data.mongodb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.mongojack.DBCursor;
 import org.mongojack.JacksonDBCollection;
+import org.openmhealth.reference.data.AuthorizationCodeBin;
 import org.openmhealth.reference.data.AuthorizationTokenBin;
+import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationToken;
 import org.openmhealth.reference.domain.mongodb.MongoAuthorizationToken;
 import org.openmhealth.reference.exception.OmhException;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
 
 /**
@@ -196,4 +205,85 @@ public class MongoAuthorizationTokenBin extends AuthorizationTokenBin {
 			return result.next();
 		}
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.AuthorizationTokenBin#getLatestExpirationTimes(java.lang.String)
+	 */
+	@Override
+	public Map<String, Long> getLatestExpirationTimes(
+		final String thirdPartyId)
+		throws OmhException {
+		
+		// Validate the parameter.
+		if(thirdPartyId == null) {
+			throw new OmhException("The third-party ID is null.");
+		}
+		
+		DB db = MongoDao.getInstance().getDb();
+		
+		// Find the third-party's codes.
+		List<Object> codes = new ArrayList<Object>();
+		com.mongodb.DBCursor codeResult =
+			db
+				.getCollection(AuthorizationCodeBin.DB_NAME)
+				.find(
+					new BasicDBObject(
+						AuthorizationCode.JSON_KEY_THIRD_PARTY,
+						thirdPartyId),
+					new BasicDBObject(AuthorizationCode.JSON_KEY_CODE, 1));
+		try {
+			while(codeResult.hasNext()) {
+				codes
+					.add(
+						codeResult
+							.next()
+							.get(AuthorizationCode.JSON_KEY_CODE));
+			}
+		}
+		finally {
+			codeResult.close();
+		}
+		Map<String, Long> result = new HashMap<String, Long>();
+		if(codes.size() == 0) {
+			return result;
+		}
+		
+		// Find the latest expiration time of each code's tokens.
+		QueryBuilder tokenQueryBuilder = QueryBuilder.start();
+		tokenQueryBuilder
+			.and(AuthorizationToken.JSON_KEY_AUTHORIZATION_CODE)
+			.in(codes);
+		DBObject tokenProjection =
+			new BasicDBObject(
+				AuthorizationToken.JSON_KEY_AUTHORIZATION_CODE,
+				1);
+		tokenProjection.put(AuthorizationToken.JSON_KEY_EXPIRATION_TIME, 1);
+		com.mongodb.DBCursor tokenResult =
+			db
+				.getCollection(DB_NAME)
+				.find(tokenQueryBuilder.get(), tokenProjection);
+		try {
+			while(tokenResult.hasNext()) {
+				DBObject token = tokenResult.next();
+				String code =
+					token
+						.get(AuthorizationToken.JSON_KEY_AUTHORIZATION_CODE)
+						.toString();
+				long expirationTime =
+					((Number)
+						token.get(AuthorizationToken.JSON_KEY_EXPIRATION_TIME))
+						.longValue();
+				
+				Long latest = result.get(code);
+				if((latest == null) || (latest < expirationTime)) {
+					result.put(code, expirationTime);
+				}
+			}
+		}
+		finally {
+			tokenResult.close();
+		}
+		return result;
+	}
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ import com.mongodb.DB;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoCredential;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
 
 /**
  * <p>
@@ -51,10 +52,72 @@ public class MongoDao extends Dao {
 	 */
 	public static final String DEFAULT_DATABASE_NAME = "omh";
 	
+	/**
+	 * The property key for the name of the write concern to use when
+	 * inserting data, e.g. "ACKNOWLEDGED" or "JOURNALED".
+	 */
+	public static final String PROPERTY_KEY_WRITE_CONCERN =
+		"db.mongo.writeConcern";
+	
+	/**
+	 * The property key for the approximate maximum number of bytes of data
+	 * to send in a single insert.
+	 */
+	public static final String PROPERTY_KEY_INSERT_CHUNK_SIZE =
+		"db.mongo.insertChunkSize";
+	
+	/**
+	 * The property key for whether or not inserts should stop at the first
+	 * point that fails.
+	 */
+	public static final String PROPERTY_KEY_ORDERED_INSERTS =
+		"db.mongo.orderedInserts";
+	
+	/**
+	 * The property key for the number of milliseconds that a snapshot of the
+	 * data lags behind the current time. This must be longer than the time
+	 * it takes an insert to reach the database plus the most that any two
+	 * servers' clocks may differ.
+	 */
+	public static final String PROPERTY_KEY_SNAPSHOT_LAG =
+		"db.mongo.snapshotLag";
+	
+	/**
+	 * The default write concern to use when inserting data.
+	 */
+	public static final String DEFAULT_WRITE_CONCERN = "ACKNOWLEDGED";
+	
+	/**
+	 * The default approximate maximum number of bytes of data to send in a
+	 * single insert.
+	 */
+	public static final int DEFAULT_INSERT_CHUNK_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * The default number of milliseconds that a snapshot lags behind the
+	 * current time.
+	 */
+	public static final long DEFAULT_SNAPSHOT_LAG = 60 * 1000;
+	
 	/**
 	 * The connection to the database.
 	 */
 	private final MongoClient mongo;
+	
+	/**
+	 * The write concern to use when inserting data.
+	 */
+	private final WriteConcern insertWriteConcern;
+	/**
+	 * The approximate maximum number of bytes of data to send in a single
+	 * insert.
+	 */
+	private final int insertChunkSize;
+	/**
+	 * The number of milliseconds that a snapshot lags behind the current
+	 * time.
+	 */
+	private final long snapshotLag;
 
 	/**
 	 * Default constructor, which will create the connection to the MongoDB.
@@ -102,6 +165,62 @@ public class MongoDao extends Dao {
 			throw new OmhException("The database could not setup.", e);
 		}
 		
+		// Get the write concern for inserts.
+		String writeConcernName =
+			properties
+				.getProperty(PROPERTY_KEY_WRITE_CONCERN, DEFAULT_WRITE_CONCERN);
+		WriteConcern writeConcern = WriteConcern.valueOf(writeConcernName);
+		if(writeConcern == null) {
+			throw
+				new OmhException(
+					"The write concern is unknown: " + writeConcernName);
+		}
+		// Unless inserts are ordered, continue past any points that fail.
+		insertWriteConcern =
+			writeConcern
+				.continueOnErrorForInsert(
+					! Boolean
+						.parseBoolean(
+							properties
+								.getProperty(
+									PROPERTY_KEY_ORDERED_INSERTS,
+									"false")));
+		
+		// Get the insert chunk size.
+		try {
+			insertChunkSize =
+				Integer
+					.decode(
+						properties
+							.getProperty(
+								PROPERTY_KEY_INSERT_CHUNK_SIZE,
+								Integer.toString(DEFAULT_INSERT_CHUNK_SIZE)));
+		}
+		catch(NumberFormatException e) {
+			throw
+				new OmhException("The insert chunk size is not a number.", e);
+		}
+		if(insertChunkSize <= 0) {
+			throw new OmhException("The insert chunk size must be positive.");
+		}
+		
+		// Get the snapshot lag.
+		try {
+			snapshotLag =
+				Long
+					.decode(
+						properties
+							.getProperty(
+								PROPERTY_KEY_SNAPSHOT_LAG,
+								Long.toString(DEFAULT_SNAPSHOT_LAG)));
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The snapshot lag is not a number.", e);
+		}
+		if(snapshotLag <= 0) {
+			throw new OmhException("The snapshot lag must be positive.");
+		}
+		
 		// Instantiate the specific components.
 		new MongoAuthenticationTokenBin();
 		new MongoAuthorizationCodeBin();
@@ -109,6 +228,8 @@ public class MongoDao extends Dao {
 		new MongoAuthorizationTokenBin();
 		new MongoDataSet();
 		new MongoRegistry();
+		new MongoRollupBin(properties);
+		new MongoStreamStatisticsBin();
 		new MongoThirdPartyBin();
 		new MongoUserBin();
 	}
@@ -123,6 +244,35 @@ public class MongoDao extends Dao {
 		return mongo.getDB(getDatabaseName());
 	}
 	
+	/**
+	 * Returns the write concern to use when inserting data.
+	 * 
+	 * @return The write concern to use when inserting data.
+	 */
+	public WriteConcern getInsertWriteConcern() {
+		return insertWriteConcern;
+	}
+	
+	/**
+	 * Returns the approximate maximum number of bytes of data to send in a
+	 * single insert.
+	 * 
+	 * @return The approximate maximum number of bytes in a single insert.
+	 */
+	public int getInsertChunkSize() {
+		return insertChunkSize;
+	}
+	
+	/**
+	 * Returns the number of milliseconds that a snapshot of the data lags
+	 * behind the current time.
+	 * 
+	 * @return The number of milliseconds that a snapshot lags.
+	 */
+	public long getSnapshotLag() {
+		return snapshotLag;
+	}
+	
 	/**
 	 * Shuts the DAO down.
 	 */
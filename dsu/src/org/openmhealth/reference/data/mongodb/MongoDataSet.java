@@ -15,33 +15,135 @@
  ******************************************************************************/
 package org.openmhealth.reference.data.mongodb;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.bson.types.ObjectId;
 import org.mongojack.DBCursor;
 import org.mongojack.JacksonDBCollection;
 import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.RollupBin;
+import org.openmhealth.reference.data.StreamStatisticsBin;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.CursorMultiValueResult;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataCursor;
+import org.openmhealth.reference.domain.DataSummary;
 import org.openmhealth.reference.domain.MetaData;
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.Schema;
 import org.openmhealth.reference.domain.mongodb.MongoData;
-import org.openmhealth.reference.domain.mongodb.MongoMultiValueResultCursor;
+import org.openmhealth.reference.domain.mongodb.MongoDbObject;
+import org.openmhealth.reference.domain.mongodb.MongoMultiValueResultList;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialStoreException;
+import org.openmhealth.reference.util.TimeZoneOffsets;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mongodb.AggregationOutput;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.QueryBuilder;
+import com.mongodb.WriteConcern;
 
 /**
  * <p>
  * The interface to the database-backed set of data.
  * </p>
+ * 
+ * <p>
+ * Data is inserted in chunks of roughly {@link MongoDao#getInsertChunkSize()}
+ * bytes using the {@link MongoDao#getInsertWriteConcern()}. Unless inserts
+ * are ordered, a chunk that fails does not stop the remaining chunks from
+ * being inserted, and every failed chunk is reported.
+ * </p>
  *
  * @author John Jenkins
  */
 public class MongoDataSet extends DataSet {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(MongoDataSet.class.getName());
+	
+	/**
+	 * The number of bytes BSON uses for a document's length and terminator.
+	 */
+	private static final int DOCUMENT_OVERHEAD = 5;
+	/**
+	 * The approximate number of bytes a point's meta-data takes once it is
+	 * encoded as BSON.
+	 */
+	private static final int METADATA_SIZE = 256;
+	/**
+	 * The field that contains a point's meta-data ID.
+	 */
+	private static final String METADATA_ID_FIELD =
+		Data.JSON_KEY_METADATA + 
+			ColumnList.COLUMN_SEPARATOR + 
+			MetaData.JSON_KEY_ID;
+	/**
+	 * The field that contains a point's timestamp as milliseconds since the
+	 * epoch. The timestamp is stored with all of its fields, and this is the
+	 * only one that is ordered the same way as the instants themselves,
+	 * regardless of their time zones.
+	 */
+	private static final String METADATA_TIMESTAMP_MILLIS_FIELD =
+		Data.JSON_KEY_METADATA + 
+			ColumnList.COLUMN_SEPARATOR + 
+			MetaData.JSON_KEY_TIMESTAMP +
+			ColumnList.COLUMN_SEPARATOR +
+			"millis";
+	
+	/**
+	 * The field of a summarized point that contains the start of its period.
+	 */
+	private static final String FIELD_PERIOD = "period";
+	/**
+	 * The prefix of the fields of a summarized point that contain the values
+	 * to summarize, which are followed by the index of the value.
+	 */
+	private static final String FIELD_VALUE = "value_";
+	/**
+	 * The field of a summary that contains the number of points. Followed by
+	 * the index of a value, it contains the number of points in which the
+	 * value is a number.
+	 */
+	private static final String FIELD_COUNT = "count";
+	/**
+	 * The prefix of the fields of a summary that contain the minimums.
+	 */
+	private static final String FIELD_MIN = "min_";
+	/**
+	 * The prefix of the fields of a summary that contain the maximums.
+	 */
+	private static final String FIELD_MAX = "max_";
+	/**
+	 * The prefix of the fields of a summary that contain the sums.
+	 */
+	private static final String FIELD_SUM = "sum_";
+	
 	/**
 	 * Default constructor.
 	 */
@@ -70,6 +172,12 @@ public class MongoDataSet extends DataSet {
 				DB_NAME + "_" + Schema.JSON_KEY_VERSION + "_index",
 				false);
 		
+		// Ensure that there is an index on the meta-data's ID.
+		collection.ensureIndex(
+			new BasicDBObject(METADATA_ID_FIELD, 1),
+			DB_NAME + "_" + METADATA_ID_FIELD + "_index",
+			false);
+		
 		// Build the index for sorting.
 		String sortingFields = 
 			Data.JSON_KEY_METADATA + 
@@ -79,6 +187,18 @@ public class MongoDataSet extends DataSet {
 			new BasicDBObject(sortingFields, 1),
 			DB_NAME + "_" + sortingFields + "_index",
 			false);
+		
+		// Build the index for reading a stream within a range of time.
+		DBObject streamTimeIndex = new BasicDBObject();
+		streamTimeIndex.put(Data.JSON_KEY_OWNER, 1);
+		streamTimeIndex.put(Schema.JSON_KEY_ID, 1);
+		streamTimeIndex.put(Schema.JSON_KEY_VERSION, 1);
+		streamTimeIndex.put(METADATA_TIMESTAMP_MILLIS_FIELD, -1);
+		streamTimeIndex.put(MongoDbObject.DATABASE_FIELD_ID, -1);
+		collection.ensureIndex(
+			streamTimeIndex,
+			DB_NAME + "_stream_" + METADATA_TIMESTAMP_MILLIS_FIELD + "_index",
+			false);
 	}
 	
 	/*
@@ -95,32 +215,745 @@ public class MongoDataSet extends DataSet {
 			JacksonDBCollection
 				.wrap(db.getCollection(DB_NAME), Data.class);
 		
-		// Insert the data.
-		collection.insert(data);
+		// Get the insert configuration.
+		WriteConcern writeConcern =
+			MongoDao.getInstance().getInsertWriteConcern();
+		int chunkSize = MongoDao.getInstance().getInsertChunkSize();
+		boolean continueOnError = writeConcern.getContinueOnErrorForInsert();
+		
+		// Insert the data in chunks, remembering any chunks that failed and
+		// how many points were added to each stream.
+		List<String> failures = new LinkedList<String>();
+		Map<List<Object>, Long> added = new LinkedHashMap<List<Object>, Long>();
+		Set<List<Object>> uncounted = new HashSet<List<Object>>();
+		
+		// Remember which points were inserted and, for the chunks that
+		// failed, the range of time of each stream's points.
+		List<Data> inserted = new ArrayList<Data>(data.size());
+		List<Data> unstored = new ArrayList<Data>();
+		Map<List<Object>, List<Long>> unrolled =
+			new LinkedHashMap<List<Object>, List<Long>>();
+		int chunkStart = 0;
+		while(chunkStart < data.size()) {
+			// Build the chunk, which always has at least one point.
+			int chunkEnd = chunkStart;
+			long chunkBytes = 0;
+			do {
+				chunkBytes += estimateSize(data.get(chunkEnd));
+				chunkEnd++;
+			}
+			while(
+				(chunkEnd < data.size()) &&
+				(chunkBytes + estimateSize(data.get(chunkEnd)) <= chunkSize));
+			
+			// Insert the chunk. The points' IDs are generated now, so a
+			// snapshot may miss them if the insert takes longer than the
+			// snapshot lag.
+			long insertStart = System.currentTimeMillis();
+			try {
+				collection
+					.insert(data.subList(chunkStart, chunkEnd), writeConcern);
+				long insertTime = System.currentTimeMillis() - insertStart;
+				if(insertTime >= MongoDao.getInstance().getSnapshotLag()) {
+					LOGGER
+						.log(
+							Level.WARNING,
+							"Inserting " +
+								(chunkEnd - chunkStart) +
+								" points took " +
+								insertTime +
+								"ms, which is longer than the snapshot " +
+								"lag, so they may be missing from a " +
+								"snapshot that was taken meanwhile.");
+				}
+				
+				// Remember how many points were added to each stream.
+				inserted.addAll(data.subList(chunkStart, chunkEnd));
+				for(Data point : data.subList(chunkStart, chunkEnd)) {
+					List<Object> stream = getStream(point);
+					Long count = added.get(stream);
+					added.put(stream, (count == null) ? 1 : count + 1);
+				}
+			}
+			catch(MongoException e) {
+				// Some of the chunk may have been inserted, so its streams
+				// must be counted again and their rollups over the chunk's
+				// range of time rebuilt.
+				for(Data point : data.subList(chunkStart, chunkEnd)) {
+					uncounted.add(getStream(point));
+					addRange(unrolled, point);
+				}
+				unstored.addAll(data.subList(chunkStart, chunkEnd));
+				
+				failures
+					.add(
+						"Points " +
+							chunkStart +
+							" through " +
+							(chunkEnd - 1) +
+							": " +
+							e.getMessage());
+				
+				// If inserts are ordered, nothing after the failure is
+				// inserted.
+				if(! continueOnError) {
+					if(chunkEnd < data.size()) {
+						failures
+							.add(
+								"Points " +
+									chunkEnd +
+									" through " +
+									(data.size() - 1) +
+									": Not attempted.");
+						unstored.addAll(data.subList(chunkEnd, data.size()));
+					}
+					break;
+				}
+			}
+			
+			// Move on to the next chunk.
+			chunkStart = chunkEnd;
+		}
+		
+		// Update the streams' statistics. The data has already been stored,
+		// so a stream whose statistics cannot be updated is counted again
+		// before they are next read.
+		updateStatistics(added, uncounted);
+		updateRollups(inserted, unrolled);
+		
+		// If any chunk failed, report all of them. Part of a failed chunk may
+		// have been inserted, so the caller must not simply store it again.
+		if(failures.size() > 0) {
+			StringBuilder message =
+				new StringBuilder("Some of the data could not be stored.");
+			for(String failure : failures) {
+				message.append(' ').append(failure);
+			}
+			throw new PartialStoreException(message.toString(), unstored);
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, java.lang.Long, java.lang.Long)
+	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataCursor, long, long, boolean)
 	 */
 	@Override
-	public MultiValueResult<Data> getData(
+	public CursorMultiValueResult<Data> getData(
 		final String owner,
 		final String schemaId,
 		final long version,
 		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataCursor cursor,
 		final long numToSkip,
-		final long numToReturn) {
+		final long numToReturn,
+		final boolean includeCount) {
 		
-		// Get the connection to the database.
-		DB db = MongoDao.getInstance().getDb();
+		return
+			readData(
+				owner,
+				schemaId,
+				version,
+				columnList,
+				startDate,
+				endDate,
+				null,
+				cursor,
+				numToSkip,
+				numToReturn,
+				includeCount);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getSnapshot()
+	 */
+	@Override
+	public String getSnapshot() throws OmhException {
+		// The IDs are generated by each server when it inserts the points,
+		// so they are not in the order in which the points became visible.
+		// Instead, the snapshot includes every point whose ID was generated
+		// at least the snapshot lag ago, by which time every one of them has
+		// been inserted. The snapshot point is the smallest ID of the next
+		// second, so it is greater than every ID generated up to and
+		// including that second.
+		long snapshotTime =
+			System.currentTimeMillis() -
+				MongoDao.getInstance().getSnapshotLag();
+		return
+			new ObjectId(new Date(((snapshotTime / 1000) + 1) * 1000), 0, 0)
+				.toString();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getSnapshotData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, java.lang.String, org.openmhealth.reference.domain.DataCursor, long)
+	 */
+	@Override
+	public CursorMultiValueResult<Data> getSnapshotData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final String snapshot,
+		final DataCursor cursor,
+		final long numToReturn)
+		throws OmhException {
+		
+		if(snapshot == null) {
+			throw new OmhException("The snapshot point is null.");
+		}
+		if(! ObjectId.isValid(snapshot)) {
+			throw new OmhException("The snapshot point is invalid.");
+		}
+		
+		return
+			readData(
+				owner,
+				schemaId,
+				version,
+				columnList,
+				null,
+				null,
+				new ObjectId(snapshot),
+				cursor,
+				0,
+				numToReturn,
+				false);
+	}
+	
+	/**
+	 * Reads a page of data.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 * 
+	 * @param columnList
+	 *        The list of columns within the data to return.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp, inclusive, or null.
+	 * 
+	 * @param snapshotId
+	 *        The database ID before which the points to return were
+	 *        generated or null if there is no upper bound.
+	 * 
+	 * @param cursor
+	 *        The position after which to begin returning data or null.
+	 * 
+	 * @param numToSkip
+	 *        The number of data points to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @param includeCount
+	 *        Whether or not to count all of the applicable data.
+	 * 
+	 * @return The page of data.
+	 */
+	private static CursorMultiValueResult<Data> readData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ObjectId snapshotId,
+		final DataCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final boolean includeCount) {
+		
+		// Get the connection to the data with the Jackson wrapper.
+		JacksonDBCollection<MongoData, Object> collection = getCollection();
+		
+		// Build the query.
+		QueryBuilder queryBuilder =
+			buildDataQuery(owner, schemaId, version, startDate, endDate);
+		
+		// Count the data before the cursor is applied.
+		int count =
+			countData(
+				collection,
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				includeCount,
+				queryBuilder);
+		
+		// If a cursor was given, begin after it.
+		applyCursor(queryBuilder, cursor);
+		
+		// If a snapshot point was given, ignore the points from after it.
+		if(snapshotId != null) {
+			queryBuilder
+				.and(MongoDbObject.DATABASE_FIELD_ID)
+				.lessThan(snapshotId);
+		}
+		
+		// Build the query.
+		DBCursor<MongoData> dbResult =
+			collection.find(queryBuilder.get(), buildProjection(columnList));
+		
+		// Sort the results in reverse chronological order.
+		dbResult.sort(buildSort());
+		
+		// Page the results, reading one extra point to determine if there is
+		// more data.
+		dbResult
+			.skip((new Long(numToSkip)).intValue())
+			.limit((new Long(numToReturn + 1)).intValue());
+		
+		// Read the points and their database IDs.
+		List<Data> points = new ArrayList<Data>();
+		List<String> ids = new ArrayList<String>();
+		try {
+			while(dbResult.hasNext()) {
+				MongoData point = dbResult.next();
+				points.add(point);
+				ids.add(point.getDatabaseId());
+			}
+		}
+		finally {
+			dbResult.close();
+		}
+		
+		return buildPage(points, ids, count, numToReturn);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataCursor, long, long, boolean, org.openmhealth.reference.data.DataSet.DataHandler)
+	 */
+	@Override
+	public void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final boolean includeCount,
+		final DataHandler handler)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
 		
 		// Get the connection to the data with the Jackson wrapper.
-		JacksonDBCollection<MongoData, Object> collection =
+		JacksonDBCollection<MongoData, Object> collection = getCollection();
+		
+		// Build the query.
+		QueryBuilder queryBuilder =
+			buildDataQuery(owner, schemaId, version, startDate, endDate);
+		
+		// Count the data before the cursor is applied.
+		int count =
+			countData(
+				collection,
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				includeCount,
+				queryBuilder);
+		
+		// If a cursor was given, begin after it.
+		applyCursor(queryBuilder, cursor);
+		DBObject query = queryBuilder.get();
+		
+		// Find the last point on the page and whether or not there is a point
+		// after it. This only reads the index, so the next cursor is known
+		// before any of the data is written.
+		DBObject boundaryProjection =
+			new BasicDBObject(METADATA_TIMESTAMP_MILLIS_FIELD, 1);
+		boundaryProjection.put(MongoDbObject.DATABASE_FIELD_ID, 1);
+		com.mongodb.DBCursor boundaryResult =
+			collection
+				.getDbCollection()
+				.find(query, boundaryProjection)
+				.sort(buildSort())
+				.skip((new Long(numToSkip + numToReturn - 1)).intValue())
+				.limit(2);
+		List<DataCursor> boundary = new ArrayList<DataCursor>(2);
+		try {
+			while(boundaryResult.hasNext()) {
+				DBObject point = boundaryResult.next();
+				boundary
+					.add(
+						new DataCursor(
+							getTimestampMillis(point),
+							point
+								.get(MongoDbObject.DATABASE_FIELD_ID)
+								.toString()));
+			}
+		}
+		finally {
+			boundaryResult.close();
+		}
+		DataCursor nextCursor = (boundary.size() < 2) ? null : boundary.get(0);
+		begin(handler, count, nextCursor);
+		
+		// Stream the page, one point at a time. The page is bounded by the
+		// point at which the next page begins rather than by its size, so a
+		// point that is stored after the boundary was found may make the page
+		// longer, but it can never push a point past the next cursor. If there
+		// is no next page, every remaining point is streamed.
+		applyBoundary(queryBuilder, nextCursor);
+		DBCursor<MongoData> dbResult =
+			collection.find(queryBuilder.get(), buildProjection(columnList));
+		dbResult.sort(buildSort());
+		dbResult.skip((new Long(numToSkip)).intValue());
+		try {
+			while(dbResult.hasNext()) {
+				handler.handle(dbResult.next());
+			}
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be written.", e);
+		}
+		finally {
+			dbResult.close();
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataSummary.Period, org.joda.time.DateTimeZone, long, long)
+	 */
+	@Override
+	public MultiValueResult<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period period,
+		final DateTimeZone timeZone,
+		final long numToSkip,
+		final long numToReturn)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(period == null) {
+			throw new OmhException("The period is null.");
+		}
+		else if(timeZone == null) {
+			throw new OmhException("The time zone is null.");
+		}
+		
+		// Get the connection to the data.
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Build the query. Points without a timestamp cannot be summarized.
+		QueryBuilder queryBuilder =
+			buildDataQuery(owner, schemaId, version, startDate, endDate);
+		queryBuilder.and(METADATA_TIMESTAMP_MILLIS_FIELD).notEquals(null);
+		DBObject match = new BasicDBObject("$match", queryBuilder.get());
+		
+		// Get the range of time that the points actually cover, which only
+		// reads the index. If there are no points, there is nothing to
+		// summarize.
+		Long earliest = getTimestampMillis(collection, match, 1);
+		Long latest = getTimestampMillis(collection, match, -1);
+		if((earliest == null) || (latest == null)) {
+			return
+				new MongoMultiValueResultList<DataSummary>(
+					Collections.<DataSummary>emptyList(),
+					0);
+		}
+		
+		// Build the expression for the start of each point's period in local
+		// time, using the offsets that the time zone uses over the range.
+		Object localTime =
+			buildLocalTimeExpression(
+				METADATA_TIMESTAMP_MILLIS_FIELD,
+				new TimeZoneOffsets(timeZone, earliest, latest));
+		DBObject periodExpression =
+			new BasicDBObject(
+				"$subtract",
+				Arrays
+					.asList(
+						localTime,
+						new BasicDBObject(
+							"$mod",
+							Arrays.asList(localTime, period.getMillis()))));
+		
+		// Project each point to its period and the fields to summarize.
+		List<String> fields =
+			(columnList == null) ?
+				Collections.<String>emptyList() :
+				columnList.toList();
+		DBObject projection = new BasicDBObject(FIELD_PERIOD, periodExpression);
+		for(int i = 0; i < fields.size(); i++) {
+			projection
+				.put(
+					FIELD_VALUE + i,
+					"$" +
+						Data.JSON_KEY_DATA +
+						ColumnList.COLUMN_SEPARATOR +
+						fields.get(i));
+		}
+		DBObject project = new BasicDBObject("$project", projection);
+		
+		// Count the periods.
+		int count = 0;
+		AggregationOutput countOutput =
+			collection
+				.aggregate(
+					match,
+					new BasicDBObject(
+						"$project",
+						new BasicDBObject(FIELD_PERIOD, periodExpression)),
+					new BasicDBObject(
+						"$group",
+						new BasicDBObject(
+							MongoDbObject.DATABASE_FIELD_ID,
+							"$" + FIELD_PERIOD)),
+					new BasicDBObject(
+						"$group",
+						new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, null)
+							.append(
+								FIELD_COUNT,
+								new BasicDBObject("$sum", 1))));
+		countOutput.getCommandResult().throwOnError();
+		for(DBObject result : countOutput.results()) {
+			count = ((Number) result.get(FIELD_COUNT)).intValue();
+		}
+		
+		// Group the points by period and summarize the fields that are
+		// numbers. Every number is between the infinities, and any other
+		// value, including a missing one, is not.
+		DBObject grouping =
+			new BasicDBObject(
+				MongoDbObject.DATABASE_FIELD_ID,
+				"$" + FIELD_PERIOD);
+		grouping.put(FIELD_COUNT, new BasicDBObject("$sum", 1));
+		for(int i = 0; i < fields.size(); i++) {
+			String value = "$" + FIELD_VALUE + i;
+			DBObject isNumber =
+				new BasicDBObject(
+					"$and",
+					Arrays
+						.asList(
+							new BasicDBObject(
+								"$gte",
+								Arrays
+									.asList(
+										value,
+										Double.NEGATIVE_INFINITY)),
+							new BasicDBObject(
+								"$lte",
+								Arrays
+									.asList(
+										value,
+										Double.POSITIVE_INFINITY))));
+			
+			grouping
+				.put(
+					FIELD_COUNT + i,
+					new BasicDBObject(
+						"$sum",
+						buildCondition(isNumber, 1, 0)));
+			grouping
+				.put(
+					FIELD_MIN + i,
+					new BasicDBObject(
+						"$min",
+						buildCondition(
+							isNumber,
+							value,
+							Double.POSITIVE_INFINITY)));
+			grouping
+				.put(
+					FIELD_MAX + i,
+					new BasicDBObject(
+						"$max",
+						buildCondition(
+							isNumber,
+							value,
+							Double.NEGATIVE_INFINITY)));
+			grouping
+				.put(
+					FIELD_SUM + i,
+					new BasicDBObject(
+						"$sum",
+						buildCondition(isNumber, value, 0)));
+		}
+		
+		// Summarize the page of periods, most recent first.
+		AggregationOutput output =
+			collection
+				.aggregate(
+					match,
+					project,
+					new BasicDBObject("$group", grouping),
+					new BasicDBObject(
+						"$sort",
+						new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, -1)),
+					new BasicDBObject("$skip", numToSkip),
+					new BasicDBObject("$limit", numToReturn));
+		output.getCommandResult().throwOnError();
+		
+		// Build the summaries.
+		List<DataSummary> summaries = new ArrayList<DataSummary>();
+		for(DBObject result : output.results()) {
+			Map<String, DataSummary.FieldSummary> fieldSummaries =
+				new LinkedHashMap<String, DataSummary.FieldSummary>();
+			for(int i = 0; i < fields.size(); i++) {
+				fieldSummaries
+					.put(
+						fields.get(i),
+						new DataSummary.FieldSummary(
+							((Number) result.get(FIELD_COUNT + i)).longValue(),
+							((Number) result.get(FIELD_MIN + i)).doubleValue(),
+							((Number) result.get(FIELD_MAX + i)).doubleValue(),
+							((Number) result.get(FIELD_SUM + i))
+								.doubleValue()));
+			}
+			
+			summaries
+				.add(
+					new DataSummary(
+						DataSummary
+							.toStart(
+								((Number)
+									result
+										.get(MongoDbObject.DATABASE_FIELD_ID))
+									.longValue(),
+								timeZone),
+						((Number) result.get(FIELD_COUNT)).longValue(),
+						fieldSummaries));
+		}
+		
+		return new MongoMultiValueResultList<DataSummary>(summaries, count);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamMetaDataIds(java.lang.String, java.lang.String, long, org.openmhealth.reference.data.DataSet.MetaDataIdHandler)
+	 */
+	@Override
+	public void streamMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final MetaDataIdHandler handler)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
+		
+		// Only select the points with an ID.
+		DBObject query = buildStreamQuery(owner, schemaId, version);
+		query.put(METADATA_ID_FIELD, new BasicDBObject("$exists", true));
+		
+		// Read the IDs.
+		readMetaDataIds(query, handler);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getExistingMetaDataIds(java.lang.String, java.lang.String, long, java.util.Collection)
+	 */
+	@Override
+	public Set<String> getExistingMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final Collection<String> metaDataIds) {
+		
+		// Validate the parameters.
+		if(metaDataIds == null) {
+			throw new OmhException("The meta-data IDs are null.");
+		}
+		if(metaDataIds.size() == 0) {
+			return new HashSet<String>();
+		}
+		
+		// Only select the points with one of the given IDs.
+		DBObject query = buildStreamQuery(owner, schemaId, version);
+		query.put(METADATA_ID_FIELD, new BasicDBObject("$in", metaDataIds));
+		
+		// Read the IDs.
+		final Set<String> result = new HashSet<String>();
+		readMetaDataIds(
+			query,
+			new MetaDataIdHandler() {
+				/**
+				 * Adds the meta-data ID to the result.
+				 */
+				@Override
+				public void handle(final String metaDataId) {
+					result.add(metaDataId);
+				}
+			});
+		return result;
+	}
+	
+	/**
+	 * Returns the data collection with the Jackson wrapper.
+	 * 
+	 * @return The data collection.
+	 */
+	private static JacksonDBCollection<MongoData, Object> getCollection() {
+		DB db = MongoDao.getInstance().getDb();
+		return
 			JacksonDBCollection
 				.wrap(db.getCollection(DB_NAME), MongoData.class);
+	}
+	
+	/**
+	 * Builds the query for the data in a stream and, if given, within a range
+	 * of time.
+	 * 
+	 * @param owner
+	 *        The stream's owner.
+	 * 
+	 * @param schemaId
+	 *        The ID of the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp, inclusive, or null.
+	 * 
+	 * @return The query builder.
+	 */
+	private static QueryBuilder buildDataQuery(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate) {
 		
-		// Build the query.
 		QueryBuilder queryBuilder = QueryBuilder.start();
 		
 		// Only select data for a single user.
@@ -132,7 +965,188 @@ public class MongoDataSet extends DataSet {
 		// Only select data for a given version of the the given schema.
 		queryBuilder.and(Schema.JSON_KEY_VERSION).is(version);
 		
-		// Create the projection.
+		// Only select data within the given range of time.
+		if(startDate != null) {
+			queryBuilder
+				.and(METADATA_TIMESTAMP_MILLIS_FIELD)
+				.greaterThanEquals(startDate.getMillis());
+		}
+		if(endDate != null) {
+			queryBuilder
+				.and(METADATA_TIMESTAMP_MILLIS_FIELD)
+				.lessThanEquals(endDate.getMillis());
+		}
+		
+		return queryBuilder;
+	}
+	
+	/**
+	 * Counts the data in a stream. Unless the data is limited to a range of
+	 * time, the stream's statistics have the count.
+	 * 
+	 * @param collection
+	 *        The data collection.
+	 * 
+	 * @param owner
+	 *        The stream's owner.
+	 * 
+	 * @param schemaId
+	 *        The ID of the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp, inclusive, or null.
+	 * 
+	 * @param includeCount
+	 *        Whether or not to count the data at all.
+	 * 
+	 * @param queryBuilder
+	 *        The query for the stream and range of time, without a cursor.
+	 * 
+	 * @return The number of points or -1 if they were not counted.
+	 */
+	private static int countData(
+		final JacksonDBCollection<MongoData, Object> collection,
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final boolean includeCount,
+		final QueryBuilder queryBuilder) {
+		
+		if(! includeCount) {
+			return -1;
+		}
+		else if((startDate == null) && (endDate == null)) {
+			return
+				(int) StreamStatisticsBin
+					.getInstance()
+					.getCount(owner, schemaId, version);
+		}
+		else {
+			return (int) collection.getCount(queryBuilder.get());
+		}
+	}
+	
+	/**
+	 * Limits a query to the data after a cursor. Points without a timestamp
+	 * are last.
+	 * 
+	 * @param queryBuilder
+	 *        The query builder.
+	 * 
+	 * @param cursor
+	 *        The cursor or null if the data begins with the most recent point,
+	 *        in which case the query is unchanged.
+	 */
+	private static void applyCursor(
+		final QueryBuilder queryBuilder,
+		final DataCursor cursor) {
+		
+		if(cursor == null) {
+			return;
+		}
+		
+		Object cursorId =
+			(ObjectId.isValid(cursor.getId())) ?
+				new ObjectId(cursor.getId()) :
+				cursor.getId();
+		DBObject beforeId =
+			new BasicDBObject(
+				MongoDbObject.DATABASE_FIELD_ID,
+				new BasicDBObject("$lt", cursorId));
+		
+		if(cursor.getTimestamp() == null) {
+			DBObject sameTimestamp = new BasicDBObject(beforeId.toMap());
+			sameTimestamp.put(METADATA_TIMESTAMP_MILLIS_FIELD, null);
+			queryBuilder.or(sameTimestamp);
+		}
+		else {
+			DBObject sameTimestamp = new BasicDBObject(beforeId.toMap());
+			sameTimestamp
+				.put(METADATA_TIMESTAMP_MILLIS_FIELD, cursor.getTimestamp());
+			queryBuilder
+				.or(
+					new BasicDBObject(
+						METADATA_TIMESTAMP_MILLIS_FIELD,
+						new BasicDBObject("$lt", cursor.getTimestamp())),
+					sameTimestamp,
+					new BasicDBObject(
+						METADATA_TIMESTAMP_MILLIS_FIELD,
+						null));
+		}
+	}
+	
+	/**
+	 * Limits a query to the data up to and including a point. Points without
+	 * a timestamp are last.
+	 * 
+	 * @param queryBuilder
+	 *        The query builder.
+	 * 
+	 * @param boundary
+	 *        The position of the last point or null if the data does not end
+	 *        at a point, in which case the query is unchanged.
+	 */
+	private static void applyBoundary(
+		final QueryBuilder queryBuilder,
+		final DataCursor boundary) {
+		
+		if(boundary == null) {
+			return;
+		}
+		
+		Object boundaryId =
+			(ObjectId.isValid(boundary.getId())) ?
+				new ObjectId(boundary.getId()) :
+				boundary.getId();
+		DBObject sameTimestamp =
+			new BasicDBObject(
+				METADATA_TIMESTAMP_MILLIS_FIELD,
+				boundary.getTimestamp());
+		sameTimestamp
+			.put(
+				MongoDbObject.DATABASE_FIELD_ID,
+				new BasicDBObject("$gte", boundaryId));
+		
+		// The cursor may already have added an "$or", so the boundary's is
+		// combined with it by an "$and".
+		QueryBuilder boundaryBuilder = QueryBuilder.start();
+		if(boundary.getTimestamp() == null) {
+			boundaryBuilder
+				.or(
+					new BasicDBObject(
+						METADATA_TIMESTAMP_MILLIS_FIELD,
+						new BasicDBObject("$ne", null)),
+					sameTimestamp);
+		}
+		else {
+			boundaryBuilder
+				.or(
+					new BasicDBObject(
+						METADATA_TIMESTAMP_MILLIS_FIELD,
+						new BasicDBObject("$gt", boundary.getTimestamp())),
+					sameTimestamp);
+		}
+		queryBuilder.and(boundaryBuilder.get());
+	}
+	
+	/**
+	 * Builds the projection for the data.
+	 * 
+	 * @param columnList
+	 *        The columns of the data to return or an empty list for all of the
+	 *        data.
+	 * 
+	 * @return The projection.
+	 */
+	private static DBObject buildProjection(final ColumnList columnList) {
 		DBObject projection = new BasicDBObject();
 		// Add the owner field.
 		projection.put(Data.JSON_KEY_OWNER, 1);
@@ -147,36 +1161,472 @@ public class MongoDataSet extends DataSet {
 			projection.put(Data.JSON_KEY_DATA, 1);
 		}
 		else {
-			if((columnList != null) && (columnList.size() > 0)) {
-				for(String column : columnList.toList()) {
-					projection
-						.put(
-							Data.JSON_KEY_DATA +
-								ColumnList.COLUMN_SEPARATOR +
-								column,
-							1);
+			for(String column : columnList.toList()) {
+				projection
+					.put(
+						Data.JSON_KEY_DATA +
+							ColumnList.COLUMN_SEPARATOR +
+							column,
+						1);
+			}
+		}
+		return projection;
+	}
+	
+	/**
+	 * Builds the sort for the data, which is the most recent data first.
+	 * Points are sorted by their database ID when their timestamps are the
+	 * same.
+	 * 
+	 * @return The sort.
+	 */
+	private static DBObject buildSort() {
+		DBObject sort = new BasicDBObject();
+		sort.put(METADATA_TIMESTAMP_MILLIS_FIELD, -1);
+		sort.put(MongoDbObject.DATABASE_FIELD_ID, -1);
+		return sort;
+	}
+	
+	/**
+	 * Returns the timestamp of a point that was read without the Jackson
+	 * wrapper.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return The point's timestamp as milliseconds since the epoch or null if
+	 *         it has no timestamp.
+	 */
+	private static Long getTimestampMillis(final DBObject point) {
+		Object value = point;
+		for(
+			String field :
+				METADATA_TIMESTAMP_MILLIS_FIELD
+					.split("\\" + ColumnList.COLUMN_SEPARATOR)) {
+			
+			if(! (value instanceof DBObject)) {
+				return null;
+			}
+			value = ((DBObject) value).get(field);
+		}
+		return (value instanceof Number) ? ((Number) value).longValue() : null;
+	}
+	
+	/**
+	 * Returns the earliest or latest timestamp of the points that match a
+	 * query.
+	 * 
+	 * @param collection
+	 *        The data collection.
+	 * 
+	 * @param match
+	 *        The "$match" stage whose query selects the points.
+	 * 
+	 * @param order
+	 *        1 for the earliest timestamp or -1 for the latest.
+	 * 
+	 * @return The timestamp as milliseconds since the epoch or null if no
+	 *         points match.
+	 */
+	private static Long getTimestampMillis(
+		final DBCollection collection,
+		final DBObject match,
+		final int order) {
+		
+		com.mongodb.DBCursor result =
+			collection
+				.find(
+					(DBObject) match.get("$match"),
+					new BasicDBObject(METADATA_TIMESTAMP_MILLIS_FIELD, 1))
+				.sort(new BasicDBObject(METADATA_TIMESTAMP_MILLIS_FIELD, order))
+				.limit(1);
+		try {
+			return (result.hasNext()) ? getTimestampMillis(result.next()) : null;
+		}
+		finally {
+			result.close();
+		}
+	}
+	
+	/**
+	 * Builds the expression that converts a timestamp to local time by adding
+	 * the offset that was in effect at that instant.
+	 * 
+	 * @param field
+	 *        The field that contains the timestamp in milliseconds since the
+	 *        epoch.
+	 * 
+	 * @param offsets
+	 *        The offsets that the time zone uses over the range of the
+	 *        timestamps.
+	 * 
+	 * @return The expression.
+	 */
+	static DBObject buildLocalTimeExpression(
+		final String field,
+		final TimeZoneOffsets offsets) {
+		
+		String timestamp = "$" + field;
+		Object offset = offsets.getOffset(offsets.size() - 1);
+		for(int i = offsets.size() - 1; i > 0; i--) {
+			offset =
+				buildCondition(
+					new BasicDBObject(
+						"$lt",
+						Arrays.asList(timestamp, offsets.getTransition(i))),
+					offsets.getOffset(i - 1),
+					offset);
+		}
+		return new BasicDBObject("$add", Arrays.asList(timestamp, offset));
+	}
+	
+	/**
+	 * Builds a "$cond" expression.
+	 * 
+	 * @param condition
+	 *        The condition.
+	 * 
+	 * @param ifTrue
+	 *        The value if the condition is true.
+	 * 
+	 * @param ifFalse
+	 *        The value if the condition is false.
+	 * 
+	 * @return The expression.
+	 */
+	private static DBObject buildCondition(
+		final Object condition,
+		final Object ifTrue,
+		final Object ifFalse) {
+		
+		return
+			new BasicDBObject(
+				"$cond",
+				Arrays.asList(condition, ifTrue, ifFalse));
+	}
+	
+	/**
+	 * Returns the key for the stream to which a point belongs.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return The owner, schema ID, and schema version of the point.
+	 */
+	private static List<Object> getStream(final Data point) {
+		return
+			Arrays
+				.<Object>asList(
+					point.getOwner(),
+					point.getSchemaId(),
+					point.getSchemaVersion());
+	}
+	
+	/**
+	 * Updates the statistics of the streams to which data was added. If a
+	 * stream's statistics cannot be updated, it is marked as stale.
+	 * 
+	 * @param added
+	 *        The number of points that were added to each stream.
+	 * 
+	 * @param uncounted
+	 *        The streams to which an unknown number of points were added,
+	 *        which are counted again.
+	 */
+	private static void updateStatistics(
+		final Map<List<Object>, Long> added,
+		final Set<List<Object>> uncounted) {
+		
+		MongoStreamStatisticsBin statistics =
+			(MongoStreamStatisticsBin) StreamStatisticsBin.getInstance();
+		
+		// Update each stream on its own, so a failure only affects its own
+		// statistics.
+		Set<List<Object>> streams = new LinkedHashSet<List<Object>>();
+		streams.addAll(added.keySet());
+		streams.addAll(uncounted);
+		for(List<Object> key : streams) {
+			String owner = (String) key.get(0);
+			String schemaId = (String) key.get(1);
+			long version = (Long) key.get(2);
+			try {
+				if(uncounted.contains(key)) {
+					statistics.recount(owner, schemaId, version);
+				}
+				else {
+					statistics
+						.addCount(owner, schemaId, version, added.get(key));
+				}
+			}
+			catch(OmhException | MongoException e) {
+				LOGGER
+					.log(
+						Level.SEVERE,
+						"The stream statistics could not be updated, so " +
+							"the stream will be counted again before they " +
+							"are next read.",
+						e);
+				statistics.markStale(owner, schemaId, version);
+			}
+		}
+	}
+	
+	/**
+	 * Extends the range of time of the stream to which a point belongs to
+	 * include the point, if the point has a timestamp.
+	 * 
+	 * @param ranges
+	 *        The earliest and latest timestamp of each stream.
+	 * 
+	 * @param point
+	 *        The point.
+	 */
+	private static void addRange(
+		final Map<List<Object>, List<Long>> ranges,
+		final Data point) {
+		
+		MetaData metaData = point.getMetaData();
+		if((metaData == null) || (metaData.getTimestamp() == null)) {
+			return;
+		}
+		long timestamp = metaData.getTimestamp().getMillis();
+		
+		List<Object> stream = getStream(point);
+		List<Long> range = ranges.get(stream);
+		if(range == null) {
+			ranges.put(stream, Arrays.asList(timestamp, timestamp));
+		}
+		else {
+			range.set(0, Math.min(range.get(0), timestamp));
+			range.set(1, Math.max(range.get(1), timestamp));
+		}
+	}
+	
+	/**
+	 * Updates the rollups of the streams to which data was added.
+	 * 
+	 * @param inserted
+	 *        The points that were inserted, which are added to the rollups.
+	 * 
+	 * @param unrolled
+	 *        The range of time of each stream to which an unknown number of
+	 *        points were added, whose rollups are rebuilt.
+	 */
+	private static void updateRollups(
+		final List<Data> inserted,
+		final Map<List<Object>, List<Long>> unrolled) {
+		
+		MongoRollupBin rollups = (MongoRollupBin) RollupBin.getInstance();
+		
+		try {
+			rollups.addRollups(rollups.buildRollups(inserted));
+			
+			for(Entry<List<Object>, List<Long>> stream : unrolled.entrySet()) {
+				List<Object> key = stream.getKey();
+				if(
+					rollups.getFields((String) key.get(1), (Long) key.get(2))
+						== null) {
+					
+					continue;
 				}
+				
+				List<Long> range = stream.getValue();
+				rollups
+					.rebuild(
+						(String) key.get(0),
+						(String) key.get(1),
+						(Long) key.get(2),
+						new DateTime(range.get(0), DateTimeZone.UTC),
+						new DateTime(range.get(1), DateTimeZone.UTC));
 			}
 		}
+		catch(OmhException | MongoException e) {
+			LOGGER
+				.log(
+					Level.SEVERE,
+					"The rollups could not be updated.",
+					e);
+		}
+	}
+	
+	/**
+	 * Builds a query that selects every point in a stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The query.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	private static DBObject buildStreamQuery(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
 		
 		// Build the query.
-		DBCursor<MongoData> dbResult =
-			collection.find(queryBuilder.get(), projection);
+		DBObject result = new BasicDBObject();
+		result.put(Data.JSON_KEY_OWNER, owner);
+		result.put(Schema.JSON_KEY_ID, schemaId);
+		result.put(Schema.JSON_KEY_VERSION, version);
+		return result;
+	}
+	
+	/**
+	 * Reads the meta-data IDs of every point that matches a query and passes
+	 * each to a handler as it is read.
+	 * 
+	 * @param query
+	 *        The query.
+	 * 
+	 * @param handler
+	 *        The handler that receives the meta-data IDs.
+	 * 
+	 * @throws OmhException
+	 *         The meta-data IDs could not be read.
+	 */
+	private static void readMetaDataIds(
+		final DBObject query,
+		final MetaDataIdHandler handler)
+		throws OmhException {
 		
-		// Build the sort field by sorting in reverse chronological order.
-		DBObject sort = new BasicDBObject();
-		sort.put(
-			Data.JSON_KEY_METADATA + 
-				ColumnList.COLUMN_SEPARATOR + 
-				MetaData.JSON_KEY_TIMESTAMP,
-			-1);
-		dbResult.sort(sort);
+		// Only the meta-data's ID is needed.
+		DBObject projection = new BasicDBObject(METADATA_ID_FIELD, 1);
+		projection.put("_id", 0);
 		
-		// Page the results and return the multi-value result.
-		return
-			new MongoMultiValueResultCursor<Data>(
-				dbResult
-					.skip((new Long(numToSkip)).intValue())
-					.limit((new Long(numToReturn)).intValue()));
+		// Read the IDs.
+		com.mongodb.DBCursor cursor =
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DB_NAME)
+				.find(query, projection);
+		try {
+			while(cursor.hasNext()) {
+				Object metaData = cursor.next().get(Data.JSON_KEY_METADATA);
+				if(metaData instanceof DBObject) {
+					Object id = ((DBObject) metaData).get(MetaData.JSON_KEY_ID);
+					if(id != null) {
+						handler.handle(id.toString());
+					}
+				}
+			}
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for meta-data IDs.",
+					e);
+		}
+		finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Cheaply estimates the number of bytes a point will take once it is
+	 * encoded as BSON. This is only used to decide how many points to send
+	 * in a single insert, so it does not need to be exact.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return The approximate number of bytes in the encoded point.
+	 */
+	private static long estimateSize(final Data point) {
+		// Start with the document's overhead, the owner, the schema, and the
+		// meta-data, which is small and of nearly constant size.
+		long result = 
+			DOCUMENT_OVERHEAD +
+				estimateSize(Data.JSON_KEY_OWNER, point.getOwner()) +
+				estimateSize(Schema.JSON_KEY_ID, point.getSchemaId()) +
+				Schema.JSON_KEY_VERSION.length() + 2 + 8 +
+				METADATA_SIZE;
+		
+		// Add the data.
+		result +=
+			Data.JSON_KEY_DATA.length() + 2 + estimateSize(point.getData());
+		
+		return result;
+	}
+	
+	/**
+	 * Estimates the number of bytes for a string field once it is encoded as
+	 * BSON.
+	 * 
+	 * @param key
+	 *        The field's key.
+	 * 
+	 * @param value
+	 *        The field's value.
+	 * 
+	 * @return The approximate number of bytes in the encoded field.
+	 */
+	private static long estimateSize(final String key, final String value) {
+		return key.length() + 2 + 5 + ((value == null) ? 0 : value.length());
+	}
+	
+	/**
+	 * Estimates the number of bytes for a JSON value once it is encoded as
+	 * BSON, not including its key.
+	 * 
+	 * @param node
+	 *        The JSON value.
+	 * 
+	 * @return The approximate number of bytes in the encoded value.
+	 */
+	private static long estimateSize(final JsonNode node) {
+		if(node == null) {
+			return 0;
+		}
+		else if(node.isObject()) {
+			long result = DOCUMENT_OVERHEAD;
+			Iterator<Entry<String, JsonNode>> fields = node.fields();
+			while(fields.hasNext()) {
+				Entry<String, JsonNode> field = fields.next();
+				result +=
+					field.getKey().length() + 2 +
+						estimateSize(field.getValue());
+			}
+			return result;
+		}
+		else if(node.isArray()) {
+			// Arrays are documents whose keys are the indices.
+			long result = DOCUMENT_OVERHEAD;
+			for(int i = 0; i < node.size(); i++) {
+				result += 
+					Integer.toString(i).length() + 2 +
+						estimateSize(node.get(i));
+			}
+			return result;
+		}
+		else if(node.isTextual()) {
+			return 5 + node.textValue().length();
+		}
+		else if(node.isBoolean()) {
+			return 1;
+		}
+		else if(node.isNull()) {
+			return 0;
+		}
+		else {
+			return 8;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,630 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.data.RollupBin;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataRollup;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.mongodb.MongoDbObject;
+import org.openmhealth.reference.domain.mongodb.MongoMultiValueResultList;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.TimeZoneOffsets;
+
+import com.mongodb.AggregationOutput;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * <p>
+ * The MongoDB implementation of the interface to the database-backed
+ * collection of rollups.
+ * </p>
+ * 
+ * <p>
+ * MongoDB cannot update the rollups in the same transaction as the data, so
+ * {@link MongoDataSet} adds to them after each chunk of data is inserted. If
+ * a chunk fails, only some of it may have been inserted, so the rollups of
+ * its range of time are rebuilt instead. The rollups are updated with the
+ * "$min" and "$max" operators, which require MongoDB 2.6 or later.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class MongoRollupBin extends RollupBin {
+	/**
+	 * The field of a projected rollup that contains the start of its local
+	 * period.
+	 */
+	private static final String FIELD_PERIOD_START = "period_start";
+	
+	/**
+	 * Creates the rollup bin.
+	 * 
+	 * @param properties
+	 *        The properties that list the fields to roll up for each schema.
+	 * 
+	 * @throws OmhException
+	 *         A property's key does not have a valid version.
+	 */
+	protected MongoRollupBin(final Properties properties) throws OmhException {
+		super(properties);
+		
+		// Get the collection to add indexes to.
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Ensure that each field of each period of each stream has only one
+		// rollup.
+		DBObject rollupIndex = new BasicDBObject();
+		rollupIndex.put(Data.JSON_KEY_OWNER, 1);
+		rollupIndex.put(Schema.JSON_KEY_ID, 1);
+		rollupIndex.put(Schema.JSON_KEY_VERSION, 1);
+		rollupIndex.put(JSON_KEY_PERIOD, 1);
+		rollupIndex.put(JSON_KEY_FIELD, 1);
+		rollupIndex.put(JSON_KEY_START, 1);
+		collection.ensureIndex(rollupIndex, DB_NAME + "_rollup_unique", true);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#addRollups(java.util.List)
+	 */
+	@Override
+	protected void addRollups(
+		final List<DataRollup> rollups)
+		throws OmhException {
+		
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		try {
+			for(DataRollup rollup : rollups) {
+				// Select the rollup.
+				DBObject query =
+					buildStreamQuery(
+						rollup.getOwner(),
+						rollup.getSchemaId(),
+						rollup.getSchemaVersion());
+				query.put(JSON_KEY_PERIOD, rollup.getPeriod().getName());
+				query.put(JSON_KEY_FIELD, rollup.getField());
+				query.put(JSON_KEY_START, rollup.getStart());
+				
+				// Add to its statistics.
+				DBObject update =
+					new BasicDBObject(
+						"$inc",
+						new BasicDBObject(JSON_KEY_COUNT, rollup.getCount())
+							.append(JSON_KEY_SUM, rollup.getSum()));
+				if(rollup.getMin() != null) {
+					update
+						.put(
+							"$min",
+							new BasicDBObject(JSON_KEY_MIN, rollup.getMin()));
+				}
+				if(rollup.getMax() != null) {
+					update
+						.put(
+							"$max",
+							new BasicDBObject(JSON_KEY_MAX, rollup.getMax()));
+				}
+				
+				collection.update(query, update, true, false);
+			}
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error updating a stream's rollups.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#deleteRollups(java.lang.String, java.lang.String, long, java.lang.Long, java.lang.Long)
+	 */
+	@Override
+	protected void deleteRollups(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final Long start,
+		final Long end)
+		throws OmhException {
+		
+		try {
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DB_NAME)
+				.remove(
+					buildRollupQuery(
+						owner,
+						schemaId,
+						version,
+						null,
+						start,
+						end));
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error deleting a stream's rollups.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#getRange(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	protected List<Long> getRange(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException {
+		
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Only the minutely rollups that count the points are needed.
+		DBObject query =
+			buildRollupQuery(
+				owner,
+				schemaId,
+				version,
+				DataSummary.Period.MINUTE,
+				(startDate == null) ? null : startDate.getMillis(),
+				(endDate == null) ? null : endDate.getMillis());
+		query.put(JSON_KEY_FIELD, DataRollup.FIELD_POINTS);
+		
+		try {
+			Long earliest = getStart(collection, query, 1);
+			Long latest = getStart(collection, query, -1);
+			if((earliest == null) || (latest == null)) {
+				return null;
+			}
+			return Arrays.asList(earliest, latest);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a stream's rollups.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#readSummaries(java.lang.String, java.lang.String, long, java.util.List, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataSummary.Period, org.openmhealth.reference.domain.DataSummary.Period, org.openmhealth.reference.util.TimeZoneOffsets, org.joda.time.DateTimeZone, long, long)
+	 */
+	@Override
+	protected MultiValueResult<DataSummary> readSummaries(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final List<String> fields,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period level,
+		final DataSummary.Period period,
+		final TimeZoneOffsets offsets,
+		final DateTimeZone timeZone,
+		final long numToSkip,
+		final long numToReturn)
+		throws OmhException {
+		
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Limit the rollups based on the stream, level, and, if given, the
+		// range of time.
+		DBObject query =
+			buildRollupQuery(
+				owner,
+				schemaId,
+				version,
+				level,
+				(startDate == null) ? null : startDate.getMillis(),
+				(endDate == null) ? null : endDate.getMillis());
+		
+		// Build the expression for the start of each rollup's local period.
+		Object localTime =
+			MongoDataSet.buildLocalTimeExpression(JSON_KEY_START, offsets);
+		DBObject periodExpression =
+			new BasicDBObject(
+				"$subtract",
+				Arrays
+					.asList(
+						localTime,
+						new BasicDBObject(
+							"$mod",
+							Arrays.asList(localTime, period.getMillis()))));
+		
+		// Only the rollups that count the points are needed to count and
+		// page the periods.
+		DBObject pointsQuery = new BasicDBObject(query.toMap());
+		pointsQuery.put(JSON_KEY_FIELD, DataRollup.FIELD_POINTS);
+		DBObject pointsMatch = new BasicDBObject("$match", pointsQuery);
+		
+		try {
+			// Count the periods.
+			int count = 0;
+			AggregationOutput countOutput =
+				collection
+					.aggregate(
+						pointsMatch,
+						new BasicDBObject(
+							"$project",
+							new BasicDBObject(
+								FIELD_PERIOD_START,
+								periodExpression)),
+						new BasicDBObject(
+							"$group",
+							new BasicDBObject(
+								MongoDbObject.DATABASE_FIELD_ID,
+								"$" + FIELD_PERIOD_START)),
+						new BasicDBObject(
+							"$group",
+							new BasicDBObject(
+								MongoDbObject.DATABASE_FIELD_ID,
+								null)
+								.append(
+									JSON_KEY_COUNT,
+									new BasicDBObject("$sum", 1))));
+			countOutput.getCommandResult().throwOnError();
+			for(DBObject result : countOutput.results()) {
+				count = ((Number) result.get(JSON_KEY_COUNT)).intValue();
+			}
+			
+			// Count the points in each period of the page.
+			Map<Long, Long> counts = new LinkedHashMap<Long, Long>();
+			AggregationOutput pageOutput =
+				collection
+					.aggregate(
+						pointsMatch,
+						new BasicDBObject(
+							"$project",
+							new BasicDBObject(
+								FIELD_PERIOD_START,
+								periodExpression)
+								.append(JSON_KEY_COUNT, 1)),
+						new BasicDBObject(
+							"$group",
+							new BasicDBObject(
+								MongoDbObject.DATABASE_FIELD_ID,
+								"$" + FIELD_PERIOD_START)
+								.append(
+									JSON_KEY_COUNT,
+									new BasicDBObject(
+										"$sum",
+										"$" + JSON_KEY_COUNT))),
+						new BasicDBObject(
+							"$sort",
+							new BasicDBObject(
+								MongoDbObject.DATABASE_FIELD_ID,
+								-1)),
+						new BasicDBObject("$skip", numToSkip),
+						new BasicDBObject("$limit", numToReturn));
+			pageOutput.getCommandResult().throwOnError();
+			for(DBObject result : pageOutput.results()) {
+				counts
+					.put(
+						((Number) result.get(MongoDbObject.DATABASE_FIELD_ID))
+							.longValue(),
+						((Number) result.get(JSON_KEY_COUNT)).longValue());
+			}
+			
+			// Summarize the fields in the periods of the page.
+			Map<Long, Map<String, DataSummary.FieldSummary>> summaries =
+				new HashMap<Long, Map<String, DataSummary.FieldSummary>>();
+			if((fields.size() > 0) && (counts.size() > 0)) {
+				summarizeFields(
+					collection,
+					query,
+					fields,
+					periodExpression,
+					period,
+					counts,
+					summaries);
+			}
+			
+			return
+				new MongoMultiValueResultList<DataSummary>(
+					buildSummaries(counts, summaries, fields, timeZone),
+					count);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error summarizing the rollups.",
+					e);
+		}
+	}
+	
+	/**
+	 * Summarizes the fields in each period of a page by adding together their
+	 * rollups.
+	 * 
+	 * @param collection
+	 *        The collection of rollups.
+	 * 
+	 * @param query
+	 *        The query that selects the stream's rollups.
+	 * 
+	 * @param fields
+	 *        The fields to summarize.
+	 * 
+	 * @param periodExpression
+	 *        The expression for the start of a rollup's local period.
+	 * 
+	 * @param period
+	 *        The length of time of the local periods.
+	 * 
+	 * @param counts
+	 *        The number of points in each period of the page, keyed by the
+	 *        start of the period in local time, with the most recent first.
+	 * 
+	 * @param summaries
+	 *        The map to which the summaries of the fields are added, keyed by
+	 *        the start of their period in local time and then by the field.
+	 * 
+	 * @throws MongoException
+	 *         The rollups could not be read.
+	 */
+	private static void summarizeFields(
+		final DBCollection collection,
+		final DBObject query,
+		final List<String> fields,
+		final DBObject periodExpression,
+		final DataSummary.Period period,
+		final Map<Long, Long> counts,
+		final Map<Long, Map<String, DataSummary.FieldSummary>> summaries)
+		throws MongoException {
+		
+		// Only read the rollups around the page. The local periods are at most
+		// a day away from their UTC rollups.
+		long day = DataSummary.Period.DAY.getMillis();
+		List<Long> starts = new ArrayList<Long>(counts.keySet());
+		DBObject fieldsQuery =
+			new BasicDBObject(
+				"$and",
+				Arrays
+					.asList(
+						query,
+						new BasicDBObject(
+							JSON_KEY_START,
+							new BasicDBObject(
+								"$gte",
+								starts.get(starts.size() - 1) - day)
+								.append(
+									"$lt",
+									starts.get(0) + period.getMillis() + day)),
+						new BasicDBObject(
+							JSON_KEY_FIELD,
+							new BasicDBObject("$in", fields))));
+		
+		// Add together the rollups of each field in each period.
+		DBObject grouping =
+			new BasicDBObject(
+				MongoDbObject.DATABASE_FIELD_ID,
+				new BasicDBObject(FIELD_PERIOD_START, "$" + FIELD_PERIOD_START)
+					.append(JSON_KEY_FIELD, "$" + JSON_KEY_FIELD));
+		grouping
+			.put(
+				JSON_KEY_COUNT,
+				new BasicDBObject("$sum", "$" + JSON_KEY_COUNT));
+		grouping
+			.put(JSON_KEY_MIN, new BasicDBObject("$min", "$" + JSON_KEY_MIN));
+		grouping
+			.put(JSON_KEY_MAX, new BasicDBObject("$max", "$" + JSON_KEY_MAX));
+		grouping
+			.put(JSON_KEY_SUM, new BasicDBObject("$sum", "$" + JSON_KEY_SUM));
+		AggregationOutput output =
+			collection
+				.aggregate(
+					new BasicDBObject("$match", fieldsQuery),
+					new BasicDBObject(
+						"$project",
+						new BasicDBObject(FIELD_PERIOD_START, periodExpression)
+							.append(JSON_KEY_FIELD, 1)
+							.append(JSON_KEY_COUNT, 1)
+							.append(JSON_KEY_MIN, 1)
+							.append(JSON_KEY_MAX, 1)
+							.append(JSON_KEY_SUM, 1)),
+					new BasicDBObject("$group", grouping));
+		output.getCommandResult().throwOnError();
+		
+		// Add the summaries of the periods that are in the page.
+		for(DBObject result : output.results()) {
+			DBObject id =
+				(DBObject) result.get(MongoDbObject.DATABASE_FIELD_ID);
+			long start = ((Number) id.get(FIELD_PERIOD_START)).longValue();
+			if(! counts.containsKey(start)) {
+				continue;
+			}
+			
+			Map<String, DataSummary.FieldSummary> periodSummaries =
+				summaries.get(start);
+			if(periodSummaries == null) {
+				periodSummaries =
+					new HashMap<String, DataSummary.FieldSummary>();
+				summaries.put(start, periodSummaries);
+			}
+			periodSummaries
+				.put(
+					(String) id.get(JSON_KEY_FIELD),
+					new DataSummary.FieldSummary(
+						((Number) result.get(JSON_KEY_COUNT)).longValue(),
+						((Number) result.get(JSON_KEY_MIN)).doubleValue(),
+						((Number) result.get(JSON_KEY_MAX)).doubleValue(),
+						((Number) result.get(JSON_KEY_SUM)).doubleValue()));
+		}
+	}
+	
+	/**
+	 * Returns the earliest or latest start of the rollups that match a query.
+	 * 
+	 * @param collection
+	 *        The collection of rollups.
+	 * 
+	 * @param query
+	 *        The query.
+	 * 
+	 * @param order
+	 *        1 for the earliest start or -1 for the latest.
+	 * 
+	 * @return The start in milliseconds since the epoch or null if no
+	 *         rollups match.
+	 * 
+	 * @throws MongoException
+	 *         The rollups could not be read.
+	 */
+	private static Long getStart(
+		final DBCollection collection,
+		final DBObject query,
+		final int order)
+		throws MongoException {
+		
+		DBCursor result =
+			collection
+				.find(query, new BasicDBObject(JSON_KEY_START, 1))
+				.sort(new BasicDBObject(JSON_KEY_START, order))
+				.limit(1);
+		try {
+			if(! result.hasNext()) {
+				return null;
+			}
+			Object start = result.next().get(JSON_KEY_START);
+			return
+				(start instanceof Number) ? ((Number) start).longValue() : null;
+		}
+		finally {
+			result.close();
+		}
+	}
+	
+	/**
+	 * Builds a query that selects the rollups of a stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param level
+	 *        The length of time of the rollups or null for every length.
+	 * 
+	 * @param start
+	 *        The earliest start, inclusive, or null.
+	 * 
+	 * @param end
+	 *        The latest start, inclusive, or null.
+	 * 
+	 * @return The query.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	private static DBObject buildRollupQuery(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DataSummary.Period level,
+		final Long start,
+		final Long end)
+		throws OmhException {
+		
+		DBObject result = buildStreamQuery(owner, schemaId, version);
+		if(level != null) {
+			result.put(JSON_KEY_PERIOD, level.getName());
+		}
+		if((start != null) || (end != null)) {
+			BasicDBObject range = new BasicDBObject();
+			if(start != null) {
+				range.put("$gte", start);
+			}
+			if(end != null) {
+				range.put("$lte", end);
+			}
+			result.put(JSON_KEY_START, range);
+		}
+		return result;
+	}
+	
+	/**
+	 * Builds a query that selects the rollups of every field and period of a
+	 * stream.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The query.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	private static DBObject buildStreamQuery(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Build the query.
+		DBObject result = new BasicDBObject();
+		result.put(Data.JSON_KEY_OWNER, owner);
+		result.put(Schema.JSON_KEY_ID, schemaId);
+		result.put(Schema.JSON_KEY_VERSION, version);
+		return result;
+	}
+}
@@ -0,0 +1,560 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.StreamStatisticsBin;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.mongodb.AggregationOutput;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteResult;
+
+/**
+ * <p>
+ * The interface to the database-backed collection of stream statistics.
+ * </p>
+ * 
+ * <p>
+ * MongoDB cannot update the statistics in the same transaction as the data,
+ * so {@link MongoDataSet} adds to a stream's count after each chunk of its
+ * data is inserted. If a chunk fails, only some of it may have been inserted,
+ * so the stream is counted again instead. Either way, the stream's revision
+ * is increased after its data has been inserted, so a reader that saw the
+ * old revision will see the new data once it sees the new revision.
+ * </p>
+ * 
+ * <p>
+ * If a stream's statistics cannot be updated after its data was inserted,
+ * the stream is marked as stale. Its count and revision are not read until it
+ * has been counted again, which also increases its revision, so a reader
+ * never sees an old revision with new data.
+ * </p>
+ * 
+ * <p>
+ * Streams whose data was stored before the statistics existed are counted
+ * when this bin is created. A stream whose statistics are nonetheless
+ * created by adding to its count, after its data was stored by a server
+ * that did not count it, is also marked as stale, so it is counted in full
+ * before it is read.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MongoStreamStatisticsBin extends StreamStatisticsBin {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(MongoStreamStatisticsBin.class.getName());
+	
+	/**
+	 * The key the server uses to report whether an update changed an
+	 * existing document rather than creating a new one.
+	 */
+	private static final String KEY_UPDATED_EXISTING = "updatedExisting";
+	
+	/**
+	 * The streams whose statistics could not be updated after data was added
+	 * to them, as their owner, schema ID, and schema version.
+	 */
+	private final Set<List<Object>> stale =
+		Collections
+			.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+	
+	/**
+	 * Default constructor.
+	 */
+	protected MongoStreamStatisticsBin() {
+		// Get the collection to add indexes to.
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Ensure that each stream has only one set of statistics.
+		DBObject streamIndex = new BasicDBObject();
+		streamIndex.put(Data.JSON_KEY_OWNER, 1);
+		streamIndex.put(Schema.JSON_KEY_ID, 1);
+		streamIndex.put(Schema.JSON_KEY_VERSION, 1);
+		collection.ensureIndex(streamIndex, DB_NAME + "_stream_unique", true);
+		
+		// Count the streams whose data predates their statistics.
+		countOldStreams(collection);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.StreamStatisticsBin#getCount(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public long getCount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// If the stream's statistics are stale, count it again first.
+		refresh(owner, schemaId, version);
+		
+		// Get the stream's statistics, if any.
+		DBObject statistics;
+		try {
+			statistics =
+				MongoDao
+					.getInstance()
+					.getDb()
+					.getCollection(DB_NAME)
+					.findOne(buildStreamQuery(owner, schemaId, version));
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a stream's count.",
+					e);
+		}
+		if(statistics == null) {
+			return 0;
+		}
+		
+		Object count = statistics.get(JSON_KEY_COUNT);
+		return (count instanceof Number) ? ((Number) count).longValue() : 0;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.StreamStatisticsBin#getRevision(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public long getRevision(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// If the stream's statistics are stale, count it again first.
+		refresh(owner, schemaId, version);
+		
+		// Get the stream's revision, if it has any statistics.
+		DBObject statistics;
+		try {
+			statistics =
+				MongoDao
+					.getInstance()
+					.getDb()
+					.getCollection(DB_NAME)
+					.findOne(
+						buildStreamQuery(owner, schemaId, version),
+						new BasicDBObject(JSON_KEY_REVISION, 1));
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a stream's revision.",
+					e);
+		}
+		if(statistics == null) {
+			return 0;
+		}
+		
+		Object revision = statistics.get(JSON_KEY_REVISION);
+		return
+			(revision instanceof Number) ?
+				((Number) revision).longValue() :
+				0;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.StreamStatisticsBin#getOwners(java.lang.String, long)
+	 */
+	@Override
+	public List<String> getOwners(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Get the owners of the schema's streams.
+		DBObject query = new BasicDBObject();
+		query.put(Schema.JSON_KEY_ID, schemaId);
+		query.put(Schema.JSON_KEY_VERSION, version);
+		List<?> owners;
+		try {
+			owners =
+				MongoDao
+					.getInstance()
+					.getDb()
+					.getCollection(DB_NAME)
+					.distinct(Data.JSON_KEY_OWNER, query);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a schema's owners.",
+					e);
+		}
+		
+		List<String> result = new ArrayList<String>(owners.size());
+		for(Object owner : owners) {
+			result.add((String) owner);
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds to a stream's count and increases its revision, creating its
+	 * statistics if they do not yet exist.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param count
+	 *        The number of points that were added to the stream.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the count could not be
+	 *         updated.
+	 */
+	void addCount(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final long count)
+		throws OmhException {
+		
+		DBObject increments = new BasicDBObject(JSON_KEY_COUNT, count);
+		increments.put(JSON_KEY_REVISION, 1L);
+		
+		WriteResult result =
+			update(
+				owner,
+				schemaId,
+				version,
+				new BasicDBObject("$inc", increments));
+		
+		// If this created the statistics, the stream may already have had
+		// data that was never counted, so count it in full before it is read.
+		if(! Boolean.TRUE.equals(result.getField(KEY_UPDATED_EXISTING))) {
+			markStale(owner, schemaId, version);
+		}
+	}
+	
+	/**
+	 * Replaces a stream's count and increases its revision, creating its
+	 * statistics if they do not yet exist.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param count
+	 *        The number of points in the stream.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the count could not be
+	 *         updated.
+	 */
+	void setCount(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final long count)
+		throws OmhException {
+		
+		DBObject update =
+			new BasicDBObject("$set", new BasicDBObject(JSON_KEY_COUNT, count));
+		update.put("$inc", new BasicDBObject(JSON_KEY_REVISION, 1L));
+		
+		update(owner, schemaId, version, update);
+	}
+	
+	/**
+	 * Counts a stream's data again, replacing its count and increasing its
+	 * revision.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the stream could not be
+	 *         counted.
+	 */
+	void recount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		long count;
+		try {
+			count =
+				MongoDao
+					.getInstance()
+					.getDb()
+					.getCollection(DataSet.DB_NAME)
+					.count(buildStreamQuery(owner, schemaId, version));
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error counting a stream's data.",
+					e);
+		}
+		
+		setCount(owner, schemaId, version, count);
+	}
+	
+	/**
+	 * Marks a stream's statistics as stale because they could not be updated
+	 * after data was added to it. The stream is counted again before its
+	 * count or revision is next read.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 */
+	void markStale(
+		final String owner,
+		final String schemaId,
+		final long version) {
+		
+		stale.add(Arrays.<Object>asList(owner, schemaId, version));
+	}
+	
+	/**
+	 * Counts a stream again if its statistics are stale.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @throws OmhException
+	 *         The statistics are stale and the stream could not be counted.
+	 */
+	private void refresh(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Unmark the stream before counting it, so data that is added while
+		// it is being counted marks it again.
+		List<Object> stream = Arrays.<Object>asList(owner, schemaId, version);
+		if(! stale.remove(stream)) {
+			return;
+		}
+		
+		try {
+			recount(owner, schemaId, version);
+		}
+		catch(OmhException e) {
+			stale.add(stream);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Creates the statistics of every stream that has data but no
+	 * statistics, which is every stream whose data was stored before the
+	 * statistics existed. Without them, the stream would not be one of its
+	 * schema's {@link #getOwners(String, long) owners}, and adding to its
+	 * count would start it from zero. Streams that already have statistics
+	 * are left alone, so this changes nothing once every stream has been
+	 * counted.
+	 * 
+	 * @param collection
+	 *        The collection of stream statistics.
+	 * 
+	 * @throws MongoException
+	 *         The streams could not be counted.
+	 */
+	private static void countOldStreams(
+		final DBCollection collection)
+		throws MongoException {
+		
+		// Count the points in each stream.
+		DBObject stream = new BasicDBObject();
+		stream.put(Data.JSON_KEY_OWNER, "$" + Data.JSON_KEY_OWNER);
+		stream.put(Schema.JSON_KEY_ID, "$" + Schema.JSON_KEY_ID);
+		stream.put(Schema.JSON_KEY_VERSION, "$" + Schema.JSON_KEY_VERSION);
+		DBObject group = new BasicDBObject("_id", stream);
+		group.put(JSON_KEY_COUNT, new BasicDBObject("$sum", 1L));
+		AggregationOutput counts =
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DataSet.DB_NAME)
+				.aggregate(new BasicDBObject("$group", group));
+		
+		// Create the statistics of the streams that have none.
+		long created = 0;
+		for(DBObject count : counts.results()) {
+			DBObject statistics =
+				new BasicDBObject(JSON_KEY_COUNT, count.get(JSON_KEY_COUNT));
+			statistics.put(JSON_KEY_REVISION, 1L);
+			
+			WriteResult result =
+				collection
+					.update(
+						(DBObject) count.get("_id"),
+						new BasicDBObject("$setOnInsert", statistics),
+						true,
+						false);
+			if(! Boolean.TRUE.equals(result.getField(KEY_UPDATED_EXISTING))) {
+				created++;
+			}
+		}
+		if(created > 0) {
+			LOGGER
+				.log(
+					Level.INFO,
+					"Created the statistics of " +
+						created +
+						" stream(s) whose data predates them.");
+		}
+	}
+	
+	/**
+	 * Applies an update to a stream's statistics, creating them if they do
+	 * not yet exist.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param update
+	 *        The update.
+	 * 
+	 * @return The result of the update.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the update failed.
+	 */
+	private static WriteResult update(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DBObject update)
+		throws OmhException {
+		
+		try {
+			return
+				MongoDao
+					.getInstance()
+					.getDb()
+					.getCollection(DB_NAME)
+					.update(
+						buildStreamQuery(owner, schemaId, version),
+						update,
+						true,
+						false);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error updating a stream's count.",
+					e);
+		}
+	}
+	
+	/**
+	 * Builds a query that selects a stream's statistics.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @return The query.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	private static DBObject buildStreamQuery(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Build the query.
+		DBObject result = new BasicDBObject();
+		result.put(Data.JSON_KEY_OWNER, owner);
+		result.put(Schema.JSON_KEY_ID, schemaId);
+		result.put(Schema.JSON_KEY_VERSION, version);
+		return result;
+	}
+}
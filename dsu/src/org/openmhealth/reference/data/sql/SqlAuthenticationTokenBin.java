@@ -45,6 +45,10 @@ public class SqlAuthenticationTokenBin
 		// Get the DAO.
 		SqlDao dao = SqlDao.getInstance();
 
+		// Resolve the owner's database ID.
+		long userId =
+			dao.getIdCache().getExistingUserId(token.getUsername());
+
 		// Get the transaction manager.
 		PlatformTransactionManager transactionManager =
 			dao.getTransactionManager();
@@ -74,17 +78,13 @@ public class SqlAuthenticationTokenBin
 						") " +
 						"VALUES" +
 						" (" +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + UserBin.DB_NAME + " " +
-								"WHERE " + User.JSON_KEY_USERNAME + " = ?" +
-							"), " +
+							"?, " +
 							"?, " +
 							"?, " +
 							"?" +
 						")",
 					new Object[] {
-						token.getUsername(),
+						userId,
 						token.getToken(),
 						token.getGranted(),
 						token.getExpires()
@@ -174,7 +174,6 @@ public class SqlAuthorizationCodeBin
 							 * Maps the row to an {@link AuthorizationCode}
 							 * object. 
 							 */
-							@SuppressWarnings("unchecked")
 							@Override
 							public AuthorizationCode mapRow(
 								final ResultSet resultSet,
@@ -182,32 +181,12 @@ public class SqlAuthorizationCodeBin
 								throws SQLException {
 								
 								// Decode the scopes byte array.
-								Set<String> scopes;
-								try {
-									byte[] scopesArray =
+								Set<String> scopes =
+									decodeScopes(
 										resultSet
 											.getBytes(
 												AuthorizationCode
-													.JSON_KEY_SCOPES);
-									ByteArrayInputStream bais =
-										new ByteArrayInputStream(scopesArray);
-									ObjectInputStream ois =
-										new ObjectInputStream(bais);
-									scopes = (Set<String>) ois.readObject();
-								}
-								catch(IOException e) {
-									throw
-										new SQLException(
-											"The scopes object could not be " +
-												"read or decoded.",
-											e);
-								}
-								catch(ClassNotFoundException e) {
-									throw
-										new SQLException(
-											"The Set class is unknown.",
-											e);
-								}
+													.JSON_KEY_SCOPES));
 								
 								return
 									new AuthorizationCode(
@@ -257,6 +236,39 @@ public class SqlAuthorizationCodeBin
 		}
 	}
 
+	/**
+	 * Decodes the scopes of an authorization code, which are stored as a
+	 * serialized set.
+	 * 
+	 * @param scopesArray
+	 *        The serialized set.
+	 * 
+	 * @return The scopes.
+	 * 
+	 * @throws SQLException
+	 *         The scopes could not be decoded.
+	 */
+	@SuppressWarnings("unchecked")
+	static Set<String> decodeScopes(
+		final byte[] scopesArray)
+		throws SQLException {
+		
+		try {
+			ByteArrayInputStream bais = new ByteArrayInputStream(scopesArray);
+			ObjectInputStream ois = new ObjectInputStream(bais);
+			return (Set<String>) ois.readObject();
+		}
+		catch(IOException e) {
+			throw
+				new SQLException(
+					"The scopes object could not be read or decoded.",
+					e);
+		}
+		catch(ClassNotFoundException e) {
+			throw new SQLException("The Set class is unknown.", e);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
@@ -2,17 +2,25 @@ package org.openmhealth.reference.data.sql;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.openmhealth.reference.data.AuthorizationCodeBin;
 import org.openmhealth.reference.data.AuthorizationCodeResponseBin;
+import org.openmhealth.reference.data.ThirdPartyBin;
 import org.openmhealth.reference.data.UserBin;
 import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationCodeResponse;
+import org.openmhealth.reference.domain.ThirdParty;
 import org.openmhealth.reference.domain.User;
 import org.openmhealth.reference.exception.OmhException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
@@ -28,7 +36,13 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  */
 public class SqlAuthorizationCodeResponseBin
 	extends AuthorizationCodeResponseBin
-	implements SqlDaoInterface {
+	implements SqlDaoUpdateInterface {
+	
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(SqlAuthorizationCodeResponseBin.class.getName());
 
 	/*
 	 * (non-Javadoc)
@@ -47,6 +61,10 @@ public class SqlAuthorizationCodeResponseBin
 		// Get the DAO.
 		SqlDao dao = SqlDao.getInstance();
 
+		// Resolve the owner's database ID.
+		long userId =
+			dao.getIdCache().getExistingUserId(response.getOwnerUsername());
+
 		// Get the transaction manager.
 		PlatformTransactionManager transactionManager =
 			dao.getTransactionManager();
@@ -72,27 +90,27 @@ public class SqlAuthorizationCodeResponseBin
 						" (" +
 							UserBin.DB_NAME + "_id" + ", " +
 							AuthorizationCodeBin.DB_NAME + "_id" + ", " +
-							AuthorizationCodeResponse.JSON_KEY_GRANTED + " " +
+							AuthorizationCodeResponse.JSON_KEY_GRANTED + ", " +
+							AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+								" " +
 						") " +
 						"VALUES" +
 						" (" +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + UserBin.DB_NAME + " " +
-								"WHERE " + User.JSON_KEY_USERNAME + " = ?" +
-							"), " +
+							"?, " +
 							"(" +
 								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
 								"FROM " + AuthorizationCodeBin.DB_NAME + " " +
 								"WHERE " + 
 									AuthorizationCode.JSON_KEY_CODE + " = ?" +
 							"), " +
+							"?, " +
 							"?" +
 						")",
 					new Object[] {
-						response.getOwnerUsername(),
+						userId,
 						response.getAuthorizationCode(),
-						response.getGranted()
+						response.getGranted(),
+						response.getResponseTime()
 						}
 					);
 		}
@@ -143,7 +161,9 @@ public class SqlAuthorizationCodeResponseBin
 								User.JSON_KEY_USERNAME + ", " +
 								AuthorizationCode.JSON_KEY_CODE + ", " +
 								AuthorizationCodeResponse.JSON_KEY_GRANTED + 
-									" " +
+									", " +
+								AuthorizationCodeResponse
+									.JSON_KEY_RESPONSE_TIME + " " +
 							"FROM " +
 								UserBin.DB_NAME + ", " +
 								AuthorizationCodeBin.DB_NAME + ", " +
@@ -189,7 +209,11 @@ public class SqlAuthorizationCodeResponseBin
 										resultSet
 											.getBoolean(
 												AuthorizationCodeResponse
-													.JSON_KEY_GRANTED));
+													.JSON_KEY_GRANTED),
+										resultSet
+											.getLong(
+												AuthorizationCodeResponse
+													.JSON_KEY_RESPONSE_TIME));
 							}
 						});
 		}
@@ -219,6 +243,123 @@ public class SqlAuthorizationCodeResponseBin
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.AuthorizationCodeResponseBin#getGrantedCodes(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public Map<String, String> getGrantedCodes(
+		final String thirdPartyId,
+		final String scope,
+		final long grantedBefore)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(thirdPartyId == null) {
+			throw new OmhException("The third-party ID is null.");
+		}
+		if(scope == null) {
+			throw new OmhException("The scope is null.");
+		}
+		
+		// The scopes are stored as a serialized set, so they are checked as
+		// the granted responses are read.
+		final Map<String, String> result = new HashMap<String, String>();
+		try {
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.query(
+					"SELECT " +
+							User.JSON_KEY_USERNAME + ", " +
+							AuthorizationCode.JSON_KEY_CODE + ", " +
+							AuthorizationCode.JSON_KEY_SCOPES + " " +
+						"FROM " +
+							UserBin.DB_NAME + ", " +
+							ThirdPartyBin.DB_NAME + ", " +
+							AuthorizationCodeBin.DB_NAME + ", " +
+							AuthorizationCodeResponseBin.DB_NAME + " " +
+						"WHERE " +
+								UserBin.DB_NAME + 
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								AuthorizationCodeResponseBin.DB_NAME + 
+								"." +
+								UserBin.DB_NAME + "_id " +
+						"AND " +
+								AuthorizationCodeBin.DB_NAME + 
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								AuthorizationCodeResponseBin.DB_NAME + 
+								"." +
+								AuthorizationCodeBin.DB_NAME + "_id " +
+						"AND " +
+								ThirdPartyBin.DB_NAME + 
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								AuthorizationCodeBin.DB_NAME + 
+								"." +
+								ThirdPartyBin.DB_NAME + "_id " +
+						"AND " +
+							ThirdPartyBin.DB_NAME + 
+							"." +
+							ThirdParty.JSON_KEY_ID + " = ? " +
+						"AND " +
+							AuthorizationCodeResponseBin.DB_NAME + 
+							"." +
+							AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+							" <= ? " +
+						"AND " +
+							AuthorizationCodeResponseBin.DB_NAME + 
+							"." +
+							AuthorizationCodeResponse.JSON_KEY_GRANTED +
+							" = ?",
+					new Object[] { thirdPartyId, grantedBefore, true },
+					new RowCallbackHandler() {
+						/**
+						 * Adds the code and its user if the code's scopes
+						 * include the scope.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							Set<String> scopes =
+								SqlAuthorizationCodeBin
+									.decodeScopes(
+										resultSet
+											.getBytes(
+												AuthorizationCode
+													.JSON_KEY_SCOPES));
+							if(scopes.contains(scope)) {
+								result
+									.put(
+										resultSet
+											.getString(
+												AuthorizationCode
+													.JSON_KEY_CODE),
+										resultSet
+											.getString(
+												User.JSON_KEY_USERNAME));
+							}
+						}
+					});
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the granted users.",
+					e);
+		}
+		
+		return result;
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
@@ -242,6 +383,9 @@ public class SqlAuthorizationCodeResponseBin
 					// Add the granted flag.
 					AuthorizationCodeResponse.JSON_KEY_GRANTED +
 						" bit NOT NULL, " +
+					// Add the time of the response.
+					AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+						" bigint NOT NULL, " +
 					// Create the primary key.
 					"PRIMARY KEY (" + SqlDao.KEY_DATABASE_ID + "), " +
 					// Add the foreign key to the user table.
@@ -284,4 +428,76 @@ public class SqlAuthorizationCodeResponseBin
 								"ON DELETE CASCADE" +
 				")";
 	}
+	
+	/**
+	 * Adds the {@link AuthorizationCodeResponse#JSON_KEY_RESPONSE_TIME}
+	 * column to a table that was created before it existed. The responses
+	 * that were already stored are given the expiration times of their
+	 * authorization codes, which is the latest they could have been made.
+	 * This is repeated until none of them are left without a time.
+	 */
+	@Override
+	public void updateSqlTable(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		// Add the column if it is missing.
+		if(
+			jdbcTemplate
+				.queryForInt(
+					"SELECT COUNT(1) " +
+						"FROM information_schema.COLUMNS " +
+						"WHERE TABLE_SCHEMA = DATABASE() " +
+						"AND TABLE_NAME = ? " +
+						"AND COLUMN_NAME = ?",
+					AuthorizationCodeResponseBin.DB_NAME,
+					AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME) == 0) {
+			
+			LOGGER
+				.log(
+					Level.INFO,
+					"Adding the " +
+						AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+						" column to the " +
+						AuthorizationCodeResponseBin.DB_NAME +
+						" table.");
+			jdbcTemplate
+				.execute(
+					"ALTER TABLE " + AuthorizationCodeResponseBin.DB_NAME +
+						" " +
+						"ADD COLUMN " +
+							AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+							" bigint NOT NULL DEFAULT 0 " +
+							"AFTER " +
+								AuthorizationCodeResponse.JSON_KEY_GRANTED);
+		}
+		
+		// Give the responses without a time their codes' expiration times.
+		jdbcTemplate
+			.update(
+				"UPDATE " +
+						AuthorizationCodeResponseBin.DB_NAME + ", " +
+						AuthorizationCodeBin.DB_NAME + " " +
+					"SET " +
+						AuthorizationCodeResponseBin.DB_NAME + 
+						"." +
+						AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+						" = " +
+						AuthorizationCodeBin.DB_NAME + 
+						"." +
+						AuthorizationCode.JSON_KEY_EXPIRATION_TIME + " " +
+					"WHERE " +
+							AuthorizationCodeBin.DB_NAME + 
+							"." +
+							SqlDao.KEY_DATABASE_ID +
+						" = " +
+							AuthorizationCodeResponseBin.DB_NAME + 
+							"." +
+							AuthorizationCodeBin.DB_NAME + "_id " +
+					"AND " +
+						AuthorizationCodeResponseBin.DB_NAME + 
+						"." +
+						AuthorizationCodeResponse.JSON_KEY_RESPONSE_TIME +
+						" = 0");
+	}
 }
\ No newline at end of file
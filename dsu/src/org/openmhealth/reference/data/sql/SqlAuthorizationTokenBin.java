@@ -2,15 +2,20 @@ package org.openmhealth.reference.data.sql;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.openmhealth.reference.data.AuthorizationCodeBin;
 import org.openmhealth.reference.data.AuthorizationTokenBin;
+import org.openmhealth.reference.data.ThirdPartyBin;
 import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.ThirdParty;
 import org.openmhealth.reference.exception.OmhException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
@@ -326,6 +331,93 @@ public class SqlAuthorizationTokenBin
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.AuthorizationTokenBin#getLatestExpirationTimes(java.lang.String)
+	 */
+	@Override
+	public Map<String, Long> getLatestExpirationTimes(
+		final String thirdPartyId)
+		throws OmhException {
+		
+		// Validate the parameter.
+		if(thirdPartyId == null) {
+			throw new OmhException("The third-party ID is null.");
+		}
+		
+		final Map<String, Long> result = new HashMap<String, Long>();
+		try {
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.query(
+					"SELECT " +
+							AuthorizationCode.JSON_KEY_CODE + ", " +
+							"MAX(" +
+								AuthorizationTokenBin.DB_NAME + "." +
+								AuthorizationToken.JSON_KEY_EXPIRATION_TIME +
+							") AS " +
+								AuthorizationToken.JSON_KEY_EXPIRATION_TIME +
+								" " +
+						"FROM " +
+							ThirdPartyBin.DB_NAME + ", " +
+							AuthorizationCodeBin.DB_NAME + ", " +
+							AuthorizationTokenBin.DB_NAME + " " +
+						"WHERE " +
+								ThirdPartyBin.DB_NAME + 
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								AuthorizationCodeBin.DB_NAME + 
+								"." +
+								ThirdPartyBin.DB_NAME + "_id " +
+						"AND " +
+								AuthorizationCodeBin.DB_NAME + 
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								AuthorizationTokenBin.DB_NAME + 
+								"." +
+								AuthorizationCodeBin.DB_NAME + "_id " +
+						"AND " +
+							ThirdPartyBin.DB_NAME + 
+							"." +
+							ThirdParty.JSON_KEY_ID + " = ? " +
+						"GROUP BY " + AuthorizationCode.JSON_KEY_CODE,
+					new Object[] { thirdPartyId },
+					new RowCallbackHandler() {
+						/**
+						 * Adds the code and its latest expiration time.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							result
+								.put(
+									resultSet
+										.getString(
+											AuthorizationCode.JSON_KEY_CODE),
+									resultSet
+										.getLong(
+											AuthorizationToken
+												.JSON_KEY_EXPIRATION_TIME));
+						}
+					});
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the expiration times " +
+						"of authorization tokens.",
+					e);
+		}
+		
+		return result;
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
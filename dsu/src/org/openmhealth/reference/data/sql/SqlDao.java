@@ -5,6 +5,8 @@ import java.sql.SQLException;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.openmhealth.reference.data.Dao;
 import org.springframework.dao.DataAccessException;
@@ -60,6 +62,75 @@ public abstract class SqlDao extends Dao {
 	 */
 	public static final String KEY_DATABASE_ID = "id";
 	
+	/**
+	 * The property key for the number of milliseconds that concurrent writes
+	 * are collected before being committed together. Zero disables grouping.
+	 */
+	public static final String KEY_PROPERTY_GROUP_COMMIT_WINDOW =
+		"db.sql.groupCommit.window";
+	
+	/**
+	 * The property key for the maximum number of rows that are committed
+	 * together.
+	 */
+	public static final String KEY_PROPERTY_GROUP_COMMIT_MAX_ROWS =
+		"db.sql.groupCommit.maxRows";
+	
+	/**
+	 * The default number of milliseconds that concurrent writes are collected
+	 * before being committed together.
+	 */
+	public static final long DEFAULT_GROUP_COMMIT_WINDOW = 5;
+	
+	/**
+	 * The default maximum number of rows that are committed together.
+	 */
+	public static final int DEFAULT_GROUP_COMMIT_MAX_ROWS = 10000;
+	
+	/**
+	 * The property key for the maximum number of user IDs and schema IDs that
+	 * are cached.
+	 */
+	public static final String KEY_PROPERTY_ID_CACHE_SIZE =
+		"db.sql.idCache.size";
+	
+	/**
+	 * The default maximum number of user IDs and schema IDs that are cached.
+	 */
+	public static final int DEFAULT_ID_CACHE_SIZE = 10000;
+	
+	/**
+	 * The property key for whether or not the database supports the JSON
+	 * functions, e.g. JSON_EXTRACT() and JSON_TYPE(). The value may be
+	 * "true", "false", or "auto" to detect it from the server's version.
+	 */
+	public static final String KEY_PROPERTY_JSON_FUNCTIONS =
+		"db.sql.jsonFunctions";
+	
+	/**
+	 * The value for the JSON functions property that indicates that support
+	 * should be detected from the server's version.
+	 */
+	public static final String JSON_FUNCTIONS_AUTO = "auto";
+	
+	/**
+	 * The first version of MySQL whose JSON functions behave the way they are
+	 * used, as major, minor, and patch numbers.
+	 */
+	private static final int[] MINIMUM_VERSION_MYSQL = { 5, 7, 8 };
+	
+	/**
+	 * The first version of MariaDB with the JSON functions, as major, minor,
+	 * and patch numbers.
+	 */
+	private static final int[] MINIMUM_VERSION_MARIADB = { 10, 2, 3 };
+	
+	/**
+	 * The pattern for the beginning of the server's version string.
+	 */
+	private static final Pattern PATTERN_VERSION =
+		Pattern.compile("^(\\d+)\\.(\\d+)\\.(\\d+)");
+	
 	/**
 	 * The data source used to connect to the database.
 	 */
@@ -69,6 +140,23 @@ public abstract class SqlDao extends Dao {
 	 * database simpler.
 	 */
 	private final JdbcTemplate jdbcTemplate;
+	/**
+	 * The JDBC template for queries whose rows are processed one at a time
+	 * instead of being read into memory all at once.
+	 */
+	private final JdbcTemplate streamingJdbcTemplate;
+	/**
+	 * The coordinator that commits concurrent writes together.
+	 */
+	private final SqlGroupCommit groupCommit;
+	/**
+	 * The cache of user and schema database IDs.
+	 */
+	private final SqlIdCache idCache;
+	/**
+	 * Whether or not the database supports the JSON functions.
+	 */
+	private final boolean jsonFunctions;
 
 	/**
 	 * Initializes this DAO.
@@ -128,11 +216,87 @@ public abstract class SqlDao extends Dao {
 		// Create the JDBC template from the data source.
 		jdbcTemplate = new JdbcTemplate(dataSource);
 		
+		// Create the JDBC template for streaming. MySQL's driver only streams
+		// the rows of a result set, instead of reading them all first, when
+		// the fetch size is the minimum integer.
+		streamingJdbcTemplate = new JdbcTemplate(dataSource);
+		streamingJdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+		
+		// Create the group commit coordinator.
+		try {
+			groupCommit =
+				new SqlGroupCommit(
+					Long
+						.decode(
+							properties
+								.getProperty(
+									KEY_PROPERTY_GROUP_COMMIT_WINDOW,
+									Long
+										.toString(
+											DEFAULT_GROUP_COMMIT_WINDOW))),
+					Integer
+						.decode(
+							properties
+								.getProperty(
+									KEY_PROPERTY_GROUP_COMMIT_MAX_ROWS,
+									Integer
+										.toString(
+											DEFAULT_GROUP_COMMIT_MAX_ROWS))));
+		}
+		catch(NumberFormatException e) {
+			throw
+				new IllegalArgumentException(
+					"The group commit properties must be numbers.",
+					e);
+		}
+		
+		// Create the ID cache.
+		try {
+			idCache =
+				new SqlIdCache(
+					Integer
+						.decode(
+							properties
+								.getProperty(
+									KEY_PROPERTY_ID_CACHE_SIZE,
+									Integer.toString(DEFAULT_ID_CACHE_SIZE))));
+		}
+		catch(NumberFormatException e) {
+			throw
+				new IllegalArgumentException(
+					"The ID cache size must be a number.",
+					e);
+		}
+		
+		// Determine if the JSON functions may be used.
+		String jsonFunctionsValue =
+			properties
+				.getProperty(KEY_PROPERTY_JSON_FUNCTIONS, JSON_FUNCTIONS_AUTO)
+				.trim();
+		if(JSON_FUNCTIONS_AUTO.equalsIgnoreCase(jsonFunctionsValue)) {
+			jsonFunctions = detectJsonFunctions();
+		}
+		else if("true".equalsIgnoreCase(jsonFunctionsValue)) {
+			jsonFunctions = true;
+		}
+		else if("false".equalsIgnoreCase(jsonFunctionsValue)) {
+			jsonFunctions = false;
+		}
+		else {
+			throw
+				new IllegalArgumentException(
+					"The JSON functions property must be 'true', 'false', " +
+						"or '" + JSON_FUNCTIONS_AUTO + "': " +
+						KEY_PROPERTY_JSON_FUNCTIONS);
+		}
+		
 		// Initialize all of the components.
 		initDaos(
 			new SqlUserBin(),
 			new SqlRegistry(),
 			new SqlDataSet(),
+			new SqlStreamStatisticsBin(),
+			new SqlRollupBin(properties),
 			new SqlThirdPartyBin(),
 			new SqlAuthenticationTokenBin(),
 			new SqlAuthorizationCodeBin(),
@@ -149,6 +313,17 @@ public abstract class SqlDao extends Dao {
 		return jdbcTemplate;
 	}
 	
+	/**
+	 * Returns the JDBC template that should be used for queries whose rows
+	 * are processed one at a time. The connection is busy until every row has
+	 * been read, so no other queries may be made with it in the meantime.
+	 * 
+	 * @return The JDBC template object for streaming rows from the database.
+	 */
+	public JdbcTemplate getStreamingJdbcTemplate() {
+		return streamingJdbcTemplate;
+	}
+	
 	/**
 	 * Returns a transaction manager to be used to create transactions.
 	 * 
@@ -157,6 +332,40 @@ public abstract class SqlDao extends Dao {
 	public PlatformTransactionManager getTransactionManager() {
 		return new DataSourceTransactionManager(dataSource);
 	}
+	
+	/**
+	 * Returns the coordinator that should be used for writes that may be
+	 * committed together with other, concurrent writes.
+	 * 
+	 * @return The group commit coordinator.
+	 */
+	public SqlGroupCommit getGroupCommit() {
+		return groupCommit;
+	}
+	
+	/**
+	 * Returns the cache that should be used to look up the database IDs of
+	 * users and schemas.
+	 * 
+	 * @return The ID cache.
+	 */
+	public SqlIdCache getIdCache() {
+		return idCache;
+	}
+	
+	/**
+	 * Returns whether or not the database supports the JSON functions, e.g.
+	 * JSON_EXTRACT() and JSON_TYPE(), which require MySQL 5.7.8 or MariaDB
+	 * 10.2.3 or later. This is detected from the server's version unless it
+	 * was configured explicitly.
+	 * 
+	 * @return Whether or not the JSON functions may be used.
+	 * 
+	 * @see #KEY_PROPERTY_JSON_FUNCTIONS
+	 */
+	public boolean hasJsonFunctions() {
+		return jsonFunctions;
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -164,6 +373,9 @@ public abstract class SqlDao extends Dao {
 	 */
 	@Override
 	public void shutdown() {
+		// Commit anything that is waiting to be grouped.
+		groupCommit.shutdown();
+		
 		try {
 			dataSource.close();
 		}
@@ -217,6 +429,61 @@ public abstract class SqlDao extends Dao {
 	 */
 	protected abstract String getJdbcUrl();
 	
+	/**
+	 * Queries the server's version and determines if it supports the JSON
+	 * functions.
+	 * 
+	 * @return Whether or not the server supports the JSON functions.
+	 */
+	private boolean detectJsonFunctions() {
+		String version;
+		try {
+			version =
+				jdbcTemplate.queryForObject("SELECT VERSION()", String.class);
+		}
+		catch(DataAccessException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"The database version could not be determined, so the " +
+						"JSON functions will not be used.",
+					e);
+			return false;
+		}
+		
+		// Parse the major, minor, and patch numbers.
+		Matcher matcher = PATTERN_VERSION.matcher(version);
+		if(! matcher.find()) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"The database version is unknown, so the JSON " +
+						"functions will not be used: " + version);
+			return false;
+		}
+		
+		// Compare it against the minimum version for the server.
+		int[] minimum =
+			(version.toLowerCase().contains("mariadb")) ?
+				MINIMUM_VERSION_MARIADB :
+				MINIMUM_VERSION_MYSQL;
+		for(int i = 0; i < minimum.length; i++) {
+			int part = Integer.parseInt(matcher.group(i + 1));
+			if(part != minimum[i]) {
+				boolean result = part > minimum[i];
+				if(! result) {
+					LOGGER
+						.log(
+							Level.INFO,
+							"The database does not support the JSON " +
+								"functions: " + version);
+				}
+				return result;
+			}
+		}
+		return true;
+	}
+	
 	/**
 	 * Initializes the DAOs' access to the database.
 	 * 
@@ -246,6 +513,12 @@ public abstract class SqlDao extends Dao {
 			for(SqlDaoInterface daoInterface : daoInterfaces) {
 				// Create the table if it does not exist.
 				jdbcTemplate.execute(daoInterface.getSqlTableDefinition());
+				
+				// Bring the table up to date if it already existed.
+				if(daoInterface instanceof SqlDaoUpdateInterface) {
+					((SqlDaoUpdateInterface) daoInterface)
+						.updateSqlTable(jdbcTemplate);
+				}
 			}
 		}
 		// If creating the table fails, roll back the transaction and error
@@ -258,9 +531,6 @@ public abstract class SqlDao extends Dao {
 					e);
 		}
 		
-		// TODO: This is where the DAO interface's update scripts would
-		// be run.
-		
 		// Commit the transaction.
 		try {
 			transactionManager.commit(transactionStatus);
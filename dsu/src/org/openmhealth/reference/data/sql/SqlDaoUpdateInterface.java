@@ -0,0 +1,38 @@
+package org.openmhealth.reference.data.sql;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * <p>
+ * The interface for SQL DAO objects whose tables have changed since they
+ * were first created. The {@link #getSqlTableDefinition() definition} only
+ * creates missing tables, so the DAO brings existing tables up to date
+ * itself.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public interface SqlDaoUpdateInterface extends SqlDaoInterface {
+	/**
+	 * <p>
+	 * Brings the table up to date after it has been created. This is run
+	 * every time the DAO is initialized, so it must check what needs to be
+	 * done and do nothing if the table is already up to date. If it fails
+	 * partway, running it again must finish the update.
+	 * </p>
+	 * 
+	 * <p>
+	 * The SQL generated here may only conform to MySQL.
+	 * </p>
+	 * 
+	 * @param jdbcTemplate
+	 *        The JDBC template to use to access the database.
+	 * 
+	 * @throws DataAccessException
+	 *         The table could not be updated.
+	 */
+	public void updateSqlTable(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException;
+}
@@ -4,30 +4,47 @@ import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.RollupBin;
+import org.openmhealth.reference.data.StreamStatisticsBin;
 import org.openmhealth.reference.data.UserBin;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.CursorMultiValueResult;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataCursor;
+import org.openmhealth.reference.domain.DataRollup;
+import org.openmhealth.reference.domain.DataSummary;
 import org.openmhealth.reference.domain.MetaData;
 import org.openmhealth.reference.domain.MultiValueResult;
-import org.openmhealth.reference.domain.Schema;
-import org.openmhealth.reference.domain.User;
 import org.openmhealth.reference.domain.sql.SqlMultiValueResult;
 import org.openmhealth.reference.exception.OmhException;
 import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+import org.openmhealth.reference.util.TimeZoneOffsets;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionStatus;
-import org.springframework.transaction.support.DefaultTransactionDefinition;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * <p>
@@ -37,12 +54,100 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  *
  * @author John Jenkins
  */
-public class SqlDataSet extends DataSet implements SqlDaoInterface {
+public class SqlDataSet extends DataSet implements SqlDaoUpdateInterface {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(SqlDataSet.class.getName());
+	
 	/**
 	 * A standard mapping factory for converting POJOs to JSON and visa versa.
 	 */
 	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 	
+	/**
+	 * The column that contains a point's meta-data ID.
+	 */
+	private static final String METADATA_ID_COLUMN =
+		Data.JSON_KEY_METADATA + "_" + MetaData.JSON_KEY_ID;
+	/**
+	 * The column that contains a point's timestamp as milliseconds since the
+	 * epoch. Unlike the timestamp's text, this is ordered the same way as the
+	 * instants themselves, regardless of their time zones, so it can be
+	 * range-scanned.
+	 */
+	private static final String METADATA_TIMESTAMP_MILLIS_COLUMN =
+		Data.JSON_KEY_METADATA + "_" + MetaData.JSON_KEY_TIMESTAMP + "_millis";
+	/**
+	 * The index for reading a stream within a range of time.
+	 */
+	private static final String STREAM_INDEX =
+		DataSet.DB_NAME + "_index_stream_" + METADATA_TIMESTAMP_MILLIS_COLUMN;
+	/**
+	 * The number of points whose timestamps are converted at once when a
+	 * table from before the {@link #METADATA_TIMESTAMP_MILLIS_COLUMN} is
+	 * updated.
+	 */
+	private static final int BACKFILL_BATCH_SIZE = 1000;
+	/**
+	 * The prefix of the columns to which the fields of the data are extracted.
+	 * Each is followed by the index of its field.
+	 */
+	private static final String EXTRACTED_FIELD_PREFIX = "field_";
+	
+	/**
+	 * The column that contains the commit sequence number of the transaction
+	 * that stored a point. Points that were stored before this column existed
+	 * have a sequence number of 0.
+	 */
+	private static final String COMMIT_SEQUENCE_COLUMN = "commit_sequence";
+	/**
+	 * The table with the single row that contains the most recently committed
+	 * sequence number.
+	 */
+	private static final String COMMIT_SEQUENCE_TABLE =
+		DataSet.DB_NAME + "_" + COMMIT_SEQUENCE_COLUMN;
+	/**
+	 * The column of the {@link #COMMIT_SEQUENCE_TABLE} that contains the most
+	 * recently committed sequence number.
+	 */
+	private static final String LAST_SEQUENCE_COLUMN = "last_sequence";
+	/**
+	 * The session variable that holds the current transaction's sequence
+	 * number.
+	 */
+	private static final String COMMIT_SEQUENCE_VARIABLE =
+		"@" + COMMIT_SEQUENCE_TABLE;
+	/**
+	 * The statement that takes the next sequence number for a transaction
+	 * that stores data. It locks the sequence's row until the transaction
+	 * ends, so the transactions that store data commit in the order of their
+	 * sequence numbers, and a sequence number that has been committed is
+	 * never followed by a commit with a lower one.
+	 */
+	private static final String SQL_NEXT_COMMIT_SEQUENCE =
+		"UPDATE " + COMMIT_SEQUENCE_TABLE + " " +
+			"SET " + LAST_SEQUENCE_COLUMN + " = " +
+				"(" +
+					COMMIT_SEQUENCE_VARIABLE + " := " +
+						LAST_SEQUENCE_COLUMN + " + 1" +
+				")";
+	
+	/**
+	 * The maximum number of parameters in a single "IN" clause.
+	 */
+	private static final int MAX_IN_PARAMETERS = 1000;
+	
+	/**
+	 * The order of the data, which is the most recent data first. Points are
+	 * ordered by their database ID when their timestamps are the same.
+	 */
+	private static final String ORDER_BY_CLAUSE =
+		"ORDER BY " +
+			METADATA_TIMESTAMP_MILLIS_COLUMN + " DESC, " +
+			SqlDao.KEY_DATABASE_ID + " DESC ";
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.data.DataSet#setData(java.util.List)
@@ -54,109 +159,262 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 			throw new OmhException("The token is null.");
 		}
 		
-		// Get the DAO.
-		SqlDao dao = SqlDao.getInstance();
-
-		// Get the transaction manager.
-		PlatformTransactionManager transactionManager =
-			dao.getTransactionManager();
-		
-		// Create a new transaction definition and name it.
-		DefaultTransactionDefinition transactionDefinition =
-			new DefaultTransactionDefinition();
-		transactionDefinition.setName("Adding a data point.");
-		
-		// Create the new transaction.
-		TransactionStatus transactionStatus =
-			transactionManager.getTransaction(transactionDefinition);
-		
-		// Get the JDBC template.
-		JdbcTemplate jdbcTemplate = dao.getJdbcTemplate();
-		
 		// Create the list of points to be inserted into the database.
 		List<Object[]> points = new ArrayList<Object[]>(data.size());
 		
+		// Count the number of points being added to each stream.
+		Map<List<Long>, Long> counts = new LinkedHashMap<List<Long>, Long>();
+		
+		// Get the cache of the user and schema database IDs.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		
 		// Add each of the points to the array.
 		try {
 			for(Data point : data) {
 				Object[] pointData = new Object[6];
-				pointData[0] = point.getOwner();
-				pointData[1] = point.getSchemaId();
-				pointData[2] = point.getSchemaVersion();
+				pointData[0] = idCache.getExistingUserId(point.getOwner());
+				pointData[1] =
+					idCache
+						.getExistingSchemaId(
+							point.getSchemaId(),
+							point.getSchemaVersion());
 				
 				MetaData metaData = point.getMetaData();
-				if(metaData == null) {
+				DateTime timestamp =
+					(metaData == null) ? null : metaData.getTimestamp();
+				pointData[2] = (metaData == null) ? null : metaData.getId();
+				if(timestamp == null) {
 					pointData[3] = null;
 					pointData[4] = null;
 				}
 				else {
-					pointData[3] = metaData.getId();
-					pointData[4] =
-						ISOW3CDateTimeFormat
-							.any()
-							.print(metaData.getTimestamp());
+					pointData[3] =
+						ISOW3CDateTimeFormat.any().print(timestamp);
+					pointData[4] = timestamp.getMillis();
 				}
 				
 				pointData[5] = JSON_MAPPER.writeValueAsString(point.getData());
 				
 				points.add(pointData);
+				
+				List<Long> stream =
+					Arrays.asList((Long) pointData[0], (Long) pointData[1]);
+				Long count = counts.get(stream);
+				counts.put(stream, (count == null) ? 1 : count + 1);
 			}
 		}
 		catch(JsonProcessingException e) {
 			throw new OmhException("Could not convert some data to JSON.", e);
 		}
 		
-		// Add the data.
+		// Build the updates to the streams' counts.
+		List<Object[]> countUpdates = new ArrayList<Object[]>(counts.size());
+		for(Map.Entry<List<Long>, Long> count : counts.entrySet()) {
+			countUpdates
+				.add(
+					new Object[] {
+						count.getKey().get(0),
+						count.getKey().get(1),
+						count.getValue() });
+		}
+		
+		// Build the updates to the streams' rollups.
+		List<DataRollup> rollups = RollupBin.getInstance().buildRollups(data);
+		List<Object[]> rollupUpdates = new ArrayList<Object[]>(rollups.size());
+		for(DataRollup rollup : rollups) {
+			rollupUpdates.add(SqlRollupBin.buildAddParameters(rollup));
+		}
+		
+		// Add the data and update the counts and rollups in the same
+		// transaction. This may be committed in the same transaction as other
+		// concurrent requests' data, but it will succeed or fail on its own.
+		// The transaction first takes its commit sequence number, which every
+		// point is stamped with.
+		Map<String, List<Object[]>> statements =
+			new LinkedHashMap<String, List<Object[]>>();
+		statements
+			.put(
+				SQL_NEXT_COMMIT_SEQUENCE,
+				Collections.singletonList(new Object[0]));
+		statements
+			.put(
+				"INSERT INTO " + DataSet.DB_NAME + " (" +
+						UserBin.DB_NAME + "_id" + ", " +
+						Registry.DB_NAME + "_id" + ", " +
+						Data.JSON_KEY_METADATA + "_" + 
+							MetaData.JSON_KEY_ID + ", " +
+						Data.JSON_KEY_METADATA + "_" +
+							MetaData.JSON_KEY_TIMESTAMP + ", " +
+						METADATA_TIMESTAMP_MILLIS_COLUMN + ", " +
+						Data.JSON_KEY_DATA + ", " +
+						COMMIT_SEQUENCE_COLUMN + " " +
+					") VALUES (?, ?, ?, ?, ?, ?, " +
+						COMMIT_SEQUENCE_VARIABLE +
+					")",
+				points);
+		statements.put(SqlStreamStatisticsBin.SQL_ADD_COUNT, countUpdates);
+		if(rollupUpdates.size() > 0) {
+			statements.put(SqlRollupBin.SQL_ADD_ROLLUP, rollupUpdates);
+		}
+		SqlDao.getInstance().getGroupCommit().batchUpdate(statements);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataCursor, long, long, boolean)
+	 */
+	@Override
+	public CursorMultiValueResult<Data> getData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final boolean includeCount) {
+		
+		return
+			readData(
+				owner,
+				schemaId,
+				version,
+				columnList,
+				startDate,
+				endDate,
+				null,
+				cursor,
+				numToSkip,
+				numToReturn,
+				includeCount);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getSnapshot()
+	 */
+	@Override
+	public String getSnapshot() throws OmhException {
+		Long result;
 		try {
-			jdbcTemplate
-				.batchUpdate(
-					"INSERT INTO " + DataSet.DB_NAME + " (" +
-							UserBin.DB_NAME + "_id" + ", " +
-							Registry.DB_NAME + "_id" + ", " +
-							Data.JSON_KEY_METADATA + "_" + 
-								MetaData.JSON_KEY_ID + ", " +
-							Data.JSON_KEY_METADATA + "_" +
-								MetaData.JSON_KEY_TIMESTAMP + ", " +
-							Data.JSON_KEY_DATA + " " +
-						") VALUES (" +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + UserBin.DB_NAME + " " +
-								"WHERE " + User.JSON_KEY_USERNAME + " = ?" +
-							"), " +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + Registry.DB_NAME + " " +
-								"WHERE " + Schema.JSON_KEY_ID + " = ? " +
-								"AND " + Schema.JSON_KEY_VERSION + " = ?" +
-							"), " +
-							"?, " +
-							"?, " +
-							"?" +
-						")",
-					points);
-			
-			// Commit the transaction.
-			transactionManager.commit(transactionStatus);
+			result =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForObject(
+						"SELECT " + LAST_SEQUENCE_COLUMN + " " +
+							"FROM " + COMMIT_SEQUENCE_TABLE,
+						Long.class);
 		}
+		// For all issues, we simply propagate the exception.
 		catch(DataAccessException e) {
-			transactionManager.rollback(transactionStatus);
-			throw new OmhException("There was a problem storing the data.", e);
+			throw
+				new OmhException(
+					"There was an error querying for the snapshot point.",
+					e);
 		}
+		
+		return (result == null) ? null : result.toString();
 	}
-
+	
 	/*
 	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, java.lang.Long, java.lang.Long)
+	 * @see org.openmhealth.reference.data.DataSet#getSnapshotData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, java.lang.String, org.openmhealth.reference.domain.DataCursor, long)
 	 */
 	@Override
-	public MultiValueResult<Data> getData(
+	public CursorMultiValueResult<Data> getSnapshotData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final String snapshot,
+		final DataCursor cursor,
+		final long numToReturn)
+		throws OmhException {
+		
+		if(snapshot == null) {
+			throw new OmhException("The snapshot point is null.");
+		}
+		long snapshotSequence;
+		try {
+			snapshotSequence = Long.parseLong(snapshot);
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The snapshot point is invalid.", e);
+		}
+		
+		return
+			readData(
+				owner,
+				schemaId,
+				version,
+				columnList,
+				null,
+				null,
+				snapshotSequence,
+				cursor,
+				0,
+				numToReturn,
+				false);
+	}
+	
+	/**
+	 * Reads a page of data.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 * 
+	 * @param columnList
+	 *        The list of columns within the data to return.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp, inclusive, or null.
+	 * 
+	 * @param snapshotSequence
+	 *        The greatest commit sequence number of the points to return or
+	 *        null if there is no upper bound.
+	 * 
+	 * @param cursor
+	 *        The position after which to begin returning data or null.
+	 * 
+	 * @param numToSkip
+	 *        The number of data points to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @param includeCount
+	 *        Whether or not to count all of the applicable data.
+	 * 
+	 * @return The page of data.
+	 * 
+	 * @throws OmhException
+	 *         The cursor is invalid or the data could not be read.
+	 */
+	private static CursorMultiValueResult<Data> readData(
 		final String owner,
 		final String schemaId,
 		final long version,
 		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final Long snapshotSequence,
+		final DataCursor cursor,
 		final long numToSkip,
-		final long numToReturn) {
+		final long numToReturn,
+		final boolean includeCount)
+		throws OmhException {
 		
 		// Validate the parameters.
 		if(owner == null) {
@@ -166,195 +424,1011 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 			throw new OmhException("The schema ID is null.");
 		}
 		
-		// Retrieve the list of results.
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no data.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return
+				new CursorMultiValueResult<Data>(
+					Collections.<Data>emptyList(),
+					0,
+					null);
+		}
+		
+		// Limit the results based on the owner, schema, and, if given, the
+		// range of time.
+		StringBuilder whereClause = new StringBuilder();
+		List<Object> whereParameters = new ArrayList<Object>(4);
+		appendWhereClause(
+			userId,
+			registryId,
+			startDate,
+			endDate,
+			whereClause,
+			whereParameters);
+		
+		// Extract only the requested fields of the data, if possible. Their
+		// paths are the first parameters.
+		List<String> fields = getExtractedFields(columnList);
+		List<Object> parameters = buildExtractedFieldParameters(fields);
+		parameters.addAll(whereParameters);
+		
+		// If a cursor was given, begin after it.
+		StringBuilder cursorClause = new StringBuilder();
+		appendCursorClause(cursor, cursorClause, parameters);
+		
+		// If a snapshot point was given, ignore the points committed after
+		// it.
+		if(snapshotSequence != null) {
+			cursorClause
+				.append("AND ")
+				.append(COMMIT_SEQUENCE_COLUMN)
+				.append(" <= ? ");
+			parameters.add(snapshotSequence);
+		}
+		
+		// Add the paging parameters. One extra point is read to determine if
+		// there is more data.
+		parameters.add(numToSkip);
+		parameters.add(numToReturn + 1);
+		
+		// Retrieve the list of results and their database IDs.
 		List<Data> list;
+		List<String> ids = new ArrayList<String>();
 		try {
 			list =
 				SqlDao
 					.getInstance()
 					.getJdbcTemplate()
 					.query(
-						// Get the required columns to build the object.
-						"SELECT " +
-								User.JSON_KEY_USERNAME + ", " +
-								Schema.JSON_KEY_ID + ", " +
-								Schema.JSON_KEY_VERSION + ", " +
-								Data.JSON_KEY_METADATA + "_" +
-									MetaData.JSON_KEY_ID + ", " +
-								Data.JSON_KEY_METADATA + "_" +
-									MetaData.JSON_KEY_TIMESTAMP + ", " +
-								Data.JSON_KEY_DATA + " " +
-							// Include all of the required tables.
-							"FROM " +
-								UserBin.DB_NAME + ", " +
-								Registry.DB_NAME + ", " +
-								DataSet.DB_NAME + " " +
-							// Link the user table to the data table.
-							"WHERE " +
-									UserBin.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									UserBin.DB_NAME + "_id " +
-							// Limit the results based on the required
-							// username.
-							"AND " + User.JSON_KEY_USERNAME + " = ? " +
-							// Link the registry table to the data table.
-							"AND " +
-									Registry.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									Registry.DB_NAME + "_id " +
-							// Limit the results based on the required schema
-							// ID and version.
-							"AND " + Schema.JSON_KEY_ID + " = ? " +
-							"AND " + Schema.JSON_KEY_VERSION + " = ? " +
-							"LIMIT ?, ?",
-						new Object[] {
+						buildDataQuery(whereClause, cursorClause, fields),
+						parameters.toArray(),
+						createRowMapper(
 							owner,
 							schemaId,
 							version,
-							numToSkip,
-							numToReturn },
-						new RowMapper<Data>() {
+							columnList,
+							fields,
+							ids));
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for schemas.",
+					e);
+		}
+		
+		// Retrieve the total count of results.
+		int count =
+			countData(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				includeCount,
+				whereClause,
+				whereParameters);
+		
+		return buildPage(list, ids, count, numToReturn);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataCursor, long, long, boolean, org.openmhealth.reference.data.DataSet.DataHandler)
+	 */
+	@Override
+	public void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final boolean includeCount,
+		final DataHandler handler)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The data is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		else if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no data.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			begin(handler, 0, null);
+			return;
+		}
+		
+		// Limit the results based on the owner, schema, and, if given, the
+		// range of time.
+		StringBuilder whereClause = new StringBuilder();
+		List<Object> whereParameters = new ArrayList<Object>(4);
+		appendWhereClause(
+			userId,
+			registryId,
+			startDate,
+			endDate,
+			whereClause,
+			whereParameters);
+		
+		// If a cursor was given, begin after it.
+		StringBuilder cursorClause = new StringBuilder();
+		List<Object> cursorParameters = new ArrayList<Object>(whereParameters);
+		appendCursorClause(cursor, cursorClause, cursorParameters);
+		
+		// Retrieve the total count of results.
+		int count =
+			countData(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				includeCount,
+				whereClause,
+				whereParameters);
+		
+		// Find the last point on the page and whether or not there is a point
+		// after it. This only reads the index, so the next cursor is known
+		// before any of the data is written.
+		List<Object> boundaryParameters =
+			new ArrayList<Object>(cursorParameters);
+		boundaryParameters.add(numToSkip + numToReturn - 1);
+		boundaryParameters.add(2);
+		List<DataCursor> boundary;
+		try {
+			boundary =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.query(
+						"SELECT " +
+								METADATA_TIMESTAMP_MILLIS_COLUMN + ", " +
+								SqlDao.KEY_DATABASE_ID + " " +
+							"FROM " + DataSet.DB_NAME + " " +
+							whereClause +
+							cursorClause +
+							ORDER_BY_CLAUSE +
+							"LIMIT ?, ?",
+						boundaryParameters.toArray(),
+						new RowMapper<DataCursor>() {
 							/**
-							 * Maps the row to a {@link Data} object.
+							 * Maps the row to the position of its point.
 							 */
 							@Override
-							public Data mapRow(
+							public DataCursor mapRow(
 								final ResultSet resultSet,
 								final int rowNum)
 								throws SQLException {
 								
-								// Get the username.
-								String username =
+								long timestamp =
 									resultSet
-										.getString(User.JSON_KEY_USERNAME);
-								// Get the schema's ID.
-								String id =
-									resultSet.getString(Schema.JSON_KEY_ID);
-								// Get the stream's version.
-								long version =
-									resultSet.getLong(Schema.JSON_KEY_VERSION);
-								
-								// Build the meta-data.
-								MetaData.Builder metaDataBuilder =
-									new MetaData.Builder();
-								// Get and set the ID, even if it is null.
-								metaDataBuilder
-									.setId(
+										.getLong(
+											METADATA_TIMESTAMP_MILLIS_COLUMN);
+								return
+									new DataCursor(
+										(resultSet.wasNull()) ?
+											null :
+											timestamp,
 										resultSet
 											.getString(
-												Data.JSON_KEY_METADATA +
-													"_" +
-													MetaData.JSON_KEY_ID));
-								// Get the timestamp.
-								String metaDataTimestampString =
-									resultSet
-										.getString(
-											Data.JSON_KEY_METADATA +
-												"_" +
-												MetaData.JSON_KEY_TIMESTAMP);
-								// If the timestamp is not null, decode it and
-								// set it.
-								if(metaDataTimestampString != null) {
-									metaDataBuilder
-										.setTimestamp(
-											ISOW3CDateTimeFormat
-												.any()
-												.parseDateTime(
-													metaDataTimestampString));
-								}
-								// If the builder has no non-null members,
-								// create a MetaData object; otherwise, just
-								// leave it as null.
-								MetaData metaData =
-									((metaDataBuilder.isNull()) ?
-										null :
-										metaDataBuilder.build());
+												SqlDao.KEY_DATABASE_ID));
+							}
+						});
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the end of the page.",
+					e);
+		}
+		DataCursor nextCursor = (boundary.size() < 2) ? null : boundary.get(0);
+		begin(handler, count, nextCursor);
+		
+		// Stream the page, one row at a time. The page is bounded by the
+		// point at which the next page begins rather than by its size, so a
+		// point that is stored after the boundary was found may make the page
+		// longer, but it can never push a point past the next cursor. If there
+		// is no next page, every remaining point is streamed. Only the
+		// requested fields of the data are extracted, if possible, and their
+		// paths are the first parameters.
+		List<String> fields = getExtractedFields(columnList);
+		StringBuilder pageClause = new StringBuilder(cursorClause);
+		List<Object> parameters = buildExtractedFieldParameters(fields);
+		parameters.addAll(cursorParameters);
+		appendBoundaryClause(nextCursor, pageClause, parameters);
+		parameters.add(numToSkip);
+		parameters.add(Long.MAX_VALUE);
+		final RowMapper<Data> rowMapper =
+			createRowMapper(
+				owner,
+				schemaId,
+				version,
+				columnList,
+				fields,
+				null);
+		try {
+			SqlDao
+				.getInstance()
+				.getStreamingJdbcTemplate()
+				.query(
+					buildDataQuery(whereClause, pageClause, fields),
+					parameters.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * Maps the row to a {@link Data} object and passes it
+						 * to the handler.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							Data point =
+								rowMapper.mapRow(resultSet, resultSet.getRow());
+							try {
+								handler.handle(point);
+							}
+							catch(IOException e) {
+								throw
+									new SQLException(
+										"The data could not be written.",
+										e);
+							}
+						}
+					});
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for schemas.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataSummary.Period, org.joda.time.DateTimeZone, long, long)
+	 */
+	@Override
+	public MultiValueResult<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period period,
+		final DateTimeZone timeZone,
+		final long numToSkip,
+		final long numToReturn)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		else if(period == null) {
+			throw new OmhException("The period is null.");
+		}
+		else if(timeZone == null) {
+			throw new OmhException("The time zone is null.");
+		}
+		
+		// The fields are extracted with the JSON functions, so, without
+		// them, only the points may be counted.
+		if((columnList != null) &&
+			(columnList.size() > 0) &&
+			(! SqlDao.getInstance().hasJsonFunctions())) {
+			
+			throw
+				new OmhException(
+					"Summarizing fields requires a database with JSON " +
+						"functions (MySQL 5.7.8 or MariaDB 10.2.3 or " +
+						"later). Only the number of points may be " +
+						"summarized. To override the detection, set: " +
+						SqlDao.KEY_PROPERTY_JSON_FUNCTIONS);
+		}
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no data.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return
+				new SqlMultiValueResult<DataSummary>(
+					Collections.<DataSummary>emptyList(),
+					0);
+		}
+		
+		// Limit the points based on the owner, schema, and, if given, the
+		// range of time. Points without a timestamp cannot be summarized.
+		StringBuilder whereClause = new StringBuilder();
+		List<Object> whereParameters = new ArrayList<Object>(4);
+		appendWhereClause(
+			userId,
+			registryId,
+			startDate,
+			endDate,
+			whereClause,
+			whereParameters);
+		whereClause
+			.append("AND ")
+			.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+			.append(" IS NOT NULL ");
+		
+		try {
+			JdbcTemplate jdbcTemplate = SqlDao.getInstance().getJdbcTemplate();
+			
+			// Get the range of time that the points actually cover, which
+			// only reads the index. If there are no points, there is nothing
+			// to summarize.
+			List<Long> range =
+				jdbcTemplate
+					.queryForObject(
+						"SELECT " +
+								"MIN(" +
+									METADATA_TIMESTAMP_MILLIS_COLUMN +
+									"), " +
+								"MAX(" +
+									METADATA_TIMESTAMP_MILLIS_COLUMN +
+									") " +
+							"FROM " + DataSet.DB_NAME + " " +
+							whereClause,
+						whereParameters.toArray(),
+						new RowMapper<List<Long>>() {
+							/**
+							 * Maps the row to the earliest and latest
+							 * timestamps, which are null if there are no
+							 * points.
+							 */
+							@Override
+							public List<Long> mapRow(
+								final ResultSet resultSet,
+								final int rowNum)
+								throws SQLException {
 								
-								// Get the data.
-								JsonNode data;
-								try {
-									data =
-										JSON_MAPPER
-											.readTree(
-												resultSet
-													.getString(
-														Data.JSON_KEY_DATA));
+								long min = resultSet.getLong(1);
+								if(resultSet.wasNull()) {
+									return null;
 								}
-								catch(IOException e) {
-									throw
-										new SQLException(
-											"Error decoding the data.",
-											e);
-								}
-								// FIXME: Apply the column list.
-								
-								// Create a Data object and return it.
 								return
-									new Data(
-										username,
-										id,
-										version,
-										metaData,
-										data);
+									Arrays
+										.asList(min, resultSet.getLong(2));
 							}
 						});
+			if(range == null) {
+				return
+					new SqlMultiValueResult<DataSummary>(
+						Collections.<DataSummary>emptyList(),
+						0);
+			}
+			
+			// Build the expression for the start of each point's period in
+			// local time, using the offsets that the time zone uses over the
+			// range.
+			String periodExpression =
+				"FLOOR(" +
+					buildLocalTimeExpression(
+						METADATA_TIMESTAMP_MILLIS_COLUMN,
+						new TimeZoneOffsets(
+							timeZone,
+							range.get(0),
+							range.get(1))) +
+					" / " +
+					period.getMillis() +
+					") * " +
+					period.getMillis();
+			
+			// Count the periods, which only reads the index.
+			int count =
+				jdbcTemplate
+					.queryForInt(
+						"SELECT COUNT(DISTINCT " + periodExpression + ") " +
+							"FROM " + DataSet.DB_NAME + " " +
+							whereClause,
+						whereParameters.toArray());
+			
+			// Extract each field once per point, then summarize the fields
+			// that are numbers.
+			List<String> fields =
+				(columnList == null) ?
+					Collections.<String>emptyList() :
+					columnList.toList();
+			StringBuilder extractedColumns = new StringBuilder();
+			StringBuilder summaryColumns = new StringBuilder();
+			List<Object> parameters = new ArrayList<Object>();
+			for(int i = 0; i < fields.size(); i++) {
+				String field = EXTRACTED_FIELD_PREFIX + i;
+				String number =
+					"CASE " +
+						"WHEN JSON_TYPE(" + field + ") " +
+							"IN (" +
+								"'INTEGER', " +
+								"'UNSIGNED INTEGER', " +
+								"'DOUBLE', " +
+								"'DECIMAL') " +
+						"THEN " + field + " + 0 " +
+						"END";
+				
+				extractedColumns
+					.append(", JSON_EXTRACT(")
+					.append(Data.JSON_KEY_DATA)
+					.append(", ?) AS ")
+					.append(field);
+				parameters.add(buildJsonPath(fields.get(i)));
+				
+				summaryColumns
+					.append(", COUNT(").append(number).append(")")
+					.append(", MIN(").append(number).append(")")
+					.append(", MAX(").append(number).append(")")
+					.append(", SUM(").append(number).append(")");
+			}
+			parameters.addAll(whereParameters);
+			parameters.add(numToSkip);
+			parameters.add(numToReturn);
+			
+			List<DataSummary> summaries =
+				jdbcTemplate
+					.query(
+						"SELECT " +
+								periodExpression + " AS period, " +
+								"COUNT(1)" +
+								summaryColumns + " " +
+							"FROM (" +
+								"SELECT " +
+										METADATA_TIMESTAMP_MILLIS_COLUMN +
+										extractedColumns + " " +
+									"FROM " + DataSet.DB_NAME + " " +
+									whereClause +
+								") AS fields " +
+							"GROUP BY period " +
+							"ORDER BY period DESC " +
+							"LIMIT ?, ?",
+						parameters.toArray(),
+						createSummaryRowMapper(fields, timeZone));
+			
+			return new SqlMultiValueResult<DataSummary>(summaries, count);
 		}
 		// For all issues, we simply propagate the exception.
 		catch(DataAccessException e) {
 			throw
 				new OmhException(
-					"There was an error querying for schemas.",
+					"There was an error summarizing the data.",
 					e);
 		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamMetaDataIds(java.lang.String, java.lang.String, long, org.openmhealth.reference.data.DataSet.MetaDataIdHandler)
+	 */
+	@Override
+	public void streamMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final MetaDataIdHandler handler)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		else if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no data.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return;
+		}
+		
+		// Stream the IDs, one row at a time.
+		try {
+			SqlDao
+				.getInstance()
+				.getStreamingJdbcTemplate()
+				.query(
+					"SELECT " + METADATA_ID_COLUMN + " " +
+						"FROM " + DataSet.DB_NAME + " " +
+						"WHERE " + UserBin.DB_NAME + "_id = ? " +
+						"AND " + Registry.DB_NAME + "_id = ? " +
+						"AND " + METADATA_ID_COLUMN + " IS NOT NULL",
+					new Object[] { userId, registryId },
+					new RowCallbackHandler() {
+						/**
+						 * Passes the row's meta-data ID to the handler.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							handler.handle(resultSet.getString(1));
+						}
+					});
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for meta-data IDs.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getExistingMetaDataIds(java.lang.String, java.lang.String, long, java.util.Collection)
+	 */
+	@Override
+	public Set<String> getExistingMetaDataIds(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final Collection<String> metaDataIds) {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		else if(metaDataIds == null) {
+			throw new OmhException("The meta-data IDs are null.");
+		}
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no data.
+		Set<String> result = new HashSet<String>();
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return result;
+		}
+		
+		// Check the IDs in groups to keep the statements small.
+		List<String> ids = new ArrayList<String>(metaDataIds);
+		for(int start = 0; start < ids.size(); start += MAX_IN_PARAMETERS) {
+			List<String> group =
+				ids
+					.subList(
+						start,
+						Math.min(ids.size(), start + MAX_IN_PARAMETERS));
+			
+			// Build the parameters and their placeholders.
+			List<Object> parameters = new ArrayList<Object>(group.size() + 2);
+			parameters.add(userId);
+			parameters.add(registryId);
+			StringBuilder placeholders = new StringBuilder();
+			for(String id : group) {
+				if(placeholders.length() > 0) {
+					placeholders.append(", ");
+				}
+				placeholders.append('?');
+				parameters.add(id);
+			}
+			
+			// Retrieve the IDs that exist.
+			try {
+				result
+					.addAll(
+						SqlDao
+							.getInstance()
+							.getJdbcTemplate()
+							.queryForList(
+								"SELECT " + METADATA_ID_COLUMN + " " +
+									"FROM " + DataSet.DB_NAME + " " +
+									"WHERE " +
+										UserBin.DB_NAME + "_id = ? " +
+									"AND " +
+										Registry.DB_NAME + "_id = ? " +
+									"AND " +
+										METADATA_ID_COLUMN + " " +
+										"IN (" + placeholders + ")",
+								parameters.toArray(),
+								String.class));
+			}
+			catch(DataAccessException e) {
+				throw
+					new OmhException(
+						"There was an error querying for meta-data IDs.",
+						e);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Appends the clause that limits the data to a stream and, if given, a
+	 * range of time.
+	 * 
+	 * @param userId
+	 *        The database ID of the stream's owner.
+	 * 
+	 * @param registryId
+	 *        The database ID of the stream's schema.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp, inclusive, or null.
+	 * 
+	 * @param clause
+	 *        The builder to which the "WHERE" clause is appended.
+	 * 
+	 * @param parameters
+	 *        The list to which the clause's parameters are added.
+	 */
+	private static void appendWhereClause(
+		final long userId,
+		final long registryId,
+		final DateTime startDate,
+		final DateTime endDate,
+		final StringBuilder clause,
+		final List<Object> parameters) {
+		
+		clause
+			.append("WHERE ")
+			.append(UserBin.DB_NAME)
+			.append("_id = ? ")
+			.append("AND ")
+			.append(Registry.DB_NAME)
+			.append("_id = ? ");
+		parameters.add(userId);
+		parameters.add(registryId);
+		if(startDate != null) {
+			clause
+				.append("AND ")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" >= ? ");
+			parameters.add(startDate.getMillis());
+		}
+		if(endDate != null) {
+			clause
+				.append("AND ")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" <= ? ");
+			parameters.add(endDate.getMillis());
+		}
+	}
+	
+	/**
+	 * Appends the clause that begins the data after a cursor. Points without
+	 * a timestamp are last.
+	 * 
+	 * @param cursor
+	 *        The cursor or null if the data begins with the most recent point,
+	 *        in which case nothing is appended.
+	 * 
+	 * @param clause
+	 *        The builder to which the clause is appended. It must follow the
+	 *        "WHERE" clause.
+	 * 
+	 * @param parameters
+	 *        The list to which the clause's parameters are added.
+	 * 
+	 * @throws OmhException
+	 *         The cursor's ID is not a database ID.
+	 */
+	private static void appendCursorClause(
+		final DataCursor cursor,
+		final StringBuilder clause,
+		final List<Object> parameters)
+		throws OmhException {
+		
+		if(cursor == null) {
+			return;
+		}
+		
+		long cursorId;
+		try {
+			cursorId = Long.parseLong(cursor.getId());
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The cursor is invalid.", e);
+		}
+		
+		if(cursor.getTimestamp() == null) {
+			clause
+				.append("AND ")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" IS NULL ")
+				.append("AND ")
+				.append(SqlDao.KEY_DATABASE_ID)
+				.append(" < ? ");
+			parameters.add(cursorId);
+		}
+		else {
+			clause
+				.append("AND (")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" < ? OR (")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" = ? AND ")
+				.append(SqlDao.KEY_DATABASE_ID)
+				.append(" < ?) OR ")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" IS NULL) ");
+			parameters.add(cursor.getTimestamp());
+			parameters.add(cursor.getTimestamp());
+			parameters.add(cursorId);
+		}
+	}
+	
+	/**
+	 * Appends the clause that ends the data at a point, inclusive. Points
+	 * without a timestamp are last.
+	 * 
+	 * @param boundary
+	 *        The position of the last point or null if the data does not end
+	 *        at a point, in which case nothing is appended.
+	 * 
+	 * @param clause
+	 *        The builder to which the clause is appended. It must follow the
+	 *        "WHERE" clause.
+	 * 
+	 * @param parameters
+	 *        The list to which the clause's parameters are added.
+	 * 
+	 * @throws OmhException
+	 *         The boundary's ID is not a database ID.
+	 */
+	private static void appendBoundaryClause(
+		final DataCursor boundary,
+		final StringBuilder clause,
+		final List<Object> parameters)
+		throws OmhException {
+		
+		if(boundary == null) {
+			return;
+		}
+		
+		long boundaryId;
+		try {
+			boundaryId = Long.parseLong(boundary.getId());
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The boundary is invalid.", e);
+		}
+		
+		if(boundary.getTimestamp() == null) {
+			clause
+				.append("AND (")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" IS NOT NULL OR ")
+				.append(SqlDao.KEY_DATABASE_ID)
+				.append(" >= ?) ");
+			parameters.add(boundaryId);
+		}
+		else {
+			clause
+				.append("AND (")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" > ? OR (")
+				.append(METADATA_TIMESTAMP_MILLIS_COLUMN)
+				.append(" = ? AND ")
+				.append(SqlDao.KEY_DATABASE_ID)
+				.append(" >= ?)) ");
+			parameters.add(boundary.getTimestamp());
+			parameters.add(boundary.getTimestamp());
+			parameters.add(boundaryId);
+		}
+	}
+	
+	/**
+	 * Returns the top-level fields of the data that should be extracted by
+	 * the database instead of reading all of the data. This requires the
+	 * database's JSON functions.
+	 * 
+	 * @param columnList
+	 *        The columns of the data that were requested.
+	 * 
+	 * @return The fields to extract, which is empty if all of the data should
+	 *         be read.
+	 * 
+	 * @see SqlDao#hasJsonFunctions()
+	 */
+	private static List<String> getExtractedFields(
+		final ColumnList columnList) {
+		
+		if((columnList == null) ||
+			(columnList.size() == 0) ||
+			(! SqlDao.getInstance().hasJsonFunctions())) {
+			
+			return Collections.emptyList();
+		}
+		return columnList.getFields();
+	}
+	
+	/**
+	 * Builds the parameters for the JSON paths of the fields that are
+	 * extracted by a {@link #buildDataQuery(CharSequence, CharSequence, List)
+	 * data query}. The query's other parameters should be added after them.
+	 * 
+	 * @param fields
+	 *        The fields that are extracted.
+	 * 
+	 * @return A modifiable list of the fields' JSON paths.
+	 */
+	private static List<Object> buildExtractedFieldParameters(
+		final List<String> fields) {
+		
+		List<Object> result = new ArrayList<Object>();
+		for(String field : fields) {
+			result.add(buildJsonPath(field));
+		}
+		return result;
+	}
+	
+	/**
+	 * Builds the query for a page of data. Its first parameters are the JSON
+	 * paths of the fields that are extracted, and its last two parameters are
+	 * the number of points to skip and the number to return.
+	 * 
+	 * @param whereClause
+	 *        The clause that limits the data to a stream.
+	 * 
+	 * @param cursorClause
+	 *        The clause that begins the data after a cursor.
+	 * 
+	 * @param fields
+	 *        The top-level fields of the data to extract. If this is empty,
+	 *        all of the data is read. Otherwise, only these fields are read
+	 *        from data that is an object, and all of the data is read only if
+	 *        it is not an object.
+	 * 
+	 * @return The query.
+	 * 
+	 * @see #buildExtractedFieldParameters(List)
+	 */
+	private static String buildDataQuery(
+		final CharSequence whereClause,
+		final CharSequence cursorClause,
+		final List<String> fields) {
+		
+		// Either read all of the data or extract each of the fields. Data that
+		// is not an object, e.g. an array of objects, is still read whole,
+		// because its fields cannot be extracted by their paths.
+		StringBuilder dataColumns = new StringBuilder();
+		if(fields.isEmpty()) {
+			dataColumns.append(Data.JSON_KEY_DATA);
+		}
+		else {
+			dataColumns
+				.append("CASE ")
+				.append("WHEN JSON_TYPE(")
+				.append(Data.JSON_KEY_DATA)
+				.append(") = 'OBJECT' ")
+				.append("THEN NULL ")
+				.append("ELSE ").append(Data.JSON_KEY_DATA).append(" ")
+				.append("END AS ").append(Data.JSON_KEY_DATA);
+			for(int i = 0; i < fields.size(); i++) {
+				dataColumns
+					.append(", JSON_EXTRACT(")
+					.append(Data.JSON_KEY_DATA)
+					.append(", ?) AS ")
+					.append(EXTRACTED_FIELD_PREFIX)
+					.append(i);
+			}
+		}
+		
+		return
+			// Get the required columns to build the object. The owner and
+			// schema are already known, so there is no need to join the user
+			// and registry tables.
+			"SELECT " +
+					SqlDao.KEY_DATABASE_ID + ", " +
+					Data.JSON_KEY_METADATA + "_" +
+						MetaData.JSON_KEY_ID + ", " +
+					Data.JSON_KEY_METADATA + "_" +
+						MetaData.JSON_KEY_TIMESTAMP + ", " +
+					dataColumns + " " +
+				"FROM " + DataSet.DB_NAME + " " +
+				whereClause +
+				cursorClause +
+				ORDER_BY_CLAUSE +
+				"LIMIT ?, ?";
+	}
+	
+	/**
+	 * Counts the data in a stream. Unless the data is limited to a range of
+	 * time, the stream's statistics have the count.
+	 * 
+	 * @param owner
+	 *        The stream's owner.
+	 * 
+	 * @param schemaId
+	 *        The ID of the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp, inclusive, or null.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp, inclusive, or null.
+	 * 
+	 * @param includeCount
+	 *        Whether or not to count the data at all.
+	 * 
+	 * @param whereClause
+	 *        The clause that limits the data to the stream and range of time.
+	 * 
+	 * @param whereParameters
+	 *        The parameters for the clause.
+	 * 
+	 * @return The number of points or -1 if they were not counted.
+	 * 
+	 * @throws OmhException
+	 *         The data could not be counted.
+	 */
+	private static int countData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final boolean includeCount,
+		final CharSequence whereClause,
+		final List<Object> whereParameters)
+		throws OmhException {
+		
+		if(! includeCount) {
+			return -1;
+		}
+		else if((startDate == null) && (endDate == null)) {
+			return
+				(int) StreamStatisticsBin
+					.getInstance()
+					.getCount(owner, schemaId, version);
+		}
 		
-		// Retrieve the total count of results.
-		int count;
 		try {
-			count =
+			return
 				SqlDao
 					.getInstance()
 					.getJdbcTemplate()
 					.queryForInt(
 						"SELECT COUNT(1) " +
-							// Include all of the required tables.
-							"FROM " +
-								UserBin.DB_NAME + ", " +
-								Registry.DB_NAME + ", " +
-								DataSet.DB_NAME + " " +
-							// Link the user table to the data table.
-							"WHERE " +
-									UserBin.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									UserBin.DB_NAME + "_id " +
-							// Limit the results based on the required
-							// username.
-							"AND " + User.JSON_KEY_USERNAME + " = ? " +
-							// Link the registry table to the data table.
-							"AND " +
-									Registry.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									Registry.DB_NAME + "_id " +
-							// Limit the results based on the required schema
-							// ID and version.
-							"AND " + Schema.JSON_KEY_ID + " = ? " +
-							"AND " + Schema.JSON_KEY_VERSION + " = ? ",
-						new Object[] { owner, schemaId, version });
+							"FROM " + DataSet.DB_NAME + " " +
+							whereClause,
+						whereParameters.toArray());
 		}
 		// For all issues, we simply propagate the exception.
 		catch(DataAccessException e) {
@@ -363,8 +1437,287 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 					"There was an error querying for schemas count.",
 					e);
 		}
+	}
+	
+	/**
+	 * Builds the expression that converts a timestamp to local time by adding
+	 * the offset that was in effect at that instant.
+	 * 
+	 * @param column
+	 *        The column that contains the timestamp in milliseconds since the
+	 *        epoch.
+	 * 
+	 * @param offsets
+	 *        The offsets that the time zone uses over the range of the
+	 *        timestamps.
+	 * 
+	 * @return The expression.
+	 */
+	static String buildLocalTimeExpression(
+		final String column,
+		final TimeZoneOffsets offsets) {
+		
+		StringBuilder builder =
+			new StringBuilder("(")
+				.append(column)
+				.append(" + ");
+		if(offsets.size() == 1) {
+			builder.append(offsets.getOffset(0));
+		}
+		else {
+			builder.append("CASE");
+			for(int i = 1; i < offsets.size(); i++) {
+				builder
+					.append(" WHEN ")
+					.append(column)
+					.append(" < ")
+					.append(offsets.getTransition(i))
+					.append(" THEN ")
+					.append(offsets.getOffset(i - 1));
+			}
+			builder
+				.append(" ELSE ")
+				.append(offsets.getOffset(offsets.size() - 1))
+				.append(" END");
+		}
+		return builder.append(")").toString();
+	}
+	
+	/**
+	 * Builds the MySQL JSON path to a column of the data.
+	 * 
+	 * @param column
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *        column within the data.
+	 * 
+	 * @return The JSON path.
+	 */
+	private static String buildJsonPath(final String column) {
+		StringBuilder builder = new StringBuilder("$");
+		for(String field : column.split("\\" + ColumnList.COLUMN_SEPARATOR)) {
+			builder.append(".\"");
+			for(int i = 0; i < field.length(); i++) {
+				char c = field.charAt(i);
+				if((c == '"') || (c == '\\')) {
+					builder.append('\\');
+				}
+				builder.append(c);
+			}
+			builder.append('"');
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Creates the mapper from the rows of a summary query to
+	 * {@link DataSummary} objects. Each row has the start of its period in
+	 * local time and the number of points, followed by the count, minimum,
+	 * maximum, and sum of each field.
+	 * 
+	 * @param fields
+	 *        The fields that were summarized, in order.
+	 * 
+	 * @param timeZone
+	 *        The time zone of the periods.
+	 * 
+	 * @return The row mapper.
+	 */
+	private static RowMapper<DataSummary> createSummaryRowMapper(
+		final List<String> fields,
+		final DateTimeZone timeZone) {
+		
+		return new RowMapper<DataSummary>() {
+			/**
+			 * Maps the row to a {@link DataSummary} object.
+			 */
+			@Override
+			public DataSummary mapRow(
+				final ResultSet resultSet,
+				final int rowNum)
+				throws SQLException {
+				
+				// Build the summary of each field.
+				Map<String, DataSummary.FieldSummary> fieldSummaries =
+					new LinkedHashMap<String, DataSummary.FieldSummary>();
+				int column = 3;
+				for(String field : fields) {
+					fieldSummaries
+						.put(
+							field,
+							new DataSummary.FieldSummary(
+								resultSet.getLong(column),
+								resultSet.getDouble(column + 1),
+								resultSet.getDouble(column + 2),
+								resultSet.getDouble(column + 3)));
+					column += 4;
+				}
+				
+				return
+					new DataSummary(
+						DataSummary.toStart(resultSet.getLong(1), timeZone),
+						resultSet.getLong(2),
+						fieldSummaries);
+			}
+		};
+	}
+	
+	/**
+	 * Creates the mapper from the rows of a
+	 * {@link #buildDataQuery(CharSequence, CharSequence, List) data query} to
+	 * {@link Data} objects.
+	 * 
+	 * @param owner
+	 *        The owner of the data.
+	 * 
+	 * @param schemaId
+	 *        The ID of the data's schema.
+	 * 
+	 * @param version
+	 *        The version of the data's schema.
+	 * 
+	 * @param columnList
+	 *        The columns of the data to keep.
+	 * 
+	 * @param fields
+	 *        The top-level fields of the data that the query extracted, which
+	 *        is empty if it read all of the data.
+	 * 
+	 * @param ids
+	 *        The list to which each row's database ID is added or null if the
+	 *        IDs are not needed.
+	 * 
+	 * @return The row mapper.
+	 */
+	private static RowMapper<Data> createRowMapper(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final ColumnList columnList,
+		final List<String> fields,
+		final List<String> ids) {
 		
-		return new SqlMultiValueResult<Data>(list, count);
+		return new RowMapper<Data>() {
+			/**
+			 * Maps the row to a {@link Data} object.
+			 */
+			@Override
+			public Data mapRow(
+				final ResultSet resultSet,
+				final int rowNum)
+				throws SQLException {
+				
+				// Remember the database ID for the cursor.
+				if(ids != null) {
+					ids.add(resultSet.getString(SqlDao.KEY_DATABASE_ID));
+				}
+				
+				// Build the meta-data.
+				MetaData.Builder metaDataBuilder = new MetaData.Builder();
+				// Get and set the ID, even if it is null.
+				metaDataBuilder
+					.setId(
+						resultSet
+							.getString(
+								Data.JSON_KEY_METADATA +
+									"_" +
+									MetaData.JSON_KEY_ID));
+				// Get the timestamp.
+				String metaDataTimestampString =
+					resultSet
+						.getString(
+							Data.JSON_KEY_METADATA +
+								"_" +
+								MetaData.JSON_KEY_TIMESTAMP);
+				// If the timestamp is not null, decode it and set it.
+				if(metaDataTimestampString != null) {
+					metaDataBuilder
+						.setTimestamp(
+							ISOW3CDateTimeFormat
+								.any()
+								.parseDateTime(metaDataTimestampString));
+				}
+				// If the builder has no non-null members, create a MetaData
+				// object; otherwise, just leave it as null.
+				MetaData metaData =
+					((metaDataBuilder.isNull()) ?
+						null :
+						metaDataBuilder.build());
+				
+				// Get the data. If all of it was requested, the stored text is
+				// written out as it is, so it is not parsed here.
+				String dataString = resultSet.getString(Data.JSON_KEY_DATA);
+				if(columnList.size() == 0) {
+					return
+						Data
+							.fromJson(
+								owner,
+								schemaId,
+								version,
+								metaData,
+								dataString);
+				}
+				
+				// If the database extracted the fields, only their columns are
+				// kept.
+				if(dataString == null) {
+					ObjectNode data = JsonNodeFactory.instance.objectNode();
+					for(int i = 0; i < fields.size(); i++) {
+						String fieldString =
+							resultSet.getString(EXTRACTED_FIELD_PREFIX + i);
+						if(fieldString == null) {
+							continue;
+						}
+						
+						String field = fields.get(i);
+						JsonNode value;
+						try {
+							JsonParser parser =
+								JSON_MAPPER
+									.getFactory()
+									.createParser(fieldString);
+							try {
+								value = columnList.project(field, parser);
+							}
+							finally {
+								parser.close();
+							}
+						}
+						catch(IOException e) {
+							throw
+								new SQLException(
+									"Error decoding the data.",
+									e);
+						}
+						if(value != null) {
+							data.put(field, value);
+						}
+					}
+					return new Data(owner, schemaId, version, metaData, data);
+				}
+				
+				// Otherwise, the columns that were not requested are skipped
+				// while parsing instead of being built.
+				JsonNode data;
+				try {
+					JsonParser parser =
+						JSON_MAPPER
+							.getFactory()
+							.createParser(dataString);
+					try {
+						data = columnList.project(parser);
+					}
+					finally {
+						parser.close();
+					}
+				}
+				catch(IOException e) {
+					throw new SQLException("Error decoding the data.", e);
+				}
+				
+				// Create a Data object and return it.
+				return new Data(owner, schemaId, version, metaData, data);
+			}
+		};
 	}
 	
 	/*
@@ -390,8 +1743,13 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 					// Add the meta-data's timestamp field.
 					Data.JSON_KEY_METADATA + "_" +
 						MetaData.JSON_KEY_TIMESTAMP + " varchar(255), " +
+					// Add the meta-data's timestamp as a number.
+					METADATA_TIMESTAMP_MILLIS_COLUMN + " bigint, " +
 					// Add the data field.
 					Data.JSON_KEY_DATA + " text NOT NULL, " +
+					// Add the commit sequence number.
+					COMMIT_SEQUENCE_COLUMN +
+						" bigint unsigned NOT NULL DEFAULT 0, " +
 					// Create the primary key.
 					"PRIMARY KEY (" + SqlDao.KEY_DATABASE_ID + "), " +
 					// Create an index on the ID.
@@ -422,6 +1780,14 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 							"_" +
 							MetaData.JSON_KEY_TIMESTAMP +
 						"), " +
+					// Create an index for reading a stream within a range of
+					// time.
+					"INDEX `" + STREAM_INDEX + "` " +
+						"(" +
+							UserBin.DB_NAME + "_id, " +
+							Registry.DB_NAME + "_id, " +
+							METADATA_TIMESTAMP_MILLIS_COLUMN +
+						"), " +
 					// Link to the user table.
 					"CONSTRAINT " +
 						"`" +
@@ -462,4 +1828,235 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 								"ON DELETE CASCADE" +
 				")";
 	}
+	
+	/**
+	 * Creates the {@link #COMMIT_SEQUENCE_TABLE} and adds the columns that
+	 * did not exist when the table may have been created.
+	 */
+	@Override
+	public void updateSqlTable(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		updateCommitSequence(jdbcTemplate);
+		updateTimestamps(jdbcTemplate);
+	}
+	
+	/**
+	 * Creates the {@link #COMMIT_SEQUENCE_TABLE} and its single row and adds
+	 * the {@link #COMMIT_SEQUENCE_COLUMN} to a table that was created before
+	 * it existed. The points that were already stored are given a sequence
+	 * number of 0, so they are part of every snapshot.
+	 * 
+	 * @param jdbcTemplate
+	 *        The template to use to update the table.
+	 * 
+	 * @throws DataAccessException
+	 *         The table could not be updated.
+	 */
+	private static void updateCommitSequence(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		// Create the sequence's table and its row.
+		jdbcTemplate
+			.execute(
+				"CREATE TABLE IF NOT EXISTS " + COMMIT_SEQUENCE_TABLE + "(" +
+					LAST_SEQUENCE_COLUMN + " bigint unsigned NOT NULL" +
+				")");
+		jdbcTemplate
+			.update(
+				"INSERT INTO " + COMMIT_SEQUENCE_TABLE + " " +
+					"SELECT 0 FROM DUAL " +
+					"WHERE NOT EXISTS " +
+						"(SELECT * FROM " + COMMIT_SEQUENCE_TABLE + ")");
+		
+		// Add the column if it is missing.
+		if(
+			jdbcTemplate
+				.queryForInt(
+					"SELECT COUNT(1) " +
+						"FROM information_schema.COLUMNS " +
+						"WHERE TABLE_SCHEMA = DATABASE() " +
+						"AND TABLE_NAME = ? " +
+						"AND COLUMN_NAME = ?",
+					DataSet.DB_NAME,
+					COMMIT_SEQUENCE_COLUMN) == 0) {
+			
+			LOGGER
+				.log(
+					Level.INFO,
+					"Adding the " +
+						COMMIT_SEQUENCE_COLUMN +
+						" column to the " +
+						DataSet.DB_NAME +
+						" table.");
+			jdbcTemplate
+				.execute(
+					"ALTER TABLE " + DataSet.DB_NAME + " " +
+						"ADD COLUMN " +
+							COMMIT_SEQUENCE_COLUMN + " " +
+								"bigint unsigned NOT NULL DEFAULT 0 " +
+							"AFTER " + Data.JSON_KEY_DATA);
+		}
+	}
+	
+	/**
+	 * Adds the {@link #METADATA_TIMESTAMP_MILLIS_COLUMN} to a table that was
+	 * created before it existed and converts the stored timestamps into it.
+	 * The {@link #STREAM_INDEX} is only added once every timestamp has been
+	 * converted, so its absence means that the conversion must be resumed.
+	 * 
+	 * @param jdbcTemplate
+	 *        The template to use to update the table.
+	 * 
+	 * @throws DataAccessException
+	 *         The table could not be updated.
+	 */
+	private static void updateTimestamps(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		// Add the column if it is missing.
+		if(
+			jdbcTemplate
+				.queryForInt(
+					"SELECT COUNT(1) " +
+						"FROM information_schema.COLUMNS " +
+						"WHERE TABLE_SCHEMA = DATABASE() " +
+						"AND TABLE_NAME = ? " +
+						"AND COLUMN_NAME = ?",
+					DataSet.DB_NAME,
+					METADATA_TIMESTAMP_MILLIS_COLUMN) == 0) {
+			
+			LOGGER
+				.log(
+					Level.INFO,
+					"Adding the " +
+						METADATA_TIMESTAMP_MILLIS_COLUMN +
+						" column to the " +
+						DataSet.DB_NAME +
+						" table.");
+			jdbcTemplate
+				.execute(
+					"ALTER TABLE " + DataSet.DB_NAME + " " +
+						"ADD COLUMN " +
+							METADATA_TIMESTAMP_MILLIS_COLUMN + " bigint " +
+							"AFTER " +
+								Data.JSON_KEY_METADATA + "_" +
+								MetaData.JSON_KEY_TIMESTAMP);
+		}
+		
+		// If the index exists, every timestamp has been converted.
+		if(
+			jdbcTemplate
+				.queryForInt(
+					"SELECT COUNT(1) " +
+						"FROM information_schema.STATISTICS " +
+						"WHERE TABLE_SCHEMA = DATABASE() " +
+						"AND TABLE_NAME = ? " +
+						"AND INDEX_NAME = ?",
+					DataSet.DB_NAME,
+					STREAM_INDEX) > 0) {
+			
+			return;
+		}
+		
+		// Convert the stored timestamps a batch at a time, in the order of
+		// the points' database IDs.
+		LOGGER
+			.log(
+				Level.INFO,
+				"Converting the stored timestamps in the " +
+					DataSet.DB_NAME +
+					" table.");
+		long lastId = 0;
+		while(true) {
+			final List<Object[]> updates = new ArrayList<Object[]>();
+			final long[] batchLastId = { lastId };
+			jdbcTemplate
+				.query(
+					"SELECT " +
+							SqlDao.KEY_DATABASE_ID + ", " +
+							Data.JSON_KEY_METADATA + "_" +
+								MetaData.JSON_KEY_TIMESTAMP + " " +
+						"FROM " + DataSet.DB_NAME + " " +
+						"WHERE " + SqlDao.KEY_DATABASE_ID + " > ? " +
+						"AND " +
+							METADATA_TIMESTAMP_MILLIS_COLUMN + " IS NULL " +
+						"ORDER BY " + SqlDao.KEY_DATABASE_ID + " " +
+						"LIMIT ?",
+					new Object[] { lastId, BACKFILL_BATCH_SIZE },
+					new RowCallbackHandler() {
+						/**
+						 * Converts the row's timestamp, if it has one.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							long id =
+								resultSet.getLong(SqlDao.KEY_DATABASE_ID);
+							batchLastId[0] = id;
+							
+							String timestamp =
+								resultSet
+									.getString(
+										Data.JSON_KEY_METADATA + "_" +
+											MetaData.JSON_KEY_TIMESTAMP);
+							if(timestamp == null) {
+								return;
+							}
+							try {
+								updates
+									.add(
+										new Object[] {
+											ISOW3CDateTimeFormat
+												.any()
+												.parseDateTime(timestamp)
+												.getMillis(),
+											id });
+							}
+							catch(IllegalArgumentException e) {
+								LOGGER
+									.log(
+										Level.WARNING,
+										"The timestamp of the point " +
+											id +
+											" could not be converted: " +
+											timestamp,
+										e);
+							}
+						}
+					});
+			
+			// If no rows were read, every timestamp has been converted.
+			if(batchLastId[0] == lastId) {
+				break;
+			}
+			lastId = batchLastId[0];
+			
+			if(updates.size() > 0) {
+				jdbcTemplate
+					.batchUpdate(
+						"UPDATE " + DataSet.DB_NAME + " " +
+							"SET " +
+								METADATA_TIMESTAMP_MILLIS_COLUMN + " = ? " +
+							"WHERE " + SqlDao.KEY_DATABASE_ID + " = ?",
+						updates);
+			}
+		}
+		
+		// Add the index now that every timestamp has been converted.
+		jdbcTemplate
+			.execute(
+				"ALTER TABLE " + DataSet.DB_NAME + " " +
+					"ADD INDEX `" + STREAM_INDEX + "` " +
+					"(" +
+						UserBin.DB_NAME + "_id, " +
+						Registry.DB_NAME + "_id, " +
+						METADATA_TIMESTAMP_MILLIS_COLUMN +
+					")");
+	}
 }
\ No newline at end of file
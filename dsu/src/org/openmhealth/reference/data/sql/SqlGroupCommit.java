@@ -0,0 +1,512 @@
+package org.openmhealth.reference.data.sql;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * <p>
+ * Combines batch updates from concurrent callers into a single transaction.
+ * </p>
+ *
+ * <p>
+ * Each call to {@link #batchUpdate(Map)} is queued. A committer
+ * thread takes the oldest queued call and then waits up to the configured
+ * window for more calls, stopping early if the group reaches the configured
+ * maximum number of rows. The whole group is then written in one
+ * transaction, with one JDBC batch per distinct statement, so the database
+ * only has to commit once for all of the callers.
+ * </p>
+ *
+ * <p>
+ * If the group's transaction fails, each call in the group is retried in
+ * its own transaction. This way, every caller succeeds or fails based only
+ * on its own rows.
+ * </p>
+ *
+ * <p>
+ * If the window is zero, grouping is disabled and each call is written in
+ * its own transaction as soon as it is made.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlGroupCommit {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(SqlGroupCommit.class.getName());
+
+	/**
+	 * A single caller's batch update that is waiting to be committed.
+	 *
+	 * @author John Jenkins
+	 */
+	private static class Pending {
+		/**
+		 * The SQL statements to execute and the parameters for each of their
+		 * rows.
+		 */
+		private final Map<String, List<Object[]>> statements;
+		/**
+		 * The total number of rows for all of the statements.
+		 */
+		private final int rows;
+		/**
+		 * Whether or not this update has been completed, successfully or
+		 * otherwise.
+		 */
+		private boolean done = false;
+		/**
+		 * The reason this update failed or null if it succeeded.
+		 */
+		private RuntimeException failure = null;
+
+		/**
+		 * Creates a new pending update.
+		 *
+		 * @param statements
+		 *        The SQL statements to execute and the parameters for each of
+		 *        their rows.
+		 *
+		 * @param rows
+		 *        The total number of rows for all of the statements.
+		 */
+		private Pending(
+			final Map<String, List<Object[]>> statements,
+			final int rows) {
+
+			this.statements = statements;
+			this.rows = rows;
+		}
+
+		/**
+		 * Marks this update as complete and wakes its caller.
+		 *
+		 * @param failure
+		 *        The reason the update failed or null if it succeeded.
+		 */
+		private synchronized void complete(final RuntimeException failure) {
+			this.failure = failure;
+			done = true;
+			notifyAll();
+		}
+
+		/**
+		 * Waits for this update to be completed.
+		 *
+		 * @throws OmhException
+		 *         The update failed or the caller was interrupted.
+		 */
+		private synchronized void await() throws OmhException {
+			while(! done) {
+				try {
+					wait();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw
+						new OmhException(
+							"Interrupted while waiting for the data to be " +
+								"stored.",
+							e);
+				}
+			}
+
+			if(failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * The maximum number of milliseconds to wait for more calls after the
+	 * first call in a group.
+	 */
+	private final long window;
+	/**
+	 * The maximum number of rows in a group. A single call with more rows
+	 * than this is still written as a single group.
+	 */
+	private final int maxRows;
+
+	/**
+	 * The calls that are waiting to be grouped.
+	 */
+	private final LinkedList<Pending> queue = new LinkedList<Pending>();
+	/**
+	 * The total number of rows in the {@link #queue}.
+	 */
+	private int queuedRows = 0;
+	/**
+	 * Whether or not this coordinator has been shut down.
+	 */
+	private boolean closed = false;
+	/**
+	 * The thread that commits the groups or null if grouping is disabled.
+	 */
+	private final Thread committer;
+
+	/**
+	 * Creates a new coordinator.
+	 *
+	 * @param window
+	 *        The maximum number of milliseconds to wait for more calls after
+	 *        the first call in a group. If this is zero, grouping is
+	 *        disabled.
+	 *
+	 * @param maxRows
+	 *        The maximum number of rows in a group.
+	 *
+	 * @throws OmhException
+	 *         The window is negative or the maximum number of rows is not
+	 *         positive.
+	 */
+	public SqlGroupCommit(
+		final long window,
+		final int maxRows)
+		throws OmhException {
+
+		if(window < 0) {
+			throw new OmhException("The group commit window is negative.");
+		}
+		if(maxRows <= 0) {
+			throw
+				new OmhException(
+					"The group commit maximum number of rows must be " +
+						"positive.");
+		}
+
+		this.window = window;
+		this.maxRows = maxRows;
+
+		// If grouping is enabled, start the committer.
+		if(window > 0) {
+			committer =
+				new Thread("omh-sql-group-commit") {
+					/**
+					 * Commits groups until the coordinator is shut down.
+					 */
+					@Override
+					public void run() {
+						List<Pending> group;
+						while((group = nextGroup()) != null) {
+							commit(group);
+						}
+					}
+				};
+			committer.setDaemon(true);
+			committer.start();
+		}
+		else {
+			committer = null;
+		}
+	}
+
+	/**
+	 * Executes the given statement once for each row, possibly in the same
+	 * transaction as other callers' rows, and waits until it has been
+	 * committed.
+	 *
+	 * @param sql
+	 *        The SQL statement to execute for each row.
+	 *
+	 * @param rows
+	 *        The parameters for each row.
+	 *
+	 * @throws OmhException
+	 *         The rows could not be written.
+	 */
+	public void batchUpdate(
+		final String sql,
+		final List<Object[]> rows)
+		throws OmhException {
+
+		if(sql == null) {
+			throw new OmhException("The SQL is null.");
+		}
+		if(rows == null) {
+			throw new OmhException("The rows are null.");
+		}
+
+		Map<String, List<Object[]>> statements =
+			new LinkedHashMap<String, List<Object[]>>();
+		statements.put(sql, rows);
+		batchUpdate(statements);
+	}
+
+	/**
+	 * Executes each of the given statements once for each of its rows, in
+	 * order and in the same transaction, possibly along with other callers'
+	 * rows, and waits until they have been committed. Either all of the
+	 * statements are committed or none of them are.
+	 *
+	 * @param statements
+	 *        The SQL statements to execute and the parameters for each of
+	 *        their rows.
+	 *
+	 * @throws OmhException
+	 *         The rows could not be written.
+	 */
+	public void batchUpdate(
+		final Map<String, List<Object[]>> statements)
+		throws OmhException {
+
+		if(statements == null) {
+			throw new OmhException("The statements are null.");
+		}
+		int rows = 0;
+		for(Map.Entry<String, List<Object[]>> statement :
+			statements.entrySet()) {
+
+			if(statement.getKey() == null) {
+				throw new OmhException("The SQL is null.");
+			}
+			if(statement.getValue() == null) {
+				throw new OmhException("The rows are null.");
+			}
+			rows += statement.getValue().size();
+		}
+		if(rows == 0) {
+			return;
+		}
+
+		Pending pending = new Pending(statements, rows);
+
+		// If grouping is disabled, write the rows immediately.
+		if(committer == null) {
+			commitAlone(pending);
+		}
+		// Otherwise, queue the rows for the committer.
+		else {
+			synchronized(queue) {
+				if(closed) {
+					throw
+						new OmhException(
+							"The database connection has been shut down.");
+				}
+				queue.add(pending);
+				queuedRows += rows;
+				queue.notifyAll();
+			}
+		}
+
+		// Wait for the rows to be written.
+		pending.await();
+	}
+
+	/**
+	 * Stops grouping calls. Any calls that are already queued are still
+	 * committed.
+	 */
+	public void shutdown() {
+		if(committer == null) {
+			return;
+		}
+
+		synchronized(queue) {
+			closed = true;
+			queue.notifyAll();
+		}
+		try {
+			committer.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the next group of calls.
+	 *
+	 * @return The next group of calls or null if this coordinator has been
+	 *         shut down and nothing is queued.
+	 */
+	private List<Pending> nextGroup() {
+		synchronized(queue) {
+			try {
+				// Wait for the first call.
+				while(queue.isEmpty()) {
+					if(closed) {
+						return null;
+					}
+					queue.wait();
+				}
+
+				// Wait for more calls until the window closes or the group is
+				// full.
+				long deadline = System.currentTimeMillis() + window;
+				long remaining;
+				while(
+					(! closed) &&
+					(queuedRows < maxRows) &&
+					((remaining = deadline - System.currentTimeMillis()) > 0)) {
+
+					queue.wait(remaining);
+				}
+			}
+			catch(InterruptedException e) {
+				// Commit whatever has been queued.
+			}
+
+			// Take calls until the group is full. The first call is always
+			// taken, even if it alone is larger than the maximum.
+			List<Pending> result = new ArrayList<Pending>();
+			int rows = 0;
+			while(
+				(! queue.isEmpty()) &&
+				(result.isEmpty() ||
+					(rows + queue.getFirst().rows <= maxRows))) {
+
+				Pending pending = queue.removeFirst();
+				rows += pending.rows;
+				result.add(pending);
+			}
+			queuedRows -= rows;
+
+			return result;
+		}
+	}
+
+	/**
+	 * Writes a group of calls in a single transaction. If that fails, each
+	 * call is written in its own transaction.
+	 *
+	 * @param group
+	 *        The group of calls to write.
+	 */
+	private void commit(final List<Pending> group) {
+		// If there is only one call, there is nothing to combine.
+		if(group.size() == 1) {
+			commitAlone(group.get(0));
+			return;
+		}
+
+		// Combine the rows for each statement, keeping the order of the
+		// calls.
+		Map<String, List<Object[]>> statements =
+			new LinkedHashMap<String, List<Object[]>>();
+		for(Pending pending : group) {
+			for(Map.Entry<String, List<Object[]>> statement :
+				pending.statements.entrySet()) {
+
+				List<Object[]> rows = statements.get(statement.getKey());
+				if(rows == null) {
+					rows = new ArrayList<Object[]>();
+					statements.put(statement.getKey(), rows);
+				}
+				rows.addAll(statement.getValue());
+			}
+		}
+
+		// Write the group.
+		try {
+			execute(statements, "Adding a group of rows.");
+		}
+		catch(RuntimeException e) {
+			LOGGER
+				.log(
+					Level.INFO,
+					"A group commit failed, so each of its " +
+						group.size() +
+						" calls will be committed individually.",
+					e);
+			for(Pending pending : group) {
+				commitAlone(pending);
+			}
+			return;
+		}
+
+		// Let every caller know that their rows were written.
+		for(Pending pending : group) {
+			pending.complete(null);
+		}
+	}
+
+	/**
+	 * Writes a single call in its own transaction and completes it.
+	 *
+	 * @param pending
+	 *        The call to write.
+	 */
+	private void commitAlone(final Pending pending) {
+		try {
+			execute(pending.statements, "Adding a batch of rows.");
+			pending.complete(null);
+		}
+		catch(RuntimeException e) {
+			pending.complete(e);
+		}
+	}
+
+	/**
+	 * Executes each statement as a JDBC batch within a single transaction.
+	 *
+	 * @param statements
+	 *        The statements and the rows for each.
+	 *
+	 * @param name
+	 *        The name of the transaction.
+	 *
+	 * @throws OmhException
+	 *         The statements could not be executed.
+	 */
+	private static void execute(
+		final Map<String, List<Object[]>> statements,
+		final String name)
+		throws OmhException {
+
+		// Get the DAO.
+		SqlDao dao = SqlDao.getInstance();
+
+		// Get the transaction manager.
+		PlatformTransactionManager transactionManager =
+			dao.getTransactionManager();
+
+		// Create a new transaction definition and name it.
+		DefaultTransactionDefinition transactionDefinition =
+			new DefaultTransactionDefinition();
+		transactionDefinition.setName(name);
+
+		// Create the new transaction.
+		TransactionStatus transactionStatus;
+		try {
+			transactionStatus =
+				transactionManager.getTransaction(transactionDefinition);
+		}
+		catch(TransactionException e) {
+			throw
+				new OmhException(
+					"There was a problem starting the transaction.",
+					e);
+		}
+
+		// Execute the statements.
+		try {
+			for(String sql : statements.keySet()) {
+				dao.getJdbcTemplate().batchUpdate(sql, statements.get(sql));
+			}
+
+			// Commit the transaction.
+			transactionManager.commit(transactionStatus);
+		}
+		catch(DataAccessException | TransactionException e) {
+			if(! transactionStatus.isCompleted()) {
+				transactionManager.rollback(transactionStatus);
+			}
+			throw new OmhException("There was a problem storing the data.", e);
+		}
+	}
+}
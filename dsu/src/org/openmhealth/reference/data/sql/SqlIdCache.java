@@ -0,0 +1,342 @@
+package org.openmhealth.reference.data.sql;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.User;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * <p>
+ * A cache of the database IDs of users and schemas. This lets the other SQL
+ * DAOs write and query foreign keys directly instead of looking up the IDs
+ * with subqueries or joins on every statement.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded, and the least-recently used IDs are evicted first.
+ * Only IDs that exist are cached, so a user or schema that is created after
+ * a failed lookup will be found the next time it is looked up.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlIdCache {
+	/**
+	 * A bounded map that evicts its least-recently used entry once it is
+	 * full. It must be externally synchronized.
+	 *
+	 * @author John Jenkins
+	 */
+	private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+		/**
+		 * The version of this class for serialization purposes.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The maximum number of entries.
+		 */
+		private final int maxSize;
+
+		/**
+		 * Creates a new, empty map.
+		 *
+		 * @param maxSize
+		 *        The maximum number of entries.
+		 */
+		private LruMap(final int maxSize) {
+			super(16, 0.75f, true);
+
+			this.maxSize = maxSize;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+		 */
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	/**
+	 * The users' IDs keyed by their usernames.
+	 */
+	private final LruMap<String, Long> userIds;
+	/**
+	 * The schemas' IDs keyed by their schema ID and version.
+	 */
+	private final LruMap<String, Long> schemaIds;
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param maxSize
+	 *        The maximum number of user IDs and, separately, the maximum
+	 *        number of schema IDs that will be cached.
+	 *
+	 * @throws OmhException
+	 *         The maximum size is not positive.
+	 */
+	public SqlIdCache(final int maxSize) throws OmhException {
+		if(maxSize <= 0) {
+			throw new OmhException("The ID cache size must be positive.");
+		}
+
+		userIds = new LruMap<String, Long>(maxSize);
+		schemaIds = new LruMap<String, Long>(maxSize);
+	}
+
+	/**
+	 * Returns the database ID of a user.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @return The user's database ID or null if there is no such user.
+	 *
+	 * @throws OmhException
+	 *         The username is null or the ID could not be looked up.
+	 */
+	public Long getUserId(final String username) throws OmhException {
+		if(username == null) {
+			throw new OmhException("The username is null.");
+		}
+
+		// Check the cache.
+		synchronized(userIds) {
+			Long result = userIds.get(username);
+			if(result != null) {
+				return result;
+			}
+		}
+
+		// Look up the ID.
+		Long result =
+			queryForId(
+				"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
+					"FROM " + UserBin.DB_NAME + " " +
+					"WHERE " + User.JSON_KEY_USERNAME + " = ?",
+				username);
+
+		// Cache it if it exists.
+		if(result != null) {
+			synchronized(userIds) {
+				userIds.put(username, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the database ID of a user, failing if the user does not exist.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @return The user's database ID.
+	 *
+	 * @throws OmhException
+	 *         The user does not exist or the ID could not be looked up.
+	 */
+	public long getExistingUserId(final String username) throws OmhException {
+		Long result = getUserId(username);
+		if(result == null) {
+			throw new OmhException("The user is unknown: " + username);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the database ID of a schema.
+	 *
+	 * @param schemaId
+	 *        The schema's ID.
+	 *
+	 * @param version
+	 *        The schema's version.
+	 *
+	 * @return The schema's database ID or null if there is no such schema.
+	 *
+	 * @throws OmhException
+	 *         The schema ID is null or the ID could not be looked up.
+	 */
+	public Long getSchemaId(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		// Check the cache.
+		String key = getSchemaKey(schemaId, version);
+		synchronized(schemaIds) {
+			Long result = schemaIds.get(key);
+			if(result != null) {
+				return result;
+			}
+		}
+
+		// Look up the ID.
+		Long result =
+			queryForId(
+				"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
+					"FROM " + Registry.DB_NAME + " " +
+					"WHERE " + Schema.JSON_KEY_ID + " = ? " +
+					"AND " + Schema.JSON_KEY_VERSION + " = ?",
+				schemaId,
+				version);
+
+		// Cache it if it exists.
+		if(result != null) {
+			synchronized(schemaIds) {
+				schemaIds.put(key, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the database ID of a schema, failing if the schema does not
+	 * exist.
+	 *
+	 * @param schemaId
+	 *        The schema's ID.
+	 *
+	 * @param version
+	 *        The schema's version.
+	 *
+	 * @return The schema's database ID.
+	 *
+	 * @throws OmhException
+	 *         The schema does not exist or the ID could not be looked up.
+	 */
+	public long getExistingSchemaId(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		Long result = getSchemaId(schemaId, version);
+		if(result == null) {
+			throw
+				new OmhException(
+					"The schema ID, '" +
+						schemaId +
+						"', and version, '" +
+						version +
+						"', pair is unknown.");
+		}
+		return result;
+	}
+
+	/**
+	 * Removes a user's ID from the cache. This should be called whenever a
+	 * user is created or changed.
+	 *
+	 * @param username
+	 *        The user's username.
+	 */
+	public void invalidateUser(final String username) {
+		synchronized(userIds) {
+			userIds.remove(username);
+		}
+	}
+
+	/**
+	 * Removes a schema's ID from the cache. This should be called whenever a
+	 * schema is added, changed, or removed.
+	 *
+	 * @param schemaId
+	 *        The schema's ID.
+	 *
+	 * @param version
+	 *        The schema's version.
+	 */
+	public void invalidateSchema(final String schemaId, final long version) {
+		synchronized(schemaIds) {
+			schemaIds.remove(getSchemaKey(schemaId, version));
+		}
+	}
+
+	/**
+	 * Removes every ID from the cache.
+	 */
+	public void invalidateAll() {
+		synchronized(userIds) {
+			userIds.clear();
+		}
+		synchronized(schemaIds) {
+			schemaIds.clear();
+		}
+	}
+
+	/**
+	 * Builds the key for a schema in the cache.
+	 *
+	 * @param schemaId
+	 *        The schema's ID.
+	 *
+	 * @param version
+	 *        The schema's version.
+	 *
+	 * @return The key for the schema.
+	 */
+	private static String getSchemaKey(
+		final String schemaId,
+		final long version) {
+
+		return schemaId + ':' + version;
+	}
+
+	/**
+	 * Queries for a single database ID.
+	 *
+	 * @param sql
+	 *        The query, which must select only the ID.
+	 *
+	 * @param parameters
+	 *        The parameters for the query.
+	 *
+	 * @return The ID or null if there was no such row.
+	 *
+	 * @throws OmhException
+	 *         The query failed or returned multiple IDs.
+	 */
+	private static Long queryForId(
+		final String sql,
+		final Object... parameters)
+		throws OmhException {
+
+		List<Long> result;
+		try {
+			result =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForList(sql, parameters, Long.class);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException("There was an error querying for an ID.", e);
+		}
+
+		if(result.size() == 0) {
+			return null;
+		}
+		else if(result.size() > 1) {
+			throw new OmhException("Multiple rows have the same key.");
+		}
+		return result.get(0);
+	}
+}
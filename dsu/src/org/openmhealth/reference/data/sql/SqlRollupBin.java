@@ -0,0 +1,619 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.RollupBin;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.DataRollup;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.domain.sql.SqlMultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.TimeZoneOffsets;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * <p>
+ * The SQL implementation of the interface to the database-backed collection of
+ * rollups.
+ * </p>
+ * 
+ * <p>
+ * The rollups are added to by {@link SqlDataSet#storeData(List)} with
+ * {@link #SQL_ADD_ROLLUP} in the same transaction that inserts the data, so
+ * they are always consistent with the data.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class SqlRollupBin extends RollupBin implements SqlDaoInterface {
+	/**
+	 * The statement that adds to a rollup, creating it if it does not yet
+	 * exist. Its parameters are built by
+	 * {@link #buildAddParameters(DataRollup)}.
+	 */
+	public static final String SQL_ADD_ROLLUP =
+		"INSERT INTO " + RollupBin.DB_NAME + " (" +
+				UserBin.DB_NAME + "_id, " +
+				Registry.DB_NAME + "_id, " +
+				RollupBin.JSON_KEY_PERIOD + ", " +
+				RollupBin.JSON_KEY_FIELD + ", " +
+				RollupBin.JSON_KEY_START + ", " +
+				RollupBin.JSON_KEY_COUNT + ", " +
+				RollupBin.JSON_KEY_MIN + ", " +
+				RollupBin.JSON_KEY_MAX + ", " +
+				RollupBin.JSON_KEY_SUM + " " +
+			") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+			"ON DUPLICATE KEY UPDATE " +
+				RollupBin.JSON_KEY_COUNT + " = " +
+					RollupBin.JSON_KEY_COUNT + " + " +
+					"VALUES(" + RollupBin.JSON_KEY_COUNT + "), " +
+				RollupBin.JSON_KEY_MIN + " = " +
+					"COALESCE(" +
+						"LEAST(" +
+							RollupBin.JSON_KEY_MIN + ", " +
+							"VALUES(" + RollupBin.JSON_KEY_MIN + ")), " +
+						RollupBin.JSON_KEY_MIN + ", " +
+						"VALUES(" + RollupBin.JSON_KEY_MIN + ")), " +
+				RollupBin.JSON_KEY_MAX + " = " +
+					"COALESCE(" +
+						"GREATEST(" +
+							RollupBin.JSON_KEY_MAX + ", " +
+							"VALUES(" + RollupBin.JSON_KEY_MAX + ")), " +
+						RollupBin.JSON_KEY_MAX + ", " +
+						"VALUES(" + RollupBin.JSON_KEY_MAX + ")), " +
+				RollupBin.JSON_KEY_SUM + " = " +
+					RollupBin.JSON_KEY_SUM + " + " +
+					"VALUES(" + RollupBin.JSON_KEY_SUM + ")";
+	
+	/**
+	 * Creates the rollup bin.
+	 * 
+	 * @param properties
+	 *        The properties that list the fields to roll up for each schema.
+	 * 
+	 * @throws OmhException
+	 *         A property's key does not have a valid version.
+	 */
+	public SqlRollupBin(final Properties properties) throws OmhException {
+		super(properties);
+	}
+	
+	/**
+	 * Builds the parameters of {@link #SQL_ADD_ROLLUP} for a rollup. The
+	 * rollup's owner and schema must already exist.
+	 * 
+	 * @param rollup
+	 *        The rollup.
+	 * 
+	 * @return The parameters.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema does not exist.
+	 */
+	public static Object[] buildAddParameters(
+		final DataRollup rollup)
+		throws OmhException {
+		
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		return
+			new Object[] {
+				idCache.getExistingUserId(rollup.getOwner()),
+				idCache
+					.getExistingSchemaId(
+						rollup.getSchemaId(),
+						rollup.getSchemaVersion()),
+				rollup.getPeriod().getName(),
+				rollup.getField(),
+				rollup.getStart(),
+				rollup.getCount(),
+				rollup.getMin(),
+				rollup.getMax(),
+				rollup.getSum() };
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#addRollups(java.util.List)
+	 */
+	@Override
+	protected void addRollups(
+		final List<DataRollup> rollups)
+		throws OmhException {
+		
+		if(rollups.size() == 0) {
+			return;
+		}
+		
+		List<Object[]> rows = new ArrayList<Object[]>(rollups.size());
+		for(DataRollup rollup : rollups) {
+			rows.add(buildAddParameters(rollup));
+		}
+		SqlDao
+			.getInstance()
+			.getGroupCommit()
+			.batchUpdate(SQL_ADD_ROLLUP, rows);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#deleteRollups(java.lang.String, java.lang.String, long, java.lang.Long, java.lang.Long)
+	 */
+	@Override
+	protected void deleteRollups(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final Long start,
+		final Long end)
+		throws OmhException {
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no rollups.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return;
+		}
+		
+		StringBuilder whereClause = new StringBuilder();
+		List<Object> whereParameters = new ArrayList<Object>(4);
+		appendWhereClause(
+			userId,
+			registryId,
+			null,
+			start,
+			end,
+			whereClause,
+			whereParameters);
+		
+		try {
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.update(
+					"DELETE FROM " + RollupBin.DB_NAME + " " + whereClause,
+					whereParameters.toArray());
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error deleting a stream's rollups.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#getRange(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	protected List<Long> getRange(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException {
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no rollups.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return null;
+		}
+		
+		StringBuilder whereClause = new StringBuilder();
+		List<Object> whereParameters = new ArrayList<Object>(5);
+		appendWhereClause(
+			userId,
+			registryId,
+			DataSummary.Period.MINUTE,
+			(startDate == null) ? null : startDate.getMillis(),
+			(endDate == null) ? null : endDate.getMillis(),
+			whereClause,
+			whereParameters);
+		whereClause.append("AND ").append(JSON_KEY_FIELD).append(" = ? ");
+		whereParameters.add(DataRollup.FIELD_POINTS);
+		
+		try {
+			return
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForObject(
+						"SELECT " +
+								"MIN(" + JSON_KEY_START + "), " +
+								"MAX(" + JSON_KEY_START + ") " +
+							"FROM " + RollupBin.DB_NAME + " " +
+							whereClause,
+						whereParameters.toArray(),
+						new RowMapper<List<Long>>() {
+							/**
+							 * Maps the row to the earliest and latest starts,
+							 * which are null if there are no rollups.
+							 */
+							@Override
+							public List<Long> mapRow(
+								final ResultSet resultSet,
+								final int rowNum)
+								throws SQLException {
+								
+								long min = resultSet.getLong(1);
+								if(resultSet.wasNull()) {
+									return null;
+								}
+								return
+									Arrays.asList(min, resultSet.getLong(2));
+							}
+						});
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a stream's rollups.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.RollupBin#readSummaries(java.lang.String, java.lang.String, long, java.util.List, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataSummary.Period, org.openmhealth.reference.domain.DataSummary.Period, org.openmhealth.reference.util.TimeZoneOffsets, org.joda.time.DateTimeZone, long, long)
+	 */
+	@Override
+	protected MultiValueResult<DataSummary> readSummaries(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final List<String> fields,
+		final DateTime startDate,
+		final DateTime endDate,
+		final DataSummary.Period level,
+		final DataSummary.Period period,
+		final TimeZoneOffsets offsets,
+		final DateTimeZone timeZone,
+		final long numToSkip,
+		final long numToReturn)
+		throws OmhException {
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no rollups.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return
+				new SqlMultiValueResult<DataSummary>(
+					Collections.<DataSummary>emptyList(),
+					0);
+		}
+		
+		// Limit the rollups based on the stream, level, and, if given, the
+		// range of time.
+		StringBuilder whereClause = new StringBuilder();
+		List<Object> whereParameters = new ArrayList<Object>(5);
+		appendWhereClause(
+			userId,
+			registryId,
+			level,
+			(startDate == null) ? null : startDate.getMillis(),
+			(endDate == null) ? null : endDate.getMillis(),
+			whereClause,
+			whereParameters);
+		
+		// Build the expression for the start of each rollup's local period.
+		String periodExpression =
+			"FLOOR(" +
+				SqlDataSet.buildLocalTimeExpression(JSON_KEY_START, offsets) +
+				" / " +
+				period.getMillis() +
+				") * " +
+				period.getMillis();
+		
+		// Only the rollups that count the points are needed to count and
+		// page the periods.
+		String pointsClause = "AND " + JSON_KEY_FIELD + " = ? ";
+		List<Object> pointsParameters = new ArrayList<Object>(whereParameters);
+		pointsParameters.add(DataRollup.FIELD_POINTS);
+		
+		try {
+			JdbcTemplate jdbcTemplate = SqlDao.getInstance().getJdbcTemplate();
+			
+			// Count the periods.
+			int count =
+				jdbcTemplate
+					.queryForInt(
+						"SELECT COUNT(DISTINCT " + periodExpression + ") " +
+							"FROM " + RollupBin.DB_NAME + " " +
+							whereClause +
+							pointsClause,
+						pointsParameters.toArray());
+			
+			// Count the points in each period of the page.
+			final Map<Long, Long> counts = new LinkedHashMap<Long, Long>();
+			List<Object> pageParameters =
+				new ArrayList<Object>(pointsParameters);
+			pageParameters.add(numToSkip);
+			pageParameters.add(numToReturn);
+			jdbcTemplate
+				.query(
+					"SELECT " +
+							periodExpression + " AS period_start, " +
+							"SUM(" + JSON_KEY_COUNT + ") " +
+						"FROM " + RollupBin.DB_NAME + " " +
+						whereClause +
+						pointsClause +
+						"GROUP BY period_start " +
+						"ORDER BY period_start DESC " +
+						"LIMIT ?, ?",
+					pageParameters.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * Adds the row to the counts.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							counts
+								.put(
+									resultSet.getLong(1),
+									resultSet.getLong(2));
+						}
+					});
+			
+			// Summarize the fields in the periods of the page.
+			final Map<Long, Map<String, DataSummary.FieldSummary>> summaries =
+				new HashMap<Long, Map<String, DataSummary.FieldSummary>>();
+			if((fields.size() > 0) && (counts.size() > 0)) {
+				// Only read the rollups around the page. The local periods
+				// are at most a day away from their UTC rollups.
+				long day = DataSummary.Period.DAY.getMillis();
+				List<Long> starts = new ArrayList<Long>(counts.keySet());
+				List<Object> fieldParameters =
+					new ArrayList<Object>(whereParameters);
+				fieldParameters.add(starts.get(starts.size() - 1) - day);
+				fieldParameters.add(starts.get(0) + period.getMillis() + day);
+				StringBuilder fieldClause =
+					new StringBuilder("AND ")
+						.append(JSON_KEY_START)
+						.append(" >= ? AND ")
+						.append(JSON_KEY_START)
+						.append(" < ? AND ")
+						.append(JSON_KEY_FIELD)
+						.append(" IN (");
+				for(int i = 0; i < fields.size(); i++) {
+					fieldClause.append((i == 0) ? "?" : ", ?");
+					fieldParameters.add(fields.get(i));
+				}
+				fieldClause.append(") ");
+				
+				jdbcTemplate
+					.query(
+						"SELECT " +
+								periodExpression + " AS period_start, " +
+								JSON_KEY_FIELD + ", " +
+								"SUM(" + JSON_KEY_COUNT + "), " +
+								"MIN(" + JSON_KEY_MIN + "), " +
+								"MAX(" + JSON_KEY_MAX + "), " +
+								"SUM(" + JSON_KEY_SUM + ") " +
+							"FROM " + RollupBin.DB_NAME + " " +
+							whereClause +
+							fieldClause +
+							"GROUP BY period_start, " + JSON_KEY_FIELD,
+						fieldParameters.toArray(),
+						new RowCallbackHandler() {
+							/**
+							 * Adds the row to the summaries of its period,
+							 * if the period is in the page.
+							 */
+							@Override
+							public void processRow(
+								final ResultSet resultSet)
+								throws SQLException {
+								
+								long start = resultSet.getLong(1);
+								if(! counts.containsKey(start)) {
+									return;
+								}
+								
+								Map<String, DataSummary.FieldSummary>
+									periodSummaries = summaries.get(start);
+								if(periodSummaries == null) {
+									periodSummaries =
+										new HashMap<
+											String,
+											DataSummary.FieldSummary>();
+									summaries.put(start, periodSummaries);
+								}
+								periodSummaries
+									.put(
+										resultSet.getString(2),
+										new DataSummary.FieldSummary(
+											resultSet.getLong(3),
+											resultSet.getDouble(4),
+											resultSet.getDouble(5),
+											resultSet.getDouble(6)));
+							}
+						});
+			}
+			
+			return
+				new SqlMultiValueResult<DataSummary>(
+					buildSummaries(counts, summaries, fields, timeZone),
+					count);
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error summarizing the rollups.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
+	 */
+	@Override
+	public String getSqlTableDefinition() {
+		return
+			// Create the table if it does not exist.
+			"CREATE TABLE IF NOT EXISTS " +
+				RollupBin.DB_NAME + "(" +
+					// Add the reference to the user table.
+					UserBin.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the reference to the registry table.
+					Registry.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the length of time of the rollup.
+					RollupBin.JSON_KEY_PERIOD + " varchar(16) NOT NULL, " +
+					// Add the field, which is empty for the count of points.
+					RollupBin.JSON_KEY_FIELD + " varchar(255) NOT NULL, " +
+					// Add the start of the period.
+					RollupBin.JSON_KEY_START + " bigint NOT NULL, " +
+					// Add the statistics.
+					RollupBin.JSON_KEY_COUNT + " bigint unsigned NOT NULL, " +
+					RollupBin.JSON_KEY_MIN + " double, " +
+					RollupBin.JSON_KEY_MAX + " double, " +
+					RollupBin.JSON_KEY_SUM + " double NOT NULL, " +
+					// Each field of each period of each stream has one row.
+					"PRIMARY KEY (" +
+						UserBin.DB_NAME + "_id, " +
+						Registry.DB_NAME + "_id, " +
+						RollupBin.JSON_KEY_PERIOD + ", " +
+						RollupBin.JSON_KEY_FIELD + ", " +
+						RollupBin.JSON_KEY_START +
+					"), " +
+					// Link to the user table.
+					"CONSTRAINT " +
+						"`" +
+							RollupBin.DB_NAME +
+								"_fk_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							RollupBin.DB_NAME +
+								"_index_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"(" + UserBin.DB_NAME + "_id) " +
+						"REFERENCES " +
+							UserBin.DB_NAME + " " +
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE, " +
+					// Link to the registry.
+					"CONSTRAINT " +
+						"`" +
+							RollupBin.DB_NAME +
+								"_fk_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							RollupBin.DB_NAME +
+								"_index_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"(" + Registry.DB_NAME + "_id) " +
+						"REFERENCES " +
+							Registry.DB_NAME + " " +
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE" +
+				")";
+	}
+	
+	/**
+	 * Appends the "WHERE" clause that limits the rollups to a stream and, if
+	 * given, a level and range of starts.
+	 * 
+	 * @param userId
+	 *        The database ID of the stream's owner.
+	 * 
+	 * @param registryId
+	 *        The database ID of the stream's schema.
+	 * 
+	 * @param level
+	 *        The length of time of the rollups or null for every length.
+	 * 
+	 * @param start
+	 *        The earliest start, inclusive, or null.
+	 * 
+	 * @param end
+	 *        The latest start, inclusive, or null.
+	 * 
+	 * @param clause
+	 *        The builder to which the clause is appended.
+	 * 
+	 * @param parameters
+	 *        The list to which the clause's parameters are added.
+	 */
+	private static void appendWhereClause(
+		final long userId,
+		final long registryId,
+		final DataSummary.Period level,
+		final Long start,
+		final Long end,
+		final StringBuilder clause,
+		final List<Object> parameters) {
+		
+		clause
+			.append("WHERE ")
+			.append(UserBin.DB_NAME)
+			.append("_id = ? AND ")
+			.append(Registry.DB_NAME)
+			.append("_id = ? ");
+		parameters.add(userId);
+		parameters.add(registryId);
+		
+		if(level != null) {
+			clause.append("AND ").append(JSON_KEY_PERIOD).append(" = ? ");
+			parameters.add(level.getName());
+		}
+		if(start != null) {
+			clause.append("AND ").append(JSON_KEY_START).append(" >= ? ");
+			parameters.add(start);
+		}
+		if(end != null) {
+			clause.append("AND ").append(JSON_KEY_START).append(" <= ? ");
+			parameters.add(end);
+		}
+	}
+}
@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.StreamStatisticsBin;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.User;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * <p>
+ * The SQL implementation of the interface to the database-backed collection of
+ * stream statistics.
+ * </p>
+ * 
+ * <p>
+ * The count and revision are updated by {@link SqlDataSet#storeData(List)}
+ * with {@link #SQL_ADD_COUNT} in the same transaction that inserts the data,
+ * so they are always consistent with the data. Streams whose data was
+ * stored before the statistics existed are counted when the table is
+ * {@link #updateSqlTable(JdbcTemplate) updated}.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlStreamStatisticsBin
+	extends StreamStatisticsBin
+	implements SqlDaoUpdateInterface {
+	
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(SqlStreamStatisticsBin.class.getName());
+	
+	/**
+	 * The statement that adds to a stream's count and increases its revision,
+	 * creating its statistics if they do not yet exist. Its parameters are
+	 * the user's database ID, the schema's database ID, and the number of
+	 * points to add.
+	 */
+	public static final String SQL_ADD_COUNT =
+		"INSERT INTO " + StreamStatisticsBin.DB_NAME + " (" +
+				UserBin.DB_NAME + "_id, " +
+				Registry.DB_NAME + "_id, " +
+				StreamStatisticsBin.JSON_KEY_COUNT + ", " +
+				StreamStatisticsBin.JSON_KEY_REVISION + " " +
+			") VALUES (?, ?, ?, 1) " +
+			"ON DUPLICATE KEY UPDATE " +
+				StreamStatisticsBin.JSON_KEY_COUNT + " = " +
+					StreamStatisticsBin.JSON_KEY_COUNT + " + " +
+					"VALUES(" + StreamStatisticsBin.JSON_KEY_COUNT + "), " +
+				StreamStatisticsBin.JSON_KEY_REVISION + " = " +
+					StreamStatisticsBin.JSON_KEY_REVISION + " + 1";
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.StreamStatisticsBin#getCount(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public long getCount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		return
+			getStatistic(
+				owner,
+				schemaId,
+				version,
+				StreamStatisticsBin.JSON_KEY_COUNT,
+				"count");
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.StreamStatisticsBin#getRevision(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public long getRevision(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		return
+			getStatistic(
+				owner,
+				schemaId,
+				version,
+				StreamStatisticsBin.JSON_KEY_REVISION,
+				"revision");
+	}
+	
+	/**
+	 * Returns one of a stream's statistics.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param column
+	 *        The column of the statistic.
+	 * 
+	 * @param description
+	 *        A description of the statistic for error messages.
+	 * 
+	 * @return The statistic, which is zero if nothing has ever been stored in
+	 *         the stream.
+	 * 
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the query failed.
+	 */
+	private static long getStatistic(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final String column,
+		final String description)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Resolve the owner and schema to their database IDs. If either is
+		// unknown, there can be no data.
+		SqlIdCache idCache = SqlDao.getInstance().getIdCache();
+		Long userId = idCache.getUserId(owner);
+		Long registryId = idCache.getSchemaId(schemaId, version);
+		if((userId == null) || (registryId == null)) {
+			return 0;
+		}
+		
+		// Get the statistic, if the stream has any statistics.
+		List<Long> values;
+		try {
+			values =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForList(
+						"SELECT " + column + " " +
+							"FROM " + StreamStatisticsBin.DB_NAME + " " +
+							"WHERE " + UserBin.DB_NAME + "_id = ? " +
+							"AND " + Registry.DB_NAME + "_id = ?",
+						new Object[] { userId, registryId },
+						Long.class);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a stream's " +
+						description +
+						".",
+					e);
+		}
+		
+		return (values.size() == 0) ? 0 : values.get(0);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.StreamStatisticsBin#getOwners(java.lang.String, long)
+	 */
+	@Override
+	public List<String> getOwners(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Resolve the schema to its database ID. If it is unknown, there can
+		// be no streams.
+		Long registryId =
+			SqlDao.getInstance().getIdCache().getSchemaId(schemaId, version);
+		if(registryId == null) {
+			return new ArrayList<String>(0);
+		}
+		
+		// Get the owners of the streams.
+		try {
+			return
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForList(
+						"SELECT u." + User.JSON_KEY_USERNAME + " " +
+							"FROM " +
+								StreamStatisticsBin.DB_NAME + " s, " +
+								UserBin.DB_NAME + " u " +
+							"WHERE s." + Registry.DB_NAME + "_id = ? " +
+							"AND s." + UserBin.DB_NAME + "_id = " +
+								"u." + SqlDao.KEY_DATABASE_ID,
+						new Object[] { registryId },
+						String.class);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a schema's owners.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
+	 */
+	@Override
+	public String getSqlTableDefinition() {
+		return 
+			// Create the table if it does not exist.
+			"CREATE TABLE IF NOT EXISTS " +
+				StreamStatisticsBin.DB_NAME + "(" +
+					// Add the reference to the user table.
+					UserBin.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the reference to the registry table.
+					Registry.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the number of points.
+					StreamStatisticsBin.JSON_KEY_COUNT +
+						" bigint unsigned NOT NULL, " +
+					// Add the revision.
+					StreamStatisticsBin.JSON_KEY_REVISION +
+						" bigint unsigned NOT NULL DEFAULT 0, " +
+					// Each stream has one row.
+					"PRIMARY KEY (" +
+						UserBin.DB_NAME + "_id, " +
+						Registry.DB_NAME + "_id" +
+					"), " +
+					// Link to the user table.
+					"CONSTRAINT " +
+						"`" +
+							StreamStatisticsBin.DB_NAME + 
+								"_fk_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							StreamStatisticsBin.DB_NAME + 
+								"_index_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"(" + UserBin.DB_NAME + "_id) " +
+						"REFERENCES " + 
+							UserBin.DB_NAME + " " + 
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE, " +
+					// Link to the registry.
+					"CONSTRAINT " +
+						"`" +
+							StreamStatisticsBin.DB_NAME + 
+								"_fk_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							StreamStatisticsBin.DB_NAME + 
+								"_index_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"(" + Registry.DB_NAME + "_id) " +
+						"REFERENCES " + 
+							Registry.DB_NAME + " " + 
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE" +
+				")";
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.sql.SqlDaoUpdateInterface#updateSqlTable(org.springframework.jdbc.core.JdbcTemplate)
+	 */
+	@Override
+	public void updateSqlTable(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		updateRevision(jdbcTemplate);
+		updateCounts(jdbcTemplate);
+	}
+	
+	/**
+	 * Adds the {@link StreamStatisticsBin#JSON_KEY_REVISION} column to a
+	 * table that was created before it existed. The streams that already
+	 * have statistics start at revision zero.
+	 * 
+	 * @param jdbcTemplate
+	 *        The template to use to update the table.
+	 * 
+	 * @throws DataAccessException
+	 *         The table could not be updated.
+	 */
+	private static void updateRevision(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		// Add the column if it is missing.
+		if(
+			jdbcTemplate
+				.queryForInt(
+					"SELECT COUNT(1) " +
+						"FROM information_schema.COLUMNS " +
+						"WHERE TABLE_SCHEMA = DATABASE() " +
+						"AND TABLE_NAME = ? " +
+						"AND COLUMN_NAME = ?",
+					StreamStatisticsBin.DB_NAME,
+					StreamStatisticsBin.JSON_KEY_REVISION) == 0) {
+			
+			LOGGER
+				.log(
+					Level.INFO,
+					"Adding the " +
+						StreamStatisticsBin.JSON_KEY_REVISION +
+						" column to the " +
+						StreamStatisticsBin.DB_NAME +
+						" table.");
+			jdbcTemplate
+				.execute(
+					"ALTER TABLE " + StreamStatisticsBin.DB_NAME + " " +
+						"ADD COLUMN " +
+							StreamStatisticsBin.JSON_KEY_REVISION +
+							" bigint unsigned NOT NULL DEFAULT 0 " +
+							"AFTER " +
+								StreamStatisticsBin.JSON_KEY_COUNT);
+		}
+	}
+	
+	/**
+	 * Creates the statistics of every stream that has data but no
+	 * statistics, which is every stream whose data was stored before the
+	 * statistics existed. Without them, the first {@link #SQL_ADD_COUNT} would
+	 * start the stream's count from zero and it would never be correct.
+	 * Streams that already have statistics are left alone, so this does
+	 * nothing once every stream has been counted.
+	 * 
+	 * @param jdbcTemplate
+	 *        The template to use to update the table.
+	 * 
+	 * @throws DataAccessException
+	 *         The table could not be updated.
+	 */
+	private static void updateCounts(
+		final JdbcTemplate jdbcTemplate)
+		throws DataAccessException {
+		
+		int streams =
+			jdbcTemplate
+				.update(
+					"INSERT INTO " + StreamStatisticsBin.DB_NAME + " (" +
+							UserBin.DB_NAME + "_id, " +
+							Registry.DB_NAME + "_id, " +
+							StreamStatisticsBin.JSON_KEY_COUNT + ", " +
+							StreamStatisticsBin.JSON_KEY_REVISION + " " +
+						") " +
+						"SELECT " +
+							"d." + UserBin.DB_NAME + "_id, " +
+							"d." + Registry.DB_NAME + "_id, " +
+							"COUNT(1), " +
+							"1 " +
+						"FROM " + DataSet.DB_NAME + " d " +
+						"WHERE NOT EXISTS (" +
+							"SELECT 1 " +
+							"FROM " + StreamStatisticsBin.DB_NAME + " s " +
+							"WHERE s." + UserBin.DB_NAME + "_id = " +
+								"d." + UserBin.DB_NAME + "_id " +
+							"AND s." + Registry.DB_NAME + "_id = " +
+								"d." + Registry.DB_NAME + "_id" +
+						") " +
+						"GROUP BY " +
+							"d." + UserBin.DB_NAME + "_id, " +
+							"d." + Registry.DB_NAME + "_id");
+		if(streams > 0) {
+			LOGGER
+				.log(
+					Level.INFO,
+					"Created the statistics of " +
+						streams +
+						" stream(s) whose data predates them.");
+		}
+	}
+}
@@ -47,6 +47,10 @@ public class SqlThirdPartyBin
 		// Get the DAO.
 		SqlDao dao = SqlDao.getInstance();
 
+		// Resolve the owner's database ID.
+		long userId =
+			dao.getIdCache().getExistingUserId(thirdParty.getOwner());
+
 		// Get the transaction manager.
 		PlatformTransactionManager transactionManager =
 			dao.getTransactionManager();
@@ -75,11 +79,7 @@ public class SqlThirdPartyBin
 							ThirdParty.JSON_KEY_DESCRIPTION + ", " +
 							ThirdParty.JSON_KEY_REDIRECT_URI + " " +
 						") VALUES (" +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + UserBin.DB_NAME + " " +
-								"WHERE " + User.JSON_KEY_USERNAME + " = ?" +
-							"), " +
+							"?, " +
 							"?, " +
 							"?, " +
 							"?, " +
@@ -87,7 +87,7 @@ public class SqlThirdPartyBin
 							"?" +
 						")",
 					new Object[] {
-							thirdParty.getOwner(),
+							userId,
 							thirdParty.getId(),
 							thirdParty.getSecret(),
 							thirdParty.getName(),
@@ -95,6 +95,10 @@ public class SqlUserBin
 			transactionManager.rollback(transactionStatus);
 			throw new OmhException("There was a problem storing the user.", e);
 		}
+		finally {
+			// Make sure no stale ID is cached for this user.
+			dao.getIdCache().invalidateUser(user.getUsername());
+		}
 	}
 
 	/*
@@ -322,6 +326,10 @@ public class SqlUserBin
 			transactionManager.rollback(transactionStatus);
 			throw new OmhException("There was a problem storing the user.", e);
 		}
+		finally {
+			// Make sure no stale ID is cached for this user.
+			dao.getIdCache().invalidateUser(user.getUsername());
+		}
 	}
 	
 	/*
@@ -1,5 +1,6 @@
 package org.openmhealth.reference.domain;
 
+import org.joda.time.DateTime;
 import org.openmhealth.reference.data.UserBin;
 import org.openmhealth.reference.exception.OmhException;
 
@@ -36,6 +37,10 @@ public class AuthorizationCodeResponse implements OmhObject {
 	 * The JSON key for the granted value.
 	 */
 	public static final String JSON_KEY_GRANTED = "granted";
+	/**
+	 * The JSON key for the time at which the response was made.
+	 */
+	public static final String JSON_KEY_RESPONSE_TIME = "response_time";
 	
 	/**
 	 * The authorization code to which this key applies.
@@ -52,6 +57,12 @@ public class AuthorizationCodeResponse implements OmhObject {
 	 */
 	@JsonProperty(JSON_KEY_GRANTED)
 	private final boolean granted;
+	/**
+	 * The number of milliseconds since the epoch at which time the
+	 * authorization was granted or rejected.
+	 */
+	@JsonProperty(JSON_KEY_RESPONSE_TIME)
+	private final long responseTime;
 	
 	/**
 	 * Creates a new authorization code response based on an authorization
@@ -93,6 +104,9 @@ public class AuthorizationCodeResponse implements OmhObject {
 		
 		// Store the granted value.
 		this.granted = granted;
+		
+		// The response is being made now.
+		this.responseTime = DateTime.now().getMillis();
 	}
 	
 	/**
@@ -112,6 +126,10 @@ public class AuthorizationCodeResponse implements OmhObject {
 	 * @param granted
 	 *        Whether or not the authorization is granted.
 	 * 
+	 * @param responseTime
+	 *        The number of milliseconds since the epoch at which time the
+	 *        authorization was granted or rejected.
+	 * 
 	 * @throws OmhException
 	 *         A parameter is invalid.
 	 *         
@@ -122,7 +140,8 @@ public class AuthorizationCodeResponse implements OmhObject {
 		@JsonProperty(JSON_KEY_AUTHORIZATION_CODE)
 			final String authorizationCode,
 		@JsonProperty(JSON_KEY_OWNER) final String owner,
-		@JsonProperty(JSON_KEY_GRANTED) final boolean granted)
+		@JsonProperty(JSON_KEY_GRANTED) final boolean granted,
+		@JsonProperty(JSON_KEY_RESPONSE_TIME) final long responseTime)
 		throws OmhException {
 		
 		// Verify the authorization code.
@@ -143,6 +162,9 @@ public class AuthorizationCodeResponse implements OmhObject {
 		
 		// Store the granted value.
 		this.granted = granted;
+		
+		// Store the response time.
+		this.responseTime = responseTime;
 	}
 	
 	/**
@@ -180,4 +202,14 @@ public class AuthorizationCodeResponse implements OmhObject {
 	public boolean getGranted() {
 		return granted;
 	}
+	
+	/**
+	 * Returns the time at which the authorization was granted or rejected.
+	 * 
+	 * @return The number of milliseconds since the epoch at which time the
+	 *         authorization was granted or rejected.
+	 */
+	public long getResponseTime() {
+		return responseTime;
+	}
 }
\ No newline at end of file
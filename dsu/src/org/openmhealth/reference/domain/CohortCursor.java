@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The position of a read through the data of a cohort, i.e. several users'
+ * streams of the same schema. The users are read one after another in the
+ * order of their usernames, and each user's stream is read in the same order
+ * as a {@link DataCursor single stream}.
+ * </p>
+ * 
+ * <p>
+ * The read is pinned to a snapshot of the data and of the users who had
+ * granted access, both taken when the read began. Data that is stored and
+ * access that is granted later are not part of the read, so paging through
+ * the cohort never skips or repeats a point. The read is also bound to the
+ * schema ID and version whose data is being read, so a cursor cannot be used
+ * to continue a read of different data.
+ * </p>
+ * 
+ * <p>
+ * Clients only ever see the {@link #toString() token}, which they must not
+ * interpret.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class CohortCursor {
+	/**
+	 * The separator between the parts of a token.
+	 */
+	private static final char SEPARATOR = '.';
+	/**
+	 * The number of parts in a token. The owner is last, so it may contain
+	 * the separator.
+	 */
+	private static final int NUMBER_OF_PARTS = 7;
+	/**
+	 * The radix of the snapshot time and the schema version in a token.
+	 */
+	private static final int RADIX = 36;
+	
+	/**
+	 * The snapshot point of the data.
+	 */
+	private final String snapshot;
+	/**
+	 * The time at which the snapshot was taken in milliseconds since the
+	 * epoch.
+	 */
+	private final long snapshotTime;
+	/**
+	 * The ID of the schema whose data is being read.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema whose data is being read.
+	 */
+	private final long version;
+	/**
+	 * The user whose stream is being read.
+	 */
+	private final String owner;
+	/**
+	 * The position in the user's stream or null if the stream has not yet
+	 * been read.
+	 */
+	private final DataCursor position;
+	
+	/**
+	 * Creates a cursor.
+	 * 
+	 * @param snapshot
+	 *        The snapshot point of the data.
+	 * 
+	 * @param snapshotTime
+	 *        The time at which the snapshot was taken in milliseconds since
+	 *        the epoch.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema whose data is being read.
+	 * 
+	 * @param version
+	 *        The version of the schema whose data is being read.
+	 * 
+	 * @param owner
+	 *        The user whose stream is being read.
+	 * 
+	 * @param position
+	 *        The position in the user's stream or null if the stream has not
+	 *        yet been read.
+	 * 
+	 * @throws OmhException
+	 *         The snapshot point, schema ID, or owner is null or empty or the
+	 *         snapshot point or schema ID contains the separator.
+	 */
+	public CohortCursor(
+		final String snapshot,
+		final long snapshotTime,
+		final String schemaId,
+		final long version,
+		final String owner,
+		final DataCursor position)
+		throws OmhException {
+		
+		if(snapshot == null) {
+			throw new OmhException("The snapshot point is null.");
+		}
+		if(snapshot.length() == 0) {
+			throw new OmhException("The snapshot point is empty.");
+		}
+		if(snapshot.indexOf(SEPARATOR) != -1) {
+			throw new OmhException("The snapshot point is invalid.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(schemaId.length() == 0) {
+			throw new OmhException("The schema ID is empty.");
+		}
+		if(schemaId.indexOf(SEPARATOR) != -1) {
+			throw new OmhException("The schema ID is invalid.");
+		}
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(owner.length() == 0) {
+			throw new OmhException("The owner is empty.");
+		}
+		
+		this.snapshot = snapshot;
+		this.snapshotTime = snapshotTime;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.owner = owner;
+		this.position = position;
+	}
+	
+	/**
+	 * Decodes a token that was created by {@link #toString()}.
+	 * 
+	 * @param token
+	 *        The token.
+	 * 
+	 * @return The cursor.
+	 * 
+	 * @throws OmhException
+	 *         The token is null or invalid.
+	 */
+	public static CohortCursor valueOf(final String token) throws OmhException {
+		if(token == null) {
+			throw new OmhException("The cursor is null.");
+		}
+		
+		String[] parts =
+			token.split("\\" + SEPARATOR, NUMBER_OF_PARTS);
+		if(parts.length != NUMBER_OF_PARTS) {
+			throw new OmhException("The cursor is invalid: " + token);
+		}
+		
+		long snapshotTime;
+		long version;
+		try {
+			snapshotTime = Long.parseLong(parts[0], RADIX);
+			version = Long.parseLong(parts[3], RADIX);
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The cursor is invalid: " + token, e);
+		}
+		
+		DataCursor position = null;
+		if(parts[5].length() > 0) {
+			position = DataCursor.valueOf(parts[4] + SEPARATOR + parts[5]);
+		}
+		else if(parts[4].length() > 0) {
+			throw new OmhException("The cursor is invalid: " + token);
+		}
+		
+		try {
+			return
+				new CohortCursor(
+					parts[1],
+					snapshotTime,
+					parts[2],
+					version,
+					parts[6],
+					position);
+		}
+		catch(OmhException e) {
+			throw new OmhException("The cursor is invalid: " + token, e);
+		}
+	}
+	
+	/**
+	 * Returns the snapshot point of the data.
+	 * 
+	 * @return The snapshot point of the data.
+	 */
+	public String getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the time at which the snapshot was taken.
+	 * 
+	 * @return The time at which the snapshot was taken in milliseconds since
+	 *         the epoch.
+	 */
+	public long getSnapshotTime() {
+		return snapshotTime;
+	}
+	
+	/**
+	 * Returns the ID of the schema whose data is being read.
+	 * 
+	 * @return The ID of the schema whose data is being read.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+	
+	/**
+	 * Returns the version of the schema whose data is being read.
+	 * 
+	 * @return The version of the schema whose data is being read.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the user whose stream is being read.
+	 * 
+	 * @return The user whose stream is being read.
+	 */
+	public String getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * Returns the position in the user's stream.
+	 * 
+	 * @return The position in the user's stream or null if the stream has not
+	 *         yet been read.
+	 */
+	public DataCursor getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Returns the token for this cursor, which can be decoded by
+	 * {@link #valueOf(String)}.
+	 * 
+	 * @return The token for this cursor.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder
+			.append(Long.toString(snapshotTime, RADIX))
+			.append(SEPARATOR)
+			.append(snapshot)
+			.append(SEPARATOR)
+			.append(schemaId)
+			.append(SEPARATOR)
+			.append(Long.toString(version, RADIX))
+			.append(SEPARATOR);
+		if(position == null) {
+			builder.append(SEPARATOR);
+		}
+		else {
+			builder.append(position);
+		}
+		builder.append(SEPARATOR).append(owner);
+		return builder.toString();
+	}
+}
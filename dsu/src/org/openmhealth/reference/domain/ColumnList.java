@@ -15,6 +15,8 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -22,6 +24,13 @@ import java.util.Map;
 
 import org.openmhealth.reference.exception.OmhException;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 /**
  * <p>
  * A list of desired columns.
@@ -132,6 +141,166 @@ public class ColumnList {
 		return builder.toString();
 	}
 	
+	/**
+	 * <p>
+	 * Reads a JSON value from a parser, keeping only the columns in this list.
+	 * Fields that are not in the list are skipped in the token stream without
+	 * being built. Arrays are projected element by element, the same way as
+	 * their parent.
+	 * </p>
+	 * 
+	 * <p>
+	 * The parser must have a codec, e.g. it was created by a
+	 * {@link com.fasterxml.jackson.databind.MappingJsonFactory}, so that the
+	 * columns that are kept can be read as trees.
+	 * </p>
+	 * 
+	 * @param parser
+	 *        The parser, which is either positioned before the value or at its
+	 *        first token.
+	 * 
+	 * @return The projected value, which is an empty object if the value is
+	 *         not an object or an array.
+	 * 
+	 * @throws IOException
+	 *         The value could not be read.
+	 */
+	public JsonNode project(final JsonParser parser) throws IOException {
+		JsonToken token = parser.getCurrentToken();
+		if(token == null) {
+			token = parser.nextToken();
+		}
+		
+		JsonNode result = project(parser, token);
+		if(result == null) {
+			result = JsonNodeFactory.instance.objectNode();
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the names of the top-level fields in this list.
+	 * 
+	 * @return The names of the top-level fields in this list.
+	 */
+	public List<String> getFields() {
+		return new ArrayList<String>(children.keySet());
+	}
+	
+	/**
+	 * <p>
+	 * Reads the value of one of the top-level fields from a parser, keeping
+	 * only the columns in this list beneath that field. This is the value that
+	 * {@link #project(JsonParser)} would have kept for the field.
+	 * </p>
+	 * 
+	 * <p>
+	 * The parser must have a codec, as with {@link #project(JsonParser)}.
+	 * </p>
+	 * 
+	 * @param field
+	 *        The name of the top-level field.
+	 * 
+	 * @param parser
+	 *        The parser, which is either positioned before the field's value
+	 *        or at its first token.
+	 * 
+	 * @return The projected value or null if the value cannot contain any of
+	 *         the field's columns.
+	 * 
+	 * @throws OmhException
+	 *         The field is not in this list.
+	 * 
+	 * @throws IOException
+	 *         The value could not be read.
+	 */
+	public JsonNode project(
+		final String field,
+		final JsonParser parser)
+		throws OmhException, IOException {
+		
+		if(! children.containsKey(field)) {
+			throw new OmhException("The field is not in the list: " + field);
+		}
+		
+		JsonToken token = parser.getCurrentToken();
+		if(token == null) {
+			token = parser.nextToken();
+		}
+		
+		// Keep the whole value if there are no sub-columns; otherwise,
+		// project it.
+		ColumnList child = children.get(field);
+		if(child == null) {
+			return parser.readValueAsTree();
+		}
+		return child.project(parser, token);
+	}
+	
+	/**
+	 * Reads a JSON value, keeping only the columns in this list.
+	 * 
+	 * @param parser
+	 *        The parser, which is positioned at the value's first token.
+	 * 
+	 * @param token
+	 *        The value's first token.
+	 * 
+	 * @return The projected value or null if the value cannot contain any
+	 *         columns.
+	 * 
+	 * @throws IOException
+	 *         The value could not be read.
+	 */
+	private JsonNode project(
+		final JsonParser parser,
+		final JsonToken token)
+		throws IOException {
+		
+		if(token == JsonToken.START_OBJECT) {
+			ObjectNode result = JsonNodeFactory.instance.objectNode();
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				JsonToken valueToken = parser.nextToken();
+				
+				// Skip the fields that were not requested.
+				if(! children.containsKey(fieldName)) {
+					parser.skipChildren();
+					continue;
+				}
+				
+				// Keep the whole value if there are no sub-columns; otherwise,
+				// project it.
+				ColumnList child = children.get(fieldName);
+				JsonNode value;
+				if(child == null) {
+					value = parser.readValueAsTree();
+				}
+				else {
+					value = child.project(parser, valueToken);
+				}
+				if(value != null) {
+					result.put(fieldName, value);
+				}
+			}
+			return result;
+		}
+		else if(token == JsonToken.START_ARRAY) {
+			ArrayNode result = JsonNodeFactory.instance.arrayNode();
+			JsonToken elementToken;
+			while((elementToken = parser.nextToken()) != JsonToken.END_ARRAY) {
+				JsonNode element = project(parser, elementToken);
+				if(element != null) {
+					result.add(element);
+				}
+			}
+			return result;
+		}
+		else {
+			return null;
+		}
+	}
+	
 	/**
 	 * Adds a new child to the current list of children.
 	 * 
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>
+ * A page of results that knows where the next page begins.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class CursorMultiValueResult<T> implements MultiValueResult<T> {
+	/**
+	 * The list of results.
+	 */
+	private final List<T> list;
+	/**
+	 * The total number of results before paging.
+	 */
+	private final int count;
+	/**
+	 * The position after the last result or null if there are no more
+	 * results.
+	 */
+	private final DataCursor nextCursor;
+	
+	/**
+	 * Creates a page of results.
+	 * 
+	 * @param list
+	 *        The results on this page.
+	 * 
+	 * @param count
+	 *        The total number of results before paging.
+	 * 
+	 * @param nextCursor
+	 *        The position after the last result or null if there are no more
+	 *        results.
+	 */
+	public CursorMultiValueResult(
+		final List<T> list,
+		final int count,
+		final DataCursor nextCursor) {
+		
+		this.list = list;
+		this.count = count;
+		this.nextCursor = nextCursor;
+	}
+	
+	/**
+	 * Returns the position after the last result.
+	 * 
+	 * @return The position after the last result or null if there are no
+	 *         more results.
+	 */
+	public DataCursor getNextCursor() {
+		return nextCursor;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return list.iterator();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+	 */
+	@Override
+	public int count() {
+		return count;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.domain.MultiValueResult#size()
+	 */
+	@Override
+	public int size() {
+		return list.size();
+	}
+}
@@ -15,12 +15,20 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.io.IOException;
+
 import org.openmhealth.reference.exception.OmhException;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * <p>
@@ -28,16 +36,64 @@ import com.fasterxml.jackson.databind.JsonNode;
  * </p>
  * 
  * <p>
+ * A point that was read from storage may instead carry its data as the JSON
+ * text that was stored, see
+ * {@link #fromJson(String, String, long, MetaData, String)}. That text is
+ * written out verbatim when the point is serialized as JSON text and is only
+ * parsed if {@link #getData()} is called or the point is serialized in
+ * another format, e.g. BSON.
+ * </p>
+ * 
+ * <p>
  * This class is immutable.
  * </p>
  * 
  * @author John Jenkins
  */
 public class Data implements OmhObject {
+	/**
+	 * Serializes the data of a point, which is either a {@link JsonNode} or
+	 * the JSON text that was stored. The text is only written verbatim to a
+	 * JSON text generator; any other generator, e.g. one that writes BSON,
+	 * cannot write raw JSON, so the text is parsed and written as a tree.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class DataSerializer extends JsonSerializer<Object> {
+		/*
+		 * (non-Javadoc)
+		 * @see com.fasterxml.jackson.databind.JsonSerializer#serialize(java.lang.Object, com.fasterxml.jackson.core.JsonGenerator, com.fasterxml.jackson.databind.SerializerProvider)
+		 */
+		@Override
+		public void serialize(
+			final Object value,
+			final JsonGenerator generator,
+			final SerializerProvider provider)
+			throws IOException {
+			
+			if(value instanceof String) {
+				if(generator instanceof JsonGeneratorImpl) {
+					generator.writeRawValue((String) value);
+				}
+				else {
+					generator.writeTree(JSON_MAPPER.readTree((String) value));
+				}
+			}
+			else {
+				provider.defaultSerializeValue(value, generator);
+			}
+		}
+	}
+	
 	/**
 	 * The version of this class used for serialization purposes.
 	 */
 	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The mapper used to parse the JSON text of the data.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 
 	/**
 	 * The JSON key for the identifier of a user that owns this data.
@@ -84,10 +140,17 @@ public class Data implements OmhObject {
 	@JsonProperty(JSON_KEY_METADATA)
 	private final MetaData metaData;
 	/**
-	 * The data for this point.
+	 * The data for this point. If the point was created from the JSON text
+	 * of its data, this is null until the text is first parsed.
 	 */
-	@JsonProperty(JSON_KEY_DATA)
-	private final JsonNode data;
+	@JsonIgnore
+	private volatile JsonNode data;
+	/**
+	 * The JSON text of the data for this point or null if the point was
+	 * created from a {@link JsonNode}.
+	 */
+	@JsonIgnore
+	private final String dataJson;
 
 	/**
 	 * Creates a new data object.
@@ -132,6 +195,7 @@ public class Data implements OmhObject {
 		
 		this.metaData = metaData;
 		this.data = data;
+		dataJson = null;
 	}
 	
 	/**
@@ -182,6 +246,94 @@ public class Data implements OmhObject {
 		this.schemaVersion = schemaVersion;
 		this.metaData = metaData;
 		this.data = data;
+		dataJson = null;
+	}
+	
+	/**
+	 * Creates a data object from the JSON text of its data as it was stored.
+	 * The text is trusted to be valid JSON, so it is not parsed unless
+	 * {@link #getData()} is called.
+	 * 
+	 * @param owner
+	 * 		  The identifier for the user that owns the data.
+	 * 
+	 * @param schemaId
+	 * 		  The ID of the schema that was used to validate this data.
+	 * 
+	 * @param schemaVersion
+	 * 		  The version of the schema that was used to validate this data.
+	 * 
+	 * @param metaData
+	 *        The meta-data for this data.
+	 * 
+	 * @param dataJson
+	 *        The JSON text of the data.
+	 * 
+	 * @throws OmhException
+	 *         Any of the parameters is null.
+	 */
+	private Data(
+		final String owner,
+		final String schemaId,
+		final long schemaVersion,
+		final MetaData metaData,
+		final String dataJson)
+		throws OmhException {
+		
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(dataJson == null) {
+			throw new OmhException("The data is null.");
+		}
+		
+		this.owner = owner;
+		this.schema = null;
+		this.schemaId = schemaId;
+		this.schemaVersion = schemaVersion;
+		this.metaData = metaData;
+		this.data = null;
+		this.dataJson = dataJson;
+	}
+	
+	/**
+	 * Creates a data object from the JSON text of its data as it was stored.
+	 * The text is written out verbatim when the point is serialized, which
+	 * saves parsing it only to write it again. It is only parsed if
+	 * {@link #getData()} is called.
+	 * 
+	 * @param owner
+	 * 		  The identifier for the user that owns the data.
+	 * 
+	 * @param schemaId
+	 * 		  The ID of the schema that was used to validate this data.
+	 * 
+	 * @param schemaVersion
+	 * 		  The version of the schema that was used to validate this data.
+	 * 
+	 * @param metaData
+	 *        The meta-data for this data.
+	 * 
+	 * @param dataJson
+	 *        The JSON text of the data, which must be valid JSON.
+	 * 
+	 * @return The data object.
+	 * 
+	 * @throws OmhException
+	 *         Any of the parameters is null.
+	 */
+	public static Data fromJson(
+		final String owner,
+		final String schemaId,
+		final long schemaVersion,
+		final MetaData metaData,
+		final String dataJson)
+		throws OmhException {
+		
+		return new Data(owner, schemaId, schemaVersion, metaData, dataJson);
 	}
 	
 	/**
@@ -222,11 +374,42 @@ public class Data implements OmhObject {
 	}
 	
 	/**
-	 * Returns the data associated with this point.
+	 * Returns the data associated with this point. If the point was created
+	 * from the JSON text of its data, the text is parsed the first time this
+	 * is called.
 	 * 
 	 * @return The data associated with this point.
+	 * 
+	 * @throws OmhException
+	 *         The JSON text of the data could not be parsed.
 	 */
-	public JsonNode getData() {
-		return data;
+	public JsonNode getData() throws OmhException {
+		JsonNode result = data;
+		if(result == null) {
+			try {
+				result = JSON_MAPPER.readTree(dataJson);
+			}
+			catch(IOException e) {
+				throw new OmhException("The data could not be parsed.", e);
+			}
+			data = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the data to serialize, which is the JSON text that was stored
+	 * if the point was created from it and has not needed to be parsed.
+	 * 
+	 * @return The data as a {@link JsonNode} or its JSON text.
+	 */
+	@JsonProperty(JSON_KEY_DATA)
+	@JsonSerialize(using = DataSerializer.class)
+	private Object getSerializedData() {
+		JsonNode result = data;
+		if(result == null) {
+			return dataJson;
+		}
+		return result;
 	}
 }
\ No newline at end of file
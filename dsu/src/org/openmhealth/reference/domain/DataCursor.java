@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The position of a point in a stream, which is used to continue reading the
+ * stream after that point. Points are ordered by their timestamp and then by
+ * their database ID, both descending, with the points without a timestamp
+ * last, so reading the next page is a seek on an index instead of skipping
+ * every point before it.
+ * </p>
+ * 
+ * <p>
+ * Clients only ever see the {@link #toString() token}, which they must not
+ * interpret.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataCursor {
+	/**
+	 * The separator between the timestamp and the ID in a token.
+	 */
+	private static final char SEPARATOR = '.';
+	/**
+	 * The radix of the timestamp in a token.
+	 */
+	private static final int RADIX = 36;
+	
+	/**
+	 * The point's timestamp as milliseconds since the epoch or null if it has
+	 * no timestamp.
+	 */
+	private final Long timestamp;
+	/**
+	 * The point's database ID.
+	 */
+	private final String id;
+	
+	/**
+	 * Creates a cursor that is positioned at a point.
+	 * 
+	 * @param timestamp
+	 *        The point's timestamp as milliseconds since the epoch or null if
+	 *        it has no timestamp.
+	 * 
+	 * @param id
+	 *        The point's database ID.
+	 * 
+	 * @throws OmhException
+	 *         The ID is null or empty.
+	 */
+	public DataCursor(
+		final Long timestamp,
+		final String id)
+		throws OmhException {
+		
+		if(id == null) {
+			throw new OmhException("The ID is null.");
+		}
+		if(id.length() == 0) {
+			throw new OmhException("The ID is empty.");
+		}
+		
+		this.timestamp = timestamp;
+		this.id = id;
+	}
+	
+	/**
+	 * Decodes a token that was created by {@link #toString()}.
+	 * 
+	 * @param token
+	 *        The token.
+	 * 
+	 * @return The cursor.
+	 * 
+	 * @throws OmhException
+	 *         The token is null or invalid.
+	 */
+	public static DataCursor valueOf(final String token) throws OmhException {
+		if(token == null) {
+			throw new OmhException("The cursor is null.");
+		}
+		
+		int separator = token.indexOf(SEPARATOR);
+		if(separator == -1) {
+			throw new OmhException("The cursor is invalid: " + token);
+		}
+		
+		Long timestamp = null;
+		if(separator > 0) {
+			try {
+				timestamp =
+					Long.parseLong(token.substring(0, separator), RADIX);
+			}
+			catch(NumberFormatException e) {
+				throw new OmhException("The cursor is invalid: " + token, e);
+			}
+		}
+		
+		String id = token.substring(separator + 1);
+		if((id.length() == 0) || (id.indexOf(SEPARATOR) != -1)) {
+			throw new OmhException("The cursor is invalid: " + token);
+		}
+		
+		return new DataCursor(timestamp, id);
+	}
+	
+	/**
+	 * Returns the point's timestamp.
+	 * 
+	 * @return The point's timestamp as milliseconds since the epoch or null
+	 *         if it has no timestamp.
+	 */
+	public Long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the point's database ID.
+	 * 
+	 * @return The point's database ID.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Returns the token for this cursor, which can be decoded by
+	 * {@link #valueOf(String)}.
+	 * 
+	 * @return The token for this cursor.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		if(timestamp != null) {
+			builder.append(Long.toString(timestamp, RADIX));
+		}
+		builder.append(SEPARATOR).append(id);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * <p>
+ * One page of the data in a stream, as returned with the pages of other
+ * streams by a batch read.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataPage implements OmhObject {
+	/**
+	 * The version of this class used for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The JSON key for the total number of points before paging.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the position at which the next page begins.
+	 */
+	public static final String JSON_KEY_NEXT_CURSOR = "next_cursor";
+	/**
+	 * The JSON key for the points.
+	 */
+	public static final String JSON_KEY_DATA = "data";
+	
+	/**
+	 * The unique identifier for the stream's schema.
+	 */
+	@JsonProperty(Schema.JSON_KEY_ID)
+	private final String schemaId;
+	/**
+	 * The version of the stream's schema.
+	 */
+	@JsonProperty(Schema.JSON_KEY_VERSION)
+	private final long schemaVersion;
+	/**
+	 * The total number of points before paging or null if they were not
+	 * counted.
+	 */
+	@JsonProperty(JSON_KEY_COUNT)
+	@JsonInclude(Include.NON_NULL)
+	private final Integer count;
+	/**
+	 * The token for the position at which the next page begins or null if
+	 * there is no more data.
+	 */
+	@JsonProperty(JSON_KEY_NEXT_CURSOR)
+	@JsonInclude(Include.NON_NULL)
+	private final String nextCursor;
+	/**
+	 * The points on the page.
+	 */
+	@JsonProperty(JSON_KEY_DATA)
+	private final List<Data> data;
+	
+	/**
+	 * Creates a page of a stream's data.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param schemaVersion
+	 *        The version of the stream's schema.
+	 * 
+	 * @param count
+	 *        The total number of points before paging or null if they were
+	 *        not counted.
+	 * 
+	 * @param nextCursor
+	 *        The token for the position at which the next page begins or null
+	 *        if there is no more data.
+	 * 
+	 * @param data
+	 *        The points on the page.
+	 * 
+	 * @throws OmhException
+	 *         The schema ID or data is null.
+	 */
+	public DataPage(
+		final String schemaId,
+		final long schemaVersion,
+		final Integer count,
+		final String nextCursor,
+		final Iterable<Data> data)
+		throws OmhException {
+		
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(data == null) {
+			throw new OmhException("The data is null.");
+		}
+		
+		this.schemaId = schemaId;
+		this.schemaVersion = schemaVersion;
+		this.count = count;
+		this.nextCursor = nextCursor;
+		
+		List<Data> points = new ArrayList<Data>();
+		for(Data point : data) {
+			points.add(point);
+		}
+		this.data = Collections.unmodifiableList(points);
+	}
+	
+	/**
+	 * Returns the unique identifier for the stream's schema.
+	 * 
+	 * @return The unique identifier for the stream's schema.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+	
+	/**
+	 * Returns the version of the stream's schema.
+	 * 
+	 * @return The version of the stream's schema.
+	 */
+	public long getSchemaVersion() {
+		return schemaVersion;
+	}
+	
+	/**
+	 * Returns the total number of points before paging.
+	 * 
+	 * @return The total number of points before paging or null if they were
+	 *         not counted.
+	 */
+	public Integer getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the token for the position at which the next page begins.
+	 * 
+	 * @return The token or null if there is no more data.
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+	
+	/**
+	 * Returns the points on the page.
+	 * 
+	 * @return The points on the page, which cannot be modified.
+	 */
+	public List<Data> getData() {
+		return data;
+	}
+}
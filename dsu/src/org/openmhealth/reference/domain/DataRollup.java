@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * A summary of one field of a stream over one period of UTC time, e.g. one
+ * hour. Rollups are added together as data is stored, so a rollup may only
+ * cover some of the points in its period until all of them are added.
+ * </p>
+ * 
+ * <p>
+ * The rollup of the {@link #FIELD_POINTS} field counts every point in the
+ * period. The rollups of the other fields only cover the points in which the
+ * field is a number.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataRollup {
+	/**
+	 * The name of the field whose rollup counts every point.
+	 */
+	public static final String FIELD_POINTS = "";
+	
+	/**
+	 * The unique identifier of the user who owns the stream.
+	 */
+	private final String owner;
+	/**
+	 * The unique identifier for the stream's schema.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the stream's schema.
+	 */
+	private final long version;
+	/**
+	 * The length of time that the rollup covers.
+	 */
+	private final DataSummary.Period period;
+	/**
+	 * The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the field or
+	 * {@link #FIELD_POINTS}.
+	 */
+	private final String field;
+	/**
+	 * The start of the period in milliseconds since the epoch.
+	 */
+	private final long start;
+	/**
+	 * The number of points.
+	 */
+	private final long count;
+	/**
+	 * The minimum or null if there were no numbers.
+	 */
+	private final Double min;
+	/**
+	 * The maximum or null if there were no numbers.
+	 */
+	private final Double max;
+	/**
+	 * The sum, which is zero if there were no numbers.
+	 */
+	private final double sum;
+	
+	/**
+	 * Creates a rollup.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user who owns the stream.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the stream's schema.
+	 * 
+	 * @param version
+	 *        The version of the stream's schema.
+	 * 
+	 * @param period
+	 *        The length of time that the rollup covers.
+	 * 
+	 * @param field
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *        field or {@link #FIELD_POINTS}.
+	 * 
+	 * @param start
+	 *        The start of the period in milliseconds since the epoch, which
+	 *        must be aligned to the period in UTC.
+	 * 
+	 * @param count
+	 *        The number of points.
+	 * 
+	 * @param min
+	 *        The minimum or null if there were no numbers.
+	 * 
+	 * @param max
+	 *        The maximum or null if there were no numbers.
+	 * 
+	 * @param sum
+	 *        The sum, which is zero if there were no numbers.
+	 * 
+	 * @throws OmhException
+	 *         A parameter is null or invalid.
+	 */
+	public DataRollup(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DataSummary.Period period,
+		final String field,
+		final long start,
+		final long count,
+		final Double min,
+		final Double max,
+		final double sum)
+		throws OmhException {
+		
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(period == null) {
+			throw new OmhException("The period is null.");
+		}
+		if(field == null) {
+			throw new OmhException("The field is null.");
+		}
+		if(period.getStart(start) != start) {
+			throw new OmhException("The start is not aligned to the period.");
+		}
+		if(count < 0) {
+			throw new OmhException("The count is negative.");
+		}
+		
+		this.owner = owner;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.period = period;
+		this.field = field;
+		this.start = start;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+	}
+	
+	/**
+	 * Returns the unique identifier of the user who owns the stream.
+	 * 
+	 * @return The unique identifier of the user who owns the stream.
+	 */
+	public String getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * Returns the unique identifier for the stream's schema.
+	 * 
+	 * @return The unique identifier for the stream's schema.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+	
+	/**
+	 * Returns the version of the stream's schema.
+	 * 
+	 * @return The version of the stream's schema.
+	 */
+	public long getSchemaVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the length of time that the rollup covers.
+	 * 
+	 * @return The length of time that the rollup covers.
+	 */
+	public DataSummary.Period getPeriod() {
+		return period;
+	}
+	
+	/**
+	 * Returns the field.
+	 * 
+	 * @return The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *         field or {@link #FIELD_POINTS}.
+	 */
+	public String getField() {
+		return field;
+	}
+	
+	/**
+	 * Returns the start of the period.
+	 * 
+	 * @return The start of the period in milliseconds since the epoch.
+	 */
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * Returns the number of points.
+	 * 
+	 * @return The number of points.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the minimum.
+	 * 
+	 * @return The minimum or null if there were no numbers.
+	 */
+	public Double getMin() {
+		return min;
+	}
+	
+	/**
+	 * Returns the maximum.
+	 * 
+	 * @return The maximum or null if there were no numbers.
+	 */
+	public Double getMax() {
+		return max;
+	}
+	
+	/**
+	 * Returns the sum.
+	 * 
+	 * @return The sum, which is zero if there were no numbers.
+	 */
+	public double getSum() {
+		return sum;
+	}
+}
@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+/**
+ * <p>
+ * A summary of the points in a stream whose timestamps fall within one
+ * period of time, e.g. one hour. Each requested field of the data is
+ * summarized by the number of points in which it is a number and the
+ * minimum, maximum, mean, and sum of those numbers.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataSummary implements OmhObject {
+	/**
+	 * The version of this class used for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The JSON key for the start of the period.
+	 */
+	public static final String JSON_KEY_START = "start";
+	/**
+	 * The JSON key for the number of points.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the summaries of the fields.
+	 */
+	public static final String JSON_KEY_FIELDS = "fields";
+	
+	/**
+	 * <p>
+	 * The lengths of time by which data may be summarized. Periods are
+	 * aligned to the local time of a time zone, so a day begins at local
+	 * midnight.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	public static enum Period {
+		/**
+		 * One minute.
+		 */
+		MINUTE (60L * 1000L),
+		/**
+		 * One hour.
+		 */
+		HOUR (60L * 60L * 1000L),
+		/**
+		 * One day.
+		 */
+		DAY (24L * 60L * 60L * 1000L);
+		
+		/**
+		 * The length of the period in milliseconds of local time.
+		 */
+		private final long millis;
+		
+		/**
+		 * Creates a period.
+		 * 
+		 * @param millis
+		 *        The length of the period in milliseconds of local time.
+		 */
+		private Period(final long millis) {
+			this.millis = millis;
+		}
+		
+		/**
+		 * Returns the length of the period in milliseconds of local time.
+		 * 
+		 * @return The length of the period in milliseconds of local time.
+		 */
+		public long getMillis() {
+			return millis;
+		}
+		
+		/**
+		 * Returns the name of the period, which is how it is given as a
+		 * parameter.
+		 * 
+		 * @return The name of the period.
+		 */
+		public String getName() {
+			return name().toLowerCase();
+		}
+		
+		/**
+		 * Returns the start of the period that contains an instant, as local
+		 * time.
+		 * 
+		 * @param localMillis
+		 *        The instant as milliseconds of local time since the epoch.
+		 * 
+		 * @return The start of the period as milliseconds of local time since
+		 *         the epoch.
+		 */
+		public long getStart(final long localMillis) {
+			long remainder = localMillis % millis;
+			if(remainder < 0) {
+				remainder += millis;
+			}
+			return localMillis - remainder;
+		}
+		
+		/**
+		 * Returns the period with the given name.
+		 * 
+		 * @param name
+		 *        The name of the period.
+		 * 
+		 * @return The period.
+		 * 
+		 * @throws OmhException
+		 *         The name is null or unknown.
+		 */
+		public static Period getPeriod(final String name) throws OmhException {
+			if(name == null) {
+				throw new OmhException("The period is null.");
+			}
+			
+			for(Period period : values()) {
+				if(period.getName().equals(name)) {
+					return period;
+				}
+			}
+			
+			throw new OmhException("The period is unknown: " + name);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A summary of one field of the data. Only the points in which the field
+	 * is a number are summarized.
+	 * </p>
+	 * 
+	 * <p>
+	 * This class is immutable.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	public static class FieldSummary implements OmhObject {
+		/**
+		 * The version of this class used for serialization.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The JSON key for the number of points in which the field is a
+		 * number.
+		 */
+		public static final String JSON_KEY_COUNT = "count";
+		/**
+		 * The JSON key for the minimum.
+		 */
+		public static final String JSON_KEY_MIN = "min";
+		/**
+		 * The JSON key for the maximum.
+		 */
+		public static final String JSON_KEY_MAX = "max";
+		/**
+		 * The JSON key for the mean.
+		 */
+		public static final String JSON_KEY_MEAN = "mean";
+		/**
+		 * The JSON key for the sum.
+		 */
+		public static final String JSON_KEY_SUM = "sum";
+		
+		/**
+		 * The number of points in which the field is a number.
+		 */
+		@JsonProperty(JSON_KEY_COUNT)
+		private final long count;
+		/**
+		 * The minimum or null if there were no numbers.
+		 */
+		@JsonProperty(JSON_KEY_MIN)
+		@JsonInclude(Include.NON_NULL)
+		private final Double min;
+		/**
+		 * The maximum or null if there were no numbers.
+		 */
+		@JsonProperty(JSON_KEY_MAX)
+		@JsonInclude(Include.NON_NULL)
+		private final Double max;
+		/**
+		 * The mean or null if there were no numbers.
+		 */
+		@JsonProperty(JSON_KEY_MEAN)
+		@JsonInclude(Include.NON_NULL)
+		private final Double mean;
+		/**
+		 * The sum or null if there were no numbers.
+		 */
+		@JsonProperty(JSON_KEY_SUM)
+		@JsonInclude(Include.NON_NULL)
+		private final Double sum;
+		
+		/**
+		 * Creates a summary of a field. The mean is derived from the sum and
+		 * the count.
+		 * 
+		 * @param count
+		 *        The number of points in which the field is a number.
+		 * 
+		 * @param min
+		 *        The minimum. This is ignored if the count is zero.
+		 * 
+		 * @param max
+		 *        The maximum. This is ignored if the count is zero.
+		 * 
+		 * @param sum
+		 *        The sum. This is ignored if the count is zero.
+		 * 
+		 * @throws OmhException
+		 *         The count is negative, or it is positive and a statistic is
+		 *         null.
+		 */
+		public FieldSummary(
+			final long count,
+			final Double min,
+			final Double max,
+			final Double sum)
+			throws OmhException {
+			
+			if(count < 0) {
+				throw new OmhException("The count is negative.");
+			}
+			this.count = count;
+			
+			if(count == 0) {
+				this.min = null;
+				this.max = null;
+				this.mean = null;
+				this.sum = null;
+				return;
+			}
+			if(min == null) {
+				throw new OmhException("The minimum is null.");
+			}
+			if(max == null) {
+				throw new OmhException("The maximum is null.");
+			}
+			if(sum == null) {
+				throw new OmhException("The sum is null.");
+			}
+			this.min = min;
+			this.max = max;
+			this.mean = sum / count;
+			this.sum = sum;
+		}
+		
+		/**
+		 * Returns the number of points in which the field is a number.
+		 * 
+		 * @return The number of points in which the field is a number.
+		 */
+		public long getCount() {
+			return count;
+		}
+		
+		/**
+		 * Returns the minimum.
+		 * 
+		 * @return The minimum or null if there were no numbers.
+		 */
+		public Double getMin() {
+			return min;
+		}
+		
+		/**
+		 * Returns the maximum.
+		 * 
+		 * @return The maximum or null if there were no numbers.
+		 */
+		public Double getMax() {
+			return max;
+		}
+		
+		/**
+		 * Returns the mean.
+		 * 
+		 * @return The mean or null if there were no numbers.
+		 */
+		public Double getMean() {
+			return mean;
+		}
+		
+		/**
+		 * Returns the sum.
+		 * 
+		 * @return The sum or null if there were no numbers.
+		 */
+		public Double getSum() {
+			return sum;
+		}
+	}
+	
+	/**
+	 * The start of the period.
+	 */
+	@JsonProperty(JSON_KEY_START)
+	@JsonSerialize(using = ToStringSerializer.class)
+	private final DateTime start;
+	/**
+	 * The number of points in the period.
+	 */
+	@JsonProperty(JSON_KEY_COUNT)
+	private final long count;
+	/**
+	 * The summaries of the fields, keyed by their
+	 * {@link ColumnList#COLUMN_SEPARATOR}-separated paths.
+	 */
+	@JsonProperty(JSON_KEY_FIELDS)
+	@JsonInclude(Include.NON_EMPTY)
+	private final Map<String, FieldSummary> fields;
+	
+	/**
+	 * Creates a summary of a period.
+	 * 
+	 * @param start
+	 *        The start of the period.
+	 * 
+	 * @param count
+	 *        The number of points in the period.
+	 * 
+	 * @param fields
+	 *        The summaries of the fields, keyed by their
+	 *        {@link ColumnList#COLUMN_SEPARATOR}-separated paths, or null if
+	 *        no fields were summarized.
+	 * 
+	 * @throws OmhException
+	 *         The start is null or the count is negative.
+	 */
+	public DataSummary(
+		final DateTime start,
+		final long count,
+		final Map<String, FieldSummary> fields)
+		throws OmhException {
+		
+		if(start == null) {
+			throw new OmhException("The start is null.");
+		}
+		if(count < 0) {
+			throw new OmhException("The count is negative.");
+		}
+		
+		this.start = start;
+		this.count = count;
+		this.fields =
+			(fields == null) ?
+				Collections.<String, FieldSummary>emptyMap() :
+				Collections
+					.unmodifiableMap(
+						new LinkedHashMap<String, FieldSummary>(fields));
+	}
+	
+	/**
+	 * Returns the start of the period.
+	 * 
+	 * @return The start of the period.
+	 */
+	public DateTime getStart() {
+		return start;
+	}
+	
+	/**
+	 * Returns the number of points in the period.
+	 * 
+	 * @return The number of points in the period.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the summaries of the fields.
+	 * 
+	 * @return The summaries of the fields, keyed by their
+	 *         {@link ColumnList#COLUMN_SEPARATOR}-separated paths.
+	 */
+	public Map<String, FieldSummary> getFields() {
+		return fields;
+	}
+	
+	/**
+	 * Converts the local start of a period back to the instant at which it
+	 * begins in a time zone. If the local time does not exist in the zone,
+	 * because it was skipped by a daylight saving time transition, it is
+	 * shifted past the transition.
+	 * 
+	 * @param localStart
+	 *        The start of the period as milliseconds of local time since the
+	 *        epoch.
+	 * 
+	 * @param timeZone
+	 *        The time zone.
+	 * 
+	 * @return The start of the period in the time zone.
+	 */
+	public static DateTime toStart(
+		final long localStart,
+		final DateTimeZone timeZone) {
+		
+		return
+			new DateTime(
+				timeZone.convertLocalToUTC(localStart, false),
+				timeZone);
+	}
+}
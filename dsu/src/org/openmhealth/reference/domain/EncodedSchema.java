@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * A {@link Schema} whose definition has already been encoded as it is
+ * returned to clients, both as JSON and as gzip-compressed JSON. Registered
+ * schemas never change, so the encoded definition can be reused for every
+ * request and given a strong entity tag.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable. The encoded arrays are shared rather than copied,
+ * so they must not be modified.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class EncodedSchema {
+	/**
+	 * The suffix added to the entity tag of the gzip-compressed definition,
+	 * which is a different representation of the same definition.
+	 */
+	public static final String ETAG_SUFFIX_GZIP = "-gzip";
+	
+	/**
+	 * The algorithm used to build the entity tags.
+	 */
+	private static final String ETAG_DIGEST_ALGORITHM = "SHA-1";
+	
+	/**
+	 * The mapper used to encode the definition.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	
+	/**
+	 * The schema.
+	 */
+	private final Schema schema;
+	/**
+	 * The schema's meta-data, which is everything but its definition.
+	 */
+	private final Map<String, Object> metaData;
+	/**
+	 * The definition encoded as JSON.
+	 */
+	private final byte[] json;
+	/**
+	 * The definition encoded as gzip-compressed JSON.
+	 */
+	private final byte[] gzippedJson;
+	/**
+	 * The entity tag of the JSON definition, including its quotes.
+	 */
+	private final String eTag;
+	/**
+	 * The entity tag of the gzip-compressed JSON definition, including its
+	 * quotes.
+	 */
+	private final String gzippedETag;
+	
+	/**
+	 * Encodes a schema's definition.
+	 * 
+	 * @param schema
+	 *        The schema.
+	 * 
+	 * @throws OmhException
+	 *         The schema is null or could not be encoded.
+	 */
+	public EncodedSchema(final Schema schema) throws OmhException {
+		if(schema == null) {
+			throw new OmhException("The schema is null.");
+		}
+		
+		this.schema = schema;
+		
+		// Build the meta-data from everything but the definition.
+		// We need to suppress Java's type erasure. :(
+		@SuppressWarnings("unchecked")
+		Map<String, Object> metaData =
+			JSON_MAPPER.convertValue(schema, Map.class);
+		metaData.remove(Schema.JSON_KEY_SCHEMA);
+		this.metaData = Collections.unmodifiableMap(metaData);
+		
+		// Encode the definition.
+		try {
+			json = JSON_MAPPER.writeValueAsBytes(schema.getSchema());
+			
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+			GZIPOutputStream gzipStream = new GZIPOutputStream(gzipped);
+			gzipStream.write(json);
+			gzipStream.close();
+			gzippedJson = gzipped.toByteArray();
+		}
+		catch(IOException e) {
+			throw new OmhException("The schema could not be encoded.", e);
+		}
+		
+		// Tag the definition by its contents.
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(ETAG_DIGEST_ALGORITHM);
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw
+				new OmhException(
+					"The " + ETAG_DIGEST_ALGORITHM + " algorithm is unknown.",
+					e);
+		}
+		StringBuilder tag = new StringBuilder();
+		for(byte digestByte : digest.digest(json)) {
+			tag
+				.append(
+					Integer.toString((digestByte & 0xff) + 0x100, 16)
+						.substring(1));
+		}
+		eTag = "\"" + tag + "\"";
+		gzippedETag = "\"" + tag + ETAG_SUFFIX_GZIP + "\"";
+	}
+	
+	/**
+	 * Returns the schema.
+	 * 
+	 * @return The schema.
+	 */
+	public Schema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * Returns the schema's meta-data, which is everything but its definition.
+	 * 
+	 * @return The schema's meta-data, which cannot be modified.
+	 */
+	public Map<String, Object> getMetaData() {
+		return metaData;
+	}
+	
+	/**
+	 * Returns the definition encoded as JSON.
+	 * 
+	 * @return The definition encoded as JSON, which must not be modified.
+	 */
+	public byte[] getJson() {
+		return json;
+	}
+	
+	/**
+	 * Returns the definition encoded as gzip-compressed JSON.
+	 * 
+	 * @return The definition encoded as gzip-compressed JSON, which must not
+	 *         be modified.
+	 */
+	public byte[] getGzippedJson() {
+		return gzippedJson;
+	}
+	
+	/**
+	 * Returns the entity tag of the JSON definition.
+	 * 
+	 * @return The entity tag, including its quotes.
+	 */
+	public String getETag() {
+		return eTag;
+	}
+	
+	/**
+	 * Returns the entity tag of the gzip-compressed JSON definition.
+	 * 
+	 * @return The entity tag, including its quotes.
+	 */
+	public String getGzippedETag() {
+		return gzippedETag;
+	}
+}
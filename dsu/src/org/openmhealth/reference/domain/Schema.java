@@ -23,10 +23,12 @@ import name.jenkins.paul.john.concordia.Concordia;
 import name.jenkins.paul.john.concordia.exception.ConcordiaException;
 import name.jenkins.paul.john.concordia.validator.ValidationController;
 
+import org.openmhealth.reference.concordia.ValidationPlan;
 import org.openmhealth.reference.exception.OmhException;
 
 import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 
@@ -89,6 +91,11 @@ public class Schema implements OmhObject {
 	 */
 	@JsonProperty(JSON_KEY_SCHEMA)
 	private final Concordia schema;
+	/**
+	 * The schema compiled into the plan that is used to validate data.
+	 */
+	@JsonIgnore
+	private final transient ValidationPlan validationPlan;
 
 	/**
 	 * Creates a new schema (registry entry).
@@ -154,6 +161,14 @@ public class Schema implements OmhObject {
 		catch(IOException e) {
 			throw new OmhException("The schema cannot be read.", e);
 		}
+		
+		// Compile the schema once so that validating data does not need to
+		// walk it.
+		validationPlan =
+			ValidationPlan.compile(
+				this.id + ":" + this.version,
+				this.schema,
+				controller);
 	}
 
 	/**
@@ -213,9 +228,15 @@ public class Schema implements OmhObject {
 			throw new OmhException("The data field is null.");
 		}
 		
-		// Validate the data.
+		// Validate the data with the compiled plan. If this object was
+		// deserialized, there is no plan, so the schema is used directly.
 		try {
-			schema.validateData(data);
+			if(validationPlan == null) {
+				schema.validateData(data);
+			}
+			else {
+				validationPlan.validate(data);
+			}
 		}
 		catch(ConcordiaException e) {
 			throw new OmhException("The data is invalid.", e);
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * <p>
+ * The state of a resumable upload. The data is sent in numbered chunks,
+ * starting at zero, and each chunk is committed to disk before the next one
+ * is accepted. Once every chunk has been sent, the upload is finalized and
+ * its data is validated and stored like any other upload.
+ * </p>
+ * 
+ * <p>
+ * While an upload is being finalized, the number of its points that have
+ * been stored is recorded after each batch, so that, if finalizing fails, it
+ * may be retried without storing those points again. Once it has been
+ * finalized, it is marked as such, so that finalizing it again returns the
+ * earlier result instead of storing the data again.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class UploadSession implements OmhObject {
+	/**
+	 * The version of this class used for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The JSON key for the ID.
+	 */
+	public static final String JSON_KEY_ID = "upload_id";
+	/**
+	 * The JSON key for the owner.
+	 */
+	public static final String JSON_KEY_OWNER = "owner";
+	/**
+	 * The JSON key for the schema ID.
+	 */
+	public static final String JSON_KEY_SCHEMA_ID = "schema_id";
+	/**
+	 * The JSON key for the schema version.
+	 */
+	public static final String JSON_KEY_SCHEMA_VERSION = "schema_version";
+	/**
+	 * The JSON key for the number of committed chunks, which is also the
+	 * number of the next chunk to send.
+	 */
+	public static final String JSON_KEY_CHUNKS = "chunks";
+	/**
+	 * The JSON key for the number of committed bytes.
+	 */
+	public static final String JSON_KEY_OFFSET = "offset";
+	/**
+	 * The JSON key for the number of points that have been stored while
+	 * finalizing.
+	 */
+	public static final String JSON_KEY_STORED_POINTS = "stored_points";
+	/**
+	 * The JSON key for whether or not the upload has been finalized.
+	 */
+	public static final String JSON_KEY_FINALIZED = "finalized";
+	/**
+	 * The JSON key for whether or not storing the upload's data was deferred
+	 * when it was finalized.
+	 */
+	public static final String JSON_KEY_DEFERRED = "deferred";
+	
+	/**
+	 * The unique identifier for this upload.
+	 */
+	@JsonProperty(JSON_KEY_ID)
+	private final String id;
+	/**
+	 * The username of the user that is uploading the data.
+	 */
+	@JsonProperty(JSON_KEY_OWNER)
+	private final String owner;
+	/**
+	 * The ID of the schema to which the data pertains.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMA_ID)
+	private final String schemaId;
+	/**
+	 * The version of the schema to which the data pertains.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMA_VERSION)
+	private final long version;
+	/**
+	 * The number of chunks that have been committed.
+	 */
+	@JsonProperty(JSON_KEY_CHUNKS)
+	private final long chunks;
+	/**
+	 * The number of bytes that have been committed.
+	 */
+	@JsonProperty(JSON_KEY_OFFSET)
+	private final long offset;
+	/**
+	 * The number of points that have been stored while finalizing.
+	 */
+	@JsonProperty(JSON_KEY_STORED_POINTS)
+	private final long storedPoints;
+	/**
+	 * Whether or not the upload has been finalized.
+	 */
+	@JsonProperty(JSON_KEY_FINALIZED)
+	private final boolean finalized;
+	/**
+	 * Whether or not storing the data was deferred when the upload was
+	 * finalized.
+	 */
+	@JsonProperty(JSON_KEY_DEFERRED)
+	private final boolean deferred;
+	
+	/**
+	 * Creates the state of an upload.
+	 * 
+	 * @param id
+	 *        The unique identifier for the upload.
+	 * 
+	 * @param owner
+	 *        The username of the user that is uploading the data.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 * 
+	 * @param chunks
+	 *        The number of chunks that have been committed.
+	 * 
+	 * @param offset
+	 *        The number of bytes that have been committed.
+	 * 
+	 * @param storedPoints
+	 *        The number of points that have been stored while finalizing.
+	 * 
+	 * @param finalized
+	 *        Whether or not the upload has been finalized.
+	 * 
+	 * @param deferred
+	 *        Whether or not storing the data was deferred when the upload was
+	 *        finalized.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public UploadSession(
+		final String id,
+		final String owner,
+		final String schemaId,
+		final long version,
+		final long chunks,
+		final long offset,
+		final long storedPoints,
+		final boolean finalized,
+		final boolean deferred)
+		throws OmhException {
+		
+		if(id == null) {
+			throw new OmhException("The upload ID is null.");
+		}
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(chunks < 0) {
+			throw new OmhException("The number of chunks is negative.");
+		}
+		if(offset < 0) {
+			throw new OmhException("The offset is negative.");
+		}
+		if(storedPoints < 0) {
+			throw new OmhException("The number of stored points is negative.");
+		}
+		
+		this.id = id;
+		this.owner = owner;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.chunks = chunks;
+		this.offset = offset;
+		this.storedPoints = storedPoints;
+		this.finalized = finalized;
+		this.deferred = deferred;
+	}
+	
+	/**
+	 * Returns the unique identifier for this upload.
+	 * 
+	 * @return The unique identifier for this upload.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Returns the username of the user that is uploading the data.
+	 * 
+	 * @return The username of the user that is uploading the data.
+	 */
+	public String getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * Returns the ID of the schema to which the data pertains.
+	 * 
+	 * @return The ID of the schema to which the data pertains.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+	
+	/**
+	 * Returns the version of the schema to which the data pertains.
+	 * 
+	 * @return The version of the schema to which the data pertains.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the number of chunks that have been committed, which is also
+	 * the number of the next chunk that should be sent.
+	 * 
+	 * @return The number of chunks that have been committed.
+	 */
+	public long getChunks() {
+		return chunks;
+	}
+	
+	/**
+	 * Returns the number of bytes that have been committed.
+	 * 
+	 * @return The number of bytes that have been committed.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Returns the number of points that have been stored while finalizing
+	 * this upload. These are skipped if finalizing it is retried.
+	 * 
+	 * @return The number of points that have been stored.
+	 */
+	public long getStoredPoints() {
+		return storedPoints;
+	}
+	
+	/**
+	 * Returns whether or not this upload has been finalized.
+	 * 
+	 * @return Whether or not this upload has been finalized.
+	 */
+	public boolean isFinalized() {
+		return finalized;
+	}
+	
+	/**
+	 * Returns whether or not storing the data was deferred when this upload
+	 * was finalized.
+	 * 
+	 * @return Whether or not storing the data was deferred.
+	 */
+	public boolean isDeferred() {
+		return deferred;
+	}
+	
+	/**
+	 * Returns the state of this upload after another chunk has been
+	 * committed.
+	 * 
+	 * @param length
+	 *        The number of bytes in the chunk.
+	 * 
+	 * @return The new state of this upload.
+	 */
+	public UploadSession addChunk(final long length) {
+		return
+			new UploadSession(
+				id,
+				owner,
+				schemaId,
+				version,
+				chunks + 1,
+				offset + length,
+				storedPoints,
+				finalized,
+				deferred);
+	}
+	
+	/**
+	 * Returns the state of this upload after some of its points have been
+	 * stored while finalizing it.
+	 * 
+	 * @param points
+	 *        The total number of points that have been stored.
+	 * 
+	 * @return The new state of this upload.
+	 */
+	public UploadSession setStoredPoints(final long points) {
+		return
+			new UploadSession(
+				id,
+				owner,
+				schemaId,
+				version,
+				chunks,
+				offset,
+				points,
+				finalized,
+				deferred);
+	}
+	
+	/**
+	 * Returns the state of this upload after it has been finalized.
+	 * 
+	 * @param deferred
+	 *        Whether or not storing the data was deferred.
+	 * 
+	 * @return The new state of this upload.
+	 */
+	public UploadSession setFinalized(final boolean deferred) {
+		return
+			new UploadSession(
+				id,
+				owner,
+				schemaId,
+				version,
+				chunks,
+				offset,
+				storedPoints,
+				true,
+				deferred);
+	}
+}
@@ -50,6 +50,11 @@ public class MongoAuthorizationCodeResponse
 	 * @param granted
 	 *        Whether or not the authorization is granted.
 	 * 
+	 * @param responseTime
+	 *        The number of milliseconds since the epoch at which time the
+	 *        authorization was granted or rejected, which is 0 for responses
+	 *        that were stored before the time was recorded.
+	 * 
 	 * @throws OmhException
 	 *         A parameter is invalid.
 	 */
@@ -58,10 +63,11 @@ public class MongoAuthorizationCodeResponse
 		@JsonProperty(JSON_KEY_AUTHORIZATION_CODE)
 			final String authorizationCode,
 		@JsonProperty(JSON_KEY_OWNER) final String owner,
-		@JsonProperty(JSON_KEY_GRANTED) final boolean granted)
+		@JsonProperty(JSON_KEY_GRANTED) final boolean granted,
+		@JsonProperty(JSON_KEY_RESPONSE_TIME) final long responseTime)
 		throws OmhException {
 		
-		super(authorizationCode, owner, granted);
+		super(authorizationCode, owner, granted, responseTime);
 		
 		// Store the MongoDB ID.
 		if(dbId == null) {
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.exception;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.openmhealth.reference.domain.Data;
+
+/**
+ * <p>
+ * An exception that should be used when storing some data failed after some
+ * of it may have already been stored. Storing the same data again may
+ * duplicate the points that were stored, so the caller should not simply
+ * retry.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class PartialStoreException extends OmhException {
+	/**
+	 * The version of this class to be used with serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The points that are not known to have been stored.
+	 */
+	private final List<Data> unstored;
+	
+	/**
+	 * Creates a new exception indicating that only some of the data was
+	 * stored.
+	 * 
+	 * @param reason
+	 *        A user-friendly explanation of which points could not be stored.
+	 * 
+	 * @param unstored
+	 *        The points that are not known to have been stored. Some of them
+	 *        may have been stored.
+	 */
+	public PartialStoreException(
+		final String reason,
+		final List<Data> unstored) {
+		
+		super(reason);
+		
+		this.unstored = Collections.unmodifiableList(unstored);
+	}
+	
+	/**
+	 * Returns the points that are not known to have been stored. Some of
+	 * them may have been stored.
+	 * 
+	 * @return The points that are not known to have been stored.
+	 */
+	public List<Data> getUnstored() {
+		return unstored;
+	}
+}
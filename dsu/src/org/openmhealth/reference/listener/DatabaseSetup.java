@@ -24,6 +24,9 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import org.openmhealth.reference.data.Dao;
+import org.openmhealth.reference.data.IngestDeduplicator;
+import org.openmhealth.reference.data.IngestJournal;
+import org.openmhealth.reference.data.UploadSessionStore;
 
 /**
  * <p>
@@ -35,6 +38,14 @@ import org.openmhealth.reference.data.Dao;
  * ensure that specialized configuration options have been accounted for.
  * </p>
  * 
+ * <p>
+ * If the {@link IngestJournal} is enabled, it is created once the database
+ * is ready, which replays any data that was journaled but not stored before
+ * the last shutdown. Likewise, the {@link IngestDeduplicator} is created if
+ * it is enabled. The {@link UploadSessionStore} for resumable uploads is
+ * always created.
+ * </p>
+ * 
  * @author John Jenkins
  */
 public class DatabaseSetup implements ServletContextListener {
@@ -49,11 +60,22 @@ public class DatabaseSetup implements ServletContextListener {
 	 */
 	public static final String PROPERTY_KEY_DATABASE_CLASS = "db.class";
 	
+	/**
+	 * The number of milliseconds to wait for each journal flusher to finish
+	 * storing its data when shutting down.
+	 */
+	public static final long JOURNAL_SHUTDOWN_TIMEOUT = 30000;
+	
 	/**
 	 * The DAO object to use to control the connection to the database.
 	 */
 	private Dao dao = null;
 	
+	/**
+	 * The journal for uploaded data or null if it is not enabled.
+	 */
+	private IngestJournal journal = null;
+	
 	/**
 	 * Default constructor.
 	 */
@@ -69,8 +91,42 @@ public class DatabaseSetup implements ServletContextListener {
 	public void contextInitialized(final ServletContextEvent event) {
 		LOGGER.info("Setting up the DAO.");
 		
-		// Get the properties.
+		// Get the properties and create the DAO.
 		Properties properties = ConfigurationFileImport.getCustomProperties();
+		dao = createDao(properties);
+		
+		// Create the storage for resumable uploads.
+		LOGGER.info("Setting up the upload session store.");
+		new UploadSessionStore(properties);
+		
+		// If enabled, create the deduplicator for uploaded data.
+		if(IngestDeduplicator.isEnabled(properties)) {
+			LOGGER.info("Setting up the ingest deduplicator.");
+			new IngestDeduplicator(properties);
+		}
+		
+		// If enabled, create the journal and replay any unstored data.
+		if(IngestJournal.isEnabled(properties)) {
+			LOGGER.info("Setting up the ingest journal.");
+			journal = new IngestJournal(properties);
+		}
+	}
+
+	/**
+	 * Creates the DAO that is named by the {@link #PROPERTY_KEY_DATABASE_CLASS}
+	 * property. This is also used by tools that run outside of the web
+	 * application, which have no servlet context.
+	 * 
+	 * @param properties
+	 *        The properties that name and configure the DAO.
+	 * 
+	 * @return The DAO, which has also become the singular {@link Dao}
+	 *         instance.
+	 * 
+	 * @throws IllegalStateException
+	 *         The property is missing or the DAO could not be created.
+	 */
+	public static Dao createDao(final Properties properties) {
 		// If the database class property is missing, this is a critical error.
 		if(! properties.containsKey(PROPERTY_KEY_DATABASE_CLASS)) {
 			LOGGER
@@ -88,9 +144,9 @@ public class DatabaseSetup implements ServletContextListener {
 		String daoClassString =
 			properties.getProperty(PROPERTY_KEY_DATABASE_CLASS);
 
-		// Create and store the DAO.
+		// Create the DAO.
 		try {
-			dao =
+			return
 				(Dao) Class
 					.forName(daoClassString)
 					.getConstructor(Properties.class)
@@ -116,10 +172,14 @@ public class DatabaseSetup implements ServletContextListener {
 	}
 
 	/**
-	 * Closes the connection to the database.
+	 * Stores any journaled data and closes the connection to the database.
 	 */
 	@Override
 	public void contextDestroyed(final ServletContextEvent event) {
+		if(journal != null) {
+			LOGGER.info("Shutting down the ingest journal.");
+			journal.shutdown(JOURNAL_SHUTDOWN_TIMEOUT);
+		}
 		if(dao != null) {
 			LOGGER.info("Shutting down the DAO.");
 			dao.shutdown();
@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.openmhealth.reference.data.AuthorizationCodeResponseBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.CohortCursor;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.CursorMultiValueResult;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataCursor;
+import org.openmhealth.reference.exception.InvalidAuthorizationException;
+import org.openmhealth.reference.exception.NoSuchSchemaException;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.servlet.Version1;
+
+/**
+ * <p>
+ * Retrieves a third-party's view of a cohort's data, i.e. the data of one
+ * schema from every user who granted the third-party access to it or from a
+ * given subset of those users. The third-party is identified by its
+ * authorization token, and the users who granted it access are found once
+ * per page, so reading the cohort does not check each user's authorization
+ * separately.
+ * </p>
+ * 
+ * <p>
+ * The users are read one after another in the order of their usernames. The
+ * first page takes a snapshot of the data and of the users who had granted
+ * access, and every later page is pinned to it by its {@link CohortCursor
+ * cursor}, so data that is stored while the cohort is being read is neither
+ * skipped nor returned twice; it is simply not part of the read. A user's
+ * access is checked again on every page, so a user whose access has expired
+ * since, i.e. none of the tokens for the code they granted is still valid,
+ * is left out of the remaining pages.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class CohortReadRequest extends ListRequest<Data> {
+	/**
+	 * The maximum number of points that may be returned at once.
+	 */
+	public static final long MAX_NUMBER_TO_RETURN = 10000;
+	
+	/**
+	 * The authorization token for the requesting third-party.
+	 */
+	private final AuthorizationToken authorizationToken;
+	/**
+	 * The ID of the schema from which the data was generated.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema from which the data was generated.
+	 */
+	private final long version;
+	/**
+	 * The users whose data should be read or null if the data of every user
+	 * who granted access should be read.
+	 */
+	private final SortedSet<String> owners;
+	/**
+	 * The list of columns to select from the data.
+	 */
+	private final ColumnList columnList;
+	/**
+	 * The position at which to continue reading or null if this is the
+	 * first page.
+	 */
+	private final CohortCursor cursor;
+	/**
+	 * The position at which the next page begins, which is only set once the
+	 * request has been serviced and only if there is more data.
+	 */
+	private CohortCursor nextCursor = null;
+	
+	/**
+	 * Creates a request for a cohort's data.
+	 * 
+	 * @param authorizationToken
+	 *        The third-party's authorization token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema from which the data was generated.
+	 * 
+	 * @param version
+	 *        The version of the schema from which the data was generated.
+	 * 
+	 * @param owners
+	 *        The users whose data should be read or null or empty if the data
+	 *        of every user who granted access should be read.
+	 * 
+	 * @param columnList
+	 *        The list of columns in the data to return.
+	 * 
+	 * @param cursor
+	 *        The token from a previous page at which to continue reading or
+	 *        null to take a new snapshot and begin with the first user.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid or the cursor is from a read of a
+	 *         different schema ID or version.
+	 */
+	public CohortReadRequest(
+		final AuthorizationToken authorizationToken,
+		final String schemaId,
+		final long version,
+		final List<String> owners,
+		final List<String> columnList,
+		final String cursor,
+		final Long numToReturn)
+		throws OmhException {
+		
+		super(null, numToReturn, MAX_NUMBER_TO_RETURN);
+		
+		if(authorizationToken == null) {
+			throw
+				new InvalidAuthorizationException(
+					"No authorization token was provided.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is missing.");
+		}
+		
+		this.authorizationToken = authorizationToken;
+		this.schemaId = schemaId;
+		this.version = version;
+		if((owners == null) || (owners.size() == 0)) {
+			this.owners = null;
+		}
+		else {
+			this.owners = new TreeSet<String>(owners);
+		}
+		this.columnList = new ColumnList(columnList);
+		this.cursor = (cursor == null) ? null : CohortCursor.valueOf(cursor);
+		
+		// The cursor may only continue the read that created it.
+		if(
+			(this.cursor != null) &&
+			((! this.cursor.getSchemaId().equals(schemaId)) ||
+				(this.cursor.getVersion() != version))) {
+			
+			throw
+				new OmhException(
+					"The cursor is for a different schema ID or version.");
+		}
+	}
+	
+	/**
+	 * Finds the users who granted the third-party access and reads their
+	 * data, continuing from the cursor if one was given.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Check to be sure the schema is known.
+		if(Registry.getInstance().getCachedSchema(schemaId, version) == null) {
+			throw
+				new NoSuchSchemaException(
+					"The schema ID, '" +
+						schemaId +
+						"', and version, '" +
+						version +
+						"', pair is unknown.");
+		}
+		
+		// Take a snapshot or continue with the cursor's.
+		String snapshot;
+		long snapshotTime;
+		if(cursor == null) {
+			snapshotTime = System.currentTimeMillis();
+			snapshot = DataSet.getInstance().getSnapshot();
+		}
+		else {
+			snapshotTime = cursor.getSnapshotTime();
+			snapshot = cursor.getSnapshot();
+		}
+		
+		// Find the cohort, which is every user who had granted access when
+		// the snapshot was taken, based on when they granted it, and whose
+		// access has not since expired.
+		Set<String> granted =
+			AuthorizationCodeResponseBin
+				.getInstance()
+				.getGrantedOwners(
+					authorizationToken
+						.getAuthorizationCode()
+						.getThirdPartyId(),
+					schemaId,
+					snapshotTime,
+					System.currentTimeMillis());
+		SortedSet<String> cohort;
+		if(owners == null) {
+			cohort = new TreeSet<String>(granted);
+		}
+		else {
+			for(String owner : owners) {
+				if(! granted.contains(owner)) {
+					throw
+						new InvalidAuthorizationException(
+							"The user has not granted access to the given " +
+								"schema or the access has expired: " +
+								owner);
+				}
+			}
+			cohort = owners;
+		}
+		
+		// If there was no data when the snapshot was taken, there is nothing
+		// to read.
+		List<Data> page = new ArrayList<Data>();
+		if(snapshot != null) {
+			readPage(snapshot, snapshotTime, cohort, page);
+		}
+		
+		// Set the data. It is not counted.
+		setData(new CursorMultiValueResult<Data>(page, page.size(), null));
+	}
+	
+	/**
+	 * Reads the users' data from where the cursor left off until the page is
+	 * full, and remembers where the next page begins.
+	 * 
+	 * @param snapshot
+	 *        The snapshot point of the data.
+	 * 
+	 * @param snapshotTime
+	 *        The time at which the snapshot was taken.
+	 * 
+	 * @param cohort
+	 *        The users whose data should be read, in order.
+	 * 
+	 * @param page
+	 *        The list to which the points are added.
+	 * 
+	 * @throws OmhException
+	 *         The data could not be read.
+	 */
+	private void readPage(
+		final String snapshot,
+		final long snapshotTime,
+		final SortedSet<String> cohort,
+		final List<Data> page)
+		throws OmhException {
+		
+		// Begin with the cursor's user, if it is still in the cohort, or the
+		// next one after it.
+		Iterator<String> ownerIterator =
+			((cursor == null) ? cohort : cohort.tailSet(cursor.getOwner()))
+				.iterator();
+		
+		while(ownerIterator.hasNext()) {
+			String owner = ownerIterator.next();
+			
+			// If the page is full, the next page begins with this user.
+			long remaining = getNumToReturn() - page.size();
+			if(remaining == 0) {
+				nextCursor =
+					new CohortCursor(
+						snapshot,
+						snapshotTime,
+						schemaId,
+						version,
+						owner,
+						null);
+				return;
+			}
+			
+			// Continue within the cursor's user's stream.
+			DataCursor position = null;
+			if((cursor != null) && cursor.getOwner().equals(owner)) {
+				position = cursor.getPosition();
+			}
+			
+			// Read as much of the user's data as fits on the page.
+			CursorMultiValueResult<Data> result =
+				DataSet
+					.getInstance()
+					.getSnapshotData(
+						owner,
+						schemaId,
+						version,
+						columnList,
+						snapshot,
+						position,
+						remaining);
+			for(Data point : result) {
+				page.add(point);
+			}
+			
+			// If the user has more data, the next page continues with it.
+			if(result.getNextCursor() != null) {
+				nextCursor =
+					new CohortCursor(
+						snapshot,
+						snapshotTime,
+						schemaId,
+						version,
+						owner,
+						result.getNextCursor());
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns true because this request is always paged with a cursor.
+	 */
+	@Override
+	public boolean isCursorPaged() {
+		return true;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.ListRequest#getNextCursor()
+	 */
+	@Override
+	public String getNextCursor() {
+		return (nextCursor == null) ? null : nextCursor.toString();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.ListRequest#getPreviousNextParameters()
+	 */
+	@Override
+	public Map<String, String> getPreviousNextParameters() {
+		// Create the result map.
+		Map<String, String> result = new HashMap<String, String>();
+		
+		// Add the owners if they were given.
+		if(owners != null) {
+			StringBuilder ownersBuilder = new StringBuilder();
+			for(String owner : owners) {
+				if(ownersBuilder.length() > 0) {
+					ownersBuilder.append(',');
+				}
+				ownersBuilder.append(owner);
+			}
+			result.put(Version1.PARAM_OWNER, ownersBuilder.toString());
+		}
+		
+		// Add the columns if they were given.
+		if(columnList.size() > 0) {
+			result.put(Version1.PARAM_COLUMN_LIST, columnList.toString());
+		}
+		
+		// Return the map.
+		return result;
+	}
+}
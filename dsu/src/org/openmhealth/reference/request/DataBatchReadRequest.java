@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.DataPage;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.servlet.Version1;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Retrieves a page of data from each of several of a user's streams at once.
+ * Each stream is described by a JSON object with the same keys as the
+ * parameters of a single {@link DataReadRequest data read}, i.e.
+ * {@link Version1#PARAM_SCHEMA_ID}, {@link Version1#PARAM_SCHEMA_VERSION},
+ * and, optionally, {@link Version1#PARAM_COLUMN_LIST},
+ * {@link Version1#PARAM_DATE_START}, {@link Version1#PARAM_DATE_END},
+ * {@link Version1#PARAM_PAGING_CURSOR},
+ * {@link Version1#PARAM_PAGING_INCLUDE_COUNT},
+ * {@link Version1#PARAM_PAGING_NUM_TO_SKIP}, and
+ * {@link Version1#PARAM_PAGING_NUM_TO_RETURN}.
+ * </p>
+ * 
+ * <p>
+ * The streams are read at the same time on a shared pool of
+ * {@link #MAX_CONCURRENT_READS} threads, which bounds the number of database
+ * connections that batch reads can hold. The pages are returned in the same
+ * order as the streams were given and, if any stream could not be read, the
+ * exception for the first such stream is thrown.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataBatchReadRequest extends Request<List<DataPage>> {
+	/**
+	 * The maximum number of streams that may be read at once.
+	 */
+	public static final int MAX_NUMBER_OF_STREAMS = 20;
+	/**
+	 * The number of streams that are read at the same time by all batch reads.
+	 */
+	public static final int MAX_CONCURRENT_READS = 8;
+	
+	/**
+	 * The mapper used to parse the descriptions of the streams.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	
+	/**
+	 * The pool that is shared by all batch reads.
+	 */
+	private static final ExecutorService POOL =
+		Executors
+			.newFixedThreadPool(
+				MAX_CONCURRENT_READS,
+				new ThreadFactory() {
+					/**
+					 * The number of threads that have been created.
+					 */
+					private final AtomicInteger count = new AtomicInteger();
+					
+					/**
+					 * Creates a daemon thread, so that the pool does not
+					 * keep the application running.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread result =
+							new Thread(
+								runnable,
+								"omh-batch-read-" + count.getAndIncrement());
+						result.setDaemon(true);
+						return result;
+					}
+				});
+	
+	/**
+	 * The requests for each stream's page, in the order they were given.
+	 */
+	private final List<DataReadRequest> reads =
+		new ArrayList<DataReadRequest>();
+	
+	/**
+	 * Creates a request for pages of several streams.
+	 * 
+	 * @param authenticationToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param authorizationToken
+	 *        The third-party's authorization token.
+	 * 
+	 * @param owner
+	 *        Defines whose data should be read.
+	 * 
+	 * @param streams
+	 *        The JSON array of the descriptions of the streams.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid or the streams could not be read.
+	 */
+	public DataBatchReadRequest(
+		final AuthenticationToken authenticationToken,
+		final AuthorizationToken authorizationToken,
+		final String owner,
+		final InputStream streams)
+		throws OmhException {
+		
+		if(authenticationToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"No authentication token was provided.");
+		}
+		if(streams == null) {
+			throw new OmhException("The streams are missing.");
+		}
+		
+		// Parse the descriptions of the streams.
+		JsonNode descriptions;
+		try {
+			descriptions = JSON_MAPPER.readTree(streams);
+		}
+		catch(JsonProcessingException e) {
+			throw new OmhException("The streams were not well-formed JSON.", e);
+		}
+		catch(IOException e) {
+			throw new OmhException("The streams could not be read.", e);
+		}
+		if((descriptions == null) || (! descriptions.isArray())) {
+			throw new OmhException("The streams were not a JSON array.");
+		}
+		if(descriptions.size() == 0) {
+			throw new OmhException("No streams were given.");
+		}
+		if(descriptions.size() > MAX_NUMBER_OF_STREAMS) {
+			throw
+				new OmhException(
+					"More than " +
+						MAX_NUMBER_OF_STREAMS +
+						" streams may not be read at once.");
+		}
+		
+		// Build a request for each stream, which validates its parameters.
+		for(JsonNode description : descriptions) {
+			if(! description.isObject()) {
+				throw new OmhException("A stream was not a JSON object.");
+			}
+			
+			String schemaId = getText(description, Version1.PARAM_SCHEMA_ID);
+			Long version =
+				getNumber(description, Version1.PARAM_SCHEMA_VERSION);
+			if(version == null) {
+				throw new OmhException("A schema version is missing.");
+			}
+			JsonNode includeCount =
+				description.get(Version1.PARAM_PAGING_INCLUDE_COUNT);
+			
+			reads
+				.add(
+					new DataReadRequest(
+						authenticationToken,
+						authorizationToken,
+						schemaId,
+						version,
+						owner,
+						getColumnList(description),
+						getText(description, Version1.PARAM_DATE_START),
+						getText(description, Version1.PARAM_DATE_END),
+						getText(description, Version1.PARAM_PAGING_CURSOR),
+						(includeCount == null) || includeCount.asBoolean(),
+						false,
+						getNumber(
+							description,
+							Version1.PARAM_PAGING_NUM_TO_SKIP),
+						getNumber(
+							description,
+							Version1.PARAM_PAGING_NUM_TO_RETURN)));
+		}
+	}
+	
+	/**
+	 * Authenticates the user, authorizes the request for each stream if it
+	 * was for data that belongs to a different user, and retrieves a page of
+	 * each stream at the same time.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Start reading each stream.
+		List<Future<DataPage>> pages =
+			new ArrayList<Future<DataPage>>(reads.size());
+		for(final DataReadRequest read : reads) {
+			pages
+				.add(
+					POOL.submit(
+						new Callable<DataPage>() {
+							/**
+							 * Reads the stream's page.
+							 */
+							@Override
+							public DataPage call() {
+								return readPage(read);
+							}
+						}));
+		}
+		
+		// Wait for the pages in order, so that the first failure is thrown.
+		DataPage[] result = new DataPage[pages.size()];
+		try {
+			for(int i = 0; i < result.length; i++) {
+				result[i] = pages.get(i).get();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OmhException("The streams were not all read.", e);
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new OmhException("A stream could not be read.", cause);
+		}
+		finally {
+			// Don't keep reading for a response that will not be sent.
+			for(Future<DataPage> page : pages) {
+				page.cancel(true);
+			}
+		}
+		
+		// Set the data.
+		setData(Arrays.asList(result));
+	}
+	
+	/**
+	 * Services the request for a stream and returns its page.
+	 * 
+	 * @param read
+	 *        The request for the stream.
+	 * 
+	 * @return The stream's page.
+	 * 
+	 * @throws OmhException
+	 *         The stream could not be read.
+	 */
+	private static DataPage readPage(
+		final DataReadRequest read)
+		throws OmhException {
+		
+		read.service();
+		
+		// The count is only in the meta-data if it was requested.
+		Integer count =
+			(Integer) read.getMetaData().get(ListRequest.METADATA_KEY_COUNT);
+		
+		return
+			new DataPage(
+				read.getSchemaId(),
+				read.getVersion(),
+				count,
+				read.getNextCursor(),
+				read.getData());
+	}
+	
+	/**
+	 * Returns the column list of a stream, which may be given as a
+	 * comma-separated string or as an array of strings.
+	 * 
+	 * @param description
+	 *        The description of the stream.
+	 * 
+	 * @return The columns or null if none were given.
+	 */
+	private static List<String> getColumnList(final JsonNode description) {
+		JsonNode columnList = description.get(Version1.PARAM_COLUMN_LIST);
+		if((columnList == null) || columnList.isNull()) {
+			return null;
+		}
+		
+		List<String> result = new ArrayList<String>();
+		if(columnList.isArray()) {
+			for(JsonNode column : columnList) {
+				result.add(column.asText());
+			}
+		}
+		else {
+			result.addAll(Arrays.asList(columnList.asText().split(",")));
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a string from the description of a stream.
+	 * 
+	 * @param description
+	 *        The description of the stream.
+	 * 
+	 * @param key
+	 *        The key of the string.
+	 * 
+	 * @return The string or null if it was not given.
+	 */
+	private static String getText(
+		final JsonNode description,
+		final String key) {
+		
+		JsonNode value = description.get(key);
+		if((value == null) || value.isNull()) {
+			return null;
+		}
+		return value.asText();
+	}
+	
+	/**
+	 * Returns a number from the description of a stream.
+	 * 
+	 * @param description
+	 *        The description of the stream.
+	 * 
+	 * @param key
+	 *        The key of the number.
+	 * 
+	 * @return The number or null if it was not given.
+	 * 
+	 * @throws OmhException
+	 *         The value is not a whole number.
+	 */
+	private static Long getNumber(
+		final JsonNode description,
+		final String key)
+		throws OmhException {
+		
+		JsonNode value = description.get(key);
+		if((value == null) || value.isNull()) {
+			return null;
+		}
+		if(! value.canConvertToLong()) {
+			throw
+				new OmhException(
+					"The '" + key + "' value is not a whole number: " + value);
+		}
+		return value.asLong();
+	}
+}
@@ -15,22 +15,30 @@
  ******************************************************************************/
 package org.openmhealth.reference.request;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.joda.time.DateTime;
 import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.StreamStatisticsBin;
 import org.openmhealth.reference.domain.AuthenticationToken;
 import org.openmhealth.reference.domain.AuthorizationToken;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.CursorMultiValueResult;
 import org.openmhealth.reference.domain.Data;
-import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.domain.DataCursor;
 import org.openmhealth.reference.exception.InvalidAuthenticationException;
 import org.openmhealth.reference.exception.InvalidAuthorizationException;
 import org.openmhealth.reference.exception.NoSuchSchemaException;
 import org.openmhealth.reference.exception.OmhException;
 import org.openmhealth.reference.servlet.Version1;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
 
 /**
  * <p>
@@ -40,6 +48,23 @@ import org.openmhealth.reference.servlet.Version1;
  * @author John Jenkins
  */
 public class DataReadRequest extends ListRequest<Data> {
+	/**
+	 * The maximum number of points that may be returned at once when the
+	 * points are {@link #stream(DataSet.DataHandler) streamed}. Streaming
+	 * does not keep the points in memory, so this is much larger than the
+	 * {@link ListRequest#DEFAULT_NUMBER_TO_RETURN default}.
+	 */
+	public static final long MAX_NUMBER_TO_RETURN_STREAMED = 100000;
+	
+	/**
+	 * The algorithm used to build entity tags.
+	 */
+	private static final String ETAG_DIGEST_ALGORITHM = "SHA-1";
+	/**
+	 * The character set used to encode the parts of an entity tag.
+	 */
+	private static final Charset ETAG_CHARSET = Charset.forName("UTF-8");
+	
 	/**
 	 * The authentication token for the requesting user.
 	 */
@@ -64,6 +89,39 @@ public class DataReadRequest extends ListRequest<Data> {
 	 * The list of columns to select from the data.
 	 */
 	private final ColumnList columnList;
+	/**
+	 * The earliest timestamp of the data to return or null if there is no
+	 * lower bound.
+	 */
+	private final DateTime startDate;
+	/**
+	 * The latest timestamp of the data to return or null if there is no upper
+	 * bound.
+	 */
+	private final DateTime endDate;
+	/**
+	 * The position after which to begin returning data or null if the data
+	 * should begin with the most recent point.
+	 */
+	private final DataCursor cursor;
+	/**
+	 * Whether or not to count the total number of points.
+	 */
+	private final boolean includeCount;
+	/**
+	 * Whether or not the points will be streamed, which determines the
+	 * format in which they are returned.
+	 */
+	private final boolean streamed;
+	/**
+	 * Whether or not the data has been checked to be readable.
+	 */
+	private boolean authorized = false;
+	/**
+	 * The position at which the next page begins, which is only set once the
+	 * request has been serviced and only if there is more data.
+	 */
+	private DataCursor nextCursor = null;
 
 	/**
 	 * Creates a request for data.
@@ -81,6 +139,25 @@ public class DataReadRequest extends ListRequest<Data> {
 	 * 
 	 * @param columnList The list of columns in the data to return.
 	 * 
+	 * @param startDate The earliest timestamp of the data to return as an ISO
+	 * 					W3C date-time, inclusive, or null if there is no lower
+	 * 					bound.
+	 * 
+	 * @param endDate The latest timestamp of the data to return as an ISO W3C
+	 * 				  date-time, inclusive, or null if there is no upper bound.
+	 * 
+	 * @param cursor The token from a previous page at which to continue
+	 * 				 reading or null to begin with the most recent point. This
+	 * 				 cannot be combined with skipping points.
+	 * 
+	 * @param includeCount Whether or not to count the total number of points.
+	 * 					   The count is required when skipping points.
+	 * 
+	 * @param streamed Whether or not the points will be
+	 * 				   {@link #stream(DataSet.DataHandler) streamed}, which
+	 * 				   allows up to {@link #MAX_NUMBER_TO_RETURN_STREAMED}
+	 * 				   points to be returned at once.
+	 * 
 	 * @param numToSkip The number of data points to skip.
 	 * 
 	 * @param numToReturn The number of data points to return.
@@ -94,11 +171,21 @@ public class DataReadRequest extends ListRequest<Data> {
 		final long version,
 		final String owner,
 		final List<String> columnList,
+		final String startDate,
+		final String endDate,
+		final String cursor,
+		final boolean includeCount,
+		final boolean streamed,
 		final Long numToSkip,
 		final Long numToReturn)
 		throws OmhException {
 		
-		super(numToSkip, numToReturn);
+		super(
+			numToSkip,
+			numToReturn,
+			(streamed) ?
+				MAX_NUMBER_TO_RETURN_STREAMED :
+				DEFAULT_NUMBER_TO_RETURN);
 		
 		if(authenticationToken == null) {
 			throw
@@ -114,6 +201,33 @@ public class DataReadRequest extends ListRequest<Data> {
 		this.schemaId = schemaId;
 		this.version = version;
 		this.columnList = new ColumnList(columnList);
+		this.startDate = parseDate(startDate, Version1.PARAM_DATE_START);
+		this.endDate = parseDate(endDate, Version1.PARAM_DATE_END);
+		if(
+			(this.startDate != null) &&
+			(this.endDate != null) &&
+			this.startDate.isAfter(this.endDate)) {
+			
+			throw new OmhException("The start date is after the end date.");
+		}
+		if(cursor == null) {
+			this.cursor = null;
+		}
+		else if(getNumToSkip() > 0) {
+			throw
+				new OmhException(
+					"A cursor cannot be combined with skipping points.");
+		}
+		else {
+			this.cursor = DataCursor.valueOf(cursor);
+		}
+		if((! includeCount) && (getNumToSkip() > 0)) {
+			throw
+				new OmhException(
+					"The count cannot be omitted when skipping points.");
+		}
+		this.includeCount = includeCount;
+		this.streamed = streamed;
 		
 		if(owner == null) {
 			this.owner = authenticationToken.getUsername();
@@ -137,12 +251,221 @@ public class DataReadRequest extends ListRequest<Data> {
 			setServiced();
 		}
 		
-		// Check to be sure the schema is known.
-		if(
-			Registry
+		// Make sure the data may be read.
+		authorize();
+		
+		// Get the data.
+		CursorMultiValueResult<Data> result =
+			DataSet
 				.getInstance()
-				.getSchemas(schemaId, version, 0, 1).count() == 0) {
-			
+				.getData(
+					owner, 
+					schemaId, 
+					version, 
+					columnList, 
+					startDate,
+					endDate,
+					cursor,
+					getNumToSkip(), 
+					getNumToReturn(),
+					includeCount);
+		
+		// Set the meta-data and remember where the next page begins.
+		setPage(result.count(), result.getNextCursor());
+		
+		// Set the data.
+		setData(result);
+	}
+	
+	/**
+	 * Authenticates the user, authorizes the request if it was for data that
+	 * belongs to a different user, and passes the applicable data to a
+	 * handler as it is read instead of keeping it in memory. The meta-data
+	 * and the next cursor are set before the handler is
+	 * {@link DataSet.DataHandler#begin(int, DataCursor) told} to begin, so
+	 * they can be sent before any of the data. The data is never set.
+	 * 
+	 * @param handler
+	 *        The handler that receives the data.
+	 * 
+	 * @throws OmhException
+	 *         The request could not be serviced or the handler failed.
+	 */
+	public void stream(final DataSet.DataHandler handler) throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Make sure the data may be read.
+		authorize();
+		
+		// Stream the data.
+		DataSet
+			.getInstance()
+			.streamData(
+				owner, 
+				schemaId, 
+				version, 
+				columnList, 
+				startDate,
+				endDate,
+				cursor,
+				getNumToSkip(), 
+				getNumToReturn(),
+				includeCount,
+				new DataSet.DataHandler() {
+					/**
+					 * Sets the meta-data and the next cursor then begins the
+					 * given handler.
+					 */
+					@Override
+					public void begin(
+						final int count,
+						final DataCursor nextCursor)
+						throws IOException {
+						
+						setPage(count, nextCursor);
+						handler.begin(count, nextCursor);
+					}
+					
+					/**
+					 * Passes the point to the given handler.
+					 */
+					@Override
+					public void handle(final Data point) throws IOException {
+						handler.handle(point);
+					}
+				});
+	}
+	
+	/**
+	 * <p>
+	 * Authenticates the user, authorizes the request if it was for data that
+	 * belongs to a different user, and returns an entity tag for the page of
+	 * data that this request would return. The tag is built from the
+	 * stream's {@link StreamStatisticsBin#getRevision(String, String, long)
+	 * revision} and the request's parameters, so it changes whenever data is
+	 * stored in the stream or a different page is requested.
+	 * </p>
+	 * 
+	 * <p>
+	 * Only the stream's statistics are read, so a client that already has
+	 * the page can be told so without reading any data.
+	 * </p>
+	 * 
+	 * @return The entity tag, including its quotes.
+	 * 
+	 * @throws OmhException
+	 *         The data may not be read or its revision could not be read.
+	 */
+	public String getETag() throws OmhException {
+		// Make sure the data may be read.
+		authorize();
+		
+		// Combine the stream's revision with everything that determines which
+		// points are returned and how.
+		StringBuilder parts = new StringBuilder();
+		parts
+			.append(
+				StreamStatisticsBin
+					.getInstance()
+					.getRevision(owner, schemaId, version))
+			.append('\n').append(owner)
+			.append('\n').append(schemaId)
+			.append('\n').append(version)
+			.append('\n').append(columnList)
+			.append('\n')
+			.append((startDate == null) ? "" : startDate.getMillis())
+			.append('\n')
+			.append((endDate == null) ? "" : endDate.getMillis())
+			.append('\n').append((cursor == null) ? "" : cursor)
+			.append('\n').append(includeCount)
+			.append('\n').append(streamed)
+			.append('\n').append(getNumToSkip())
+			.append('\n').append(getNumToReturn());
+		
+		// Digest the parts so that the tag is short and opaque.
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(ETAG_DIGEST_ALGORITHM);
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw
+				new OmhException(
+					"The " + ETAG_DIGEST_ALGORITHM + " algorithm is unknown.",
+					e);
+		}
+		byte[] digestBytes =
+			digest.digest(parts.toString().getBytes(ETAG_CHARSET));
+		
+		StringBuilder result = new StringBuilder("\"");
+		for(byte digestByte : digestBytes) {
+			result
+				.append(
+					Integer.toString((digestByte & 0xff) + 0x100, 16)
+						.substring(1));
+		}
+		return result.append('"').toString();
+	}
+	
+	/**
+	 * Checks that the data may be read, unless that has already been checked
+	 * for this request.
+	 * 
+	 * @throws OmhException
+	 *         The schema is unknown or access was not granted.
+	 */
+	private void authorize() throws OmhException {
+		if(authorized) {
+			return;
+		}
+		
+		authorize(
+			authenticationToken,
+			authorizationToken,
+			schemaId,
+			version,
+			owner);
+		authorized = true;
+	}
+	
+	/**
+	 * Checks that the schema is known and, if the data belongs to a different
+	 * user, that the authorization token grants access to it.
+	 * 
+	 * @param authenticationToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param authorizationToken
+	 *        The third-party's authorization token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema from which the data was generated.
+	 * 
+	 * @param version
+	 *        The version of the schema from which the data was generated.
+	 * 
+	 * @param owner
+	 *        The user to which the data belongs.
+	 * 
+	 * @throws OmhException
+	 *         The schema is unknown or access was not granted.
+	 */
+	static void authorize(
+		final AuthenticationToken authenticationToken,
+		final AuthorizationToken authorizationToken,
+		final String schemaId,
+		final long version,
+		final String owner)
+		throws OmhException {
+		
+		// Check to be sure the schema is known. Registered schemas never
+		// change, so the cached schema answers this without a query.
+		if(Registry.getInstance().getCachedSchema(schemaId, version) == null) {
 			throw
 				new NoSuchSchemaException(
 					"The schema ID, '" +
@@ -185,26 +508,65 @@ public class DataReadRequest extends ListRequest<Data> {
 							owner);
 			}
 		}
-		
-		// Get the data.
-		MultiValueResult<Data> result =
-			DataSet
-				.getInstance()
-				.getData(
-					owner, 
-					schemaId, 
-					version, 
-					columnList, 
-					getNumToSkip(), 
-					getNumToReturn());
-		
-		// Set the meta-data.
+	}
+	
+	/**
+	 * Sets the meta-data for a page and remembers where the next page begins.
+	 * 
+	 * @param count
+	 *        The total number of points before paging or -1 if they were not
+	 *        counted.
+	 * 
+	 * @param nextCursor
+	 *        The position after the last point on the page or null if there is
+	 *        no more data.
+	 */
+	private void setPage(final int count, final DataCursor nextCursor) {
+		// Set the meta-data. The count is only known if it was requested.
 		Map<String, Object> metaData = new HashMap<String, Object>();
-		metaData.put(METADATA_KEY_COUNT, result.count());
+		if(count >= 0) {
+			metaData.put(METADATA_KEY_COUNT, count);
+		}
 		setMetaData(metaData);
 		
-		// Set the data.
-		setData(result);
+		// Remember where the next page begins.
+		this.nextCursor = nextCursor;
+	}
+	
+	/**
+	 * Returns the ID of the schema from which the data was generated.
+	 * 
+	 * @return The ID of the schema from which the data was generated.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+	
+	/**
+	 * Returns the version of the schema from which the data was generated.
+	 * 
+	 * @return The version of the schema from which the data was generated.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns whether or not this request is paged with a cursor, which is
+	 * the case unless points are being skipped.
+	 */
+	@Override
+	public boolean isCursorPaged() {
+		return getNumToSkip() == 0;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.ListRequest#getNextCursor()
+	 */
+	@Override
+	public String getNextCursor() {
+		return (nextCursor == null) ? null : nextCursor.toString();
 	}
 
 	/*
@@ -226,7 +588,60 @@ public class DataReadRequest extends ListRequest<Data> {
 			result.put(Version1.PARAM_COLUMN_LIST, columnList.toString());
 		}
 		
+		// Add whether or not to count the points if it is not the default.
+		if(! includeCount) {
+			result.put(Version1.PARAM_PAGING_INCLUDE_COUNT, "false");
+		}
+		
+		// Add the range of time if it was given.
+		if(startDate != null) {
+			result
+				.put(
+					Version1.PARAM_DATE_START,
+					ISOW3CDateTimeFormat.any().print(startDate));
+		}
+		if(endDate != null) {
+			result
+				.put(
+					Version1.PARAM_DATE_END,
+					ISOW3CDateTimeFormat.any().print(endDate));
+		}
+		
 		// Return the map.
 		return result;
 	}
+	
+	/**
+	 * Parses an optional date parameter.
+	 * 
+	 * @param date The date as an ISO W3C date-time or null.
+	 * 
+	 * @param parameter The name of the parameter, for the error message.
+	 * 
+	 * @return The date or null if it was not given.
+	 * 
+	 * @throws OmhException The date is not a valid ISO W3C date-time.
+	 */
+	static DateTime parseDate(
+		final String date,
+		final String parameter)
+		throws OmhException {
+		
+		if(date == null) {
+			return null;
+		}
+		
+		try {
+			return ISOW3CDateTimeFormat.any().parseDateTime(date);
+		}
+		catch(IllegalArgumentException e) {
+			throw
+				new OmhException(
+					"The '" +
+						parameter +
+						"' parameter is not a valid date-time: " +
+						date,
+					e);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.RollupBin;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.servlet.Version1;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+
+/**
+ * <p>
+ * Summarizes data by periods of time based on the given parameters.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataSummaryRequest extends ListRequest<DataSummary> {
+	/**
+	 * The authentication token for the requesting user.
+	 */
+	private final AuthenticationToken authenticationToken;
+	/**
+	 * The authorization token for the requesting third-party.
+	 */
+	private final AuthorizationToken authorizationToken;
+	/**
+	 * The ID of the schema from which the data was generated.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema from which the data was generated.
+	 */
+	private final long version;
+	/**
+	 * The identifier for the user to which the data should belong.
+	 */
+	private final String owner;
+	/**
+	 * The fields of the data to summarize.
+	 */
+	private final ColumnList columnList;
+	/**
+	 * The earliest timestamp of the data to summarize or null if there is no
+	 * lower bound.
+	 */
+	private final DateTime startDate;
+	/**
+	 * The latest timestamp of the data to summarize or null if there is no
+	 * upper bound.
+	 */
+	private final DateTime endDate;
+	/**
+	 * The length of time that each summary covers.
+	 */
+	private final DataSummary.Period period;
+	/**
+	 * The time zone to whose local time the periods are aligned.
+	 */
+	private final DateTimeZone timeZone;
+	
+	/**
+	 * Creates a request for summaries of data.
+	 * 
+	 * @param authenticationToken The requesting user's authentication token.
+	 * 
+	 * @param authorizationToken The third-party's authorization token.
+	 * 
+	 * @param schemaId The ID of the schema from which the data was generated.
+	 * 
+	 * @param version The version of the schema from which the data was
+	 * 				  generated.
+	 * 
+	 * @param owner Defines whose data should be summarized.
+	 * 
+	 * @param columnList The numeric fields of the data to summarize. If this
+	 * 					 is null, the points are only counted.
+	 * 
+	 * @param startDate The earliest timestamp of the data to summarize as an
+	 * 					ISO W3C date-time, inclusive, or null if there is no
+	 * 					lower bound.
+	 * 
+	 * @param endDate The latest timestamp of the data to summarize as an ISO
+	 * 				  W3C date-time, inclusive, or null if there is no upper
+	 * 				  bound.
+	 * 
+	 * @param period The name of the length of time that each summary covers.
+	 * 
+	 * @param timeZone The ID of the time zone to whose local time the periods
+	 * 				   are aligned or null to use UTC.
+	 * 
+	 * @param numToSkip The number of periods to skip.
+	 * 
+	 * @param numToReturn The number of periods to return.
+	 * 
+	 * @throws OmhException A parameter was invalid.
+	 */
+	public DataSummaryRequest(
+		final AuthenticationToken authenticationToken,
+		final AuthorizationToken authorizationToken,
+		final String schemaId,
+		final long version,
+		final String owner,
+		final List<String> columnList,
+		final String startDate,
+		final String endDate,
+		final String period,
+		final String timeZone,
+		final Long numToSkip,
+		final Long numToReturn)
+		throws OmhException {
+		
+		super(numToSkip, numToReturn);
+		
+		if(authenticationToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"No authentication token was provided.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is missing.");
+		}
+		
+		this.authenticationToken = authenticationToken;
+		this.authorizationToken = authorizationToken;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.columnList = new ColumnList(columnList);
+		this.startDate =
+			DataReadRequest.parseDate(startDate, Version1.PARAM_DATE_START);
+		this.endDate =
+			DataReadRequest.parseDate(endDate, Version1.PARAM_DATE_END);
+		if(
+			(this.startDate != null) &&
+			(this.endDate != null) &&
+			this.startDate.isAfter(this.endDate)) {
+			
+			throw new OmhException("The start date is after the end date.");
+		}
+		this.period = DataSummary.Period.getPeriod(period);
+		if(timeZone == null) {
+			this.timeZone = DateTimeZone.UTC;
+		}
+		else {
+			try {
+				this.timeZone = DateTimeZone.forID(timeZone);
+			}
+			catch(IllegalArgumentException e) {
+				throw
+					new OmhException(
+						"The time zone is unknown: " + timeZone,
+						e);
+			}
+		}
+		
+		if(owner == null) {
+			this.owner = authenticationToken.getUsername();
+		}
+		else {
+			this.owner = owner;
+		}
+	}
+	
+	/**
+	 * Authenticates the user, authorizes the request if it was for data that
+	 * belongs to a different user, and summarizes the applicable data.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Make sure the data may be read.
+		DataReadRequest
+			.authorize(
+				authenticationToken,
+				authorizationToken,
+				schemaId,
+				version,
+				owner);
+		
+		// Summarize the data from its rollups, if they can answer the
+		// request. Otherwise, summarize the data itself.
+		MultiValueResult<DataSummary> result =
+			RollupBin
+				.getInstance()
+				.summarizeData(
+					owner,
+					schemaId,
+					version,
+					columnList,
+					startDate,
+					endDate,
+					period,
+					timeZone,
+					getNumToSkip(),
+					getNumToReturn());
+		if(result == null) {
+			result =
+				DataSet
+					.getInstance()
+					.summarizeData(
+						owner,
+						schemaId,
+						version,
+						columnList,
+						startDate,
+						endDate,
+						period,
+						timeZone,
+						getNumToSkip(),
+						getNumToReturn());
+		}
+		
+		// Set the meta-data.
+		Map<String, Object> metaData = new HashMap<String, Object>();
+		metaData.put(METADATA_KEY_COUNT, result.count());
+		setMetaData(metaData);
+		
+		// Set the data.
+		setData(result);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.ListRequest#getPreviousNextParameters()
+	 */
+	@Override
+	public Map<String, String> getPreviousNextParameters() {
+		// Create the result map.
+		Map<String, String> result = new HashMap<String, String>();
+		
+		// Add the period and time zone.
+		result.put(Version1.PARAM_SUMMARIZE, period.getName());
+		result.put(Version1.PARAM_TIME_ZONE, timeZone.getID());
+		
+		// Add the owner if it's not the requesting user.
+		if(! authenticationToken.getUsername().equals(owner)) {
+			result.put(Version1.PARAM_OWNER, owner);
+		}
+		
+		// Add the fields if they were given.
+		if((columnList != null) && (columnList.size() > 0)) {
+			result.put(Version1.PARAM_COLUMN_LIST, columnList.toString());
+		}
+		
+		// Add the range of time if it was given.
+		if(startDate != null) {
+			result
+				.put(
+					Version1.PARAM_DATE_START,
+					ISOW3CDateTimeFormat.any().print(startDate));
+		}
+		if(endDate != null) {
+			result
+				.put(
+					Version1.PARAM_DATE_END,
+					ISOW3CDateTimeFormat.any().print(endDate));
+		}
+		
+		// Return the map.
+		return result;
+	}
+}
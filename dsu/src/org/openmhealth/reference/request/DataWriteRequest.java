@@ -16,42 +16,126 @@
 package org.openmhealth.reference.request;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.IngestDeduplicator;
+import org.openmhealth.reference.data.IngestJournal;
 import org.openmhealth.reference.data.Registry;
 import org.openmhealth.reference.domain.AuthenticationToken;
 import org.openmhealth.reference.domain.Data;
 import org.openmhealth.reference.domain.MetaData;
-import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.Schema;
-import org.openmhealth.reference.domain.User;
 import org.openmhealth.reference.exception.InvalidAuthenticationException;
 import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.ParallelValidator;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import de.undercouch.bson4jackson.BsonParser;
+
 /**
  * <p>
  * Stores the given data.
  * </p>
+ * 
+ * <p>
+ * The data is read as a stream of JSON tokens, so the upload is never held in
+ * memory as a single JSON tree. When the data is given as a stream, the points
+ * are validated and stored in batches of {@link #STREAMING_BATCH_SIZE}, which
+ * keeps the memory required for a request constant regardless of the size of
+ * the upload. This means that, if a point is invalid, the batches before it
+ * will have already been stored.
+ * </p>
+ * 
+ * <p>
+ * Large batches are validated in parallel by the {@link ParallelValidator}.
+ * </p>
+ * 
+ * <p>
+ * If the {@link IngestDeduplicator} is enabled, points that have already
+ * been stored are dropped before the rest are stored, and the number of
+ * dropped points is returned as meta-data.
+ * </p>
+ * 
+ * <p>
+ * If the {@link IngestJournal} is enabled, the validated points are appended
+ * to it instead of being stored directly, and the request is considered
+ * {@link #isDeferred() deferred}. The journal's queue depth and flush lag are
+ * then returned as meta-data.
+ * </p>
  *
  * @author John Jenkins
  */
 public class DataWriteRequest extends Request<Object> {
+	/**
+	 * <p>
+	 * Listens for the batches of points that have been stored, e.g. so that
+	 * storing the data can be resumed after a failure.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface StoreListener {
+		/**
+		 * Called after a batch of points has been stored or, if the
+		 * {@link IngestJournal} is enabled, journaled.
+		 * 
+		 * @param points
+		 *        The total number of points in the data that have been
+		 *        stored, including the ones that were skipped.
+		 * 
+		 * @throws OmhException
+		 *         The progress could not be recorded, which fails the
+		 *         request.
+		 */
+		public void stored(final long points) throws OmhException;
+	}
+	
+	/**
+	 * The number of data points that are validated and stored together when
+	 * the data is being streamed.
+	 */
+	public static final int STREAMING_BATCH_SIZE = 1000;
+	
+	/**
+	 * The meta-data key for the number of points that have been accepted by
+	 * the {@link IngestJournal} but not yet stored.
+	 */
+	public static final String METADATA_KEY_QUEUE_DEPTH = "Ingest-Queue-Depth";
+	/**
+	 * The meta-data key for the number of milliseconds that the oldest point
+	 * in the {@link IngestJournal} has been waiting to be stored.
+	 */
+	public static final String METADATA_KEY_FLUSH_LAG = "Ingest-Flush-Lag";
+	/**
+	 * The meta-data key for the number of uploaded points that were dropped
+	 * because they had already been stored.
+	 */
+	public static final String METADATA_KEY_DUPLICATES = "Duplicates";
+	
 	/**
 	 * The JSON factory that is used to create the parser that will be used to
 	 * parse the data.
 	 */
 	private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+	/**
+	 * The object mapper that is used to convert the meta-data nodes into
+	 * {@link MetaData} objects.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 	
 	/**
 	 * The authentication token for the requesting user.
@@ -66,12 +150,40 @@ public class DataWriteRequest extends Request<Object> {
 	 */
 	private final long version;
 	/**
-	 * The data to validate and store.
+	 * The parser for the data to validate and store.
+	 */
+	private final JsonParser dataParser;
+	/**
+	 * The maximum number of data points to validate before storing them.
 	 */
-	private final String data;
+	private final int batchSize;
+	/**
+	 * The number of points at the beginning of the data that were already
+	 * stored and are skipped.
+	 */
+	private final long numToSkip;
+	/**
+	 * The listener for the batches that have been stored or null.
+	 */
+	private final StoreListener storeListener;
+	/**
+	 * The journal to which the data is appended or null if the data is
+	 * stored directly.
+	 */
+	private final IngestJournal journal;
+	/**
+	 * The deduplicator that removes points that were already stored or null
+	 * if deduplication is disabled.
+	 */
+	private final IngestDeduplicator deduplicator;
+	/**
+	 * The number of uploaded points that were dropped as duplicates.
+	 */
+	private long duplicates = 0;
 	
 	/**
-	 * Creates a request to store some data.
+	 * Creates a request to store some data. All of the data will be validated
+	 * before any of it is stored.
 	 * 
 	 * @param authToken
 	 *        The requesting user's authentication token.
@@ -96,6 +208,183 @@ public class DataWriteRequest extends Request<Object> {
 		final String data)		
 		throws OmhException {
 		
+		this(
+			authToken,
+			schemaId,
+			version,
+			createParser(data),
+			Integer.MAX_VALUE,
+			0,
+			null);
+	}
+	
+	/**
+	 * Creates a request to store some data that is read from a stream. The
+	 * data is validated and stored in batches of
+	 * {@link #STREAMING_BATCH_SIZE} points.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 * 
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 * 
+	 * @param data
+	 *        The stream containing the data to validate and store. The
+	 *        encoding of the stream will be detected automatically.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final InputStream data)
+		throws OmhException {
+		
+		this(authToken, schemaId, version, data, JSON_FACTORY);
+	}
+	
+	/**
+	 * Creates a request to store some data that is read from a stream in a
+	 * specific format, e.g. BSON. The data must have the same shape as it
+	 * would in JSON, except that formats whose top-level values must be
+	 * documents, like BSON, may give the array of points as a document whose
+	 * values are the points. The data is validated and stored in batches of
+	 * {@link #STREAMING_BATCH_SIZE} points.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 * 
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 * 
+	 * @param data
+	 *        The stream containing the data to validate and store.
+	 * 
+	 * @param factory
+	 *        The factory for parsers of the data's format.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final InputStream data,
+		final JsonFactory factory)
+		throws OmhException {
+		
+		this(
+			authToken,
+			schemaId,
+			version,
+			createParser(data, factory),
+			STREAMING_BATCH_SIZE,
+			0,
+			null);
+	}
+	
+	/**
+	 * Creates a request to store some data that is read from a stream, some
+	 * of which may have already been stored. The data is validated and stored
+	 * in batches of {@link #STREAMING_BATCH_SIZE} points, and the listener is
+	 * told after each batch how many points have been stored, so that, if
+	 * the request fails, it may be retried without storing those points
+	 * again.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 * 
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 * 
+	 * @param data
+	 *        The stream containing the data to validate and store. The
+	 *        encoding of the stream will be detected automatically.
+	 * 
+	 * @param numToSkip
+	 *        The number of points at the beginning of the data that have
+	 *        already been stored, which are skipped without being validated.
+	 * 
+	 * @param storeListener
+	 *        The listener for the batches that have been stored.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final InputStream data,
+		final long numToSkip,
+		final StoreListener storeListener)
+		throws OmhException {
+		
+		this(
+			authToken,
+			schemaId,
+			version,
+			createParser(data, JSON_FACTORY),
+			STREAMING_BATCH_SIZE,
+			numToSkip,
+			storeListener);
+	}
+	
+	/**
+	 * Creates a request to store the data from the given parser.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 * 
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 * 
+	 * @param dataParser
+	 *        The parser for the data to validate and store.
+	 * 
+	 * @param batchSize
+	 *        The maximum number of points to validate before storing them.
+	 * 
+	 * @param numToSkip
+	 *        The number of points at the beginning of the data that have
+	 *        already been stored.
+	 * 
+	 * @param storeListener
+	 *        The listener for the batches that have been stored or null.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	private DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final JsonParser dataParser,
+		final int batchSize,
+		final long numToSkip,
+		final StoreListener storeListener)
+		throws OmhException {
+		
 		if(authToken == null) {
 			throw
 				new InvalidAuthenticationException(
@@ -104,14 +393,21 @@ public class DataWriteRequest extends Request<Object> {
 		if(schemaId == null) {
 			throw new OmhException("The schema ID is missing.");
 		}
-		if(data == null) {
-			throw new OmhException("The data is missing.");
+		if(numToSkip < 0) {
+			throw
+				new OmhException(
+					"The number of points to skip is negative.");
 		}
 		
 		this.authToken = authToken;
 		this.schemaId = schemaId;
 		this.version = version;
-		this.data = data;
+		this.dataParser = dataParser;
+		this.batchSize = batchSize;
+		this.numToSkip = numToSkip;
+		this.storeListener = storeListener;
+		journal = IngestJournal.getInstance();
+		deduplicator = IngestDeduplicator.getInstance();
 	}
 
 	/**
@@ -127,10 +423,11 @@ public class DataWriteRequest extends Request<Object> {
 			setServiced();
 		}
 		
-		// Check to be sure the schema is known.
-		MultiValueResult<? extends Schema> schemas = 
-			Registry.getInstance().getSchemas(schemaId, version, 0, 1);
-		if(schemas.count() == 0) {
+		// Check to be sure the schema is known. The cached schema has already
+		// compiled its validation plan.
+		Schema schema =
+			Registry.getInstance().getCachedSchema(schemaId, version);
+		if(schema == null) {
 			throw
 				new OmhException(
 					"The schema ID, '" +
@@ -139,17 +436,103 @@ public class DataWriteRequest extends Request<Object> {
 						version +
 						"', pair is unknown.");
 		}
-		Schema schema = schemas.iterator().next();
 		
 		// Get the user that owns this token.
-		User requestingUser = authToken.getUser();
+		final String owner = authToken.getUser().getUsername();
+		
+		// Create the validation that converts each uploaded JSON object into
+		// a data point.
+		final Schema validatingSchema = schema;
+		ParallelValidator.Validation<ObjectNode, Data> validation =
+			new ParallelValidator.Validation<ObjectNode, Data>() {
+				/**
+				 * Validates a single uploaded JSON object.
+				 */
+				@Override
+				public Data validate(
+					final ObjectNode point)
+					throws OmhException {
+					
+					return validateDataPoint(validatingSchema, owner, point);
+				}
+			};
+		
+		// Create the current batch of data points that have not yet been
+		// validated.
+		List<ObjectNode> dataObjects =
+			new ArrayList<ObjectNode>(
+				Math.min(batchSize, STREAMING_BATCH_SIZE));
 		
-		// Parse the data.
-		JsonNode dataNode;
+		// Walk the data one token at a time, counting the points.
+		long i = 0;
 		try {
-			dataNode =
-				JSON_FACTORY
-					.createJsonParser(data).readValueAs(JsonNode.class);
+			// Make sure it is a JSON array. BSON cannot have a top-level
+			// array, so it is instead given as a document whose values are
+			// the elements of the array.
+			JsonToken endToken;
+			JsonToken firstToken = dataParser.nextToken();
+			if(firstToken == JsonToken.START_ARRAY) {
+				endToken = JsonToken.END_ARRAY;
+			}
+			else if(
+				(firstToken == JsonToken.START_OBJECT) &&
+				(dataParser instanceof BsonParser)) {
+				
+				endToken = JsonToken.END_OBJECT;
+			}
+			else {
+				throw new OmhException("The data was not a JSON array.");
+			}
+			
+			// For each element in the array, be sure it is a JSON object that
+			// represents a valid data point for this schema.
+			JsonToken token;
+			while((token = dataParser.nextToken()) != endToken) {
+				// If this is a document standing in for an array, skip the
+				// element's key.
+				if(token == JsonToken.FIELD_NAME) {
+					token = dataParser.nextToken();
+				}
+				
+				// If the stream ended before the array was closed, the data
+				// was truncated.
+				if(token == null) {
+					throw
+						new OmhException("The data was not well-formed JSON.");
+				}
+				
+				// Validate that it is a JSON object. Any of the points before
+				// it are validated first so that the earliest failure is the
+				// one that is reported.
+				if(token != JsonToken.START_OBJECT) {
+					ParallelValidator.validate(dataObjects, validation);
+					throw
+						new OmhException(
+							"A data point was not a JSON object: " + i);
+				}
+				
+				// Skip the points that were already stored.
+				if(i < numToSkip) {
+					dataParser.skipChildren();
+					i++;
+					continue;
+				}
+				ObjectNode dataObject = dataParser.readValueAsTree();
+				
+				// Add the point to the current batch.
+				dataObjects.add(dataObject);
+				i++;
+				
+				// If the batch is full, validate and store it and start a new
+				// one.
+				if(dataObjects.size() >= batchSize) {
+					store(ParallelValidator.validate(dataObjects, validation));
+					dataObjects.clear();
+					if(storeListener != null) {
+						storeListener.stored(i);
+					}
+				}
+			}
 		}
 		catch(JsonParseException e) {
 			throw new OmhException("The data was not well-formed JSON.", e);
@@ -160,67 +543,192 @@ public class DataWriteRequest extends Request<Object> {
 		catch(IOException e) {
 			throw new OmhException("The data could not be read.", e);
 		}
+		finally {
+			try {
+				dataParser.close();
+			}
+			catch(IOException e) {
+				// There is nothing left to read, so this can be ignored.
+			}
+		}
+		
+		// Validate and store the remaining data.
+		if(dataObjects.size() > 0) {
+			store(ParallelValidator.validate(dataObjects, validation));
+			if(storeListener != null) {
+				storeListener.stored(i);
+			}
+		}
+		
+		// Report what was done with the data.
+		Map<String, Object> metaData = new HashMap<String, Object>();
+		if(deduplicator != null) {
+			metaData.put(METADATA_KEY_DUPLICATES, duplicates);
+		}
+		if(journal != null) {
+			metaData.put(METADATA_KEY_QUEUE_DEPTH, journal.getQueueDepth());
+			metaData.put(METADATA_KEY_FLUSH_LAG, journal.getFlushLag());
+		}
+		if(metaData.size() > 0) {
+			setMetaData(metaData);
+		}
+	}
+	
+	/**
+	 * Returns whether or not the data was accepted by the
+	 * {@link IngestJournal} and will be stored later rather than having
+	 * already been stored.
+	 * 
+	 * @return Whether or not storing the data was deferred.
+	 */
+	public boolean isDeferred() {
+		return journal != null;
+	}
+	
+	/**
+	 * Stores a batch of validated points or, if the journal is enabled,
+	 * appends them to the journal. If deduplication is enabled, points that
+	 * were already stored are dropped first.
+	 * 
+	 * @param data
+	 *        The validated points.
+	 * 
+	 * @throws OmhException
+	 *         The points could not be stored or journaled.
+	 */
+	private void store(final List<Data> data) throws OmhException {
+		// Drop the points that were already stored.
+		List<Data> newData = data;
+		if(deduplicator != null) {
+			newData = deduplicator.deduplicate(data);
+			duplicates += data.size() - newData.size();
+			if(newData.size() == 0) {
+				return;
+			}
+		}
+		
+		// Store or journal the remaining points.
+		if(journal == null) {
+			DataSet.getInstance().storeData(newData);
+		}
+		else {
+			journal.append(newData);
+		}
+	}
+	
+	/**
+	 * Converts a single JSON object from an upload into a data point and
+	 * validates it against the schema. This is also used by the offline
+	 * importer so that it accepts exactly what the data endpoint accepts.
+	 * 
+	 * @param schema
+	 *        The schema to use to validate the point.
+	 * 
+	 * @param owner
+	 *        The username of the user that owns the point.
+	 * 
+	 * @param dataObject
+	 *        The JSON object representing the point.
+	 * 
+	 * @return The validated data point.
+	 * 
+	 * @throws OmhException
+	 *         The point is missing its data or is invalid.
+	 */
+	public static Data validateDataPoint(
+		final Schema schema,
+		final String owner,
+		final ObjectNode dataObject)
+		throws OmhException {
 		
-		// Make sure it is a JSON array.
-		if(! (dataNode instanceof ArrayNode)) {
-			throw new OmhException("The data was not a JSON array.");
+		// Attempt to get the meta-data;
+		MetaData metaData = null;
+		JsonNode metaDataNode = dataObject.get(Data.JSON_KEY_METADATA);
+		if(metaDataNode != null) {
+			metaData = JSON_MAPPER.convertValue(metaDataNode, MetaData.class);
 		}
-		ArrayNode dataArray = (ArrayNode) dataNode;
 		
-		// Get the number of data points.
-		int numDataPoints = dataArray.size();
+		// Attempt to get the schema data.
+		JsonNode schemaData = dataObject.get(Data.JSON_KEY_DATA);
 		
-		// Create the result list of data points.
-		List<Data> dataPoints = new ArrayList<Data>(numDataPoints);
+		// If the data is missing, fail the request.
+		if(schemaData == null) {
+			throw
+				new OmhException(
+					"A data point's '" +
+						Data.JSON_KEY_DATA +
+						"' field is missing.");
+		}
 		
-		// Create a new ObjectMapper that will be used to convert the meta-data
-		// node into a MetaData object.
-		ObjectMapper mapper = new ObjectMapper();
+		// Validate the point.
+		return schema.validateData(owner, metaData, schemaData);
+	}
+	
+	/**
+	 * Creates a parser for data that was given as a string.
+	 * 
+	 * @param data
+	 *        The data.
+	 * 
+	 * @return The parser for the data.
+	 * 
+	 * @throws OmhException
+	 *         The data is missing or could not be read.
+	 */
+	private static JsonParser createParser(
+		final String data)
+		throws OmhException {
 		
-		// For each element in the array, be sure it is a JSON object that
-		// represents a valid data point for this schema.
-		for(int i = 0; i < numDataPoints; i++) {
-			// Get the current data point.
-			JsonNode dataPoint = dataArray.get(i);
-			
-			// Validate that it is a JSON object.
-			if(! (dataPoint instanceof ObjectNode)) {
-				throw
-					new OmhException(
-						"A data point was not a JSON object: " + i);
-			}
-			ObjectNode dataObject = (ObjectNode) dataPoint;
-			
-			// Attempt to get the meta-data;
-			MetaData metaData = null;
-			JsonNode metaDataNode = dataObject.get(Data.JSON_KEY_METADATA);
-			if(metaDataNode != null) {
-				metaData = mapper.convertValue(metaDataNode, MetaData.class);
-			}
-			
-			// Attempt to get the schema data.
-			JsonNode schemaData = dataObject.get(Data.JSON_KEY_DATA);
+		if(data == null) {
+			throw new OmhException("The data is missing.");
+		}
+		
+		try {
+			return JSON_FACTORY.createParser(data);
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be read.", e);
+		}
+	}
+	
+	/**
+	 * Creates a parser for data that is being read from a stream.
+	 * 
+	 * @param data
+	 *        The stream of data.
+	 * 
+	 * @param factory
+	 *        The factory for parsers of the data's format.
+	 * 
+	 * @return The parser for the data.
+	 * 
+	 * @throws OmhException
+	 *         The data or factory is missing or the data could not be read.
+	 */
+	private static JsonParser createParser(
+		final InputStream data,
+		final JsonFactory factory)
+		throws OmhException {
+		
+		if(data == null) {
+			throw new OmhException("The data is missing.");
+		}
+		if(factory == null) {
+			throw new OmhException("The data format is missing.");
+		}
+		
+		try {
+			JsonParser result = factory.createJsonParser(data);
 			
-			// If the data is missing, fail the request.
-			if(schemaData == null) {
-				throw
-					new OmhException(
-						"A data point's '" +
-							Data.JSON_KEY_DATA +
-							"' field is missing.");
+			// The points are read as trees, which requires a codec.
+			if(result.getCodec() == null) {
+				result.setCodec(JSON_MAPPER);
 			}
 			
-			// Create and add the point to the set of data.
-			dataPoints
-				.add(
-					schema
-						.validateData(
-							requestingUser.getUsername(),
-							metaData,
-							schemaData));
-		}
-		
-		// Store the data.
-		DataSet.getInstance().storeData(dataPoints);
+			return result;
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be read.", e);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -72,6 +72,35 @@ public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
 		final Long numToReturn)
 		throws OmhException {
 		
+		this(numToSkip, numToReturn, DEFAULT_NUMBER_TO_RETURN);
+	}
+
+	/**
+	 * Creates the base part of the request with paging and a custom limit on
+	 * the number of elements that may be returned at once.
+	 * 
+	 * @param numToSkip
+	 *        The number of elements to skip while processing this request. If
+	 *        this is null, the {@link #DEFAULT_NUMBER_TO_SKIP default} is
+	 *        used.
+	 * 
+	 * @param numToReturn
+	 *        The number of elements to return from this request. If this is
+	 *        null, the {@link #DEFAULT_NUMBER_TO_RETURN default} is used.
+	 * 
+	 * @param maxNumToReturn
+	 *        The maximum number of elements that may be returned from this
+	 *        request.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public ListRequest(
+		final Long numToSkip,
+		final Long numToReturn,
+		final long maxNumToReturn)
+		throws OmhException {
+		
 		// Validate the number of elements to skip.
 		if(numToSkip == null) {
 			this.numToSkip = DEFAULT_NUMBER_TO_SKIP;
@@ -92,11 +121,11 @@ public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
 			throw new OmhException(
 				"The number to return must be positive: " + numToReturn);
 		}
-		else if(numToReturn > DEFAULT_NUMBER_TO_RETURN) {
+		else if(numToReturn > maxNumToReturn) {
 			throw new OmhException(
 				"The number to return is greater than the allowed " +
-					"default (" +
-					DEFAULT_NUMBER_TO_RETURN +
+					"maximum (" +
+					maxNumToReturn +
 					"): " +
 					numToReturn);
 		}
@@ -123,6 +152,29 @@ public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
 		return numToReturn;
 	}
 	
+	/**
+	 * Returns whether or not this request is paged with a cursor instead of
+	 * by skipping elements. If so, the next page begins at
+	 * {@link #getNextCursor()}, and there is no previous page.
+	 * 
+	 * @return Whether or not this request is paged with a cursor.
+	 */
+	public boolean isCursorPaged() {
+		return false;
+	}
+	
+	/**
+	 * Returns the token for the cursor at which the next page begins. This is
+	 * only meaningful if the request {@link #isCursorPaged() is paged with a
+	 * cursor} and has been serviced.
+	 * 
+	 * @return The token for the cursor at which the next page begins or null
+	 *         if there is no next page.
+	 */
+	public String getNextCursor() {
+		return null;
+	}
+	
 	/**
 	 * Returns the parameters used to build a previous or next URLs. The
 	 * resulting map must not include the paging parameters.
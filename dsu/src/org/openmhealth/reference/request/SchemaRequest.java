@@ -15,17 +15,13 @@
  ******************************************************************************/
 package org.openmhealth.reference.request;
 
-import java.util.Map;
-
 import name.jenkins.paul.john.concordia.Concordia;
 
 import org.openmhealth.reference.data.Registry;
-import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.EncodedSchema;
 import org.openmhealth.reference.exception.NoSuchSchemaException;
 import org.openmhealth.reference.exception.OmhException;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 /**
  * <p>
  * Retrieves schemas based on the given parameters. This is analogous to the
@@ -43,6 +39,11 @@ public class SchemaRequest extends Request<Concordia> {
 	 * The specific schema version being requested.
 	 */
 	private final long schemaVersion;
+	/**
+	 * The schema with its definition already encoded, which is only set once
+	 * the request has been serviced.
+	 */
+	private EncodedSchema encodedSchema = null;
 
 	/**
 	 * Creates a new request for a schema.
@@ -84,9 +85,10 @@ public class SchemaRequest extends Request<Concordia> {
 			setServiced();
 		}
 		
-		// Get the schema.
-		Schema schema =
-			Registry.getInstance().getSchema(schemaId, schemaVersion);
+		// Get the schema. Registered schemas never change, so the cached one
+		// is always current.
+		EncodedSchema schema =
+			Registry.getInstance().getEncodedSchema(schemaId, schemaVersion);
 		
 		// Make sure the schema exists.
 		if(schema == null) {
@@ -99,20 +101,22 @@ public class SchemaRequest extends Request<Concordia> {
 						"' does not exist.");
 		}
 		
-		// Convert the result to a map.
-		ObjectMapper mapper = new ObjectMapper();
-		// We need to suppress Java's type erasure. :(
-		@SuppressWarnings("unchecked")
-		Map<String, Object> metaData = 
-			mapper.convertValue(schema, Map.class);
-		
-		// Remove the schema from the meta-data.
-		metaData.remove(Schema.JSON_KEY_SCHEMA);
-		
-		// Save the meta-data.
-		setMetaData(metaData);
+		// Save the meta-data, which is everything but the definition.
+		setMetaData(schema.getMetaData());
 		
 		// Set the schema itself as the data.
-		setData(schema.getSchema());
+		setData(schema.getSchema().getSchema());
+		encodedSchema = schema;
+	}
+	
+	/**
+	 * Returns the schema with its definition already encoded, so that it can
+	 * be returned without encoding it again.
+	 * 
+	 * @return The encoded schema or null if the request has not yet been
+	 *         serviced.
+	 */
+	public EncodedSchema getEncodedSchema() {
+		return encodedSchema;
 	}
 }
\ No newline at end of file
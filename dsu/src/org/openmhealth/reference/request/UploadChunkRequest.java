@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.io.InputStream;
+
+import org.openmhealth.reference.data.UploadSessionStore;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Commits a chunk of a resumable upload. A chunk that was already committed
+ * is ignored, so a chunk whose response was lost may safely be sent again.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class UploadChunkRequest extends UploadRequest<UploadSession> {
+	/**
+	 * The upload's ID.
+	 */
+	private final String uploadId;
+	/**
+	 * The number of the chunk, starting at zero.
+	 */
+	private final long chunk;
+	/**
+	 * The chunk's bytes.
+	 */
+	private final InputStream data;
+	
+	/**
+	 * Creates a request to commit a chunk of an upload.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the uploaded data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the uploaded data pertains.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @param chunk
+	 *        The number of the chunk, starting at zero.
+	 * 
+	 * @param data
+	 *        The chunk's bytes.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public UploadChunkRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final String uploadId,
+		final long chunk,
+		final InputStream data)
+		throws OmhException {
+		
+		super(authToken, schemaId, version);
+		
+		if(uploadId == null) {
+			throw new OmhException("The upload ID is missing.");
+		}
+		if(chunk < 0) {
+			throw new OmhException("The chunk number is negative.");
+		}
+		if(data == null) {
+			throw new OmhException("The chunk is missing.");
+		}
+		
+		this.uploadId = uploadId;
+		this.chunk = chunk;
+		this.data = data;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.Request#service()
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Make sure the upload is the user's.
+		getSession(uploadId);
+		
+		// Commit the chunk.
+		setData(
+			UploadSessionStore.getInstance().addChunk(uploadId, chunk, data));
+	}
+}
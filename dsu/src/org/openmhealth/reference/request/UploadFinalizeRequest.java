@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openmhealth.reference.data.UploadSessionStore;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Finalizes a resumable upload. The committed chunks are streamed, in order,
+ * through a {@link DataWriteRequest}, so they are validated and stored in
+ * batches exactly like data that is uploaded in a single request. Once the
+ * data has been stored, the upload is marked as finalized and its data is
+ * deleted.
+ * </p>
+ * 
+ * <p>
+ * Only one request may finalize an upload at a time; any other is rejected.
+ * The number of points that have been stored is recorded after each batch,
+ * so, if storing the data fails, finalizing the upload may be retried and
+ * will resume after the last batch that was recorded. If the server stops
+ * between storing a batch and recording it, that batch will be stored again
+ * unless the {@link org.openmhealth.reference.data.IngestDeduplicator} is
+ * enabled. Finalizing an upload that has already been finalized returns the
+ * earlier result without storing anything.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class UploadFinalizeRequest extends UploadRequest<Object> {
+	/**
+	 * The upload's ID.
+	 */
+	private final String uploadId;
+	/**
+	 * The request that stored the upload's data or null if this request has
+	 * not yet been serviced.
+	 */
+	private DataWriteRequest writeRequest = null;
+	/**
+	 * Whether or not storing the data was deferred.
+	 */
+	private boolean deferred = false;
+	
+	/**
+	 * Creates a request to finalize an upload.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the uploaded data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the uploaded data pertains.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public UploadFinalizeRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final String uploadId)
+		throws OmhException {
+		
+		super(authToken, schemaId, version);
+		
+		if(uploadId == null) {
+			throw new OmhException("The upload ID is missing.");
+		}
+		
+		this.uploadId = uploadId;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.Request#service()
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Make sure the upload is the user's before locking it.
+		final UploadSessionStore store = UploadSessionStore.getInstance();
+		getSession(uploadId);
+		
+		// Lock the upload so that no other request finalizes it meanwhile.
+		UploadSession session = store.beginFinalizing(uploadId);
+		try {
+			// If it was already finalized, return the earlier result.
+			if(session.isFinalized()) {
+				deferred = session.isDeferred();
+				return;
+			}
+			
+			// Stream the committed data through the normal upload path,
+			// skipping the points that an earlier attempt stored and
+			// recording the progress after each batch.
+			InputStream data = store.openData(session);
+			try {
+				writeRequest =
+					new DataWriteRequest(
+						getAuthToken(),
+						getSchemaId(),
+						getVersion(),
+						data,
+						session.getStoredPoints(),
+						new DataWriteRequest.StoreListener() {
+							/**
+							 * Records the number of points that have been
+							 * stored.
+							 */
+							@Override
+							public void stored(
+								final long points)
+								throws OmhException {
+								
+								store.setStoredPoints(uploadId, points);
+							}
+						});
+				writeRequest.service();
+			}
+			finally {
+				try {
+					data.close();
+				}
+				catch(IOException e) {
+					// The data has already been read, so this can be
+					// ignored.
+				}
+			}
+			
+			// The data was stored, so the upload is finalized.
+			deferred = writeRequest.isDeferred();
+			store.setFinalized(uploadId, deferred);
+		}
+		finally {
+			store.endFinalizing(uploadId);
+		}
+		
+		// Return whatever the write reported.
+		setMetaData(writeRequest.getMetaData());
+	}
+	
+	/**
+	 * Returns whether or not storing the data was deferred.
+	 * 
+	 * @return Whether or not storing the data was deferred.
+	 * 
+	 * @see DataWriteRequest#isDeferred()
+	 */
+	public boolean isDeferred() {
+		return deferred;
+	}
+}
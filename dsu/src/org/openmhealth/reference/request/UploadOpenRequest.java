@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.UploadSessionStore;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.NoSuchSchemaException;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Opens a new resumable upload.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class UploadOpenRequest extends UploadRequest<UploadSession> {
+	/**
+	 * Creates a request to open a new upload.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the uploaded data will pertain.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the uploaded data will
+	 *        pertain.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public UploadOpenRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		super(authToken, schemaId, version);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.Request#service()
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Make sure the schema exists before any data is sent for it.
+		Registry registry = Registry.getInstance();
+		if(registry.getSchema(getSchemaId(), getVersion()) == null) {
+			throw
+				new NoSuchSchemaException(
+					"The schema with id '" +
+						getSchemaId() +
+						"' and version '" +
+						getVersion() +
+						"' does not exist.");
+		}
+		
+		// Open the upload.
+		setData(
+			UploadSessionStore
+				.getInstance()
+				.open(getUsername(), getSchemaId(), getVersion()));
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import org.openmhealth.reference.data.UploadSessionStore;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The root class for the requests that work with resumable uploads.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public abstract class UploadRequest<T> extends Request<T> {
+	/**
+	 * The authentication token for the requesting user.
+	 */
+	private final AuthenticationToken authToken;
+	/**
+	 * The ID of the schema to which the uploaded data pertains.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema to which the uploaded data pertains.
+	 */
+	private final long version;
+	
+	/**
+	 * Creates the base part of an upload request.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the uploaded data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the uploaded data pertains.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public UploadRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+		
+		if(authToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"The authentication token is missing.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is missing.");
+		}
+		
+		this.authToken = authToken;
+		this.schemaId = schemaId;
+		this.version = version;
+	}
+	
+	/**
+	 * Returns the authentication token for the requesting user.
+	 * 
+	 * @return The authentication token for the requesting user.
+	 */
+	protected AuthenticationToken getAuthToken() {
+		return authToken;
+	}
+	
+	/**
+	 * Returns the ID of the schema to which the uploaded data pertains.
+	 * 
+	 * @return The ID of the schema to which the uploaded data pertains.
+	 */
+	protected String getSchemaId() {
+		return schemaId;
+	}
+	
+	/**
+	 * Returns the version of the schema to which the uploaded data pertains.
+	 * 
+	 * @return The version of the schema to which the uploaded data pertains.
+	 */
+	protected long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the username of the requesting user.
+	 * 
+	 * @return The username of the requesting user.
+	 */
+	protected String getUsername() {
+		return authToken.getUser().getUsername();
+	}
+	
+	/**
+	 * Returns the current state of an upload, making sure that it belongs to
+	 * the requesting user and this request's schema.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @return The upload's state.
+	 * 
+	 * @throws OmhException
+	 *         The upload is unknown or belongs to another user or schema.
+	 */
+	protected UploadSession getSession(
+		final String uploadId)
+		throws OmhException {
+		
+		UploadSession session =
+			UploadSessionStore.getInstance().get(uploadId);
+		checkSession(session);
+		return session;
+	}
+	
+	/**
+	 * Makes sure that an upload belongs to the requesting user and this
+	 * request's schema.
+	 * 
+	 * @param session
+	 *        The upload's state.
+	 * 
+	 * @throws OmhException
+	 *         The upload belongs to another user or schema.
+	 */
+	protected void checkSession(
+		final UploadSession session)
+		throws OmhException {
+		
+		// The upload must be the user's. If it is not, it is reported as
+		// unknown so that its existence is not revealed.
+		if(! session.getOwner().equals(getUsername())) {
+			throw
+				new OmhException("The upload is unknown: " + session.getId());
+		}
+		
+		// The upload must be for this schema.
+		if(
+			(! session.getSchemaId().equals(schemaId)) ||
+			(session.getVersion() != version)) {
+			
+			throw
+				new OmhException(
+					"The upload is for a different schema: " +
+						session.getId());
+		}
+	}
+}
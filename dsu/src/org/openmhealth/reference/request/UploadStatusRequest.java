@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Retrieves the state of a resumable upload, which tells the client which
+ * chunk to send next.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class UploadStatusRequest extends UploadRequest<UploadSession> {
+	/**
+	 * The upload's ID.
+	 */
+	private final String uploadId;
+	
+	/**
+	 * Creates a request for the state of an upload.
+	 * 
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema to which the uploaded data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the uploaded data pertains.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public UploadStatusRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final String uploadId)
+		throws OmhException {
+		
+		super(authToken, schemaId, version);
+		
+		if(uploadId == null) {
+			throw new OmhException("The upload ID is missing.");
+		}
+		
+		this.uploadId = uploadId;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.Request#service()
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Get the upload's state.
+		setData(getSession(uploadId));
+	}
+}
@@ -15,14 +15,19 @@
  ******************************************************************************/
 package org.openmhealth.reference.servlet;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -42,6 +47,7 @@ import org.apache.oltu.oauth2.common.message.types.TokenType;
 import org.openmhealth.reference.data.AuthorizationCodeBin;
 import org.openmhealth.reference.data.AuthorizationCodeResponseBin;
 import org.openmhealth.reference.data.AuthorizationTokenBin;
+import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.data.Registry;
 import org.openmhealth.reference.data.ThirdPartyBin;
 import org.openmhealth.reference.data.UserBin;
@@ -49,14 +55,24 @@ import org.openmhealth.reference.domain.AuthenticationToken;
 import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationCodeResponse;
 import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.ColumnList;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataCursor;
+import org.openmhealth.reference.domain.DataPage;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.EncodedSchema;
 import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.domain.Schema;
 import org.openmhealth.reference.domain.ThirdParty;
+import org.openmhealth.reference.domain.UploadSession;
 import org.openmhealth.reference.domain.User;
 import org.openmhealth.reference.exception.OmhException;
 import org.openmhealth.reference.filter.AuthFilter;
 import org.openmhealth.reference.request.AuthenticationRequest;
+import org.openmhealth.reference.request.CohortReadRequest;
+import org.openmhealth.reference.request.DataBatchReadRequest;
 import org.openmhealth.reference.request.DataReadRequest;
+import org.openmhealth.reference.request.DataSummaryRequest;
 import org.openmhealth.reference.request.DataWriteRequest;
 import org.openmhealth.reference.request.ListRequest;
 import org.openmhealth.reference.request.OauthRegistrationRequest;
@@ -64,8 +80,14 @@ import org.openmhealth.reference.request.Request;
 import org.openmhealth.reference.request.SchemaIdsRequest;
 import org.openmhealth.reference.request.SchemaRequest;
 import org.openmhealth.reference.request.SchemaVersionsRequest;
+import org.openmhealth.reference.request.UploadChunkRequest;
+import org.openmhealth.reference.request.UploadFinalizeRequest;
+import org.openmhealth.reference.request.UploadOpenRequest;
+import org.openmhealth.reference.request.UploadStatusRequest;
 import org.openmhealth.reference.request.UserActivationRequest;
 import org.openmhealth.reference.request.UserRegistrationRequest;
+import org.openmhealth.reference.util.CsvDataWriter;
+import org.openmhealth.reference.util.OmhBsonObjectMapper;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -73,6 +95,12 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+import de.undercouch.bson4jackson.BsonFactory;
+
 /**
  * <p>
  * The controller for the version 1 of the Open mHealth API.
@@ -136,6 +164,16 @@ public class Version1 {
 	 * paging.
 	 */
 	public static final String PARAM_PAGING_NUM_TO_RETURN = "num_to_return";
+	/**
+	 * The parameter for the token at which to continue reading in requests
+	 * that are paged with a cursor.
+	 */
+	public static final String PARAM_PAGING_CURSOR = "cursor";
+	/**
+	 * The parameter for whether or not to count the total number of records
+	 * in requests that are paged with a cursor.
+	 */
+	public static final String PARAM_PAGING_INCLUDE_COUNT = "include_count";
 	
 	/**
 	 * The parameter for the unique identifier for a schema. This is sometimes
@@ -165,19 +203,61 @@ public class Version1 {
 	public static final String PARAM_OWNER = "owner";
 	/**
 	 * The parameter that indicates that the data should be summarized, if
-	 * possible.
+	 * possible. Its value is the name of the
+	 * {@link DataSummary.Period period} by which to summarize it.
 	 */
 	public static final String PARAM_SUMMARIZE = "summarize";
+	/**
+	 * The parameter for the ID of the time zone to whose local time
+	 * summaries are aligned.
+	 */
+	public static final String PARAM_TIME_ZONE = "time_zone";
 	/**
 	 * The parameter that indicates which columns of the data should be
 	 * returned.
 	 */
 	public static final String PARAM_COLUMN_LIST = "column_list";
+	/**
+	 * The parameter for the format of exported data.
+	 */
+	public static final String PARAM_EXPORT_FORMAT = "format";
 	
 	/**
 	 * The parameter for the data when it is being uploaded.
 	 */
 	public static final String PARAM_DATA = "data";
+	/**
+	 * The parameter for the ID of a resumable upload. This is part of the URI
+	 * for the RESTful implementation.
+	 */
+	public static final String PARAM_UPLOAD_ID = "upload_id";
+	/**
+	 * The parameter for the number of a chunk of a resumable upload. This is
+	 * part of the URI for the RESTful implementation.
+	 */
+	public static final String PARAM_UPLOAD_CHUNK = "chunk";
+
+	/**
+	 * The content type for JSON request and response bodies.
+	 */
+	public static final String CONTENT_TYPE_JSON = "application/json";
+	/**
+	 * The content type for newline-delimited JSON response bodies.
+	 */
+	public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+	/**
+	 * The content type for CSV response bodies.
+	 */
+	public static final String CONTENT_TYPE_CSV = "text/csv";
+	
+	/**
+	 * The export format where each point is a JSON object on its own line.
+	 */
+	public static final String EXPORT_FORMAT_NDJSON = "ndjson";
+	/**
+	 * The export format where each point is a row of CSV.
+	 */
+	public static final String EXPORT_FORMAT_CSV = "csv";
 
 	/**
 	 * The header for the URL to the previous set of data for list requests.
@@ -187,6 +267,61 @@ public class Version1 {
 	 * The header for the URL to the next set of data for list requests.
 	 */
 	public static final String HEADER_NEXT = "Next";
+	/**
+	 * The header for the content types the client will accept.
+	 */
+	public static final String HEADER_ACCEPT = "Accept";
+	/**
+	 * The header for the content encodings the client will accept.
+	 */
+	public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	/**
+	 * The header for the content encoding of the response.
+	 */
+	public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	/**
+	 * The header for the entity tag of the response.
+	 */
+	public static final String HEADER_ETAG = "ETag";
+	/**
+	 * The header for the entity tags of the responses the client already
+	 * has.
+	 */
+	public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	/**
+	 * The header for how long and by whom the response may be cached.
+	 */
+	public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+	/**
+	 * The header for the request headers that the response depends on.
+	 */
+	public static final String HEADER_VARY = "Vary";
+	/**
+	 * The cache control for responses that never change, which may be cached
+	 * by anyone for a year.
+	 */
+	public static final String CACHE_CONTROL_IMMUTABLE =
+		"public, max-age=31536000";
+	/**
+	 * The content encoding for gzip-compressed response bodies.
+	 */
+	public static final String CONTENT_ENCODING_GZIP = "gzip";
+	
+	/**
+	 * The factory for parsers of uploaded BSON data.
+	 */
+	private static final JsonFactory BSON_FACTORY = new BsonFactory();
+	/**
+	 * The factory for generators of streamed JSON data.
+	 */
+	private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+	/**
+	 * The factory for generators of exported, newline-delimited JSON data.
+	 */
+	private static final JsonFactory NDJSON_FACTORY = new MappingJsonFactory();
+	static {
+		NDJSON_FACTORY.setRootValueSeparator("\n");
+	}
 	
 	/**
 	 * The encoding for the previous and next URLs.
@@ -1275,7 +1410,17 @@ public class Version1 {
 	 * @param response
 	 *        The HTTP response object.
 	 * 
-	 * @return The schema for the given schema ID-version pair.
+	 * @return The schema for the given schema ID-version pair. If the
+	 *         request's "Accept" header asks for
+	 *         {@link OmhBsonObjectMapper#CONTENT_TYPE}, it is returned as
+	 *         BSON. Otherwise, the JSON that was encoded when the schema was
+	 *         first requested is written, gzip-compressed if the client
+	 *         accepts it, and nothing is returned. Registered schemas never
+	 *         change, so the JSON has a strong {@link #HEADER_ETAG ETag} and
+	 *         may be {@link #CACHE_CONTROL_IMMUTABLE cached} for a long time.
+	 * 
+	 * @throws IOException
+	 *         The schema could not be written.
 	 */
 	@RequestMapping(
 		value =
@@ -1286,13 +1431,52 @@ public class Version1 {
 		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
 		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
 		final HttpServletRequest request,
-		final HttpServletResponse response) {
+		final HttpServletResponse response)
+		throws IOException {
 		
-		return
-			handleRequest(
-				request,
-				response,
-				new SchemaRequest(schemaId, version));
+		// BSON is not pre-encoded, so let Spring serialize it.
+		SchemaRequest schemaRequest = new SchemaRequest(schemaId, version);
+		String accept = request.getHeader(HEADER_ACCEPT);
+		if(
+			(accept != null) &&
+			accept.contains(OmhBsonObjectMapper.CONTENT_TYPE)) {
+			
+			return handleRequest(request, response, schemaRequest);
+		}
+		
+		// Get the encoded schema and add its meta-data as headers.
+		schemaRequest.service();
+		addHeaders(request, response, schemaRequest);
+		EncodedSchema schema = schemaRequest.getEncodedSchema();
+		
+		// Choose the representation.
+		String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+		boolean gzip =
+			(acceptEncoding != null) &&
+			acceptEncoding.contains(CONTENT_ENCODING_GZIP);
+		String eTag = (gzip) ? schema.getGzippedETag() : schema.getETag();
+		
+		// Allow the definition to be cached.
+		response.setHeader(HEADER_ETAG, eTag);
+		response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE);
+		response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+		
+		// If the client already has the definition, don't send it again.
+		if(matchesETag(request.getHeader(HEADER_IF_NONE_MATCH), eTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+		
+		// Write the encoded definition.
+		byte[] body = (gzip) ? schema.getGzippedJson() : schema.getJson();
+		response.setContentType(CONTENT_TYPE_JSON);
+		response.setCharacterEncoding(URL_ENCODING_UTF_8);
+		if(gzip) {
+			response.setHeader(HEADER_CONTENT_ENCODING, CONTENT_ENCODING_GZIP);
+		}
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+		return null;
 	}
 	
 	/**
@@ -1312,6 +1496,22 @@ public class Version1 {
 	 * @param columnList
 	 *        The list of columns to return to the user.
 	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the data to return as an ISO W3C
+	 *        date-time, inclusive.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the data to return as an ISO W3C
+	 *        date-time, inclusive.
+	 * 
+	 * @param cursor
+	 *        The token from the Next header of a previous page at which to
+	 *        continue reading.
+	 * 
+	 * @param includeCount
+	 *        Whether or not to count the total number of data points. This
+	 *        may only be disabled when paging with a cursor.
+	 * 
 	 * @param numToSkip
 	 *        The number of data points to skip to facilitate paging.
 	 * 
@@ -1325,7 +1525,19 @@ public class Version1 {
 	 *        The HTTP response object.
 	 * 
 	 * @return The data as a JSON array of JSON objects where each object
-	 *         represents a single data point.
+	 *         represents a single data point. If the request's "Accept"
+	 *         header asks for {@link OmhBsonObjectMapper#CONTENT_TYPE}, the
+	 *         same data is returned as BSON. Otherwise, the JSON is written
+	 *         as the points are read, which allows up to
+	 *         {@link DataReadRequest#MAX_NUMBER_TO_RETURN_STREAMED} points to
+	 *         be returned at once, and nothing is returned. The response has
+	 *         an {@link #HEADER_ETAG ETag} that changes whenever data is
+	 *         stored in the stream. If the request's
+	 *         {@link #HEADER_IF_NONE_MATCH If-None-Match} header matches it,
+	 *         the response is "304 Not Modified" and no data is read.
+	 * 
+	 * @throws IOException
+	 *         The data could not be written.
 	 * 
 	 * @see Data
 	 */
@@ -1343,6 +1555,23 @@ public class Version1 {
 			value = PARAM_COLUMN_LIST,
 			required = false)
 			final List<String> columnList,
+		@RequestParam(
+			value = PARAM_DATE_START,
+			required = false)
+			final String startDate,
+		@RequestParam(
+			value = PARAM_DATE_END,
+			required = false)
+			final String endDate,
+		@RequestParam(
+			value = PARAM_PAGING_CURSOR,
+			required = false)
+			final String cursor,
+		@RequestParam(
+			value = PARAM_PAGING_INCLUDE_COUNT,
+			required = false,
+			defaultValue = "true")
+			final boolean includeCount,
 		@RequestParam(
 			value = PARAM_PAGING_NUM_TO_SKIP,
 			required = false,
@@ -1354,14 +1583,107 @@ public class Version1 {
 			defaultValue = ListRequest.DEFAULT_NUMBER_TO_RETURN_STRING)
 			final long numToReturn,
 		final HttpServletRequest request,
-		final HttpServletResponse response) {
+		final HttpServletResponse response)
+		throws IOException {
+		
+		// BSON documents must be complete before they can be written, so
+		// there is no benefit to streaming them.
+		String accept = request.getHeader(HEADER_ACCEPT);
+		boolean streamed =
+			(accept == null) ||
+			(! accept.contains(OmhBsonObjectMapper.CONTENT_TYPE));
 
-		// Handle the request.
-		return 
+		// Build the request.
+		DataReadRequest dataRequest =
+			new DataReadRequest(
+				(AuthenticationToken)
+					request
+						.getAttribute(
+							AuthFilter
+								.ATTRIBUTE_AUTHENTICATION_TOKEN),
+				(AuthorizationToken)
+					request
+						.getAttribute(
+							AuthFilter
+								.ATTRIBUTE_AUTHORIZATION_TOKEN),
+				schemaId,
+				version,
+				owner,
+				columnList,
+				startDate,
+				endDate,
+				cursor,
+				includeCount,
+				streamed,
+				numToSkip,
+				numToReturn);
+		
+		// If the client already has this page, don't read it again.
+		String eTag = dataRequest.getETag();
+		response.setHeader(HEADER_ETAG, eTag);
+		if(matchesETag(request.getHeader(HEADER_IF_NONE_MATCH), eTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+		
+		// If the data isn't being streamed, let Spring serialize it.
+		if(! streamed) {
+			return handleRequest(request, response, dataRequest);
+		}
+		
+		// Otherwise, write the data as it is read.
+		DataResponseWriter writer =
+			new DataResponseWriter(request, response, dataRequest);
+		dataRequest.stream(writer);
+		writer.end();
+		return null;
+	}
+	
+	/**
+	 * Retrieves a page of data from each of several of a user's streams at
+	 * once. The streams are read at the same time, so a client that needs
+	 * several streams does not have to read them one after another.
+	 * 
+	 * @param owner
+	 *        The user that owns the desired data.
+	 * 
+	 * @param request
+	 *        The HTTP request object whose body should be a JSON array of the
+	 *        streams to read. Each stream is a JSON object with the same keys
+	 *        as the parameters of {@link #getData(String, Long, String, List,
+	 *        String, String, String, boolean, long, long, HttpServletRequest,
+	 *        HttpServletResponse) a single read}, including
+	 *        {@link #PARAM_SCHEMA_ID} and {@link #PARAM_SCHEMA_VERSION}.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @return A JSON array with a page of data for each stream, in the same
+	 *         order as the streams were given.
+	 * 
+	 * @throws IOException
+	 *         The body of the request could not be read.
+	 * 
+	 * @see DataPage
+	 */
+	@RequestMapping(
+		value = "data/batch",
+		method = RequestMethod.POST,
+		consumes = CONTENT_TYPE_JSON)
+	public @ResponseBody List<DataPage> getDataBatch(
+		@RequestParam(
+			value = PARAM_OWNER,
+			required = false)
+			final String owner,
+		final HttpServletRequest request,
+		final HttpServletResponse response)
+		throws IOException {
+		
+		return
 			handleRequest(
 				request,
 				response,
-				new DataReadRequest(
+				new DataBatchReadRequest(
 					(AuthenticationToken)
 						request
 							.getAttribute(
@@ -1372,93 +1694,772 @@ public class Version1 {
 							.getAttribute(
 								AuthFilter
 									.ATTRIBUTE_AUTHORIZATION_TOKEN),
-					schemaId,
-					version,
 					owner,
-					columnList,
-					numToSkip,
-					numToReturn));
+					request.getInputStream()));
 	}
 	
 	/**
-	 * Writes the requested data.
+	 * Summarizes the requested data by periods of time. This is the same path
+	 * as {@link #getData(String, Long, String, List, String, String, String,
+	 * boolean, long, long, HttpServletRequest, HttpServletResponse)
+	 * reading the data}, but with the {@link #PARAM_SUMMARIZE} parameter.
 	 * 
 	 * @param schemaId
-	 *        The ID for the schema to which the data pertains.
+	 *        The ID for the schema to which the data pertains. This is part of
+	 *        the request's path.
 	 * 
 	 * @param version
-	 *        The version of the schema to which the data pertains.
-	 *        
-	 * @param data
-	 *        The data to be uploaded, which should be a JSON array of JSON
-	 *        objects where each object is a single data point.
+	 *        The version of the schema to which the data pertains. This is
+	 *        part of the request's path.
+	 * 
+	 * @param owner
+	 *        The user that owns the desired data.
+	 * 
+	 * @param columnList
+	 *        The numeric fields of the data to summarize.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the data to summarize as an ISO W3C
+	 *        date-time, inclusive.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the data to summarize as an ISO W3C
+	 *        date-time, inclusive.
+	 * 
+	 * @param period
+	 *        The length of time that each summary covers, e.g. "hour".
+	 * 
+	 * @param timeZone
+	 *        The ID of the time zone to whose local time the periods are
+	 *        aligned, e.g. "America/Los_Angeles". The default is UTC.
+	 * 
+	 * @param numToSkip
+	 *        The number of periods to skip to facilitate paging.
+	 * 
+	 * @param numToReturn
+	 *        The number of periods to return to facilitate paging.
 	 *        
 	 * @param request
 	 *        The HTTP request object.
 	 * 
 	 * @param response
 	 *        The HTTP response object.
+	 * 
+	 * @return The summaries as a JSON array of JSON objects, the most recent
+	 *         period first. Only periods that contain data are returned.
+	 * 
+	 * @see DataSummary
 	 */
 	@RequestMapping(
 		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
-		method = RequestMethod.POST)
-	public void putData(
+		method = RequestMethod.GET,
+		params = PARAM_SUMMARIZE)
+	public @ResponseBody MultiValueResult<DataSummary> getDataSummary(
 		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
 		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
 		@RequestParam(
-			value = PARAM_DATA,
+			value = PARAM_OWNER,
+			required = false)
+			final String owner,
+		@RequestParam(
+			value = PARAM_COLUMN_LIST,
+			required = false)
+			final List<String> columnList,
+		@RequestParam(
+			value = PARAM_DATE_START,
+			required = false)
+			final String startDate,
+		@RequestParam(
+			value = PARAM_DATE_END,
+			required = false)
+			final String endDate,
+		@RequestParam(
+			value = PARAM_SUMMARIZE,
 			required = true)
-			final String data,
+			final String period,
+		@RequestParam(
+			value = PARAM_TIME_ZONE,
+			required = false)
+			final String timeZone,
+		@RequestParam(
+			value = PARAM_PAGING_NUM_TO_SKIP,
+			required = false,
+			defaultValue = ListRequest.DEFAULT_NUMBER_TO_SKIP_STRING)
+			final long numToSkip,
+		@RequestParam(
+			value = PARAM_PAGING_NUM_TO_RETURN,
+			required = false,
+			defaultValue = ListRequest.DEFAULT_NUMBER_TO_RETURN_STRING)
+			final long numToReturn,
 		final HttpServletRequest request,
 		final HttpServletResponse response) {
 		
-		// Make sure the authentication token was a parameter. This prevents
-		// malicious code from "hijacking" the token by performing a POST and
-		// having the browser inject it as only a cookie.
-		Object authenticationTokenIsParam =
-			request
-				.getAttribute(
-					AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN_IS_PARAM);
-		if(
-			(authenticationTokenIsParam == null) || 
-			(! ((Boolean) authenticationTokenIsParam))) {
-			
-			throw
-				new OmhException(
-					"To upload data, the authentication token is required " +
-						"as a parameter.");
-		}
-		
-		// Get the authentication token.
-		AuthenticationToken authToken =
-			(AuthenticationToken)
-				request
-					.getAttribute(
-						AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN);
-		
-		// Handle the request.
-		handleRequest(
-			request,
-			response,
-			new DataWriteRequest(
-				authToken,
-				schemaId,
-				version,
-				data));
+		return
+			handleRequest(
+				request,
+				response,
+				new DataSummaryRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					(AuthorizationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHORIZATION_TOKEN),
+					schemaId,
+					version,
+					owner,
+					columnList,
+					startDate,
+					endDate,
+					period,
+					timeZone,
+					numToSkip,
+					numToReturn));
 	}
 	
 	/**
-	 * Handles a request then sets the meta-data as HTTP headers and returns
-	 * the data to be returned to the user.
+	 * Exports all of the requested data, which may be limited to a range of
+	 * time, as newline-delimited JSON or as CSV. The data is read a page at a
+	 * time, each continuing from the previous page's cursor, and written as
+	 * it is read, so a stream of any size takes the same amount of memory.
+	 * If the request's "Accept-Encoding" header allows it, the response is
+	 * compressed with gzip.
 	 * 
-	 * @param httpRequest
-	 *        The HTTP request.
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains. This is part of
+	 *        the request's path.
 	 * 
-	 * @param httpResponse
-	 *        The HTTP response.
+	 * @param version
+	 *        The version of the schema to which the data pertains. This is
+	 *        part of the request's path.
+	 * 
+	 * @param owner
+	 *        The user that owns the desired data.
+	 * 
+	 * @param columnList
+	 *        The list of columns to return to the user. For CSV, these also
+	 *        limit the columns that are derived from the schema.
+	 * 
+	 * @param startDate
+	 *        The earliest timestamp of the data to return as an ISO W3C
+	 *        date-time, inclusive.
+	 * 
+	 * @param endDate
+	 *        The latest timestamp of the data to return as an ISO W3C
+	 *        date-time, inclusive.
+	 * 
+	 * @param format
+	 *        The format of the export, either {@link #EXPORT_FORMAT_NDJSON}
+	 *        or {@link #EXPORT_FORMAT_CSV}.
 	 * 
 	 * @param request
-	 *        The already-built, domain-specific request to be serviced.
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @throws IOException
+	 *         The data could not be written.
+	 * 
+	 * @see CsvDataWriter
+	 */
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}" +
+				"/data/export",
+		method = RequestMethod.GET)
+	public void exportData(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestParam(
+			value = PARAM_OWNER,
+			required = false)
+			final String owner,
+		@RequestParam(
+			value = PARAM_COLUMN_LIST,
+			required = false)
+			final List<String> columnList,
+		@RequestParam(
+			value = PARAM_DATE_START,
+			required = false)
+			final String startDate,
+		@RequestParam(
+			value = PARAM_DATE_END,
+			required = false)
+			final String endDate,
+		@RequestParam(
+			value = PARAM_EXPORT_FORMAT,
+			required = false,
+			defaultValue = EXPORT_FORMAT_NDJSON)
+			final String format,
+		final HttpServletRequest request,
+		final HttpServletResponse response)
+		throws IOException {
+		
+		// Validate the format.
+		boolean csv;
+		if(EXPORT_FORMAT_NDJSON.equals(format)) {
+			csv = false;
+		}
+		else if(EXPORT_FORMAT_CSV.equals(format)) {
+			csv = true;
+		}
+		else {
+			throw new OmhException("The export format is unknown: " + format);
+		}
+		
+		// Determine if the response may be compressed.
+		String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+		boolean gzip =
+			(acceptEncoding != null) &&
+			acceptEncoding.contains(CONTENT_ENCODING_GZIP);
+		
+		// Read the data one page at a time, continuing from each page's
+		// cursor, until there is no more.
+		DataExportWriter writer =
+			new DataExportWriter(response, schemaId, version, columnList, csv, gzip);
+		String cursor = null;
+		do {
+			DataReadRequest page =
+				new DataReadRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					(AuthorizationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHORIZATION_TOKEN),
+					schemaId,
+					version,
+					owner,
+					columnList,
+					startDate,
+					endDate,
+					cursor,
+					false,
+					true,
+					null,
+					DataReadRequest.MAX_NUMBER_TO_RETURN_STREAMED);
+			page.stream(writer);
+			cursor = page.getNextCursor();
+		} while(cursor != null);
+		writer.end();
+	}
+	
+	/**
+	 * Retrieves a third-party's view of a cohort's data, i.e. the data of one
+	 * schema from every user who granted the third-party access to it. The
+	 * third-party is identified by its authorization token. The first page
+	 * takes a snapshot of the data and of the users who had granted access,
+	 * and the Next header's cursor continues from that snapshot, so paging
+	 * through the cohort neither skips nor repeats points while new data is
+	 * being stored.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains. This is part of
+	 *        the request's path.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains. This is
+	 *        part of the request's path.
+	 * 
+	 * @param owners
+	 *        The users whose data should be read, each of whom must have
+	 *        granted access. If this is omitted, the data of every user who
+	 *        granted access is read.
+	 * 
+	 * @param columnList
+	 *        The list of columns to return to the third-party.
+	 * 
+	 * @param cursor
+	 *        The token from the Next header of a previous page at which to
+	 *        continue reading.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return to facilitate paging.
+	 * 
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @return The data as a JSON array of JSON objects where each object
+	 *         represents a single data point. The points are grouped by their
+	 *         owners in the order of the owners' usernames.
+	 * 
+	 * @see CohortReadRequest
+	 */
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}" +
+				"/data/cohort",
+		method = RequestMethod.GET)
+	public @ResponseBody MultiValueResult<Data> getCohortData(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestParam(
+			value = PARAM_OWNER,
+			required = false)
+			final List<String> owners,
+		@RequestParam(
+			value = PARAM_COLUMN_LIST,
+			required = false)
+			final List<String> columnList,
+		@RequestParam(
+			value = PARAM_PAGING_CURSOR,
+			required = false)
+			final String cursor,
+		@RequestParam(
+			value = PARAM_PAGING_NUM_TO_RETURN,
+			required = false,
+			defaultValue = ListRequest.DEFAULT_NUMBER_TO_RETURN_STRING)
+			final long numToReturn,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+		
+		return
+			handleRequest(
+				request,
+				response,
+				new CohortReadRequest(
+					(AuthorizationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHORIZATION_TOKEN),
+					schemaId,
+					version,
+					owners,
+					columnList,
+					cursor,
+					numToReturn));
+	}
+	
+	/**
+	 * Writes the requested data.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *        
+	 * @param data
+	 *        The data to be uploaded, which should be a JSON array of JSON
+	 *        objects where each object is a single data point.
+	 *        
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST)
+	public void putData(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestParam(
+			value = PARAM_DATA,
+			required = true)
+			final String data,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+		
+		// Handle the request.
+		handleWriteRequest(
+			request,
+			response,
+			new DataWriteRequest(
+				getUploadAuthenticationToken(request),
+				schemaId,
+				version,
+				data));
+	}
+	
+	/**
+	 * Writes the requested data, which is given as the body of the request
+	 * instead of as a parameter. The data is read and stored as it arrives,
+	 * so this should be preferred for large uploads.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *        
+	 * @param request
+	 *        The HTTP request object whose body should be a JSON array of
+	 *        JSON objects where each object is a single data point.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @throws IOException
+	 *         The body of the request could not be read.
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST,
+		consumes = CONTENT_TYPE_JSON)
+	public void putDataStream(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		final HttpServletRequest request,
+		final HttpServletResponse response)
+		throws IOException {
+		
+		// Handle the request.
+		handleWriteRequest(
+			request,
+			response,
+			new DataWriteRequest(
+				getUploadAuthenticationToken(request),
+				schemaId,
+				version,
+				request.getInputStream()));
+	}
+	
+	/**
+	 * Writes the requested data, which is given as the BSON body of the
+	 * request. The data has the same shape as it would in JSON except that,
+	 * because BSON cannot have a top-level array, the points may be given as
+	 * the values of a document, e.g. one whose keys are "0", "1", etc. The
+	 * data is read and stored as it arrives.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *        
+	 * @param request
+	 *        The HTTP request object whose body should be a BSON document of
+	 *        data points.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @throws IOException
+	 *         The body of the request could not be read.
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST,
+		consumes = OmhBsonObjectMapper.CONTENT_TYPE)
+	public void putDataBson(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		final HttpServletRequest request,
+		final HttpServletResponse response)
+		throws IOException {
+		
+		// Handle the request.
+		handleWriteRequest(
+			request,
+			response,
+			new DataWriteRequest(
+				getUploadAuthenticationToken(request),
+				schemaId,
+				version,
+				request.getInputStream(),
+				BSON_FACTORY));
+	}
+	
+	/**
+	 * Opens a resumable upload. The data is then sent in numbered chunks with
+	 * {@link #putUploadChunk(String, Long, String, Long, HttpServletRequest,
+	 * HttpServletResponse)} and stored with
+	 * {@link #finalizeUpload(String, Long, String, HttpServletRequest,
+	 * HttpServletResponse)}.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 * 
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @return The state of the new upload, which includes its ID.
+	 */
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}" +
+				"/data/uploads",
+		method = RequestMethod.POST)
+	public @ResponseBody UploadSession openUpload(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+		
+		// Handle the request.
+		return
+			handleRequest(
+				request,
+				response,
+				new UploadOpenRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version));
+	}
+	
+	/**
+	 * Retrieves the state of a resumable upload, which includes the number of
+	 * the next chunk that should be sent and the number of bytes that have
+	 * been committed.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @return The state of the upload.
+	 */
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}" +
+				"/data/uploads/{" + PARAM_UPLOAD_ID + "}",
+		method = RequestMethod.GET)
+	public @ResponseBody UploadSession getUpload(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@PathVariable(PARAM_UPLOAD_ID) final String uploadId,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+		
+		// Handle the request.
+		return
+			handleRequest(
+				request,
+				response,
+				new UploadStatusRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					schemaId,
+					version,
+					uploadId));
+	}
+	
+	/**
+	 * Commits a chunk of a resumable upload. The body of the request is the
+	 * chunk's bytes. Chunks must be sent in order, starting at zero, but a
+	 * chunk that was already committed may be sent again and is ignored.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @param chunk
+	 *        The number of the chunk.
+	 * 
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 * 
+	 * @return The state of the upload after the chunk was committed.
+	 * 
+	 * @throws IOException
+	 *         The body of the request could not be read.
+	 */
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}" +
+				"/data/uploads/{" + PARAM_UPLOAD_ID + "}" +
+				"/{" + PARAM_UPLOAD_CHUNK + "}",
+		method = RequestMethod.PUT)
+	public @ResponseBody UploadSession putUploadChunk(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@PathVariable(PARAM_UPLOAD_ID) final String uploadId,
+		@PathVariable(PARAM_UPLOAD_CHUNK) final Long chunk,
+		final HttpServletRequest request,
+		final HttpServletResponse response)
+		throws IOException {
+		
+		// Handle the request.
+		return
+			handleRequest(
+				request,
+				response,
+				new UploadChunkRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version,
+					uploadId,
+					chunk,
+					request.getInputStream()));
+	}
+	
+	/**
+	 * Finalizes a resumable upload. The committed chunks are validated and
+	 * stored as if they had been uploaded as a single stream, and then the
+	 * upload is marked as finalized. Finalizing it again returns the same
+	 * result without storing the data again. If storing the data was
+	 * deferred, the status of the response is set to
+	 * {@link HttpServletResponse#SC_ACCEPTED}.
+	 * 
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 * 
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 * 
+	 * @param uploadId
+	 *        The upload's ID.
+	 * 
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @param response
+	 *        The HTTP response object.
+	 */
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}" +
+				"/data/uploads/{" + PARAM_UPLOAD_ID + "}",
+		method = RequestMethod.POST)
+	public void finalizeUpload(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@PathVariable(PARAM_UPLOAD_ID) final String uploadId,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+		
+		// Build the request.
+		UploadFinalizeRequest finalizeRequest =
+			new UploadFinalizeRequest(
+				getUploadAuthenticationToken(request),
+				schemaId,
+				version,
+				uploadId);
+		
+		// Handle the request.
+		handleRequest(request, response, finalizeRequest);
+		
+		// If the data will be stored later, indicate that it was only
+		// accepted.
+		if(finalizeRequest.isDeferred()) {
+			response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		}
+	}
+	
+	/**
+	 * Handles a request to write data. If storing the data was deferred, the
+	 * status of the response is set to
+	 * {@link HttpServletResponse#SC_ACCEPTED}.
+	 * 
+	 * @param httpRequest
+	 *        The HTTP request.
+	 * 
+	 * @param httpResponse
+	 *        The HTTP response.
+	 * 
+	 * @param request
+	 *        The already-built request to write the data.
+	 */
+	private void handleWriteRequest(
+		final HttpServletRequest httpRequest,
+		final HttpServletResponse httpResponse,
+		final DataWriteRequest request) {
+		
+		// Handle the request.
+		handleRequest(httpRequest, httpResponse, request);
+		
+		// If the data will be stored later, indicate that it was only
+		// accepted.
+		if(request.isDeferred()) {
+			httpResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+		}
+	}
+	
+	/**
+	 * Retrieves the authentication token for a request that is uploading
+	 * data. The token must have been given as a parameter. This prevents
+	 * malicious code from "hijacking" the token by performing a POST and
+	 * having the browser inject it as only a cookie.
+	 * 
+	 * @param request
+	 *        The HTTP request object.
+	 * 
+	 * @return The authentication token for the requesting user.
+	 * 
+	 * @throws OmhException
+	 *         The authentication token was not given as a parameter.
+	 */
+	private AuthenticationToken getUploadAuthenticationToken(
+		final HttpServletRequest request)
+		throws OmhException {
+		
+		// Make sure the authentication token was a parameter.
+		Object authenticationTokenIsParam =
+			request
+				.getAttribute(
+					AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN_IS_PARAM);
+		if(
+			(authenticationTokenIsParam == null) || 
+			(! ((Boolean) authenticationTokenIsParam))) {
+			
+			throw
+				new OmhException(
+					"To upload data, the authentication token is required " +
+						"as a parameter.");
+		}
+		
+		// Return the authentication token.
+		return
+			(AuthenticationToken)
+				request
+					.getAttribute(
+						AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN);
+	}
+	
+	/**
+	 * Handles a request then sets the meta-data as HTTP headers and returns
+	 * the data to be returned to the user.
+	 * 
+	 * @param httpRequest
+	 *        The HTTP request.
+	 * 
+	 * @param httpResponse
+	 *        The HTTP response.
+	 * 
+	 * @param request
+	 *        The already-built, domain-specific request to be serviced.
 	 * 
 	 * @return The object to be returned to the user.
 	 */
@@ -1470,6 +2471,64 @@ public class Version1 {
 		// Service the request.
 		request.service();
 		
+		// Add the headers.
+		addHeaders(httpRequest, httpResponse, request);
+		
+		// Return the data.
+		return request.getData();
+	}
+	
+	/**
+	 * Returns whether or not an If-None-Match header matches an entity tag.
+	 * The comparison is weak, so a tag matches even if the client has it
+	 * marked as weak.
+	 * 
+	 * @param ifNoneMatch
+	 *        The value of the If-None-Match header, which may be null.
+	 * 
+	 * @param eTag
+	 *        The entity tag, including its quotes.
+	 * 
+	 * @return Whether or not the header matches the tag.
+	 */
+	private static boolean matchesETag(
+		final String ifNoneMatch,
+		final String eTag) {
+		
+		if(ifNoneMatch == null) {
+			return false;
+		}
+		
+		for(String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if(candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if(candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds a serviced request's meta-data as HTTP headers and, if it is a
+	 * list request, its previous and next headers.
+	 * 
+	 * @param httpRequest
+	 *        The HTTP request.
+	 * 
+	 * @param httpResponse
+	 *        The HTTP response.
+	 * 
+	 * @param request
+	 *        The request that has been serviced.
+	 */
+	private void addHeaders(
+		final HttpServletRequest httpRequest,
+		final HttpServletResponse httpResponse,
+		final Request<?> request) {
+		
 		// Retrieve the meta-data and add it as HTTP headers.
 		Map<String, Object> metaData = request.getMetaData();
 		if(metaData != null) {
@@ -1489,9 +2548,6 @@ public class Version1 {
 				httpResponse,
 				(ListRequest<?>) request);
 		}
-		
-		// Return the data.
-		return request.getData();
 	}
 	
 	/**
@@ -1578,6 +2634,58 @@ public class Version1 {
 		Map<String, String> parameters =
 			listRequest.getPreviousNextParameters();
 		
+		// If the request is paged with a cursor, there is only a Next header,
+		// which continues from the cursor.
+		if(listRequest.isCursorPaged()) {
+			String nextCursor = listRequest.getNextCursor();
+			if(nextCursor == null) {
+				return;
+			}
+			
+			// Add the paging parameters to the custom ones.
+			Map<String, String> nextParameters =
+				new LinkedHashMap<String, String>(parameters);
+			nextParameters.put(PARAM_PAGING_CURSOR, nextCursor);
+			nextParameters
+				.put(
+					PARAM_PAGING_NUM_TO_RETURN,
+					Long.toString(listRequest.getNumToReturn()));
+			
+			// Build the URL.
+			StringBuilder nextBuilder =
+				new StringBuilder(buildRequestUrl(httpRequest));
+			char separator = '?';
+			try {
+				for(String parameterKey : nextParameters.keySet()) {
+					nextBuilder
+						.append(separator)
+						.append(
+							URLEncoder
+								.encode(parameterKey, URL_ENCODING_UTF_8))
+						.append('=')
+						.append(
+							URLEncoder
+								.encode(
+									nextParameters.get(parameterKey),
+									URL_ENCODING_UTF_8));
+					separator = '&';
+				}
+			}
+			catch(UnsupportedEncodingException e) {
+				LOGGER
+					.log(
+						Level.SEVERE,
+						"The encoding is unknown so the " + 
+							HEADER_NEXT + 
+							" header could not be built.");
+				return;
+			}
+			
+			// Add the next header.
+			httpResponse.setHeader(HEADER_NEXT, nextBuilder.toString());
+			return;
+		}
+		
 		// If we skipped any data, create a Previous header.
 		if(listRequest.getNumToSkip() > 0) {
 			// Build the base URL.
@@ -1766,4 +2874,266 @@ public class Version1 {
 				.setHeader(HEADER_NEXT, nextBuilder.toString());
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * <p>
+	 * Writes data to an HTTP response as a JSON array as it is read. The
+	 * headers are added once the page has been counted and positioned, which
+	 * is before any of the data is written.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private class DataResponseWriter implements DataSet.DataHandler {
+		/**
+		 * The HTTP request.
+		 */
+		private final HttpServletRequest httpRequest;
+		/**
+		 * The HTTP response.
+		 */
+		private final HttpServletResponse httpResponse;
+		/**
+		 * The request whose data is being written.
+		 */
+		private final DataReadRequest request;
+		/**
+		 * The generator for the response's body, which is created when the
+		 * page begins.
+		 */
+		private JsonGenerator generator = null;
+		
+		/**
+		 * Creates a writer for a request's data.
+		 * 
+		 * @param httpRequest
+		 *        The HTTP request.
+		 * 
+		 * @param httpResponse
+		 *        The HTTP response.
+		 * 
+		 * @param request
+		 *        The request whose data is being written.
+		 */
+		public DataResponseWriter(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final DataReadRequest request) {
+			
+			this.httpRequest = httpRequest;
+			this.httpResponse = httpResponse;
+			this.request = request;
+		}
+		
+		/**
+		 * Adds the headers and begins the JSON array.
+		 */
+		@Override
+		public void begin(
+			final int count,
+			final DataCursor nextCursor)
+			throws IOException {
+			
+			addHeaders(httpRequest, httpResponse, request);
+			
+			httpResponse.setContentType(CONTENT_TYPE_JSON);
+			httpResponse.setCharacterEncoding(URL_ENCODING_UTF_8);
+			generator =
+				JSON_FACTORY.createGenerator(httpResponse.getOutputStream());
+			generator.writeStartArray();
+		}
+		
+		/**
+		 * Writes the point to the JSON array.
+		 */
+		@Override
+		public void handle(final Data point) throws IOException {
+			generator.writeObject(point);
+		}
+		
+		/**
+		 * Ends the JSON array and flushes the response.
+		 * 
+		 * @throws IOException
+		 *         The response could not be written.
+		 */
+		public void end() throws IOException {
+			generator.writeEndArray();
+			generator.close();
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Writes exported data to an HTTP response as it is read. The response
+	 * begins with the first page, and every later page is appended to it.
+	 * </p>
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class DataExportWriter implements DataSet.DataHandler {
+		/**
+		 * The HTTP response.
+		 */
+		private final HttpServletResponse httpResponse;
+		/**
+		 * The ID of the data's schema.
+		 */
+		private final String schemaId;
+		/**
+		 * The version of the data's schema.
+		 */
+		private final long version;
+		/**
+		 * The columns that were requested or null.
+		 */
+		private final List<String> columnList;
+		/**
+		 * Whether the data is written as CSV instead of as newline-delimited
+		 * JSON.
+		 */
+		private final boolean csv;
+		/**
+		 * Whether or not the response is compressed with gzip.
+		 */
+		private final boolean gzip;
+		
+		/**
+		 * The stream to which the response's body is written, which is
+		 * created when the first page begins.
+		 */
+		private OutputStream output = null;
+		/**
+		 * The generator for newline-delimited JSON.
+		 */
+		private JsonGenerator generator = null;
+		/**
+		 * The writer for CSV.
+		 */
+		private CsvDataWriter csvWriter = null;
+		
+		/**
+		 * Creates a writer for exported data.
+		 * 
+		 * @param httpResponse
+		 *        The HTTP response.
+		 * 
+		 * @param schemaId
+		 *        The ID of the data's schema.
+		 * 
+		 * @param version
+		 *        The version of the data's schema.
+		 * 
+		 * @param columnList
+		 *        The columns that were requested or null.
+		 * 
+		 * @param csv
+		 *        Whether the data is written as CSV instead of as
+		 *        newline-delimited JSON.
+		 * 
+		 * @param gzip
+		 *        Whether or not the response is compressed with gzip.
+		 */
+		public DataExportWriter(
+			final HttpServletResponse httpResponse,
+			final String schemaId,
+			final long version,
+			final List<String> columnList,
+			final boolean csv,
+			final boolean gzip) {
+			
+			this.httpResponse = httpResponse;
+			this.schemaId = schemaId;
+			this.version = version;
+			this.columnList = columnList;
+			this.csv = csv;
+			this.gzip = gzip;
+		}
+		
+		/**
+		 * Begins the response if this is the first page.
+		 */
+		@Override
+		public void begin(
+			final int count,
+			final DataCursor nextCursor)
+			throws IOException {
+			
+			if(output != null) {
+				return;
+			}
+			
+			// Set the headers.
+			httpResponse
+				.setContentType((csv) ? CONTENT_TYPE_CSV : CONTENT_TYPE_NDJSON);
+			httpResponse.setCharacterEncoding(URL_ENCODING_UTF_8);
+			if(gzip) {
+				httpResponse
+					.setHeader(HEADER_CONTENT_ENCODING, CONTENT_ENCODING_GZIP);
+				output = new GZIPOutputStream(httpResponse.getOutputStream());
+			}
+			else {
+				output = httpResponse.getOutputStream();
+			}
+			
+			// Create the writer for the format. The CSV's columns come from
+			// the schema, which is known to exist once the first page has
+			// begun.
+			if(csv) {
+				Schema schema =
+					Registry
+						.getInstance()
+						.getSchemas(schemaId, version, 0, 1)
+						.iterator()
+						.next();
+				csvWriter =
+					new CsvDataWriter(
+						new BufferedWriter(
+							new OutputStreamWriter(output, URL_ENCODING_UTF_8)),
+						CsvDataWriter
+							.getColumns(
+								schema.getSchema().getSchema(),
+								new ColumnList(columnList)));
+				csvWriter.writeHeader();
+			}
+			else {
+				generator = NDJSON_FACTORY.createGenerator(output);
+			}
+		}
+		
+		/**
+		 * Writes the point.
+		 */
+		@Override
+		public void handle(final Data point) throws IOException {
+			if(csv) {
+				csvWriter.write(point);
+			}
+			else {
+				generator.writeObject(point);
+			}
+		}
+		
+		/**
+		 * Ends the response. If there was no data, the response is empty.
+		 * 
+		 * @throws IOException
+		 *         The response could not be written.
+		 */
+		public void end() throws IOException {
+			if(csv) {
+				csvWriter.flush();
+			}
+			else {
+				if(generator.getOutputContext().getEntryCount() > 0) {
+					generator.writeRaw('\n');
+				}
+				generator.flush();
+			}
+			if(gzip) {
+				((GZIPOutputStream) output).finish();
+			}
+			output.flush();
+		}
+	}
+}
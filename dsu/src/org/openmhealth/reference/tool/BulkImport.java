@@ -0,0 +1,702 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.tool;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.openmhealth.reference.data.Dao;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.listener.DatabaseSetup;
+import org.openmhealth.reference.request.DataWriteRequest;
+import org.openmhealth.reference.util.ParallelValidator;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * <p>
+ * A command-line tool that loads data from files directly into the
+ * configured {@link DataSet}, bypassing the web application. It is meant for
+ * migrating existing studies, where sending the data through the data
+ * endpoint would be far too slow.
+ * </p>
+ * 
+ * <p>
+ * Each file is either a JSON array of points or newline-delimited JSON, i.e.
+ * one point per line, and may be gzipped if its name ends in ".gz". Points
+ * have the same shape as they do when they are uploaded, and every point in
+ * an import belongs to the same owner and schema.
+ * </p>
+ * 
+ * <p>
+ * The points are validated in parallel by the {@link ParallelValidator} and
+ * stored in large batches through {@link DataSet#storeData(List)}, which
+ * uses the database's bulk insert. Each batch is stored on a separate thread
+ * while the next one is being read and validated. The ingest journal and
+ * deduplicator are not used.
+ * </p>
+ * 
+ * <p>
+ * If a checkpoint file is given, it records how many points from each file
+ * have been stored. Rerunning the same import skips those points, so an
+ * import that failed or was stopped can be restarted where it left off.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * </p>
+ * 
+ * <pre>
+ * java -jar omh-import.jar
+ *     -config &lt;file&gt; [-config &lt;file&gt; ...]
+ *     -owner &lt;username&gt;
+ *     -schema &lt;schema ID&gt;
+ *     -version &lt;schema version&gt;
+ *     [-checkpoint &lt;file&gt;]
+ *     [-batch &lt;points&gt;]
+ *     [-progress &lt;seconds&gt;]
+ *     &lt;file&gt; [&lt;file&gt; ...]
+ * </pre>
+ * 
+ * <p>
+ * The configuration files are the same as the web application's, e.g. its
+ * default.conf followed by /etc/omh.conf, and are read in order.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class BulkImport {
+	/**
+	 * The default number of points that are validated and stored together.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	/**
+	 * The default number of seconds between progress reports.
+	 */
+	public static final long DEFAULT_PROGRESS_INTERVAL = 10;
+	
+	/**
+	 * The exit status when the import failed.
+	 */
+	private static final int EXIT_FAILURE = 1;
+	/**
+	 * The exit status when the arguments were invalid.
+	 */
+	private static final int EXIT_USAGE = 2;
+	
+	/**
+	 * The extension of files that are gzipped.
+	 */
+	private static final String EXTENSION_GZIP = ".gz";
+	/**
+	 * The size of the buffer used to read the files.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The factory for the parsers that read the files.
+	 */
+	private static final MappingJsonFactory JSON_FACTORY =
+		new MappingJsonFactory();
+	
+	/**
+	 * The usage message.
+	 */
+	private static final String USAGE =
+		"Usage: java -jar omh-import.jar\n" +
+			"    -config <file> [-config <file> ...]\n" +
+			"    -owner <username>\n" +
+			"    -schema <schema ID>\n" +
+			"    -version <schema version>\n" +
+			"    [-checkpoint <file>]\n" +
+			"    [-batch <points>]\n" +
+			"    [-progress <seconds>]\n" +
+			"    <file> [<file> ...]";
+	
+	/**
+	 * The validation that converts each JSON object into a data point.
+	 */
+	private final ParallelValidator.Validation<ObjectNode, Data> validation;
+	/**
+	 * The record of which points have already been stored.
+	 */
+	private final ImportCheckpoint checkpoint;
+	/**
+	 * The number of points that are validated and stored together.
+	 */
+	private final int batchSize;
+	/**
+	 * The number of milliseconds between progress reports.
+	 */
+	private final long progressInterval;
+	/**
+	 * Where the progress and summary are reported.
+	 */
+	private final PrintStream out;
+	
+	/**
+	 * The thread that stores the batches.
+	 */
+	private final ExecutorService writer =
+		Executors.newSingleThreadExecutor();
+	/**
+	 * The batch that is currently being stored or null if no batch is being
+	 * stored.
+	 */
+	private Future<?> pending = null;
+	
+	/**
+	 * The time at which the import started.
+	 */
+	private long startTime;
+	/**
+	 * The time of the last progress report.
+	 */
+	private long lastReportTime;
+	/**
+	 * The number of points that have been stored by this run.
+	 */
+	private long stored = 0;
+	/**
+	 * The number of points that were skipped because a previous run had
+	 * already stored them.
+	 */
+	private long skipped = 0;
+	
+	/**
+	 * Creates an importer.
+	 * 
+	 * @param owner
+	 *        The username of the user that owns the points.
+	 * 
+	 * @param schema
+	 *        The schema for all of the points.
+	 * 
+	 * @param checkpoint
+	 *        The record of which points have already been stored.
+	 * 
+	 * @param batchSize
+	 *        The number of points that are validated and stored together.
+	 * 
+	 * @param progressInterval
+	 *        The number of milliseconds between progress reports.
+	 * 
+	 * @param out
+	 *        Where the progress and summary are reported.
+	 */
+	public BulkImport(
+		final String owner,
+		final Schema schema,
+		final ImportCheckpoint checkpoint,
+		final int batchSize,
+		final long progressInterval,
+		final PrintStream out) {
+		
+		this.checkpoint = checkpoint;
+		this.batchSize = batchSize;
+		this.progressInterval = progressInterval;
+		this.out = out;
+		
+		validation =
+			new ParallelValidator.Validation<ObjectNode, Data>() {
+				/**
+				 * Validates a single JSON object.
+				 */
+				@Override
+				public Data validate(
+					final ObjectNode point)
+					throws OmhException {
+					
+					return
+						DataWriteRequest
+							.validateDataPoint(schema, owner, point);
+				}
+			};
+	}
+	
+	/**
+	 * Imports each of the files, in order, and reports a summary.
+	 * 
+	 * @param files
+	 *        The files to import.
+	 * 
+	 * @throws OmhException
+	 *         A file could not be read, a point was invalid, or a batch could
+	 *         not be stored. The checkpoint reflects every batch that was
+	 *         stored before the failure.
+	 */
+	public void importFiles(final List<File> files) throws OmhException {
+		startTime = System.currentTimeMillis();
+		lastReportTime = startTime;
+		
+		try {
+			for(File file : files) {
+				importFile(file);
+			}
+			awaitPending();
+		}
+		finally {
+			writer.shutdownNow();
+		}
+		
+		// Report the summary.
+		long elapsed = System.currentTimeMillis() - startTime;
+		out.println("Imported " + files.size() + " file(s).");
+		out.println("Points stored:  " + stored);
+		out.println("Points skipped: " + skipped);
+		out.println("Elapsed:        " + (elapsed / 1000.0) + " seconds");
+		out.println("Throughput:     " + getRate(stored, elapsed) + " points/s");
+	}
+	
+	/**
+	 * Imports a single file, skipping the points that the checkpoint says
+	 * were already stored.
+	 * 
+	 * @param file
+	 *        The file to import.
+	 * 
+	 * @throws OmhException
+	 *         The file could not be read, a point was invalid, or a batch
+	 *         could not be stored.
+	 */
+	private void importFile(final File file) throws OmhException {
+		if(checkpoint.isComplete(file)) {
+			out.println("Skipping, already imported: " + file.getPath());
+			return;
+		}
+		long alreadyStored = checkpoint.getStored(file);
+		out.println("Importing: " + file.getPath());
+		
+		try(JsonParser parser = createParser(file)) {
+			// A file that starts with an array is a JSON array of points.
+			// Otherwise, it is a sequence of points, one per line.
+			JsonToken token = parser.nextToken();
+			JsonToken endToken = null;
+			if(token == JsonToken.START_ARRAY) {
+				endToken = JsonToken.END_ARRAY;
+				token = parser.nextToken();
+			}
+			
+			List<ObjectNode> batch = new ArrayList<ObjectNode>(batchSize);
+			long index = 0;
+			while(token != endToken) {
+				// If the file ended before the array was closed, it was
+				// truncated.
+				if(token == null) {
+					throw
+						new OmhException(
+							"The file was truncated: " + file.getPath());
+				}
+				if(token != JsonToken.START_OBJECT) {
+					throw
+						new OmhException(
+							"Point " +
+								index +
+								" of " +
+								file.getPath() +
+								" is not a JSON object.");
+				}
+				
+				// Skip the points that were already stored without building
+				// them.
+				if(index < alreadyStored) {
+					parser.skipChildren();
+					skipped++;
+				}
+				else {
+					batch.add(parser.<ObjectNode>readValueAsTree());
+				}
+				index++;
+				
+				// If the batch is full, store it and start a new one.
+				if(batch.size() >= batchSize) {
+					storeBatch(file, batch, index, false);
+					batch = new ArrayList<ObjectNode>(batchSize);
+				}
+				
+				token = parser.nextToken();
+			}
+			
+			// Store the remaining points and mark the file as complete.
+			storeBatch(file, batch, Math.max(index, alreadyStored), true);
+		}
+		catch(JsonParseException e) {
+			throw
+				new OmhException(
+					"The file is not well-formed JSON: " + file.getPath(),
+					e);
+		}
+		catch(IOException e) {
+			throw
+				new OmhException(
+					"The file could not be read: " + file.getPath(),
+					e);
+		}
+	}
+	
+	/**
+	 * Validates a batch and hands it to the writer thread once the previous
+	 * batch has been stored. After the batch is stored, the checkpoint is
+	 * updated.
+	 * 
+	 * @param file
+	 *        The file from which the batch was read.
+	 * 
+	 * @param batch
+	 *        The JSON objects to validate and store.
+	 * 
+	 * @param position
+	 *        The number of points from the file that will have been stored
+	 *        once this batch has been stored.
+	 * 
+	 * @param complete
+	 *        Whether or not this is the file's last batch.
+	 * 
+	 * @throws OmhException
+	 *         A point was invalid or the previous batch could not be stored.
+	 */
+	private void storeBatch(
+		final File file,
+		final List<ObjectNode> batch,
+		final long position,
+		final boolean complete)
+		throws OmhException {
+		
+		// Validate the batch while the previous batch is still being stored.
+		final List<Data> data;
+		try {
+			data = ParallelValidator.validate(batch, validation);
+		}
+		catch(OmhException e) {
+			awaitPending();
+			throw
+				new OmhException(
+					"A point between points " +
+						(position - batch.size()) +
+						" and " +
+						position +
+						" of " +
+						file.getPath() +
+						" is invalid.",
+					e);
+		}
+		
+		// Wait for the previous batch and then start storing this one.
+		awaitPending();
+		pending =
+			writer.submit(
+				new Runnable() {
+					/**
+					 * Stores the batch and records it in the checkpoint.
+					 */
+					@Override
+					public void run() {
+						if(data.size() > 0) {
+							DataSet.getInstance().storeData(data);
+						}
+						checkpoint.update(file, position, complete);
+						
+						stored += data.size();
+						reportProgress(file, position);
+					}
+				});
+	}
+	
+	/**
+	 * Waits for the batch that is being stored, if any.
+	 * 
+	 * @throws OmhException
+	 *         The batch could not be stored.
+	 */
+	private void awaitPending() throws OmhException {
+		if(pending == null) {
+			return;
+		}
+		
+		try {
+			pending.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OmhException("The import was interrupted.", e);
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof OmhException) {
+				throw (OmhException) cause;
+			}
+			throw new OmhException("A batch could not be stored.", cause);
+		}
+		finally {
+			pending = null;
+		}
+	}
+	
+	/**
+	 * Reports the progress if enough time has passed since the last report.
+	 * This is only called from the writer thread.
+	 * 
+	 * @param file
+	 *        The file that is being imported.
+	 * 
+	 * @param position
+	 *        The number of points from the file that have been stored.
+	 */
+	private void reportProgress(final File file, final long position) {
+		long now = System.currentTimeMillis();
+		if(now - lastReportTime < progressInterval) {
+			return;
+		}
+		lastReportTime = now;
+		
+		out.println(
+			file.getPath() +
+				": " +
+				position +
+				" points; " +
+				stored +
+				" stored in total at " +
+				getRate(stored, now - startTime) +
+				" points/s");
+	}
+	
+	/**
+	 * Creates the parser for a file.
+	 * 
+	 * @param file
+	 *        The file.
+	 * 
+	 * @return The parser for the file.
+	 * 
+	 * @throws IOException
+	 *         The file could not be opened.
+	 */
+	private static JsonParser createParser(
+		final File file)
+		throws IOException {
+		
+		InputStream input =
+			new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		if(file.getName().endsWith(EXTENSION_GZIP)) {
+			input = new GZIPInputStream(input, BUFFER_SIZE);
+		}
+		
+		return JSON_FACTORY.createParser(input);
+	}
+	
+	/**
+	 * Computes a rate in points per second.
+	 * 
+	 * @param points
+	 *        The number of points.
+	 * 
+	 * @param elapsed
+	 *        The number of milliseconds.
+	 * 
+	 * @return The number of points per second.
+	 */
+	private static long getRate(final long points, final long elapsed) {
+		if(elapsed <= 0) {
+			return points;
+		}
+		return (points * 1000) / elapsed;
+	}
+	
+	/**
+	 * Runs an import from the command line.
+	 * 
+	 * @param args
+	 *        The arguments, as described by this class.
+	 */
+	public static void main(final String[] args) {
+		// Parse the arguments.
+		List<File> configurations = new LinkedList<File>();
+		List<File> files = new LinkedList<File>();
+		String owner = null;
+		String schemaId = null;
+		Long version = null;
+		File checkpointFile = null;
+		int batchSize = DEFAULT_BATCH_SIZE;
+		long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if(! arg.startsWith("-")) {
+					files.add(new File(arg));
+					continue;
+				}
+				if(i + 1 >= args.length) {
+					usage("The option is missing its value: " + arg);
+				}
+				String value = args[++i];
+				
+				if("-config".equals(arg)) {
+					configurations.add(new File(value));
+				}
+				else if("-owner".equals(arg)) {
+					owner = value;
+				}
+				else if("-schema".equals(arg)) {
+					schemaId = value;
+				}
+				else if("-version".equals(arg)) {
+					version = Long.decode(value);
+				}
+				else if("-checkpoint".equals(arg)) {
+					checkpointFile = new File(value);
+				}
+				else if("-batch".equals(arg)) {
+					batchSize = Integer.decode(value);
+				}
+				else if("-progress".equals(arg)) {
+					progressInterval = Long.decode(value);
+				}
+				else {
+					usage("The option is unknown: " + arg);
+				}
+			}
+		}
+		catch(NumberFormatException e) {
+			usage("An option that must be a number is not a number.");
+		}
+		if(configurations.size() == 0) {
+			usage("At least one configuration file is required.");
+		}
+		if(owner == null) {
+			usage("The owner is required.");
+		}
+		if(schemaId == null) {
+			usage("The schema ID is required.");
+		}
+		if(version == null) {
+			usage("The schema version is required.");
+		}
+		if(batchSize <= 0) {
+			usage("The batch size must be positive.");
+		}
+		if(progressInterval <= 0) {
+			usage("The progress interval must be positive.");
+		}
+		if(files.size() == 0) {
+			usage("At least one file is required.");
+		}
+		
+		// Read the configuration in the order it was given.
+		Properties properties = new Properties();
+		for(File configuration : configurations) {
+			try(FileReader reader = new FileReader(configuration)) {
+				properties.load(reader);
+			}
+			catch(FileNotFoundException e) {
+				fail(
+					"The configuration file does not exist: " +
+						configuration.getPath());
+			}
+			catch(IOException e) {
+				fail(
+					"The configuration file could not be read: " +
+						configuration.getPath());
+			}
+		}
+		PropertyConfigurator.configure(properties);
+		
+		// Connect to the database and run the import.
+		Dao dao = null;
+		try {
+			dao = DatabaseSetup.createDao(properties);
+			
+			if(UserBin.getInstance().getUser(owner) == null) {
+				fail("The owner is unknown: " + owner);
+			}
+			Schema schema =
+				Registry.getInstance().getCachedSchema(schemaId, version);
+			if(schema == null) {
+				fail(
+					"The schema ID, '" +
+						schemaId +
+						"', and version, '" +
+						version +
+						"', pair is unknown.");
+			}
+			
+			new BulkImport(
+					owner,
+					schema,
+					new ImportCheckpoint(checkpointFile),
+					batchSize,
+					progressInterval * 1000,
+					System.out)
+				.importFiles(files);
+		}
+		catch(IllegalStateException | OmhException e) {
+			e.printStackTrace();
+			fail("The import failed: " + e.getMessage());
+		}
+		finally {
+			if(dao != null) {
+				dao.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Prints a problem with the arguments and the usage and then exits.
+	 * 
+	 * @param message
+	 *        The problem with the arguments.
+	 */
+	private static void usage(final String message) {
+		System.err.println(message);
+		System.err.println(USAGE);
+		System.exit(EXIT_USAGE);
+	}
+	
+	/**
+	 * Prints why the import failed and then exits.
+	 * 
+	 * @param message
+	 *        Why the import failed.
+	 */
+	private static void fail(final String message) {
+		System.err.println(message);
+		System.exit(EXIT_FAILURE);
+	}
+}
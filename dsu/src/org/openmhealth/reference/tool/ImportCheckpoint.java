@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The record of how far a {@link BulkImport} has gotten through each of its
+ * files, so that an import that was stopped can be restarted without storing
+ * any point twice.
+ * </p>
+ * 
+ * <p>
+ * For each file, the checkpoint records the number of points that have been
+ * stored and whether or not the whole file has been stored. The checkpoint
+ * file is atomically replaced after every batch, so it never claims more
+ * than what was stored.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class ImportCheckpoint {
+	/**
+	 * The suffix of the key for the number of points of a file that have been
+	 * stored.
+	 */
+	private static final String KEY_SUFFIX_STORED = ".stored";
+	/**
+	 * The suffix of the key for whether or not all of a file's points have
+	 * been stored.
+	 */
+	private static final String KEY_SUFFIX_COMPLETE = ".complete";
+	
+	/**
+	 * The extension of the file that holds the new checkpoint before it
+	 * replaces the old one.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	
+	/**
+	 * The character set for the checkpoint file.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The checkpoint file or null if the progress is not being recorded.
+	 */
+	private final File file;
+	/**
+	 * The progress for each of the files.
+	 */
+	private final Properties progress = new Properties();
+	
+	/**
+	 * Creates a checkpoint, reading the existing progress if the file
+	 * exists.
+	 * 
+	 * @param file
+	 *        The checkpoint file or null if the progress should not be
+	 *        recorded.
+	 * 
+	 * @throws OmhException
+	 *         The checkpoint file exists but could not be read.
+	 */
+	public ImportCheckpoint(final File file) throws OmhException {
+		this.file = file;
+		
+		if(file == null) {
+			return;
+		}
+		
+		try(
+			Reader reader =
+				new InputStreamReader(new FileInputStream(file), CHARSET)) {
+			
+			progress.load(reader);
+		}
+		catch(FileNotFoundException e) {
+			// This is a new import, so there is no progress.
+		}
+		catch(IOException e) {
+			throw
+				new OmhException(
+					"The checkpoint could not be read: " +
+						file.getAbsolutePath(),
+					e);
+		}
+	}
+	
+	/**
+	 * Returns the number of points from a file that have already been
+	 * stored.
+	 * 
+	 * @param input
+	 *        The file being imported.
+	 * 
+	 * @return The number of points that have already been stored.
+	 * 
+	 * @throws OmhException
+	 *         The checkpoint is corrupt.
+	 */
+	public synchronized long getStored(final File input) throws OmhException {
+		String value = progress.getProperty(getKey(input) + KEY_SUFFIX_STORED);
+		if(value == null) {
+			return 0;
+		}
+		
+		try {
+			return Long.parseLong(value);
+		}
+		catch(NumberFormatException e) {
+			throw
+				new OmhException(
+					"The checkpoint is corrupt: " + file.getAbsolutePath(),
+					e);
+		}
+	}
+	
+	/**
+	 * Returns whether or not all of the points from a file have already been
+	 * stored.
+	 * 
+	 * @param input
+	 *        The file being imported.
+	 * 
+	 * @return Whether or not the file has already been imported.
+	 */
+	public synchronized boolean isComplete(final File input) {
+		return
+			Boolean
+				.parseBoolean(
+					progress.getProperty(getKey(input) + KEY_SUFFIX_COMPLETE));
+	}
+	
+	/**
+	 * Records the progress for a file.
+	 * 
+	 * @param input
+	 *        The file being imported.
+	 * 
+	 * @param stored
+	 *        The number of points from the file that have been stored.
+	 * 
+	 * @param complete
+	 *        Whether or not all of the points from the file have been stored.
+	 * 
+	 * @throws OmhException
+	 *         The checkpoint file could not be written.
+	 */
+	public synchronized void update(
+		final File input,
+		final long stored,
+		final boolean complete)
+		throws OmhException {
+		
+		String key = getKey(input);
+		progress.setProperty(key + KEY_SUFFIX_STORED, Long.toString(stored));
+		progress
+			.setProperty(key + KEY_SUFFIX_COMPLETE, Boolean.toString(complete));
+		
+		if(file == null) {
+			return;
+		}
+		
+		// Write the progress to a temporary file and sync it.
+		File temporaryFile =
+			new File(file.getAbsolutePath() + TEMPORARY_EXTENSION);
+		try {
+			try(FileOutputStream output = new FileOutputStream(temporaryFile)) {
+				Writer writer = new OutputStreamWriter(output, CHARSET);
+				progress.store(writer, null);
+				writer.flush();
+				output.getFD().sync();
+			}
+			
+			// Replace the old checkpoint.
+			Files
+				.move(
+					temporaryFile.toPath(),
+					file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e) {
+			throw
+				new OmhException(
+					"The checkpoint could not be written: " +
+						file.getAbsolutePath(),
+					e);
+		}
+	}
+	
+	/**
+	 * Returns the key under which a file's progress is recorded.
+	 * 
+	 * @param input
+	 *        The file being imported.
+	 * 
+	 * @return The file's key.
+	 */
+	private static String getKey(final File input) {
+		return input.getAbsolutePath();
+	}
+}
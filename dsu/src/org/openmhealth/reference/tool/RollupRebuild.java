@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.tool;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.joda.time.DateTime;
+import org.openmhealth.reference.data.Dao;
+import org.openmhealth.reference.data.RollupBin;
+import org.openmhealth.reference.data.StreamStatisticsBin;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.listener.DatabaseSetup;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+
+/**
+ * <p>
+ * A command-line tool that rebuilds the {@link RollupBin rollups} of a
+ * schema's streams from their data. This must be run after a schema's rolled
+ * up fields are changed, or after rollups are configured for a schema that
+ * already has data. If the schema is no longer rolled up, its rollups are
+ * deleted.
+ * </p>
+ * 
+ * <p>
+ * If an owner is given, only that owner's stream is rebuilt, and if a range
+ * of time is given, only the days that it covers are rebuilt. Data that is
+ * stored in a stream while it is being rebuilt may be rolled up twice, so
+ * it is best to run this while the streams are not being written.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * </p>
+ * 
+ * <pre>
+ * java -cp omh-import.jar org.openmhealth.reference.tool.RollupRebuild
+ *     -config &lt;file&gt; [-config &lt;file&gt; ...]
+ *     -schema &lt;schema ID&gt;
+ *     -version &lt;schema version&gt;
+ *     [-owner &lt;username&gt;]
+ *     [-start &lt;date-time&gt;]
+ *     [-end &lt;date-time&gt;]
+ * </pre>
+ * 
+ * <p>
+ * The configuration files are the same as the web application's, e.g. its
+ * default.conf followed by /etc/omh.conf, and are read in order.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class RollupRebuild {
+	/**
+	 * The exit status when the rebuild failed.
+	 */
+	private static final int EXIT_FAILURE = 1;
+	/**
+	 * The exit status when the arguments were invalid.
+	 */
+	private static final int EXIT_USAGE = 2;
+	
+	/**
+	 * The usage message.
+	 */
+	private static final String USAGE =
+		"Usage: java -cp omh-import.jar " +
+				RollupRebuild.class.getName() + "\n" +
+			"    -config <file> [-config <file> ...]\n" +
+			"    -schema <schema ID>\n" +
+			"    -version <schema version>\n" +
+			"    [-owner <username>]\n" +
+			"    [-start <date-time>]\n" +
+			"    [-end <date-time>]";
+	
+	/**
+	 * It is not possible to create an instance of this class.
+	 */
+	private RollupRebuild() {
+		// Do nothing.
+	}
+	
+	/**
+	 * Parses the arguments, connects to the database, and rebuilds the
+	 * rollups.
+	 * 
+	 * @param args
+	 *        The arguments.
+	 */
+	public static void main(final String[] args) {
+		// Parse the arguments.
+		List<File> configurations = new LinkedList<File>();
+		String owner = null;
+		String schemaId = null;
+		Long version = null;
+		DateTime startDate = null;
+		DateTime endDate = null;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if(i + 1 >= args.length) {
+					usage("The option is missing its value: " + arg);
+				}
+				String value = args[++i];
+				
+				if("-config".equals(arg)) {
+					configurations.add(new File(value));
+				}
+				else if("-owner".equals(arg)) {
+					owner = value;
+				}
+				else if("-schema".equals(arg)) {
+					schemaId = value;
+				}
+				else if("-version".equals(arg)) {
+					version = Long.decode(value);
+				}
+				else if("-start".equals(arg)) {
+					startDate = ISOW3CDateTimeFormat.any().parseDateTime(value);
+				}
+				else if("-end".equals(arg)) {
+					endDate = ISOW3CDateTimeFormat.any().parseDateTime(value);
+				}
+				else {
+					usage("The option is unknown: " + arg);
+				}
+			}
+		}
+		catch(NumberFormatException e) {
+			usage("An option that must be a number is not a number.");
+		}
+		catch(IllegalArgumentException e) {
+			usage("An option that must be a date-time is not a date-time.");
+		}
+		if(configurations.size() == 0) {
+			usage("At least one configuration file is required.");
+		}
+		if(schemaId == null) {
+			usage("The schema ID is required.");
+		}
+		if(version == null) {
+			usage("The schema version is required.");
+		}
+		if(
+			(startDate != null) &&
+			(endDate != null) &&
+			startDate.isAfter(endDate)) {
+			
+			usage("The start date is after the end date.");
+		}
+		
+		// Read the configuration in the order it was given.
+		Properties properties = new Properties();
+		for(File configuration : configurations) {
+			try(FileReader reader = new FileReader(configuration)) {
+				properties.load(reader);
+			}
+			catch(FileNotFoundException e) {
+				fail(
+					"The configuration file does not exist: " +
+						configuration.getPath());
+			}
+			catch(IOException e) {
+				fail(
+					"The configuration file could not be read: " +
+						configuration.getPath());
+			}
+		}
+		PropertyConfigurator.configure(properties);
+		
+		// Connect to the database and rebuild the rollups.
+		Dao dao = null;
+		try {
+			dao = DatabaseSetup.createDao(properties);
+			
+			List<String> owners;
+			if(owner == null) {
+				owners =
+					StreamStatisticsBin
+						.getInstance()
+						.getOwners(schemaId, version);
+			}
+			else {
+				owners = new LinkedList<String>();
+				owners.add(owner);
+			}
+			
+			for(String streamOwner : owners) {
+				System.out.println("Rebuilding the rollups of: " + streamOwner);
+				RollupBin
+					.getInstance()
+					.rebuild(
+						streamOwner,
+						schemaId,
+						version,
+						startDate,
+						endDate);
+			}
+			System.out
+				.println(
+					"Rebuilt the rollups of " + owners.size() + " stream(s).");
+		}
+		catch(IllegalStateException | OmhException e) {
+			e.printStackTrace();
+			fail("The rebuild failed: " + e.getMessage());
+		}
+		finally {
+			if(dao != null) {
+				dao.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Prints a problem with the arguments and the usage and then exits.
+	 * 
+	 * @param message
+	 *        The problem with the arguments.
+	 */
+	private static void usage(final String message) {
+		System.err.println(message);
+		System.err.println(USAGE);
+		System.exit(EXIT_USAGE);
+	}
+	
+	/**
+	 * Prints why the rebuild failed and then exits.
+	 * 
+	 * @param message
+	 *        Why the rebuild failed.
+	 */
+	private static void fail(final String message) {
+		System.err.println(message);
+		System.exit(EXIT_FAILURE);
+	}
+}
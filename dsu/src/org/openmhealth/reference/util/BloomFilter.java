@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.nio.charset.Charset;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * A Bloom filter for strings. It can say for certain that a string has never
+ * been added, but it may incorrectly say that a string has been added with
+ * roughly the probability it was created with, as long as no more strings
+ * than it was sized for have been added.
+ * </p>
+ * 
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class BloomFilter {
+	/**
+	 * The character set used to hash the strings.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The bits of the filter.
+	 */
+	private final long[] bits;
+	/**
+	 * The number of bits in the filter.
+	 */
+	private final long numBits;
+	/**
+	 * The number of bits set for each string.
+	 */
+	private final int numHashes;
+	/**
+	 * The number of strings the filter was sized for.
+	 */
+	private final long capacity;
+	/**
+	 * The number of strings that have been added.
+	 */
+	private long size = 0;
+	
+	/**
+	 * Creates a new, empty filter.
+	 * 
+	 * @param capacity
+	 *        The number of strings the filter should be sized for.
+	 * 
+	 * @param falsePositiveRate
+	 *        The desired probability that the filter incorrectly says a
+	 *        string has been added once it is full. This must be between 0
+	 *        and 1, exclusive.
+	 * 
+	 * @throws OmhException
+	 *         The capacity or false-positive rate is invalid.
+	 */
+	public BloomFilter(
+		final long capacity,
+		final double falsePositiveRate)
+		throws OmhException {
+		
+		if(capacity <= 0) {
+			throw new OmhException("The capacity must be positive.");
+		}
+		if((falsePositiveRate <= 0) || (falsePositiveRate >= 1)) {
+			throw
+				new OmhException(
+					"The false-positive rate must be between 0 and 1.");
+		}
+		
+		// Compute the optimal number of bits and hashes.
+		double ln2 = Math.log(2);
+		long optimalBits =
+			(long)
+				Math.ceil(
+					-1 * capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+		int words = (int) Math.min(Integer.MAX_VALUE, (optimalBits + 63) / 64);
+		
+		this.capacity = capacity;
+		bits = new long[words];
+		numBits = words * 64L;
+		numHashes =
+			Math.max(1, (int) Math.round((double) numBits / capacity * ln2));
+	}
+	
+	/**
+	 * Adds a string to the filter.
+	 * 
+	 * @param value
+	 *        The string to add.
+	 * 
+	 * @throws OmhException
+	 *         The string is null.
+	 */
+	public synchronized void put(final String value) throws OmhException {
+		long hash = hash(value);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for(int i = 0; i < numHashes; i++) {
+			long bit = index(first, second, i);
+			bits[(int) (bit >>> 6)] |= (1L << bit);
+		}
+		size++;
+	}
+	
+	/**
+	 * Returns whether or not the string might have been added.
+	 * 
+	 * @param value
+	 *        The string to check.
+	 * 
+	 * @return False if the string was definitely never added; true if it
+	 *         might have been.
+	 * 
+	 * @throws OmhException
+	 *         The string is null.
+	 */
+	public synchronized boolean mightContain(
+		final String value)
+		throws OmhException {
+		
+		long hash = hash(value);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for(int i = 0; i < numHashes; i++) {
+			long bit = index(first, second, i);
+			if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the number of bits in the filter, which is what determines how
+	 * much memory it uses.
+	 * 
+	 * @return The number of bits in the filter.
+	 */
+	public long getNumBits() {
+		return numBits;
+	}
+	
+	/**
+	 * Returns the number of strings that have been added, including any that
+	 * were added more than once.
+	 * 
+	 * @return The number of strings that have been added.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+	
+	/**
+	 * Returns whether or not more strings have been added than the filter
+	 * was sized for, which means that its false-positive rate is higher than
+	 * it was created with.
+	 * 
+	 * @return Whether or not the filter is over its capacity.
+	 */
+	public synchronized boolean isOverCapacity() {
+		return size > capacity;
+	}
+	
+	/**
+	 * Computes the index of one of the bits for a string by combining its two
+	 * hashes.
+	 * 
+	 * @param first
+	 *        The first hash of the string.
+	 * 
+	 * @param second
+	 *        The second hash of the string.
+	 * 
+	 * @param i
+	 *        Which of the bits to compute.
+	 * 
+	 * @return The index of the bit.
+	 */
+	private long index(final int first, final int second, final int i) {
+		long combined = (first & 0xFFFFFFFFL) + ((long) i * second);
+		return (combined & Long.MAX_VALUE) % numBits;
+	}
+	
+	/**
+	 * Computes a 64-bit hash of a string using FNV-1a followed by a final
+	 * mixing step so that both halves are well distributed.
+	 * 
+	 * @param value
+	 *        The string to hash.
+	 * 
+	 * @return The hash of the string.
+	 * 
+	 * @throws OmhException
+	 *         The string is null.
+	 */
+	private static long hash(final String value) throws OmhException {
+		if(value == null) {
+			throw new OmhException("The value is null.");
+		}
+		
+		long result = 0xcbf29ce484222325L;
+		for(byte b : value.getBytes(CHARSET)) {
+			result ^= (b & 0xFF);
+			result *= 0x100000001b3L;
+		}
+		
+		result ^= (result >>> 33);
+		result *= 0xff51afd7ed558ccdL;
+		result ^= (result >>> 33);
+		result *= 0xc4ceb9fe1a85ec53L;
+		result ^= (result >>> 33);
+		return result;
+	}
+}
@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import name.jenkins.paul.john.concordia.schema.ObjectSchema;
+import name.jenkins.paul.john.concordia.schema.Schema;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>
+ * Writes data as CSV with one row per point. The data is flattened into one
+ * column per field, where the fields of nested objects are named by their
+ * {@link ColumnList#COLUMN_SEPARATOR}-separated path. Arrays and any other
+ * values that are not flattened are written as JSON.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class CsvDataWriter {
+	/**
+	 * The header of the column for the points' meta-data IDs.
+	 */
+	public static final String HEADER_METADATA_ID =
+		Data.JSON_KEY_METADATA +
+			ColumnList.COLUMN_SEPARATOR +
+			MetaData.JSON_KEY_ID;
+	/**
+	 * The header of the column for the points' timestamps.
+	 */
+	public static final String HEADER_METADATA_TIMESTAMP =
+		Data.JSON_KEY_METADATA +
+			ColumnList.COLUMN_SEPARATOR +
+			MetaData.JSON_KEY_TIMESTAMP;
+	
+	/**
+	 * The separator between values in a row.
+	 */
+	private static final char VALUE_SEPARATOR = ',';
+	/**
+	 * The character that quotes a value.
+	 */
+	private static final char QUOTE = '"';
+	/**
+	 * The separator between rows, as required by RFC 4180.
+	 */
+	private static final String ROW_SEPARATOR = "\r\n";
+	
+	/**
+	 * The writer to which the CSV is written.
+	 */
+	private final Writer writer;
+	/**
+	 * The columns of the data, as paths within the data.
+	 */
+	private final List<String> columns;
+	/**
+	 * The columns of the data split into the fields along their paths.
+	 */
+	private final List<String[]> paths;
+	
+	/**
+	 * Creates a writer for data with the given columns.
+	 * 
+	 * @param writer
+	 *        The writer to which the CSV is written.
+	 * 
+	 * @param columns
+	 *        The columns of the data, as
+	 *        {@link ColumnList#COLUMN_SEPARATOR}-separated paths within the
+	 *        data. An empty path is the whole data.
+	 * 
+	 * @throws OmhException
+	 *         A parameter is null.
+	 */
+	public CsvDataWriter(
+		final Writer writer,
+		final List<String> columns)
+		throws OmhException {
+		
+		if(writer == null) {
+			throw new OmhException("The writer is null.");
+		}
+		if(columns == null) {
+			throw new OmhException("The columns are null.");
+		}
+		
+		this.writer = writer;
+		this.columns =
+			Collections.unmodifiableList(new ArrayList<String>(columns));
+		paths = new ArrayList<String[]>(columns.size());
+		for(String column : columns) {
+			paths
+				.add(
+					(column.length() == 0) ?
+						new String[0] :
+						column.split("\\" + ColumnList.COLUMN_SEPARATOR));
+		}
+	}
+	
+	/**
+	 * Derives the columns of the data from its schema. Each field of an
+	 * object is a column unless it is an object itself, in which case its
+	 * fields are columns. If a column list is given, only the columns that
+	 * are in it are kept, and any columns in it that the schema doesn't
+	 * define are added after the schema's.
+	 * 
+	 * @param schema
+	 *        The schema for the data.
+	 * 
+	 * @param columnList
+	 *        The columns that were requested or null or an empty list if all
+	 *        of the columns were requested.
+	 * 
+	 * @return The columns, as {@link ColumnList#COLUMN_SEPARATOR}-separated
+	 *         paths within the data.
+	 * 
+	 * @throws OmhException
+	 *         The schema is null.
+	 */
+	public static List<String> getColumns(
+		final Schema schema,
+		final ColumnList columnList)
+		throws OmhException {
+		
+		if(schema == null) {
+			throw new OmhException("The schema is null.");
+		}
+		
+		// Get every column that the schema defines.
+		List<String> columns = new ArrayList<String>();
+		addColumns(schema, "", columns);
+		if((columnList == null) || (columnList.size() == 0)) {
+			return columns;
+		}
+		
+		// Keep only the columns that were requested.
+		List<String> requested = columnList.toList();
+		List<String> result = new ArrayList<String>();
+		for(String column : columns) {
+			for(String requestedColumn : requested) {
+				if(isWithin(column, requestedColumn)) {
+					result.add(column);
+					break;
+				}
+			}
+		}
+		
+		// Add the requested columns that the schema doesn't define, e.g. the
+		// fields of the objects within an array.
+		for(String requestedColumn : requested) {
+			boolean found = false;
+			for(String column : result) {
+				if(isWithin(column, requestedColumn)) {
+					found = true;
+					break;
+				}
+			}
+			if(! found) {
+				result.add(requestedColumn);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the columns of the data.
+	 * 
+	 * @return The columns of the data, as paths within the data.
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+	
+	/**
+	 * Writes the row of headers.
+	 * 
+	 * @throws IOException
+	 *         The headers could not be written.
+	 */
+	public void writeHeader() throws IOException {
+		List<String> headers = new ArrayList<String>(columns.size() + 2);
+		headers.add(HEADER_METADATA_ID);
+		headers.add(HEADER_METADATA_TIMESTAMP);
+		for(String column : columns) {
+			headers
+				.add(
+					(column.length() == 0) ?
+						Data.JSON_KEY_DATA :
+						Data.JSON_KEY_DATA +
+							ColumnList.COLUMN_SEPARATOR +
+							column);
+		}
+		writeRow(headers);
+	}
+	
+	/**
+	 * Writes a point as a row.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @throws IOException
+	 *         The point could not be written.
+	 */
+	public void write(final Data point) throws IOException {
+		List<String> values = new ArrayList<String>(columns.size() + 2);
+		
+		// Add the meta-data.
+		MetaData metaData = point.getMetaData();
+		if(metaData == null) {
+			values.add(null);
+			values.add(null);
+		}
+		else {
+			values.add(metaData.getId());
+			DateTime timestamp = metaData.getTimestamp();
+			values
+				.add(
+					(timestamp == null) ?
+						null :
+						ISOW3CDateTimeFormat.any().print(timestamp));
+		}
+		
+		// Add each column of the data.
+		for(String[] path : paths) {
+			JsonNode value = point.getData();
+			for(String field : path) {
+				if(value == null) {
+					break;
+				}
+				value = value.get(field);
+			}
+			
+			if((value == null) || value.isNull()) {
+				values.add(null);
+			}
+			else if(value.isValueNode()) {
+				values.add(value.asText());
+			}
+			else {
+				values.add(value.toString());
+			}
+		}
+		
+		writeRow(values);
+	}
+	
+	/**
+	 * Flushes the underlying writer.
+	 * 
+	 * @throws IOException
+	 *         The writer could not be flushed.
+	 */
+	public void flush() throws IOException {
+		writer.flush();
+	}
+	
+	/**
+	 * Quotes a value if it contains a separator, a quote, or a line break.
+	 * Quotes within the value are doubled.
+	 * 
+	 * @param value
+	 *        The value or null.
+	 * 
+	 * @return The value as it should be written, which is empty if it was
+	 *         null.
+	 */
+	public static String escape(final String value) {
+		if(value == null) {
+			return "";
+		}
+		
+		boolean quoted = false;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(
+				(c == VALUE_SEPARATOR) ||
+				(c == QUOTE) ||
+				(c == '\r') ||
+				(c == '\n')) {
+				
+				quoted = true;
+				break;
+			}
+		}
+		if(! quoted) {
+			return value;
+		}
+		
+		StringBuilder builder = new StringBuilder(value.length() + 2);
+		builder.append(QUOTE);
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == QUOTE) {
+				builder.append(QUOTE);
+			}
+			builder.append(c);
+		}
+		builder.append(QUOTE);
+		return builder.toString();
+	}
+	
+	/**
+	 * Writes a row.
+	 * 
+	 * @param values
+	 *        The values in the row, any of which may be null.
+	 * 
+	 * @throws IOException
+	 *         The row could not be written.
+	 */
+	private void writeRow(final List<String> values) throws IOException {
+		boolean firstPass = true;
+		for(String value : values) {
+			if(firstPass) {
+				firstPass = false;
+			}
+			else {
+				writer.write(VALUE_SEPARATOR);
+			}
+			writer.write(escape(value));
+		}
+		writer.write(ROW_SEPARATOR);
+	}
+	
+	/**
+	 * Adds the columns that a part of a schema defines.
+	 * 
+	 * @param schema
+	 *        The part of the schema.
+	 * 
+	 * @param path
+	 *        The path to the part of the schema, which is empty for the root.
+	 * 
+	 * @param columns
+	 *        The list to which the columns are added.
+	 */
+	private static void addColumns(
+		final Schema schema,
+		final String path,
+		final List<String> columns) {
+		
+		if(! (schema instanceof ObjectSchema)) {
+			columns.add(path);
+			return;
+		}
+		
+		for(Schema field : ((ObjectSchema) schema).getFields()) {
+			addColumns(
+				field,
+				(path.length() == 0) ?
+					field.getName() :
+					path + ColumnList.COLUMN_SEPARATOR + field.getName(),
+				columns);
+		}
+	}
+	
+	/**
+	 * Returns whether or not a column is within a requested column, i.e. it
+	 * is the requested column or one of its descendants.
+	 * 
+	 * @param column
+	 *        The column.
+	 * 
+	 * @param requestedColumn
+	 *        The requested column.
+	 * 
+	 * @return Whether or not the column is within the requested column.
+	 */
+	private static boolean isWithin(
+		final String column,
+		final String requestedColumn) {
+		
+		return
+			column.equals(requestedColumn) ||
+			column.startsWith(requestedColumn + ColumnList.COLUMN_SEPARATOR);
+	}
+}
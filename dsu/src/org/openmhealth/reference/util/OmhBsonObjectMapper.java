@@ -0,0 +1,38 @@
+package org.openmhealth.reference.util;
+
+import de.undercouch.bson4jackson.BsonFactory;
+
+/**
+ * <p>
+ * A custom ObjectMapper for Open mHealth that reads and writes BSON instead
+ * of text JSON. It applies the same field filters as the
+ * {@link OmhObjectMapper}, so objects have the same shape in either format.
+ * </p>
+ * 
+ * <p>
+ * BSON documents must be objects, so a top-level array is written as a
+ * document whose keys are the indices of its elements, e.g. "0", "1", etc.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class OmhBsonObjectMapper extends OmhObjectMapper {
+	/**
+	 * The content type for BSON request and response bodies.
+	 */
+	public static final String CONTENT_TYPE = "application/bson";
+	
+	/**
+	 * A default version UID to use when serializing an instance of this
+	 * class.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates the object mapper. This is private as it should only ever be
+	 * called by Spring via reflection.
+	 */
+	private OmhBsonObjectMapper() {
+		super(new BsonFactory());
+	}
+}
@@ -11,6 +11,7 @@ import java.util.HashSet;
 
 import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ser.BeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter.SerializeExceptFilter;
@@ -95,6 +96,21 @@ public class OmhObjectMapper extends ObjectMapper {
      * as it should only ever be called by Spring via reflection.
      */
     private OmhObjectMapper() {
+    	this(null);
+    }
+    
+    /**
+     * Creates the object mapper for a specific data format and initializes
+     * the filters. This is used by subclasses that read and write something
+     * other than text JSON.
+     * 
+     * @param factory
+     *        The factory for the parsers and generators of the data format or
+     *        null to use text JSON.
+     */
+    protected OmhObjectMapper(final JsonFactory factory) {
+    	super(factory);
+    	
     	// Ensure that unknown fields are ignored.
     	FILTER_PROVIDER.setFailOnUnknownId(false);
     	
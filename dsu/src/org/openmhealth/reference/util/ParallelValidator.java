@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Validates a list of points on a shared {@link ForkJoinPool}. The results are
+ * returned in the same order as the points were given and, if any of the
+ * points are invalid, the exception for the invalid point with the lowest
+ * index is thrown, exactly as if the points had been validated one after
+ * another.
+ * </p>
+ * 
+ * <p>
+ * Lists that are smaller than {@link #SEQUENTIAL_THRESHOLD} are validated on
+ * the calling thread, as the cost of handing them to the pool would outweigh
+ * the benefit.
+ * </p>
+ * 
+ * <p>
+ * This class has no state and, therefore, is immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ParallelValidator {
+	/**
+	 * <p>
+	 * The validation to apply to each point.
+	 * </p>
+	 * 
+	 * <p>
+	 * Implementations will be called from multiple threads at the same time,
+	 * so they must be thread-safe.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface Validation<S, T> {
+		/**
+		 * Validates a single point.
+		 * 
+		 * @param point
+		 *        The point to validate.
+		 * 
+		 * @return The validated point.
+		 * 
+		 * @throws OmhException
+		 *         The point is invalid.
+		 */
+		public T validate(final S point) throws OmhException;
+	}
+	
+	/**
+	 * <p>
+	 * The record of the invalid point with the lowest index.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class Failure {
+		/**
+		 * The index of the invalid point or {@link Integer#MAX_VALUE} if no
+		 * point has failed yet.
+		 */
+		private volatile int index = Integer.MAX_VALUE;
+		/**
+		 * The exception that was thrown when validating the point.
+		 */
+		private RuntimeException exception = null;
+		
+		/**
+		 * Records a failure if it is for a point before any other known
+		 * failure.
+		 * 
+		 * @param index
+		 *        The index of the point that failed.
+		 * 
+		 * @param exception
+		 *        The exception that was thrown.
+		 */
+		private synchronized void record(
+			final int index,
+			final RuntimeException exception) {
+			
+			if(index < this.index) {
+				this.index = index;
+				this.exception = exception;
+			}
+		}
+	}
+	
+	/**
+	 * <p>
+	 * The task that validates a range of the points, splitting the range in
+	 * half until it is small enough to be validated directly.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class ValidationTask<S, T> extends RecursiveAction {
+		/**
+		 * The version of this class for serialization purposes.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The points to validate.
+		 */
+		private final List<? extends S> points;
+		/**
+		 * The validation to apply to each point.
+		 */
+		private final Validation<S, T> validation;
+		/**
+		 * The validated points, indexed the same as the points.
+		 */
+		private final Object[] results;
+		/**
+		 * The shared record of the first failure.
+		 */
+		private final Failure failure;
+		/**
+		 * The index of the first point in this task's range.
+		 */
+		private final int start;
+		/**
+		 * The index after the last point in this task's range.
+		 */
+		private final int end;
+		
+		/**
+		 * Creates a task for a range of points.
+		 * 
+		 * @param points
+		 *        The points to validate.
+		 * 
+		 * @param validation
+		 *        The validation to apply to each point.
+		 * 
+		 * @param results
+		 *        The array in which to place the validated points.
+		 * 
+		 * @param failure
+		 *        The shared record of the first failure.
+		 * 
+		 * @param start
+		 *        The index of the first point to validate.
+		 * 
+		 * @param end
+		 *        The index after the last point to validate.
+		 */
+		private ValidationTask(
+			final List<? extends S> points,
+			final Validation<S, T> validation,
+			final Object[] results,
+			final Failure failure,
+			final int start,
+			final int end) {
+			
+			this.points = points;
+			this.validation = validation;
+			this.results = results;
+			this.failure = failure;
+			this.start = start;
+			this.end = end;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			// If the range is small enough, validate it directly.
+			if((end - start) <= LEAF_SIZE) {
+				for(int i = start; i < end; i++) {
+					// If an earlier point has already failed, there is no
+					// reason to continue.
+					if(i > failure.index) {
+						return;
+					}
+					
+					try {
+						results[i] = validation.validate(points.get(i));
+					}
+					catch(RuntimeException e) {
+						failure.record(i, e);
+						return;
+					}
+				}
+			}
+			// Otherwise, split the range in half.
+			else {
+				int middle = start + ((end - start) / 2);
+				invokeAll(
+					new ValidationTask<S, T>(
+						points,
+						validation,
+						results,
+						failure,
+						start,
+						middle),
+					new ValidationTask<S, T>(
+						points,
+						validation,
+						results,
+						failure,
+						middle,
+						end));
+			}
+		}
+	}
+	
+	/**
+	 * The minimum number of points before the validation is handed to the
+	 * pool.
+	 */
+	public static final int SEQUENTIAL_THRESHOLD = 256;
+	/**
+	 * The number of points that a single task will validate without splitting
+	 * them any further.
+	 */
+	private static final int LEAF_SIZE = 64;
+	
+	/**
+	 * The pool that is shared by all validation.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	
+	/**
+	 * The default constructor made private so that this class can never be
+	 * instantiated.
+	 */
+	private ParallelValidator() {
+		// Do nothing.
+	}
+	
+	/**
+	 * Validates each of the points.
+	 * 
+	 * @param points
+	 *        The points to validate.
+	 * 
+	 * @param validation
+	 *        The validation to apply to each point.
+	 * 
+	 * @return The validated points in the same order as they were given.
+	 * 
+	 * @throws OmhException
+	 *         One of the points was invalid. This will be the exception for
+	 *         the point with the lowest index.
+	 */
+	public static <S, T> List<T> validate(
+		final List<? extends S> points,
+		final Validation<S, T> validation)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(points == null) {
+			throw new OmhException("The points are null.");
+		}
+		if(validation == null) {
+			throw new OmhException("The validation is null.");
+		}
+		
+		// Get the number of points.
+		int numPoints = points.size();
+		
+		// Small lists are validated on this thread.
+		if(numPoints < SEQUENTIAL_THRESHOLD) {
+			List<T> result = new ArrayList<T>(numPoints);
+			for(S point : points) {
+				result.add(validation.validate(point));
+			}
+			return result;
+		}
+		
+		// Validate the points on the pool.
+		Object[] results = new Object[numPoints];
+		Failure failure = new Failure();
+		POOL
+			.invoke(
+				new ValidationTask<S, T>(
+					points,
+					validation,
+					results,
+					failure,
+					0,
+					numPoints));
+		
+		// If any point failed, throw the first failure.
+		if(failure.exception != null) {
+			throw failure.exception;
+		}
+		
+		// Build the result list.
+		List<T> result = new ArrayList<T>(numPoints);
+		for(Object validated : results) {
+			// This is safe as only the validation could have set the values.
+			@SuppressWarnings("unchecked")
+			T typedValidated = (T) validated;
+			result.add(typedValidated);
+		}
+		return result;
+	}
+}
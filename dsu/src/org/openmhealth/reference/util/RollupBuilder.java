@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataRollup;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>
+ * Adds points to the {@link DataRollup rollups} of every period that
+ * contains them, so that a batch of points only needs one update per rollup.
+ * Points without a timestamp are not in any period, so they are ignored.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class RollupBuilder {
+	/**
+	 * The running totals of a rollup.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class Totals {
+		/**
+		 * The number of points.
+		 */
+		private long count = 0;
+		/**
+		 * The minimum or null if there were no numbers.
+		 */
+		private Double min = null;
+		/**
+		 * The maximum or null if there were no numbers.
+		 */
+		private Double max = null;
+		/**
+		 * The sum of the numbers.
+		 */
+		private double sum = 0;
+	}
+	
+	/**
+	 * The totals of each rollup, keyed by the owner, schema ID, schema
+	 * version, period, field, and start of the rollup.
+	 */
+	private final Map<List<Object>, Totals> rollups =
+		new LinkedHashMap<List<Object>, Totals>();
+	
+	/**
+	 * Adds a point to the rollups of every period that contains it.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @param fields
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated paths to the
+	 *        fields to roll up. The points are always counted.
+	 * 
+	 * @throws OmhException
+	 *         The point or fields are null.
+	 */
+	public void add(
+		final Data point,
+		final List<String> fields)
+		throws OmhException {
+		
+		if(point == null) {
+			throw new OmhException("The point is null.");
+		}
+		if(fields == null) {
+			throw new OmhException("The fields are null.");
+		}
+		
+		// Points without a timestamp are not in any period.
+		MetaData metaData = point.getMetaData();
+		DateTime timestamp =
+			(metaData == null) ? null : metaData.getTimestamp();
+		if(timestamp == null) {
+			return;
+		}
+		long millis = timestamp.getMillis();
+		
+		// Get the fields that are numbers.
+		Map<String, Double> numbers = new LinkedHashMap<String, Double>();
+		for(String field : fields) {
+			JsonNode value = getValue(point.getData(), field);
+			if((value != null) && value.isNumber()) {
+				numbers.put(field, value.asDouble());
+			}
+		}
+		
+		// Add the point to each period's rollups.
+		for(DataSummary.Period period : DataSummary.Period.values()) {
+			long start = period.getStart(millis);
+			getTotals(point, period, DataRollup.FIELD_POINTS, start).count++;
+			
+			for(Map.Entry<String, Double> number : numbers.entrySet()) {
+				Totals totals =
+					getTotals(point, period, number.getKey(), start);
+				double value = number.getValue();
+				
+				totals.count++;
+				totals.min =
+					(totals.min == null) ? value : Math.min(totals.min, value);
+				totals.max =
+					(totals.max == null) ? value : Math.max(totals.max, value);
+				totals.sum += value;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the rollups of all of the points that have been added.
+	 * 
+	 * @return The rollups.
+	 */
+	public List<DataRollup> getRollups() {
+		List<DataRollup> result = new ArrayList<DataRollup>(rollups.size());
+		for(Map.Entry<List<Object>, Totals> rollup : rollups.entrySet()) {
+			List<Object> key = rollup.getKey();
+			Totals totals = rollup.getValue();
+			result
+				.add(
+					new DataRollup(
+						(String) key.get(0),
+						(String) key.get(1),
+						(Long) key.get(2),
+						(DataSummary.Period) key.get(3),
+						(String) key.get(4),
+						(Long) key.get(5),
+						totals.count,
+						totals.min,
+						totals.max,
+						totals.sum));
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the totals of a rollup, creating them if they do not yet exist.
+	 * 
+	 * @param point
+	 *        A point in the rollup's stream.
+	 * 
+	 * @param period
+	 *        The length of time that the rollup covers.
+	 * 
+	 * @param field
+	 *        The field of the rollup.
+	 * 
+	 * @param start
+	 *        The start of the rollup's period.
+	 * 
+	 * @return The totals.
+	 */
+	private Totals getTotals(
+		final Data point,
+		final DataSummary.Period period,
+		final String field,
+		final long start) {
+		
+		List<Object> key =
+			Arrays
+				.<Object>asList(
+					point.getOwner(),
+					point.getSchemaId(),
+					point.getSchemaVersion(),
+					period,
+					field,
+					start);
+		
+		Totals result = rollups.get(key);
+		if(result == null) {
+			result = new Totals();
+			rollups.put(key, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the value of a field of the data.
+	 * 
+	 * @param data
+	 *        The data.
+	 * 
+	 * @param field
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *        field.
+	 * 
+	 * @return The value or null if the field is missing.
+	 */
+	private static JsonNode getValue(final JsonNode data, final String field) {
+		JsonNode result = data;
+		for(String name : field.split("\\" + ColumnList.COLUMN_SEPARATOR)) {
+			if(result == null) {
+				return null;
+			}
+			result = result.get(name);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The offsets from UTC that a time zone uses over a range of time. A
+ * database has no knowledge of time zones, but it can convert an instant to
+ * local time by adding the offset that was in effect at that instant, which
+ * is the offset of the last transition at or before it.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class TimeZoneOffsets {
+	/**
+	 * The instants, in milliseconds since the epoch, at which each offset
+	 * takes effect. The first offset is in effect for the whole range before
+	 * the second, so its instant is the start of the range.
+	 */
+	private final List<Long> transitions = new ArrayList<Long>();
+	/**
+	 * The offsets in milliseconds.
+	 */
+	private final List<Integer> offsets = new ArrayList<Integer>();
+	
+	/**
+	 * Finds the offsets that a time zone uses over a range of time.
+	 * 
+	 * @param timeZone
+	 *        The time zone.
+	 * 
+	 * @param start
+	 *        The start of the range in milliseconds since the epoch,
+	 *        inclusive.
+	 * 
+	 * @param end
+	 *        The end of the range in milliseconds since the epoch, inclusive.
+	 * 
+	 * @throws OmhException
+	 *         The time zone is null or the range ends before it starts.
+	 */
+	public TimeZoneOffsets(
+		final DateTimeZone timeZone,
+		final long start,
+		final long end)
+		throws OmhException {
+		
+		if(timeZone == null) {
+			throw new OmhException("The time zone is null.");
+		}
+		if(end < start) {
+			throw new OmhException("The range ends before it starts.");
+		}
+		
+		transitions.add(start);
+		offsets.add(timeZone.getOffset(start));
+		if(timeZone.isFixed()) {
+			return;
+		}
+		
+		long transition = timeZone.nextTransition(start);
+		while((transition > start) && (transition <= end)) {
+			transitions.add(transition);
+			offsets.add(timeZone.getOffset(transition));
+			
+			long next = timeZone.nextTransition(transition);
+			if(next == transition) {
+				break;
+			}
+			transition = next;
+		}
+	}
+	
+	/**
+	 * Returns the number of offsets, which is at least one.
+	 * 
+	 * @return The number of offsets.
+	 */
+	public int size() {
+		return offsets.size();
+	}
+	
+	/**
+	 * Returns the instant at which an offset takes effect. For the first
+	 * offset, this is the start of the range.
+	 * 
+	 * @param index
+	 *        The index of the offset.
+	 * 
+	 * @return The instant in milliseconds since the epoch.
+	 */
+	public long getTransition(final int index) {
+		return transitions.get(index);
+	}
+	
+	/**
+	 * Returns an offset.
+	 * 
+	 * @param index
+	 *        The index of the offset.
+	 * 
+	 * @return The offset in milliseconds.
+	 */
+	public int getOffset(final int index) {
+		return offsets.get(index);
+	}
+	
+	/**
+	 * Returns the offset in effect at an instant within the range.
+	 * 
+	 * @param instant
+	 *        The instant in milliseconds since the epoch.
+	 * 
+	 * @return The offset in milliseconds.
+	 */
+	public int getOffsetAt(final long instant) {
+		int index = 0;
+		while(
+			(index + 1 < transitions.size()) &&
+			(transitions.get(index + 1) <= instant)) {
+			
+			index++;
+		}
+		return offsets.get(index);
+	}
+}
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.concordia;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import name.jenkins.paul.john.concordia.Concordia;
+import name.jenkins.paul.john.concordia.exception.ConcordiaException;
+import name.jenkins.paul.john.concordia.validator.ValidationController;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests that a {@link ValidationPlan} accepts and rejects exactly the same
+ * data as the {@link Concordia} schema from which it was compiled, whether or
+ * not the data's shape has already been accepted.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class ValidationPlanTest {
+	/**
+	 * The mapper used to read the schemas and data.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	
+	/**
+	 * A schema that uses every type, optional fields, and an enum.
+	 */
+	public static final String SCHEMA =
+		"{" +
+			"\"type\":\"object\"," +
+			"\"fields\":[" +
+				"{\"name\":\"unit\",\"type\":\"string\"," +
+					"\"allowed_values\":[\"bpm\",\"mmHg\"]}," +
+				"{\"name\":\"value\",\"type\":\"number\"}," +
+				"{\"name\":\"note\",\"type\":\"string\",\"optional\":true}," +
+				"{\"name\":\"valid\",\"type\":\"boolean\"," +
+					"\"optional\":true}," +
+				"{\"name\":\"samples\",\"type\":\"array\"," +
+					"\"constType\":{\"type\":\"number\"}}," +
+				"{\"name\":\"pair\",\"type\":\"array\",\"optional\":true," +
+					"\"constLength\":[" +
+						"{\"type\":\"string\"},{\"type\":\"number\"}]}" +
+			"]" +
+		"}";
+	
+	/**
+	 * Data that is valid for {@link #SCHEMA}.
+	 */
+	public static final String[] VALID_DATA = {
+		"{\"unit\":\"bpm\",\"value\":60,\"samples\":[]}",
+		"{\"unit\":\"mmHg\",\"value\":1.5,\"samples\":[1,2],\"note\":null}",
+		"{\"unit\":\"bpm\",\"value\":60,\"samples\":[1]," +
+			"\"valid\":true,\"pair\":[\"a\",1],\"extra\":{}}"
+	};
+	
+	/**
+	 * Data that is invalid for {@link #SCHEMA}.
+	 */
+	public static final String[] INVALID_DATA = {
+		"[]",
+		"{}",
+		"{\"unit\":\"kg\",\"value\":60,\"samples\":[]}",
+		"{\"unit\":1,\"value\":60,\"samples\":[]}",
+		"{\"unit\":\"bpm\",\"value\":\"60\",\"samples\":[]}",
+		"{\"unit\":\"bpm\",\"value\":60}",
+		"{\"unit\":\"bpm\",\"value\":60,\"samples\":[\"1\"]}",
+		"{\"unit\":\"bpm\",\"value\":60,\"samples\":[],\"valid\":1}",
+		"{\"unit\":\"bpm\",\"value\":60,\"samples\":[],\"pair\":[\"a\"]}",
+		"{\"unit\":\"bpm\",\"value\":60,\"samples\":[],\"pair\":[1,\"a\"]}"
+	};
+	
+	/**
+	 * Tests that the plan for the Open mHealth controller agrees with the
+	 * schema.
+	 */
+	@Test
+	public void testValidateOmhController() throws IOException {
+		assertAgrees(OmhValidationController.VALIDATION_CONTROLLER, true);
+	}
+	
+	/**
+	 * Tests that the plan for the basic controller agrees with the schema,
+	 * which ignores the enum.
+	 */
+	@Test
+	public void testValidateBasicController() throws IOException {
+		assertAgrees(ValidationController.BASIC_CONTROLLER, false);
+	}
+	
+	/**
+	 * Validates each of the data with both the schema and its plan and
+	 * asserts that both give the expected result.
+	 * 
+	 * @param controller
+	 *        The controller with which to build the schema.
+	 * 
+	 * @param enums
+	 *        Whether or not the controller checks enums.
+	 */
+	private static void assertAgrees(
+		final ValidationController controller,
+		final boolean enums)
+		throws IOException {
+		
+		Concordia concordia;
+		try {
+			concordia =
+				new Concordia(
+					new ByteArrayInputStream(SCHEMA.getBytes("UTF-8")),
+					controller);
+		}
+		catch(ConcordiaException e) {
+			throw new IllegalStateException("The schema is invalid.", e);
+		}
+		ValidationPlan plan =
+			ValidationPlan.compile("test", concordia, controller);
+		
+		// Validate everything twice so that the second time uses the shapes
+		// that were accepted the first time.
+		for(int pass = 0; pass < 2; pass++) {
+			for(String data : VALID_DATA) {
+				assertValid(concordia, plan, data, true);
+			}
+			for(String data : INVALID_DATA) {
+				// Only the enum makes this data invalid.
+				boolean valid = (! enums) && data.contains("\"kg\"");
+				assertValid(concordia, plan, data, valid);
+			}
+		}
+		
+		Assert.assertTrue(plan.getShapeCache().getHits() > 0);
+	}
+	
+	/**
+	 * Tests that data whose shape has been accepted is still rejected when
+	 * only one of its values is invalid.
+	 */
+	@Test
+	public void testValidateKnownShape() throws IOException {
+		ValidationController controller =
+			OmhValidationController.VALIDATION_CONTROLLER;
+		Concordia concordia;
+		try {
+			concordia =
+				new Concordia(
+					new ByteArrayInputStream(SCHEMA.getBytes("UTF-8")),
+					controller);
+		}
+		catch(ConcordiaException e) {
+			throw new IllegalStateException("The schema is invalid.", e);
+		}
+		ValidationPlan plan =
+			ValidationPlan.compile("test", concordia, controller);
+		
+		assertValid(
+			concordia,
+			plan,
+			"{\"unit\":\"bpm\",\"value\":60,\"samples\":[]}",
+			true);
+		assertValid(
+			concordia,
+			plan,
+			"{\"unit\":\"kg\",\"value\":60,\"samples\":[]}",
+			false);
+		
+		ShapeCache shapeCache = plan.getShapeCache();
+		Assert.assertEquals(1, shapeCache.getHits());
+		Assert.assertEquals(1, shapeCache.getMisses());
+	}
+	
+	/**
+	 * Tests that data has the same shape exactly when only its values differ.
+	 */
+	@Test
+	public void testGetShape() throws IOException {
+		String shape =
+			ShapeCache
+				.getShape(
+					JSON_MAPPER
+						.readTree("{\"a\":\"x\",\"b\":[1,2],\"c\":null}"));
+		
+		Assert.assertEquals(
+			shape,
+			ShapeCache
+				.getShape(
+					JSON_MAPPER
+						.readTree("{\"a\":\"y\",\"b\":[3,4],\"c\":null}")));
+		Assert.assertFalse(
+			shape.equals(
+				ShapeCache
+					.getShape(
+						JSON_MAPPER
+							.readTree("{\"a\":\"x\",\"b\":[1],\"c\":null}"))));
+		Assert.assertFalse(
+			shape.equals(
+				ShapeCache
+					.getShape(
+						JSON_MAPPER
+							.readTree("{\"a\":1,\"b\":[1,2],\"c\":null}"))));
+		Assert.assertFalse(
+			shape.equals(
+				ShapeCache
+					.getShape(
+						JSON_MAPPER
+							.readTree("{\"a\":\"x\",\"b\":[1,2]}"))));
+	}
+	
+	/**
+	 * Asserts that both the schema and the plan find the data to be valid or
+	 * invalid.
+	 * 
+	 * @param concordia
+	 *        The schema.
+	 * 
+	 * @param plan
+	 *        The plan that was compiled from the schema.
+	 * 
+	 * @param data
+	 *        The data.
+	 * 
+	 * @param valid
+	 *        Whether or not the data should be valid.
+	 */
+	private static void assertValid(
+		final Concordia concordia,
+		final ValidationPlan plan,
+		final String data,
+		final boolean valid)
+		throws IOException {
+		
+		JsonNode node = JSON_MAPPER.readTree(data);
+		
+		boolean concordiaValid = true;
+		try {
+			concordia.validateData(node);
+		}
+		catch(ConcordiaException e) {
+			concordiaValid = false;
+		}
+		
+		boolean planValid = true;
+		try {
+			plan.validate(node);
+		}
+		catch(ConcordiaException e) {
+			planValid = false;
+		}
+		
+		Assert.assertEquals(data, valid, concordiaValid);
+		Assert.assertEquals(data, valid, planValid);
+	}
+}
@@ -0,0 +1,232 @@
+package org.openmhealth.reference.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmhealth.reference.domain.AuthorizationCodeResponse;
+import org.openmhealth.reference.domain.AuthorizationToken;
+
+/**
+ * <p>
+ * Tests everything about the {@link AuthorizationCodeResponseBin} class that
+ * does not depend on a database. The bins are replaced with ones that return
+ * fixed codes and expiration times.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class AuthorizationCodeResponseBinTest {
+	/**
+	 * A response bin whose granted codes are fixed.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class FixedResponseBin
+		extends AuthorizationCodeResponseBin {
+		
+		/**
+		 * The granted codes mapped to the users who granted them.
+		 */
+		private final Map<String, String> grantedCodes =
+			new HashMap<String, String>();
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationCodeResponseBin#storeVerification(org.openmhealth.reference.domain.AuthorizationCodeResponse)
+		 */
+		@Override
+		public void storeVerification(
+			final AuthorizationCodeResponse response) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationCodeResponseBin#getResponse(java.lang.String)
+		 */
+		@Override
+		public AuthorizationCodeResponse getResponse(final String code) {
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationCodeResponseBin#getGrantedCodes(java.lang.String, java.lang.String, long)
+		 */
+		@Override
+		public Map<String, String> getGrantedCodes(
+			final String thirdPartyId,
+			final String scope,
+			final long grantedBefore) {
+			
+			return grantedCodes;
+		}
+	}
+	
+	/**
+	 * A token bin whose expiration times are fixed.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class FixedTokenBin extends AuthorizationTokenBin {
+		/**
+		 * The codes mapped to the latest expiration times of their tokens.
+		 */
+		private final Map<String, Long> expirationTimes =
+			new HashMap<String, Long>();
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationTokenBin#storeToken(org.openmhealth.reference.domain.AuthorizationToken)
+		 */
+		@Override
+		public void storeToken(final AuthorizationToken token) {
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationTokenBin#getTokenFromAccessToken(java.lang.String)
+		 */
+		@Override
+		public AuthorizationToken getTokenFromAccessToken(
+			final String accessToken) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationTokenBin#getTokenFromRefreshToken(java.lang.String)
+		 */
+		@Override
+		public AuthorizationToken getTokenFromRefreshToken(
+			final String refreshToken) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.AuthorizationTokenBin#getLatestExpirationTimes(java.lang.String)
+		 */
+		@Override
+		public Map<String, Long> getLatestExpirationTimes(
+			final String thirdPartyId) {
+			
+			return expirationTimes;
+		}
+	}
+	
+	/**
+	 * The third-party ID for these tests.
+	 */
+	public static final String THIRD_PARTY_ID = "third-party";
+	/**
+	 * The scope for these tests.
+	 */
+	public static final String SCOPE = "omh:test:scope";
+	/**
+	 * The time at which the tokens must be valid.
+	 */
+	public static final long NOW = 1000000;
+	
+	/**
+	 * The response bin being tested.
+	 */
+	private FixedResponseBin responseBin;
+	/**
+	 * The token bin that gives the expiration times.
+	 */
+	private FixedTokenBin tokenBin;
+	
+	/**
+	 * Creates the bins.
+	 */
+	@Before
+	public void setUp() {
+		responseBin = new FixedResponseBin();
+		tokenBin = new FixedTokenBin();
+	}
+	
+	/**
+	 * Tests that a user whose token has not expired is in the cohort.
+	 */
+	@Test
+	public void testGetGrantedOwnersValid() {
+		responseBin.grantedCodes.put("code", "user");
+		tokenBin.expirationTimes.put("code", NOW + 1);
+		
+		Set<String> owners = getGrantedOwners();
+		Assert.assertEquals(1, owners.size());
+		Assert.assertTrue(owners.contains("user"));
+	}
+	
+	/**
+	 * Tests that a user whose latest token has expired is not in the
+	 * cohort.
+	 */
+	@Test
+	public void testGetGrantedOwnersExpired() {
+		responseBin.grantedCodes.put("expired", "user");
+		tokenBin.expirationTimes.put("expired", NOW - 1);
+		responseBin.grantedCodes.put("expiring", "other");
+		tokenBin.expirationTimes.put("expiring", NOW);
+		
+		Assert.assertTrue(getGrantedOwners().isEmpty());
+	}
+	
+	/**
+	 * Tests that a user whose code was granted but never exchanged for a
+	 * token is not in the cohort.
+	 */
+	@Test
+	public void testGetGrantedOwnersUnredeemed() {
+		responseBin.grantedCodes.put("code", "user");
+		
+		Assert.assertTrue(getGrantedOwners().isEmpty());
+	}
+	
+	/**
+	 * Tests that a token for a code the user did not grant does not put the
+	 * user in the cohort.
+	 */
+	@Test
+	public void testGetGrantedOwnersOtherCode() {
+		responseBin.grantedCodes.put("code", "user");
+		tokenBin.expirationTimes.put("other", NOW + 1);
+		
+		Assert.assertTrue(getGrantedOwners().isEmpty());
+	}
+	
+	/**
+	 * Tests that a user with an expired code and a valid one is in the
+	 * cohort once.
+	 */
+	@Test
+	public void testGetGrantedOwnersExpiredAndValid() {
+		responseBin.grantedCodes.put("old", "user");
+		tokenBin.expirationTimes.put("old", NOW - 1);
+		responseBin.grantedCodes.put("new", "user");
+		tokenBin.expirationTimes.put("new", NOW + 1);
+		
+		Set<String> owners = getGrantedOwners();
+		Assert.assertEquals(1, owners.size());
+		Assert.assertTrue(owners.contains("user"));
+	}
+	
+	/**
+	 * Gets the cohort from the response bin.
+	 * 
+	 * @return The users whose access is valid.
+	 */
+	private Set<String> getGrantedOwners() {
+		return
+			responseBin.getGrantedOwners(THIRD_PARTY_ID, SCOPE, NOW, NOW);
+	}
+}
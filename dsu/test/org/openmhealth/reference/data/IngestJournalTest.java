@@ -0,0 +1,599 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.CursorMultiValueResult;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataCursor;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialStoreException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link IngestJournal} class. The data set is
+ * replaced with one that only records what it is given, so no database is
+ * needed.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class IngestJournalTest {
+	/**
+	 * A data set that records the points it is asked to store, or fails to
+	 * store them.
+	 * 
+	 * @author John Jenkins
+	 */
+	private static class RecordingDataSet extends DataSet {
+		/**
+		 * The points that were stored, in the order they were stored.
+		 */
+		private final List<Data> stored =
+			Collections.synchronizedList(new ArrayList<Data>());
+		/**
+		 * Whether or not every store fails, so the journal retries it.
+		 */
+		private volatile boolean failing = false;
+		/**
+		 * Whether or not every store fails after possibly storing some of
+		 * its points, so the journal dead-letters it.
+		 */
+		private volatile boolean partial = false;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#storeData(java.util.List)
+		 */
+		@Override
+		public void storeData(final List<Data> data)
+			throws PartialStoreException {
+			
+			if(failing) {
+				throw new OmhException("The store failed.");
+			}
+			if(partial) {
+				throw new PartialStoreException("The store failed.", data);
+			}
+			stored.addAll(data);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataCursor, long, long, boolean)
+		 */
+		@Override
+		public CursorMultiValueResult<Data> getData(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final ColumnList columnList,
+			final DateTime startDate,
+			final DateTime endDate,
+			final DataCursor cursor,
+			final long numToSkip,
+			final long numToReturn,
+			final boolean includeCount) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataCursor, long, long, boolean, org.openmhealth.reference.data.DataSet.DataHandler)
+		 */
+		@Override
+		public void streamData(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final ColumnList columnList,
+			final DateTime startDate,
+			final DateTime endDate,
+			final DataCursor cursor,
+			final long numToSkip,
+			final long numToReturn,
+			final boolean includeCount,
+			final DataHandler handler) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#getSnapshot()
+		 */
+		@Override
+		public String getSnapshot() {
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#getSnapshotData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, java.lang.String, org.openmhealth.reference.domain.DataCursor, long)
+		 */
+		@Override
+		public CursorMultiValueResult<Data> getSnapshotData(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final ColumnList columnList,
+			final String snapshot,
+			final DataCursor cursor,
+			final long numToReturn) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.DataSummary.Period, org.joda.time.DateTimeZone, long, long)
+		 */
+		@Override
+		public MultiValueResult<DataSummary> summarizeData(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final ColumnList columnList,
+			final DateTime startDate,
+			final DateTime endDate,
+			final DataSummary.Period period,
+			final DateTimeZone timeZone,
+			final long numToSkip,
+			final long numToReturn) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#streamMetaDataIds(java.lang.String, java.lang.String, long, org.openmhealth.reference.data.DataSet.MetaDataIdHandler)
+		 */
+		@Override
+		public void streamMetaDataIds(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final MetaDataIdHandler handler) {
+			
+			throw new UnsupportedOperationException();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.data.DataSet#getExistingMetaDataIds(java.lang.String, java.lang.String, long, java.util.Collection)
+		 */
+		@Override
+		public Set<String> getExistingMetaDataIds(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final Collection<String> metaDataIds) {
+			
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * The schema ID to use for the points.
+	 */
+	public static final String SCHEMA_ID = "omh:test:journal";
+	/**
+	 * The schema version to use for the points.
+	 */
+	public static final long SCHEMA_VERSION = 1;
+	/**
+	 * The number of milliseconds to wait for the flushers.
+	 */
+	public static final long TIMEOUT = 10000;
+	
+	/**
+	 * The charset of the journal's files.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The journal's directory.
+	 */
+	private File directory;
+	/**
+	 * The journal being tested, if it has not been shut down.
+	 */
+	private IngestJournal journal;
+	
+	/**
+	 * Creates an empty directory for the journal.
+	 * 
+	 * @throws IOException
+	 *         The directory could not be created.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("journal").toFile();
+	}
+	
+	/**
+	 * Shuts down the journal and deletes its directory.
+	 */
+	@After
+	public void tearDown() {
+		if(journal != null) {
+			journal.shutdown(TIMEOUT);
+		}
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+	
+	/**
+	 * Tests that the points are decoded on replay exactly as they were
+	 * appended.
+	 */
+	@Test
+	public void testAppendReplay() {
+		List<Data> data = createData("user", 3);
+		stall(data);
+		
+		RecordingDataSet dataSet = new RecordingDataSet();
+		journal = createJournal();
+		waitForFlush();
+		
+		Assert.assertEquals(data.size(), dataSet.stored.size());
+		for(int i = 0; i < data.size(); i++) {
+			Data expected = data.get(i);
+			Data actual = dataSet.stored.get(i);
+			Assert.assertEquals(expected.getOwner(), actual.getOwner());
+			Assert.assertEquals(expected.getSchemaId(), actual.getSchemaId());
+			Assert
+				.assertEquals(
+					expected.getSchemaVersion(),
+					actual.getSchemaVersion());
+			Assert
+				.assertEquals(
+					expected.getMetaData().getId(),
+					actual.getMetaData().getId());
+			Assert
+				.assertEquals(
+					expected.getMetaData().getTimestamp().toString(),
+					actual.getMetaData().getTimestamp().toString());
+			Assert.assertEquals(expected.getData(), actual.getData());
+		}
+	}
+	
+	/**
+	 * Tests that stored points are not replayed.
+	 */
+	@Test
+	public void testReplayStored() {
+		RecordingDataSet dataSet = new RecordingDataSet();
+		journal = createJournal();
+		journal.append(createData("user", 3));
+		waitForFlush();
+		journal.shutdown(TIMEOUT);
+		Assert.assertEquals(3, dataSet.stored.size());
+		
+		dataSet = new RecordingDataSet();
+		journal = createJournal();
+		Assert.assertEquals(0, journal.getQueueDepth());
+		Assert.assertEquals(0, dataSet.stored.size());
+	}
+	
+	/**
+	 * Tests that only the points at or after the checkpoint are replayed.
+	 * 
+	 * @throws IOException
+	 *         The checkpoint could not be written.
+	 */
+	@Test
+	public void testReplayFromCheckpoint() throws IOException {
+		List<Data> data = createData("user", 5);
+		stall(data);
+		write(new File(directory, "checkpoint"), "2", false);
+		
+		RecordingDataSet dataSet = new RecordingDataSet();
+		journal = createJournal();
+		waitForFlush();
+		
+		Assert.assertEquals(3, dataSet.stored.size());
+		for(int i = 0; i < 3; i++) {
+			Assert
+				.assertEquals(
+					data.get(i + 2).getMetaData().getId(),
+					dataSet.stored.get(i).getMetaData().getId());
+		}
+	}
+	
+	/**
+	 * Tests that an entry that was only partially written is ignored on
+	 * replay and does not affect the points appended after it.
+	 * 
+	 * @throws IOException
+	 *         The partial entry could not be written.
+	 */
+	@Test
+	public void testReplayTornTail() throws IOException {
+		List<Data> data = createData("user", 2);
+		stall(data);
+		File[] segments = getSegments();
+		Assert.assertEquals(1, segments.length);
+		write(segments[0], "{\"seq\":2,\"owner\":\"us", true);
+		
+		// The complete entries are replayed and the torn one is ignored.
+		RecordingDataSet dataSet = new RecordingDataSet();
+		journal = createJournal();
+		waitForFlush();
+		Assert.assertEquals(data.size(), dataSet.stored.size());
+		
+		// A new point is journaled and stored normally.
+		List<Data> more = createData("other", 1);
+		journal.append(more);
+		waitForFlush();
+		journal.shutdown(TIMEOUT);
+		Assert.assertEquals(data.size() + 1, dataSet.stored.size());
+		Assert.assertSame(more.get(0), dataSet.stored.get(data.size()));
+		
+		// Nothing is replayed again.
+		dataSet = new RecordingDataSet();
+		journal = createJournal();
+		Assert.assertEquals(0, journal.getQueueDepth());
+	}
+	
+	/**
+	 * Tests that a batch that was only partially stored is written to the
+	 * dead-letter file instead of being stored again.
+	 * 
+	 * @throws IOException
+	 *         The dead-letter file could not be read.
+	 */
+	@Test
+	public void testDeadLetter() throws IOException {
+		RecordingDataSet dataSet = new RecordingDataSet();
+		dataSet.partial = true;
+		journal = createJournal();
+		journal.append(createData("user", 2));
+		waitForFlush();
+		Assert.assertEquals(0, dataSet.stored.size());
+		
+		// Both points are in the dead-letter file.
+		List<String> lines =
+			Files
+				.readAllLines(
+					new File(directory, "dead-letter.log").toPath(),
+					CHARSET);
+		Assert.assertEquals(2, lines.size());
+		Assert.assertTrue(lines.get(0).contains("\"seq\":0"));
+		Assert.assertTrue(lines.get(1).contains("\"seq\":1"));
+		
+		// They are not replayed.
+		journal.shutdown(TIMEOUT);
+		dataSet = new RecordingDataSet();
+		journal = createJournal();
+		Assert.assertEquals(0, journal.getQueueDepth());
+	}
+	
+	/**
+	 * Tests that the meta-data IDs of a stream's points are pending until
+	 * the points have been stored.
+	 */
+	@Test
+	public void testGetPendingMetaDataIds() {
+		RecordingDataSet dataSet = new RecordingDataSet();
+		dataSet.failing = true;
+		journal = createJournal();
+		journal.append(createData("user", 2));
+		journal.append(createData("other", 1));
+		
+		Set<String> pending =
+			journal.getPendingMetaDataIds("user", SCHEMA_ID, SCHEMA_VERSION);
+		Assert.assertEquals(2, pending.size());
+		Assert.assertTrue(pending.contains("user-0"));
+		Assert.assertTrue(pending.contains("user-1"));
+		Assert
+			.assertTrue(
+				journal
+					.getPendingMetaDataIds(
+						"user",
+						SCHEMA_ID,
+						SCHEMA_VERSION + 1)
+					.isEmpty());
+		journal.shutdown(100);
+		
+		// Once they are stored, they are no longer pending.
+		dataSet = new RecordingDataSet();
+		journal = createJournal();
+		waitForFlush();
+		Assert.assertEquals(3, dataSet.stored.size());
+		Assert
+			.assertTrue(
+				journal
+					.getPendingMetaDataIds("user", SCHEMA_ID, SCHEMA_VERSION)
+					.isEmpty());
+	}
+	
+	/**
+	 * Tests that the journal's directory must be given.
+	 */
+	@Test(expected = OmhException.class)
+	public void testIngestJournalNoDirectory() {
+		new IngestJournal(new Properties());
+	}
+	
+	/**
+	 * Journals points while every store fails, then shuts the journal down
+	 * so that the points are left to be replayed.
+	 * 
+	 * @param data
+	 *        The points to journal.
+	 */
+	private void stall(final List<Data> data) {
+		RecordingDataSet dataSet = new RecordingDataSet();
+		dataSet.failing = true;
+		journal = createJournal();
+		journal.append(data);
+		journal.shutdown(100);
+		journal = null;
+	}
+	
+	/**
+	 * Creates a journal in the test's directory with a single flusher that
+	 * retries a failed batch once after a minute.
+	 * 
+	 * @return The journal.
+	 */
+	private IngestJournal createJournal() {
+		Properties properties = new Properties();
+		properties
+			.setProperty(
+				IngestJournal.PROPERTY_KEY_DIRECTORY,
+				directory.getAbsolutePath());
+		properties.setProperty(IngestJournal.PROPERTY_KEY_FLUSHERS, "1");
+		properties
+			.setProperty(IngestJournal.PROPERTY_KEY_CHECKPOINT_INTERVAL, "10");
+		properties
+			.setProperty(IngestJournal.PROPERTY_KEY_RETRY_INTERVAL, "60000");
+		properties.setProperty(IngestJournal.PROPERTY_KEY_MAX_RETRIES, "1");
+		return new IngestJournal(properties);
+	}
+	
+	/**
+	 * Waits until the journal has no points waiting to be stored.
+	 */
+	private void waitForFlush() {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(journal.getQueueDepth() > 0) {
+			if(System.currentTimeMillis() > deadline) {
+				Assert.fail("The journal was not flushed.");
+			}
+			try {
+				Thread.sleep(10);
+			}
+			catch(InterruptedException e) {
+				Assert.fail("Interrupted while waiting for the journal.");
+			}
+		}
+	}
+	
+	/**
+	 * Returns the journal's segments.
+	 * 
+	 * @return The journal's segments.
+	 */
+	private File[] getSegments() {
+		List<File> result = new ArrayList<File>();
+		for(File file : directory.listFiles()) {
+			if(file.getName().startsWith("journal-")) {
+				result.add(file);
+			}
+		}
+		return result.toArray(new File[result.size()]);
+	}
+	
+	/**
+	 * Writes text to a file.
+	 * 
+	 * @param file
+	 *        The file.
+	 * 
+	 * @param text
+	 *        The text to write.
+	 * 
+	 * @param append
+	 *        Whether to append the text or replace the file.
+	 * 
+	 * @throws IOException
+	 *         The file could not be written.
+	 */
+	private static void write(
+		final File file,
+		final String text,
+		final boolean append)
+		throws IOException {
+		
+		FileOutputStream out = new FileOutputStream(file, append);
+		try {
+			out.write(text.getBytes(CHARSET));
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Creates points for a user, each with its own ID and a time stamp in a
+	 * time zone other than UTC.
+	 * 
+	 * @param owner
+	 *        The user's username.
+	 * 
+	 * @param count
+	 *        The number of points to create.
+	 * 
+	 * @return The points.
+	 */
+	private static List<Data> createData(
+		final String owner,
+		final int count) {
+		
+		ObjectMapper mapper = new ObjectMapper();
+		DateTime start =
+			new DateTime(2013, 6, 1, 8, 0, DateTimeZone.forOffsetHours(-7));
+		List<Data> result = new ArrayList<Data>(count);
+		for(int i = 0; i < count; i++) {
+			MetaData.Builder builder = new MetaData.Builder();
+			builder.setId(owner + "-" + i);
+			builder.setTimestamp(start.plusMinutes(i));
+			result
+				.add(
+					new Data(
+						owner,
+						SCHEMA_ID,
+						SCHEMA_VERSION,
+						builder.build(),
+						mapper
+							.createObjectNode()
+							.put("value", i)
+							.put("label", "point " + i)));
+		}
+		return result;
+	}
+}
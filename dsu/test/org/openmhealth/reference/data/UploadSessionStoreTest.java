@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmhealth.reference.domain.UploadSession;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link UploadSessionStore} class. Each test has
+ * its own directory, and a server restart is simulated by creating a new
+ * store for the same directory.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class UploadSessionStoreTest {
+	/**
+	 * The owner of the uploads.
+	 */
+	public static final String OWNER = "user";
+	/**
+	 * The schema ID of the uploads.
+	 */
+	public static final String SCHEMA_ID = "omh:test:upload";
+	/**
+	 * The schema version of the uploads.
+	 */
+	public static final long SCHEMA_VERSION = 1;
+	/**
+	 * The maximum size of a chunk for these tests.
+	 */
+	public static final long MAX_CHUNK_SIZE = 16;
+	
+	/**
+	 * The charset of the chunks.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The store's directory.
+	 */
+	private File directory;
+	/**
+	 * The store being tested.
+	 */
+	private UploadSessionStore store;
+	
+	/**
+	 * Creates an empty directory and a store for it.
+	 * 
+	 * @throws IOException
+	 *         The directory could not be created.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("uploads").toFile();
+		store = createStore();
+	}
+	
+	/**
+	 * Deletes the store's directory.
+	 */
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+	
+	/**
+	 * Tests that a new upload is empty.
+	 */
+	@Test
+	public void testOpen() {
+		UploadSession session = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION);
+		
+		Assert.assertEquals(OWNER, session.getOwner());
+		Assert.assertEquals(SCHEMA_ID, session.getSchemaId());
+		Assert.assertEquals(SCHEMA_VERSION, session.getVersion());
+		Assert.assertEquals(0, session.getChunks());
+		Assert.assertEquals(0, session.getOffset());
+		Assert.assertEquals(0, session.getStoredPoints());
+		Assert.assertFalse(session.isFinalized());
+		Assert.assertEquals("", readData(session));
+	}
+	
+	/**
+	 * Tests that an unknown upload cannot be read.
+	 */
+	@Test(expected = OmhException.class)
+	public void testGetUnknown() {
+		store.get("00000000-0000-0000-0000-000000000000");
+	}
+	
+	/**
+	 * Tests that an ID that is not a UUID is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testGetInvalid() {
+		store.get("../upload");
+	}
+	
+	/**
+	 * Tests that chunks are committed in order and their offset is reported.
+	 */
+	@Test
+	public void testAddChunk() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		
+		UploadSession session = addChunk(id, 0, "first\n");
+		Assert.assertEquals(1, session.getChunks());
+		Assert.assertEquals(6, session.getOffset());
+		
+		session = addChunk(id, 1, "second\n");
+		Assert.assertEquals(2, session.getChunks());
+		Assert.assertEquals(13, session.getOffset());
+		Assert.assertEquals("first\nsecond\n", readData(session));
+	}
+	
+	/**
+	 * Tests that a chunk that was already committed is ignored.
+	 */
+	@Test
+	public void testAddChunkResent() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		addChunk(id, 1, "second\n");
+		
+		UploadSession session = addChunk(id, 0, "other\n");
+		Assert.assertEquals(2, session.getChunks());
+		Assert.assertEquals(13, session.getOffset());
+		Assert.assertEquals("first\nsecond\n", readData(session));
+	}
+	
+	/**
+	 * Tests that a chunk after the next expected chunk is rejected and does
+	 * not change the upload.
+	 */
+	@Test
+	public void testAddChunkSkipped() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		
+		try {
+			addChunk(id, 2, "third\n");
+			Assert.fail("A skipped chunk was accepted.");
+		}
+		catch(OmhException e) {
+			// Expected.
+		}
+		
+		UploadSession session = store.get(id);
+		Assert.assertEquals(1, session.getChunks());
+		Assert.assertEquals("first\n", readData(session));
+	}
+	
+	/**
+	 * Tests that a chunk that is too large is rejected and does not change
+	 * the upload, so that it can be sent again in smaller pieces.
+	 */
+	@Test
+	public void testAddChunkTooLarge() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		
+		try {
+			addChunk(id, 1, "a chunk that is far too large\n");
+			Assert.fail("A chunk that is too large was accepted.");
+		}
+		catch(OmhException e) {
+			// Expected.
+		}
+		
+		UploadSession session = addChunk(id, 1, "second\n");
+		Assert.assertEquals(2, session.getChunks());
+		Assert.assertEquals("first\nsecond\n", readData(session));
+	}
+	
+	/**
+	 * Tests that bytes of a chunk that was never committed, e.g. because the
+	 * server stopped while it was being written, are ignored and then
+	 * overwritten.
+	 * 
+	 * @throws IOException
+	 *         The partial chunk could not be written.
+	 */
+	@Test
+	public void testAddChunkAfterPartialChunk() throws IOException {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		FileOutputStream out =
+			new FileOutputStream(new File(directory, id + ".data"), true);
+		try {
+			out.write("seco".getBytes(CHARSET));
+		}
+		finally {
+			out.close();
+		}
+		
+		store = createStore();
+		UploadSession session = store.get(id);
+		Assert.assertEquals(6, session.getOffset());
+		Assert.assertEquals("first\n", readData(session));
+		
+		session = addChunk(id, 1, "second\n");
+		Assert.assertEquals("first\nsecond\n", readData(session));
+	}
+	
+	/**
+	 * Tests that the committed chunks and offset are kept across a restart.
+	 */
+	@Test
+	public void testGetAfterRestart() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		addChunk(id, 1, "second\n");
+		
+		store = createStore();
+		UploadSession session = store.get(id);
+		Assert.assertEquals(OWNER, session.getOwner());
+		Assert.assertEquals(2, session.getChunks());
+		Assert.assertEquals(13, session.getOffset());
+		Assert.assertEquals("first\nsecond\n", readData(session));
+	}
+	
+	/**
+	 * Tests that only one request may finalize an upload at a time and that
+	 * no chunks are accepted while it does.
+	 */
+	@Test
+	public void testBeginFinalizing() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		store.beginFinalizing(id);
+		
+		try {
+			store.beginFinalizing(id);
+			Assert.fail("An upload was finalized twice at once.");
+		}
+		catch(OmhException e) {
+			// Expected.
+		}
+		try {
+			addChunk(id, 1, "second\n");
+			Assert.fail("A chunk was accepted while finalizing.");
+		}
+		catch(OmhException e) {
+			// Expected.
+		}
+		
+		// Once the first request ends, another may begin.
+		store.endFinalizing(id);
+		store.beginFinalizing(id);
+		store.endFinalizing(id);
+	}
+	
+	/**
+	 * Tests that a finalize that stored some of the points before it failed
+	 * can be resumed, even after a restart, and that the data can no longer
+	 * change.
+	 */
+	@Test
+	public void testResumeFinalizing() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		addChunk(id, 1, "second\n");
+		
+		// The first attempt stores one point and fails.
+		store.beginFinalizing(id);
+		store.setStoredPoints(id, 1);
+		store.endFinalizing(id);
+		
+		// After a restart, the progress and the data are still there.
+		store = createStore();
+		UploadSession session = store.get(id);
+		Assert.assertEquals(1, session.getStoredPoints());
+		Assert.assertFalse(session.isFinalized());
+		Assert.assertEquals("first\nsecond\n", readData(session));
+		
+		// No more chunks may be added, but resending one is harmless.
+		try {
+			addChunk(id, 2, "third\n");
+			Assert.fail("A chunk was accepted after points were stored.");
+		}
+		catch(OmhException e) {
+			// Expected.
+		}
+		Assert.assertEquals(2, addChunk(id, 1, "second\n").getChunks());
+		
+		// The second attempt picks up where the first left off.
+		session = store.beginFinalizing(id);
+		Assert.assertEquals(1, session.getStoredPoints());
+		store.setStoredPoints(id, 2);
+		store.setFinalized(id, false);
+		store.endFinalizing(id);
+		
+		session = store.get(id);
+		Assert.assertEquals(2, session.getStoredPoints());
+		Assert.assertTrue(session.isFinalized());
+		Assert.assertFalse(session.isDeferred());
+	}
+	
+	/**
+	 * Tests that a finalized upload keeps its result but not its data.
+	 */
+	@Test
+	public void testSetFinalized() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		store.beginFinalizing(id);
+		store.setFinalized(id, true);
+		store.endFinalizing(id);
+		
+		store = createStore();
+		UploadSession session = store.get(id);
+		Assert.assertTrue(session.isFinalized());
+		Assert.assertTrue(session.isDeferred());
+		Assert.assertFalse(new File(directory, id + ".data").exists());
+		try {
+			addChunk(id, 1, "second\n");
+			Assert.fail("A chunk was accepted after finalizing.");
+		}
+		catch(OmhException e) {
+			// Expected.
+		}
+	}
+	
+	/**
+	 * Tests that a deleted upload is unknown.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDelete() {
+		String id = store.open(OWNER, SCHEMA_ID, SCHEMA_VERSION).getId();
+		addChunk(id, 0, "first\n");
+		store.delete(id);
+		
+		store.get(id);
+	}
+	
+	/**
+	 * Creates a store for the test's directory.
+	 * 
+	 * @return The store.
+	 */
+	private UploadSessionStore createStore() {
+		Properties properties = new Properties();
+		properties
+			.setProperty(
+				UploadSessionStore.PROPERTY_KEY_DIRECTORY,
+				directory.getAbsolutePath());
+		properties
+			.setProperty(
+				UploadSessionStore.PROPERTY_KEY_MAX_CHUNK_SIZE,
+				Long.toString(MAX_CHUNK_SIZE));
+		return new UploadSessionStore(properties);
+	}
+	
+	/**
+	 * Adds a chunk to an upload.
+	 * 
+	 * @param id
+	 *        The upload's ID.
+	 * 
+	 * @param chunk
+	 *        The number of the chunk.
+	 * 
+	 * @param text
+	 *        The chunk's contents.
+	 * 
+	 * @return The upload's new state.
+	 */
+	private UploadSession addChunk(
+		final String id,
+		final long chunk,
+		final String text) {
+		
+		return
+			store
+				.addChunk(
+					id,
+					chunk,
+					new ByteArrayInputStream(text.getBytes(CHARSET)));
+	}
+	
+	/**
+	 * Reads an upload's committed data.
+	 * 
+	 * @param session
+	 *        The upload.
+	 * 
+	 * @return The upload's committed data.
+	 */
+	private String readData(final UploadSession session) {
+		InputStream data = store.openData(session);
+		try {
+			return IOUtils.toString(data, CHARSET);
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be read.", e);
+		}
+		finally {
+			IOUtils.closeQuietly(data);
+		}
+	}
+}
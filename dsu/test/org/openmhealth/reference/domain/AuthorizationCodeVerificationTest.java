@@ -90,6 +90,11 @@ public class AuthorizationCodeVerificationTest {
 	 */
 	public static final long EXPIRATION_TIME = CREATION_TIME + 1;
 	
+	/**
+	 * A valid response time for these tests.
+	 */
+	public static final long RESPONSE_TIME = CREATION_TIME;
+	
 	/**
 	 * A valid set of scopes for these tests.
 	 */
@@ -152,7 +157,7 @@ public class AuthorizationCodeVerificationTest {
 	 */
 	@Test(expected = OmhException.class)
 	public void testAuthorizationCodeVerificationCodeOwnerGrantedCodeNull() {
-		new AuthorizationCodeResponse(null, USERNAME, true);
+		new AuthorizationCodeResponse(null, USERNAME, true, RESPONSE_TIME);
 	}
 
 	/**
@@ -160,7 +165,7 @@ public class AuthorizationCodeVerificationTest {
 	 */
 	@Test(expected = OmhException.class)
 	public void testAuthorizationCodeVerificationCodeOwnerGrantedOwnerNull() {
-		new AuthorizationCodeResponse(CODE, null, true);
+		new AuthorizationCodeResponse(CODE, null, true, RESPONSE_TIME);
 	}
 
 	/**
@@ -168,7 +173,7 @@ public class AuthorizationCodeVerificationTest {
 	 */
 	@Test
 	public void testAuthorizationCodeVerificationCodeOwnerGrantedGrantedTrue() {
-		new AuthorizationCodeResponse(CODE, USERNAME, true);
+		new AuthorizationCodeResponse(CODE, USERNAME, true, RESPONSE_TIME);
 	}
 
 	/**
@@ -176,7 +181,7 @@ public class AuthorizationCodeVerificationTest {
 	 */
 	@Test
 	public void testAuthorizationCodeVerificationCodeOwnerGrantedGrantedFalse() {
-		new AuthorizationCodeResponse(CODE, USERNAME, false);
+		new AuthorizationCodeResponse(CODE, USERNAME, false, RESPONSE_TIME);
 	}
 
 	/**
@@ -197,7 +202,7 @@ public class AuthorizationCodeVerificationTest {
 	@Test
 	public void testGetAuthorizationCodeOldCode() {
 		AuthorizationCodeResponse response =
-			new AuthorizationCodeResponse(CODE, USERNAME, true);
+			new AuthorizationCodeResponse(CODE, USERNAME, true, RESPONSE_TIME);
 		Assert.assertEquals(CODE, response.getAuthorizationCode());
 	}
 
@@ -230,7 +235,7 @@ public class AuthorizationCodeVerificationTest {
 	@Test
 	public void testGetGrantedOldCodeGrantedTrue() {
 		AuthorizationCodeResponse response =
-			new AuthorizationCodeResponse(CODE, USERNAME, true);
+			new AuthorizationCodeResponse(CODE, USERNAME, true, RESPONSE_TIME);
 		Assert.assertTrue(response.getGranted());
 	}
 
@@ -241,7 +246,33 @@ public class AuthorizationCodeVerificationTest {
 	@Test
 	public void testGetGrantedOldCodeGrantedFalse() {
 		AuthorizationCodeResponse response =
-			new AuthorizationCodeResponse(CODE, USERNAME, false);
+			new AuthorizationCodeResponse(CODE, USERNAME, false, RESPONSE_TIME);
 		Assert.assertFalse(response.getGranted());
 	}
+
+	/**
+	 * Test that a new response is given the current time as its response
+	 * time.
+	 */
+	@Test
+	public void testGetResponseTimeNewCode() {
+		long before = System.currentTimeMillis();
+		AuthorizationCodeResponse response =
+			new AuthorizationCodeResponse(AUTHORIZATION_CODE, USER, true);
+		Assert.assertTrue(response.getResponseTime() >= before);
+		Assert
+			.assertTrue(
+				response.getResponseTime() <= System.currentTimeMillis());
+	}
+
+	/**
+	 * Test that reconstructing a response from existing response information
+	 * causes the getter to return the same response time.
+	 */
+	@Test
+	public void testGetResponseTimeOldCode() {
+		AuthorizationCodeResponse response =
+			new AuthorizationCodeResponse(CODE, USERNAME, true, RESPONSE_TIME);
+		Assert.assertEquals(RESPONSE_TIME, response.getResponseTime());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link CohortCursor} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class CohortCursorTest {
+	/**
+	 * A snapshot point to use when testing.
+	 */
+	public static final String SNAPSHOT_TEST = "51d0e5f2e4b0a1b2c3d4e5f6";
+	/**
+	 * A snapshot time to use when testing.
+	 */
+	public static final long SNAPSHOT_TIME_TEST = 1372636800000L;
+	/**
+	 * A schema ID to use when testing.
+	 */
+	public static final String SCHEMA_ID_TEST = "omh:test:cohort";
+	/**
+	 * A schema version to use when testing.
+	 */
+	public static final long VERSION_TEST = 42;
+	/**
+	 * An owner to use when testing, which contains the token's separator.
+	 */
+	public static final String OWNER_TEST = "sink.thaw";
+	/**
+	 * A position to use when testing.
+	 */
+	public static final DataCursor POSITION_TEST =
+		new DataCursor(
+			DataCursorTest.TIMESTAMP_TEST,
+			DataCursorTest.ID_TEST);
+	
+	/**
+	 * Test that a {@link CohortCursor} object can be built.
+	 */
+	@Test
+	public void testCohortCursor() {
+		new CohortCursor(
+			SNAPSHOT_TEST,
+			SNAPSHOT_TIME_TEST,
+			SCHEMA_ID_TEST,
+			VERSION_TEST,
+			OWNER_TEST,
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that the position can be null.
+	 */
+	@Test
+	public void testCohortCursorPositionNull() {
+		new CohortCursor(
+			SNAPSHOT_TEST,
+			SNAPSHOT_TIME_TEST,
+			SCHEMA_ID_TEST,
+			VERSION_TEST,
+			OWNER_TEST,
+			null);
+	}
+	
+	/**
+	 * Test that the snapshot point cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCohortCursorSnapshotNull() {
+		new CohortCursor(
+			null,
+			SNAPSHOT_TIME_TEST,
+			SCHEMA_ID_TEST,
+			VERSION_TEST,
+			OWNER_TEST,
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that the snapshot point cannot contain the separator.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCohortCursorSnapshotInvalid() {
+		new CohortCursor(
+			"4.2",
+			SNAPSHOT_TIME_TEST,
+			SCHEMA_ID_TEST,
+			VERSION_TEST,
+			OWNER_TEST,
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that the schema ID cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCohortCursorSchemaIdNull() {
+		new CohortCursor(
+			SNAPSHOT_TEST,
+			SNAPSHOT_TIME_TEST,
+			null,
+			VERSION_TEST,
+			OWNER_TEST,
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that the schema ID cannot contain the separator.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCohortCursorSchemaIdInvalid() {
+		new CohortCursor(
+			SNAPSHOT_TEST,
+			SNAPSHOT_TIME_TEST,
+			"omh.test",
+			VERSION_TEST,
+			OWNER_TEST,
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that the owner cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCohortCursorOwnerNull() {
+		new CohortCursor(
+			SNAPSHOT_TEST,
+			SNAPSHOT_TIME_TEST,
+			SCHEMA_ID_TEST,
+			VERSION_TEST,
+			null,
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that the owner cannot be empty.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCohortCursorOwnerEmpty() {
+		new CohortCursor(
+			SNAPSHOT_TEST,
+			SNAPSHOT_TIME_TEST,
+			SCHEMA_ID_TEST,
+			VERSION_TEST,
+			"",
+			POSITION_TEST);
+	}
+	
+	/**
+	 * Test that a token is decoded into the same cursor that created it.
+	 */
+	@Test
+	public void testValueOf() {
+		CohortCursor cursor =
+			CohortCursor
+				.valueOf(
+					new CohortCursor(
+						SNAPSHOT_TEST,
+						SNAPSHOT_TIME_TEST,
+						SCHEMA_ID_TEST,
+						VERSION_TEST,
+						OWNER_TEST,
+						POSITION_TEST)
+						.toString());
+		Assert.assertEquals(SNAPSHOT_TEST, cursor.getSnapshot());
+		Assert.assertEquals(SNAPSHOT_TIME_TEST, cursor.getSnapshotTime());
+		Assert.assertEquals(SCHEMA_ID_TEST, cursor.getSchemaId());
+		Assert.assertEquals(VERSION_TEST, cursor.getVersion());
+		Assert.assertEquals(OWNER_TEST, cursor.getOwner());
+		Assert
+			.assertEquals(
+				POSITION_TEST.toString(),
+				cursor.getPosition().toString());
+	}
+	
+	/**
+	 * Test that a token without a position is decoded into the same cursor
+	 * that created it.
+	 */
+	@Test
+	public void testValueOfPositionNull() {
+		CohortCursor cursor =
+			CohortCursor
+				.valueOf(
+					new CohortCursor(
+						"42",
+						SNAPSHOT_TIME_TEST,
+						SCHEMA_ID_TEST,
+						VERSION_TEST,
+						OWNER_TEST,
+						null)
+						.toString());
+		Assert.assertEquals("42", cursor.getSnapshot());
+		Assert.assertEquals(OWNER_TEST, cursor.getOwner());
+		Assert.assertNull(cursor.getPosition());
+	}
+	
+	/**
+	 * Test that a token whose position has no timestamp is decoded into the
+	 * same cursor that created it.
+	 */
+	@Test
+	public void testValueOfPositionTimestampNull() {
+		CohortCursor cursor =
+			CohortCursor
+				.valueOf(
+					new CohortCursor(
+						"42",
+						SNAPSHOT_TIME_TEST,
+						SCHEMA_ID_TEST,
+						VERSION_TEST,
+						OWNER_TEST,
+						new DataCursor(null, "7"))
+						.toString());
+		Assert.assertNull(cursor.getPosition().getTimestamp());
+		Assert.assertEquals("7", cursor.getPosition().getId());
+	}
+	
+	/**
+	 * Test that a null token is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfNull() {
+		CohortCursor.valueOf(null);
+	}
+	
+	/**
+	 * Test that a token without enough parts is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfTooFewParts() {
+		CohortCursor.valueOf("abc.42.sink");
+	}
+	
+	/**
+	 * Test that a token with an invalid snapshot time is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfInvalidSnapshotTime() {
+		CohortCursor.valueOf("a!c.42.omh:test.1...sink");
+	}
+	
+	/**
+	 * Test that a token with an invalid schema version is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfInvalidVersion() {
+		CohortCursor.valueOf("abc.42.omh:test.!...sink");
+	}
+	
+	/**
+	 * Test that a token with a position timestamp but no position ID is
+	 * rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfPositionIdMissing() {
+		CohortCursor.valueOf("abc.42.omh:test.1.abc..sink");
+	}
+	
+	/**
+	 * Test that a token without an owner is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfNoOwner() {
+		CohortCursor.valueOf("abc.42.omh:test.1...");
+	}
+}
@@ -15,12 +15,17 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
 
 /**
  * <p>
@@ -47,6 +52,17 @@ public class ColumnListTest {
 	 */
 	public static final String ELEMENT_A_CHILD_B = "a.b";
 	
+	/**
+	 * The factory for the parsers that are projected.
+	 */
+	private static final MappingJsonFactory JSON_FACTORY =
+		new MappingJsonFactory();
+	/**
+	 * The data that is projected.
+	 */
+	public static final String DATA =
+		"{\"a\":{\"a\":1,\"b\":[2,3],\"c\":{\"d\":4}},\"b\":\"x\",\"c\":5}";
+	
 	/**
 	 * Tests that passing null to the constructor doesn't throw an exception.
 	 */
@@ -216,4 +232,160 @@ public class ColumnListTest {
 		element.removeAll(result);
 		Assert.assertEquals(0, element.size());
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Tests that projecting a single element keeps its whole value.
+	 */
+	@Test
+	public void testProjectOneElement() throws IOException {
+		List<String> element = new ArrayList<String>(1);
+		element.add(ELEMENT_B);
+		ColumnList columnList = new ColumnList(element);
+		
+		Assert
+			.assertEquals(
+				JSON_FACTORY.createJsonParser("{\"b\":\"x\"}").readValueAsTree(),
+				columnList.project(JSON_FACTORY.createJsonParser(DATA)));
+	}
+	
+	/**
+	 * Tests that projecting children keeps only those children.
+	 */
+	@Test
+	public void testProjectChildren() throws IOException {
+		List<String> element = new ArrayList<String>(2);
+		element.add(ELEMENT_A_CHILD_A);
+		element.add(ELEMENT_A_CHILD_B);
+		ColumnList columnList = new ColumnList(element);
+		
+		Assert
+			.assertEquals(
+				JSON_FACTORY
+					.createJsonParser("{\"a\":{\"a\":1,\"b\":[2,3]}}")
+					.readValueAsTree(),
+				columnList.project(JSON_FACTORY.createJsonParser(DATA)));
+	}
+	
+	/**
+	 * Tests that an array is projected element by element.
+	 */
+	@Test
+	public void testProjectArray() throws IOException {
+		List<String> element = new ArrayList<String>(1);
+		element.add(ELEMENT_A);
+		ColumnList columnList = new ColumnList(element);
+		
+		Assert
+			.assertEquals(
+				JSON_FACTORY
+					.createJsonParser("[{\"a\":1},{},{\"a\":[2]}]")
+					.readValueAsTree(),
+				columnList
+					.project(
+						JSON_FACTORY
+							.createJsonParser(
+								"[{\"a\":1,\"b\":2},{\"b\":3},{\"a\":[2]},4]")));
+	}
+	
+	/**
+	 * Tests that projecting a value that cannot contain any columns results
+	 * in an empty object.
+	 */
+	@Test
+	public void testProjectScalar() throws IOException {
+		List<String> element = new ArrayList<String>(1);
+		element.add(ELEMENT_A);
+		ColumnList columnList = new ColumnList(element);
+		
+		JsonNode result = columnList.project(JSON_FACTORY.createJsonParser("1"));
+		Assert.assertTrue(result.isObject());
+		Assert.assertEquals(0, result.size());
+	}
+	
+	/**
+	 * Tests that the fields are the top-level elements.
+	 */
+	@Test
+	public void testGetFields() {
+		List<String> element = new ArrayList<String>(3);
+		element.add(ELEMENT_A_CHILD_A);
+		element.add(ELEMENT_A_CHILD_B);
+		element.add(ELEMENT_B);
+		ColumnList columnList = new ColumnList(element);
+		
+		List<String> fields = columnList.getFields();
+		Assert.assertEquals(2, fields.size());
+		Assert.assertTrue(fields.contains(ELEMENT_A));
+		Assert.assertTrue(fields.contains(ELEMENT_B));
+	}
+	
+	/**
+	 * Tests that projecting a field without children keeps its whole value.
+	 */
+	@Test
+	public void testProjectFieldOneElement() throws IOException {
+		List<String> element = new ArrayList<String>(1);
+		element.add(ELEMENT_A);
+		ColumnList columnList = new ColumnList(element);
+		
+		Assert
+			.assertEquals(
+				JSON_FACTORY.createJsonParser("[1,2]").readValueAsTree(),
+				columnList
+					.project(
+						ELEMENT_A,
+						JSON_FACTORY.createJsonParser("[1,2]")));
+	}
+	
+	/**
+	 * Tests that projecting a field keeps only its children.
+	 */
+	@Test
+	public void testProjectFieldChildren() throws IOException {
+		List<String> element = new ArrayList<String>(2);
+		element.add(ELEMENT_A_CHILD_A);
+		element.add(ELEMENT_A_CHILD_B);
+		ColumnList columnList = new ColumnList(element);
+		
+		Assert
+			.assertEquals(
+				JSON_FACTORY
+					.createJsonParser("{\"a\":1,\"b\":[2,3]}")
+					.readValueAsTree(),
+				columnList
+					.project(
+						ELEMENT_A,
+						JSON_FACTORY
+							.createJsonParser(
+								"{\"a\":1,\"b\":[2,3],\"c\":{\"d\":4}}")));
+	}
+	
+	/**
+	 * Tests that projecting a field whose value cannot contain its children
+	 * results in null.
+	 */
+	@Test
+	public void testProjectFieldScalar() throws IOException {
+		List<String> element = new ArrayList<String>(1);
+		element.add(ELEMENT_A_CHILD_A);
+		ColumnList columnList = new ColumnList(element);
+		
+		Assert
+			.assertNull(
+				columnList
+					.project(ELEMENT_A, JSON_FACTORY.createJsonParser("1")));
+	}
+	
+	/**
+	 * Tests that projecting a field that is not in the list throws an
+	 * exception.
+	 */
+	@Test(expected = OmhException.class)
+	public void testProjectFieldUnknown() throws IOException {
+		List<String> element = new ArrayList<String>(1);
+		element.add(ELEMENT_A);
+		ColumnList columnList = new ColumnList(element);
+		
+		columnList.project(ELEMENT_B, JSON_FACTORY.createJsonParser("1"));
+	}
+}
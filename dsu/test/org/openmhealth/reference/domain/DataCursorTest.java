@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link DataCursor} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataCursorTest {
+	/**
+	 * A timestamp to use when testing.
+	 */
+	public static final Long TIMESTAMP_TEST = 1372636800000L;
+	/**
+	 * A database ID to use when testing.
+	 */
+	public static final String ID_TEST = "51d0e5f2e4b0a1b2c3d4e5f6";
+	
+	/**
+	 * Test that a {@link DataCursor} object can be built.
+	 */
+	@Test
+	public void testDataCursor() {
+		new DataCursor(TIMESTAMP_TEST, ID_TEST);
+	}
+	
+	/**
+	 * Test that the timestamp can be null.
+	 */
+	@Test
+	public void testDataCursorTimestampNull() {
+		new DataCursor(null, ID_TEST);
+	}
+	
+	/**
+	 * Test that the ID cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataCursorIdNull() {
+		new DataCursor(TIMESTAMP_TEST, null);
+	}
+	
+	/**
+	 * Test that the ID cannot be empty.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataCursorIdEmpty() {
+		new DataCursor(TIMESTAMP_TEST, "");
+	}
+	
+	/**
+	 * Test that a token is decoded into the same cursor that created it.
+	 */
+	@Test
+	public void testValueOf() {
+		DataCursor cursor =
+			DataCursor
+				.valueOf(new DataCursor(TIMESTAMP_TEST, ID_TEST).toString());
+		Assert.assertEquals(TIMESTAMP_TEST, cursor.getTimestamp());
+		Assert.assertEquals(ID_TEST, cursor.getId());
+	}
+	
+	/**
+	 * Test that a token without a timestamp is decoded into the same cursor
+	 * that created it.
+	 */
+	@Test
+	public void testValueOfTimestampNull() {
+		DataCursor cursor =
+			DataCursor.valueOf(new DataCursor(null, "42").toString());
+		Assert.assertNull(cursor.getTimestamp());
+		Assert.assertEquals("42", cursor.getId());
+	}
+	
+	/**
+	 * Test that a null token is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfNull() {
+		DataCursor.valueOf(null);
+	}
+	
+	/**
+	 * Test that a token without a separator is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfNoSeparator() {
+		DataCursor.valueOf("abc");
+	}
+	
+	/**
+	 * Test that a token with an invalid timestamp is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfInvalidTimestamp() {
+		DataCursor.valueOf("a!c.42");
+	}
+	
+	/**
+	 * Test that a token without an ID is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValueOfNoId() {
+		DataCursor.valueOf("abc.");
+	}
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link DataPage} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataPageTest {
+	/**
+	 * Tests that the schema ID must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataPageSchemaIdNull() {
+		new DataPage(null, 1, null, null, new ArrayList<Data>());
+	}
+	
+	/**
+	 * Tests that the data must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataPageDataNull() {
+		new DataPage(SchemaTest.ID, 1, null, null, null);
+	}
+	
+	/**
+	 * Tests that the page keeps its own copy of the data.
+	 */
+	@Test
+	public void testGetData() {
+		List<Data> data = new ArrayList<Data>();
+		data.add(buildPoint());
+		DataPage page = new DataPage(SchemaTest.ID, 1, 1, null, data);
+		data.clear();
+		
+		Assert.assertEquals(1, page.getData().size());
+	}
+	
+	/**
+	 * Tests that the count and next cursor are omitted when they are null.
+	 */
+	@Test
+	public void testSerializeNulls() {
+		ObjectMapper mapper = new ObjectMapper();
+		List<Data> data = new ArrayList<Data>();
+		data.add(buildPoint());
+		
+		JsonNode page =
+			mapper
+				.valueToTree(
+					new DataPage(SchemaTest.ID, 1, null, null, data));
+		
+		Assert.assertFalse(page.has(DataPage.JSON_KEY_COUNT));
+		Assert.assertFalse(page.has(DataPage.JSON_KEY_NEXT_CURSOR));
+		Assert.assertEquals(1, page.get(DataPage.JSON_KEY_DATA).size());
+	}
+	
+	/**
+	 * Builds a point without meta-data.
+	 * 
+	 * @return The point.
+	 */
+	private static Data buildPoint() {
+		return
+			new Data(
+				DataTest.OWNER,
+				DataTest.SCHEMA.getId(),
+				DataTest.SCHEMA.getVersion(),
+				null,
+				DataTest.DATA);
+	}
+}
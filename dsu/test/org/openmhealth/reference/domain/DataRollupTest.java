@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link DataRollup} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataRollupTest {
+	/**
+	 * The start of an hour in milliseconds since the epoch.
+	 */
+	public static final long START = 1372672800000L;
+	
+	/**
+	 * Tests that the owner must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataRollupOwnerNull() {
+		new DataRollup(
+			null,
+			"schema",
+			1,
+			DataSummary.Period.HOUR,
+			"value",
+			START,
+			1,
+			1.0,
+			1.0,
+			1);
+	}
+	
+	/**
+	 * Tests that the field must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataRollupFieldNull() {
+		new DataRollup(
+			"owner",
+			"schema",
+			1,
+			DataSummary.Period.HOUR,
+			null,
+			START,
+			1,
+			1.0,
+			1.0,
+			1);
+	}
+	
+	/**
+	 * Tests that the start must be aligned to the period.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataRollupStartNotAligned() {
+		new DataRollup(
+			"owner",
+			"schema",
+			1,
+			DataSummary.Period.HOUR,
+			"value",
+			START + 1,
+			1,
+			1.0,
+			1.0,
+			1);
+	}
+	
+	/**
+	 * Tests that the count must not be negative.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataRollupCountNegative() {
+		new DataRollup(
+			"owner",
+			"schema",
+			1,
+			DataSummary.Period.HOUR,
+			"value",
+			START,
+			-1,
+			null,
+			null,
+			0);
+	}
+	
+	/**
+	 * Tests that a valid rollup keeps its values.
+	 */
+	@Test
+	public void testDataRollup() {
+		DataRollup rollup =
+			new DataRollup(
+				"owner",
+				"schema",
+				1,
+				DataSummary.Period.DAY,
+				DataRollup.FIELD_POINTS,
+				START - (START % DataSummary.Period.DAY.getMillis()),
+				3,
+				null,
+				null,
+				0);
+		
+		Assert.assertEquals("owner", rollup.getOwner());
+		Assert.assertEquals("schema", rollup.getSchemaId());
+		Assert.assertEquals(1, rollup.getSchemaVersion());
+		Assert.assertEquals(DataSummary.Period.DAY, rollup.getPeriod());
+		Assert.assertEquals(DataRollup.FIELD_POINTS, rollup.getField());
+		Assert.assertEquals(3, rollup.getCount());
+		Assert.assertNull(rollup.getMin());
+		Assert.assertNull(rollup.getMax());
+	}
+}
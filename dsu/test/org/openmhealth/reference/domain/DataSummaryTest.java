@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.Collections;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link DataSummary} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class DataSummaryTest {
+	/**
+	 * A time zone with daylight saving time.
+	 */
+	public static final DateTimeZone TIME_ZONE =
+		DateTimeZone.forID("America/Los_Angeles");
+	
+	/**
+	 * Tests that a {@link DataSummary} object can be built.
+	 */
+	@Test
+	public void testDataSummary() {
+		DataSummary summary =
+			new DataSummary(
+				new DateTime(0),
+				2,
+				Collections
+					.singletonMap(
+						"value",
+						new DataSummary.FieldSummary(2, 1.0, 3.0, 4.0)));
+		
+		Assert.assertEquals(2, summary.getCount());
+		Assert.assertEquals(
+			2.0,
+			summary.getFields().get("value").getMean(),
+			0.0);
+	}
+	
+	/**
+	 * Tests that the start cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataSummaryStartNull() {
+		new DataSummary(null, 0, null);
+	}
+	
+	/**
+	 * Tests that the count cannot be negative.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataSummaryCountNegative() {
+		new DataSummary(new DateTime(0), -1, null);
+	}
+	
+	/**
+	 * Tests that a field without any numbers has no statistics.
+	 */
+	@Test
+	public void testFieldSummaryCountZero() {
+		DataSummary.FieldSummary summary =
+			new DataSummary.FieldSummary(0, 0.0, 0.0, 0.0);
+		
+		Assert.assertNull(summary.getMin());
+		Assert.assertNull(summary.getMax());
+		Assert.assertNull(summary.getMean());
+		Assert.assertNull(summary.getSum());
+	}
+	
+	/**
+	 * Tests that a field with numbers must have its statistics.
+	 */
+	@Test(expected = OmhException.class)
+	public void testFieldSummarySumNull() {
+		new DataSummary.FieldSummary(1, 1.0, 1.0, null);
+	}
+	
+	/**
+	 * Tests that a period is found by its name.
+	 */
+	@Test
+	public void testGetPeriod() {
+		for(DataSummary.Period period : DataSummary.Period.values()) {
+			Assert.assertEquals(
+				period,
+				DataSummary.Period.getPeriod(period.getName()));
+		}
+	}
+	
+	/**
+	 * Tests that an unknown period is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testGetPeriodUnknown() {
+		DataSummary.Period.getPeriod("fortnight");
+	}
+	
+	/**
+	 * Tests that the start of a period is before the instant, including
+	 * before the epoch.
+	 */
+	@Test
+	public void testGetStart() {
+		Assert.assertEquals(
+			3600000,
+			DataSummary.Period.HOUR.getStart(3600001));
+		Assert.assertEquals(
+			-3600000,
+			DataSummary.Period.HOUR.getStart(-1));
+	}
+	
+	/**
+	 * Tests that the local start of a day is converted back to local
+	 * midnight.
+	 */
+	@Test
+	public void testToStart() {
+		DateTime midnight = new DateTime(2013, 7, 1, 0, 0, TIME_ZONE);
+		long local =
+			DataSummary.Period.DAY
+				.getStart(
+					midnight.getMillis() +
+						(5 * 3600000) +
+						TIME_ZONE.getOffset(midnight.getMillis()));
+		
+		Assert.assertEquals(
+			midnight,
+			DataSummary.toStart(local, TIME_ZONE));
+	}
+}
@@ -15,15 +15,20 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.lang.reflect.Constructor;
+
 import name.jenkins.paul.john.concordia.schema.ObjectSchema;
 import name.jenkins.paul.john.concordia.validator.ValidationController;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.junit.Assert;
 import org.junit.Test;
 import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.OmhBsonObjectMapper;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -158,4 +163,122 @@ public class DataTest {
 	public void testDataStringStringLongMetaDataJsonNode() {
 		new Data(OWNER, SCHEMA.getId(), SCHEMA.getVersion(), META_DATA, DATA);
 	}
+	
+	/**
+	 * Test that an exception is thrown when the JSON text of the data is
+	 * null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testFromJsonDataNull() {
+		Data.fromJson(OWNER, SCHEMA.getId(), SCHEMA.getVersion(), META_DATA, null);
+	}
+	
+	/**
+	 * Test that the JSON text of the data is parsed when the data is needed.
+	 */
+	@Test
+	public void testFromJsonGetData() {
+		Data data =
+			Data
+				.fromJson(
+					OWNER,
+					SCHEMA.getId(),
+					SCHEMA.getVersion(),
+					META_DATA,
+					"{\"value\":1}");
+		
+		Assert.assertEquals(1, data.getData().get("value").asInt());
+	}
+	
+	/**
+	 * Test that the JSON text of the data is serialized in the same way as the
+	 * parsed data.
+	 */
+	@Test
+	public void testFromJsonSerialize() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		String json = "{\"value\":[1,{\"unit\":\"m\"}]}";
+		Data raw =
+			Data
+				.fromJson(
+					OWNER,
+					SCHEMA.getId(),
+					SCHEMA.getVersion(),
+					META_DATA,
+					json);
+		Data parsed =
+			new Data(
+				OWNER,
+				SCHEMA.getId(),
+				SCHEMA.getVersion(),
+				META_DATA,
+				mapper.readTree(json));
+		
+		Assert
+			.assertEquals(
+				mapper.writeValueAsString(parsed),
+				mapper.writeValueAsString(raw));
+		Assert
+			.assertEquals(
+				mapper.readTree(json),
+				mapper
+					.readTree(mapper.writeValueAsString(raw))
+					.get(Data.JSON_KEY_DATA));
+	}
+	
+	/**
+	 * Test that a serialized data object can be deserialized.
+	 */
+	@Test
+	public void testFromJsonDeserialize() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		Data raw =
+			Data
+				.fromJson(
+					OWNER,
+					SCHEMA.getId(),
+					SCHEMA.getVersion(),
+					null,
+					"{\"value\":1}");
+		
+		Data result =
+			mapper.readValue(mapper.writeValueAsString(raw), Data.class);
+		
+		Assert.assertEquals(OWNER, result.getOwner());
+		Assert.assertEquals(1, result.getData().get("value").asInt());
+	}
+	
+	/**
+	 * Test that the JSON text of the data is serialized as BSON in the same
+	 * way as the parsed data.
+	 */
+	@Test
+	public void testFromJsonSerializeBson() throws Exception {
+		Constructor<OmhBsonObjectMapper> constructor =
+			OmhBsonObjectMapper.class.getDeclaredConstructor();
+		constructor.setAccessible(true);
+		ObjectMapper mapper = constructor.newInstance();
+		
+		String json = "{\"value\":[1,{\"unit\":\"m\"}]}";
+		Data raw =
+			Data
+				.fromJson(
+					OWNER,
+					SCHEMA.getId(),
+					SCHEMA.getVersion(),
+					META_DATA,
+					json);
+		Data parsed =
+			new Data(
+				OWNER,
+				SCHEMA.getId(),
+				SCHEMA.getVersion(),
+				META_DATA,
+				new ObjectMapper().readTree(json));
+		
+		Assert
+			.assertArrayEquals(
+				mapper.writeValueAsBytes(parsed),
+				mapper.writeValueAsBytes(raw));
+	}
 }
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link EncodedSchema} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class EncodedSchemaTest {
+	/**
+	 * Tests that the schema must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testEncodedSchemaNull() {
+		new EncodedSchema(null);
+	}
+	
+	/**
+	 * Tests that the JSON is the encoded definition.
+	 */
+	@Test
+	public void testGetJson() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		EncodedSchema schema = new EncodedSchema(DataTest.SCHEMA);
+		
+		Assert
+			.assertEquals(
+				mapper
+					.readTree(
+						mapper.writeValueAsString(DataTest.SCHEMA.getSchema())),
+				mapper.readTree(schema.getJson()));
+	}
+	
+	/**
+	 * Tests that the gzip-compressed JSON decompresses to the JSON.
+	 */
+	@Test
+	public void testGetGzippedJson() throws Exception {
+		EncodedSchema schema = new EncodedSchema(DataTest.SCHEMA);
+		
+		GZIPInputStream input =
+			new GZIPInputStream(
+				new ByteArrayInputStream(schema.getGzippedJson()));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		input.close();
+		
+		Assert.assertArrayEquals(schema.getJson(), output.toByteArray());
+	}
+	
+	/**
+	 * Tests that the meta-data has the ID and version but not the definition.
+	 */
+	@Test
+	public void testGetMetaData() {
+		EncodedSchema schema = new EncodedSchema(DataTest.SCHEMA);
+		
+		Assert
+			.assertEquals(
+				DataTest.SCHEMA.getId(),
+				schema.getMetaData().get(Schema.JSON_KEY_ID));
+		Assert
+			.assertFalse(
+				schema.getMetaData().containsKey(Schema.JSON_KEY_SCHEMA));
+	}
+	
+	/**
+	 * Tests that the entity tags are stable, quoted, and different for each
+	 * representation.
+	 */
+	@Test
+	public void testGetETag() {
+		EncodedSchema schema = new EncodedSchema(DataTest.SCHEMA);
+		
+		Assert
+			.assertEquals(
+				new EncodedSchema(DataTest.SCHEMA).getETag(),
+				schema.getETag());
+		Assert.assertTrue(schema.getETag().startsWith("\""));
+		Assert.assertTrue(schema.getETag().endsWith("\""));
+		Assert
+			.assertFalse(schema.getETag().equals(schema.getGzippedETag()));
+	}
+}
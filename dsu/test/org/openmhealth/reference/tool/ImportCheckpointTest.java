@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.tool;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests everything about the {@link ImportCheckpoint} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class ImportCheckpointTest {
+	/**
+	 * The file being imported.
+	 */
+	public static final File INPUT = new File("input.json");
+	
+	/**
+	 * The checkpoint file.
+	 */
+	private File file;
+	
+	/**
+	 * Creates a path for the checkpoint file that does not yet exist.
+	 * 
+	 * @throws IOException
+	 *         The temporary file could not be created.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("checkpoint", ".properties");
+		file.delete();
+	}
+	
+	/**
+	 * Deletes the checkpoint file.
+	 */
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	/**
+	 * Tests that a new checkpoint has no progress.
+	 */
+	@Test
+	public void testImportCheckpointNew() {
+		ImportCheckpoint checkpoint = new ImportCheckpoint(file);
+		
+		Assert.assertEquals(0, checkpoint.getStored(INPUT));
+		Assert.assertFalse(checkpoint.isComplete(INPUT));
+	}
+	
+	/**
+	 * Tests that progress without a file is only kept in memory.
+	 */
+	@Test
+	public void testUpdateWithoutFile() {
+		ImportCheckpoint checkpoint = new ImportCheckpoint(null);
+		checkpoint.update(INPUT, 10, false);
+		
+		Assert.assertEquals(10, checkpoint.getStored(INPUT));
+		Assert.assertFalse(checkpoint.isComplete(INPUT));
+	}
+	
+	/**
+	 * Tests that the progress is read back by a new checkpoint.
+	 */
+	@Test
+	public void testUpdateReload() {
+		new ImportCheckpoint(file).update(INPUT, 20000, false);
+		
+		ImportCheckpoint checkpoint = new ImportCheckpoint(file);
+		Assert.assertEquals(20000, checkpoint.getStored(INPUT));
+		Assert.assertFalse(checkpoint.isComplete(INPUT));
+	}
+	
+	/**
+	 * Tests that a completed file is read back as complete.
+	 */
+	@Test
+	public void testUpdateComplete() {
+		new ImportCheckpoint(file).update(INPUT, 20500, true);
+		
+		ImportCheckpoint checkpoint = new ImportCheckpoint(file);
+		Assert.assertEquals(20500, checkpoint.getStored(INPUT));
+		Assert.assertTrue(checkpoint.isComplete(INPUT));
+		Assert.assertFalse(checkpoint.isComplete(new File("other.json")));
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link BloomFilter} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class BloomFilterTest {
+	/**
+	 * The capacity to use for the filters.
+	 */
+	public static final int CAPACITY = 10000;
+	/**
+	 * The false-positive rate to use for the filters.
+	 */
+	public static final double FALSE_POSITIVE_RATE = 0.01;
+	
+	/**
+	 * Tests that the capacity must be positive.
+	 */
+	@Test(expected = OmhException.class)
+	public void testBloomFilterCapacityZero() {
+		new BloomFilter(0, FALSE_POSITIVE_RATE);
+	}
+	
+	/**
+	 * Tests that the false-positive rate must be less than 1.
+	 */
+	@Test(expected = OmhException.class)
+	public void testBloomFilterFalsePositiveRateOne() {
+		new BloomFilter(CAPACITY, 1);
+	}
+	
+	/**
+	 * Tests that the false-positive rate must be greater than 0.
+	 */
+	@Test(expected = OmhException.class)
+	public void testBloomFilterFalsePositiveRateZero() {
+		new BloomFilter(CAPACITY, 0);
+	}
+	
+	/**
+	 * Tests that null cannot be added.
+	 */
+	@Test(expected = OmhException.class)
+	public void testPutNull() {
+		new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE).put(null);
+	}
+	
+	/**
+	 * Tests that an empty filter contains nothing.
+	 */
+	@Test
+	public void testMightContainEmpty() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		Assert.assertFalse(filter.mightContain("a"));
+		Assert.assertEquals(0, filter.size());
+	}
+	
+	/**
+	 * Tests that everything that was added is reported as possibly added.
+	 */
+	@Test
+	public void testMightContainAdded() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		for(int i = 0; i < CAPACITY; i++) {
+			filter.put("value-" + i);
+		}
+		for(int i = 0; i < CAPACITY; i++) {
+			Assert.assertTrue(filter.mightContain("value-" + i));
+		}
+		Assert.assertEquals(CAPACITY, filter.size());
+		Assert.assertFalse(filter.isOverCapacity());
+	}
+	
+	/**
+	 * Tests that the false-positive rate of a full filter is close to the
+	 * rate it was created with.
+	 */
+	@Test
+	public void testMightContainFalsePositiveRate() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		for(int i = 0; i < CAPACITY; i++) {
+			filter.put("value-" + i);
+		}
+		
+		int falsePositives = 0;
+		for(int i = 0; i < CAPACITY; i++) {
+			if(filter.mightContain("other-" + i)) {
+				falsePositives++;
+			}
+		}
+		Assert.assertTrue(falsePositives < CAPACITY * FALSE_POSITIVE_RATE * 2);
+	}
+	
+	/**
+	 * Tests that a filter's bits are whole words and grow with its capacity.
+	 */
+	@Test
+	public void testGetNumBits() {
+		BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+		Assert.assertEquals(0, filter.getNumBits() % 64);
+		Assert.assertTrue(filter.getNumBits() >= CAPACITY);
+		Assert
+			.assertTrue(
+				new BloomFilter(CAPACITY * 2, FALSE_POSITIVE_RATE)
+					.getNumBits() >
+				filter.getNumBits());
+	}
+	
+	/**
+	 * Tests that a filter knows when it has been over-filled.
+	 */
+	@Test
+	public void testIsOverCapacity() {
+		BloomFilter filter = new BloomFilter(1, FALSE_POSITIVE_RATE);
+		filter.put("a");
+		Assert.assertFalse(filter.isOverCapacity());
+		filter.put("b");
+		Assert.assertTrue(filter.isOverCapacity());
+	}
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import name.jenkins.paul.john.concordia.Concordia;
+import name.jenkins.paul.john.concordia.exception.ConcordiaException;
+import name.jenkins.paul.john.concordia.schema.Schema;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.concordia.OmhValidationController;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link CsvDataWriter} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class CsvDataWriterTest {
+	/**
+	 * The mapper used to read the data.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	
+	/**
+	 * A schema with a nested object and an array.
+	 */
+	public static final String SCHEMA =
+		"{" +
+			"\"type\":\"object\"," +
+			"\"fields\":[" +
+				"{\"name\":\"value\",\"type\":\"number\"}," +
+				"{\"name\":\"unit\",\"type\":\"object\",\"fields\":[" +
+					"{\"name\":\"name\",\"type\":\"string\"}," +
+					"{\"name\":\"scale\",\"type\":\"number\"}]}," +
+				"{\"name\":\"samples\",\"type\":\"array\"," +
+					"\"constType\":{\"type\":\"number\"}}" +
+			"]" +
+		"}";
+	
+	/**
+	 * Tests that the writer must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCsvDataWriterWriterNull() {
+		new CsvDataWriter(null, Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Tests that the columns must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testCsvDataWriterColumnsNull() {
+		new CsvDataWriter(new StringWriter(), null);
+	}
+	
+	/**
+	 * Tests that every field of the schema is a column and nested objects are
+	 * flattened.
+	 */
+	@Test
+	public void testGetColumns() throws IOException {
+		Assert
+			.assertEquals(
+				Arrays.asList("value", "unit.name", "unit.scale", "samples"),
+				CsvDataWriter.getColumns(getSchema(), null));
+	}
+	
+	/**
+	 * Tests that only the requested columns are kept and that requested
+	 * columns that the schema doesn't define are added.
+	 */
+	@Test
+	public void testGetColumnsColumnList() throws IOException {
+		ColumnList columnList =
+			new ColumnList(Arrays.asList("unit", "samples.x", "extra"));
+		
+		List<String> columns =
+			CsvDataWriter.getColumns(getSchema(), columnList);
+		Assert.assertEquals(4, columns.size());
+		Assert
+			.assertEquals(
+				Arrays.asList("unit.name", "unit.scale"),
+				columns.subList(0, 2));
+		Assert.assertTrue(columns.contains("samples.x"));
+		Assert.assertTrue(columns.contains("extra"));
+	}
+	
+	/**
+	 * Tests that values that need quoting are quoted.
+	 */
+	@Test
+	public void testEscape() {
+		Assert.assertEquals("", CsvDataWriter.escape(null));
+		Assert.assertEquals("abc", CsvDataWriter.escape("abc"));
+		Assert.assertEquals("\"a,b\"", CsvDataWriter.escape("a,b"));
+		Assert.assertEquals("\"a\"\"b\"", CsvDataWriter.escape("a\"b"));
+		Assert.assertEquals("\"a\nb\"", CsvDataWriter.escape("a\nb"));
+	}
+	
+	/**
+	 * Tests that the headers and a point are written as rows.
+	 */
+	@Test
+	public void testWrite() throws IOException {
+		StringWriter output = new StringWriter();
+		CsvDataWriter writer =
+			new CsvDataWriter(
+				output,
+				CsvDataWriter.getColumns(getSchema(), null));
+		
+		writer.writeHeader();
+		writer
+			.write(
+				new Data(
+					"owner",
+					"schema",
+					1,
+					new MetaData("id", null),
+					JSON_MAPPER
+						.readTree(
+							"{\"value\":1.5,\"unit\":{\"name\":\"a,b\"}," +
+								"\"samples\":[1,2]}")));
+		writer.flush();
+		
+		Assert
+			.assertEquals(
+				"metadata.id,metadata.timestamp,data.value,data.unit.name," +
+					"data.unit.scale,data.samples\r\n" +
+					"id,,1.5,\"a,b\",,\"[1,2]\"\r\n",
+				output.toString());
+	}
+	
+	/**
+	 * Returns the schema for the tests.
+	 * 
+	 * @return The schema.
+	 */
+	private static Schema getSchema() throws IOException {
+		try {
+			return
+				new Concordia(
+					new ByteArrayInputStream(SCHEMA.getBytes("UTF-8")),
+					OmhValidationController.VALIDATION_CONTROLLER)
+					.getSchema();
+		}
+		catch(ConcordiaException e) {
+			throw new IOException(e);
+		}
+	}
+}
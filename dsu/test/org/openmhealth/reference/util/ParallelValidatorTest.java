@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link ParallelValidator} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ParallelValidatorTest {
+	/**
+	 * A number of points large enough to be validated on the pool.
+	 */
+	public static final int NUM_POINTS =
+		ParallelValidator.SEQUENTIAL_THRESHOLD * 8;
+	
+	/**
+	 * A validation that doubles each point and rejects negative points.
+	 */
+	public static final ParallelValidator.Validation<Integer, Integer>
+		VALIDATION =
+			new ParallelValidator.Validation<Integer, Integer>() {
+				@Override
+				public Integer validate(
+					final Integer point)
+					throws OmhException {
+					
+					if(point < 0) {
+						throw new OmhException("Negative: " + point);
+					}
+					return point * 2;
+				}
+			};
+
+	/**
+	 * Tests that the points must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValidatePointsNull() {
+		ParallelValidator.validate(null, VALIDATION);
+	}
+	
+	/**
+	 * Tests that the validation must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValidateValidationNull() {
+		ParallelValidator
+			.validate(
+				Collections.<Integer>emptyList(),
+				(ParallelValidator.Validation<Integer, Integer>) null);
+	}
+	
+	/**
+	 * Tests that an empty list results in an empty list.
+	 */
+	@Test
+	public void testValidateEmpty() {
+		Assert
+			.assertEquals(
+				0,
+				ParallelValidator
+					.validate(Collections.<Integer>emptyList(), VALIDATION)
+					.size());
+	}
+	
+	/**
+	 * Tests that a small list is validated in order.
+	 */
+	@Test
+	public void testValidateSmall() {
+		List<Integer> points = buildPoints(10);
+		List<Integer> result = ParallelValidator.validate(points, VALIDATION);
+		Assert.assertEquals(points.size(), result.size());
+		for(int i = 0; i < points.size(); i++) {
+			Assert.assertEquals(i * 2, result.get(i).intValue());
+		}
+	}
+	
+	/**
+	 * Tests that a large list is validated in order.
+	 */
+	@Test
+	public void testValidateLarge() {
+		List<Integer> points = buildPoints(NUM_POINTS);
+		List<Integer> result = ParallelValidator.validate(points, VALIDATION);
+		Assert.assertEquals(points.size(), result.size());
+		for(int i = 0; i < points.size(); i++) {
+			Assert.assertEquals(i * 2, result.get(i).intValue());
+		}
+	}
+	
+	/**
+	 * Tests that, when multiple points in a large list are invalid, the
+	 * failure for the first one is the one that is thrown.
+	 */
+	@Test
+	public void testValidateLargeFirstFailure() {
+		List<Integer> points = buildPoints(NUM_POINTS);
+		points.set(NUM_POINTS - 1, -1);
+		points.set(NUM_POINTS / 2, -2);
+		points.set(NUM_POINTS / 3, -3);
+		
+		try {
+			ParallelValidator.validate(points, VALIDATION);
+			Assert.fail("The invalid points were not detected.");
+		}
+		catch(OmhException e) {
+			Assert.assertEquals("Negative: -3", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Builds a list of sequential points starting at 0.
+	 * 
+	 * @param numPoints
+	 *        The number of points to build.
+	 * 
+	 * @return The list of points.
+	 */
+	private static List<Integer> buildPoints(final int numPoints) {
+		List<Integer> result = new ArrayList<Integer>(numPoints);
+		for(int i = 0; i < numPoints; i++) {
+			result.add(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataRollup;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link RollupBuilder} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class RollupBuilderTest {
+	/**
+	 * The mapper used to read the data.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	
+	/**
+	 * The start of an hour.
+	 */
+	public static final DateTime HOUR =
+		new DateTime(2013, 7, 1, 10, 0, DateTimeZone.UTC);
+	
+	/**
+	 * Tests that the point must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testAddPointNull() {
+		new RollupBuilder().add(null, Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Tests that the fields must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testAddFieldsNull() throws IOException {
+		new RollupBuilder().add(createPoint(HOUR, "{}"), null);
+	}
+	
+	/**
+	 * Tests that points without a timestamp are ignored.
+	 */
+	@Test
+	public void testAddNoTimestamp() throws IOException {
+		RollupBuilder builder = new RollupBuilder();
+		builder.add(createPoint(null, "{\"value\":1}"), Arrays.asList("value"));
+		
+		Assert.assertEquals(0, builder.getRollups().size());
+	}
+	
+	/**
+	 * Tests that a point is counted in every period and its numeric fields
+	 * are rolled up.
+	 */
+	@Test
+	public void testAdd() throws IOException {
+		RollupBuilder builder = new RollupBuilder();
+		builder
+			.add(
+				createPoint(HOUR.plusMinutes(5), "{\"value\":1.5}"),
+				Arrays.asList("value"));
+		
+		long millis = HOUR.plusMinutes(5).getMillis();
+		List<DataRollup> rollups = builder.getRollups();
+		Assert
+			.assertEquals(
+				2 * DataSummary.Period.values().length,
+				rollups.size());
+		for(DataRollup rollup : rollups) {
+			Assert.assertEquals(1, rollup.getCount());
+			Assert
+				.assertEquals(
+					rollup.getPeriod().getStart(millis),
+					rollup.getStart());
+			if(DataRollup.FIELD_POINTS.equals(rollup.getField())) {
+				Assert.assertNull(rollup.getMin());
+				Assert.assertNull(rollup.getMax());
+			}
+			else {
+				Assert.assertEquals("value", rollup.getField());
+				Assert.assertEquals(1.5, rollup.getMin(), 0);
+				Assert.assertEquals(1.5, rollup.getMax(), 0);
+				Assert.assertEquals(1.5, rollup.getSum(), 0);
+			}
+		}
+	}
+	
+	/**
+	 * Tests that points in the same period are combined, and that fields
+	 * that are missing or are not numbers are not rolled up.
+	 */
+	@Test
+	public void testAddCombined() throws IOException {
+		RollupBuilder builder = new RollupBuilder();
+		List<String> fields = Arrays.asList("value", "unit.scale");
+		builder
+			.add(
+				createPoint(HOUR, "{\"value\":2,\"unit\":{\"scale\":10}}"),
+				fields);
+		builder
+			.add(
+				createPoint(HOUR.plusMinutes(30), "{\"value\":-1}"),
+				fields);
+		builder
+			.add(
+				createPoint(HOUR.plusMinutes(59), "{\"value\":\"a\"}"),
+				fields);
+		
+		for(DataRollup rollup : builder.getRollups()) {
+			if(! DataSummary.Period.HOUR.equals(rollup.getPeriod())) {
+				continue;
+			}
+			
+			if(DataRollup.FIELD_POINTS.equals(rollup.getField())) {
+				Assert.assertEquals(3, rollup.getCount());
+			}
+			else if("value".equals(rollup.getField())) {
+				Assert.assertEquals(2, rollup.getCount());
+				Assert.assertEquals(-1, rollup.getMin(), 0);
+				Assert.assertEquals(2, rollup.getMax(), 0);
+				Assert.assertEquals(1, rollup.getSum(), 0);
+			}
+			else {
+				Assert.assertEquals("unit.scale", rollup.getField());
+				Assert.assertEquals(1, rollup.getCount());
+				Assert.assertEquals(10, rollup.getSum(), 0);
+			}
+		}
+	}
+	
+	/**
+	 * Tests that points in different periods have different rollups.
+	 */
+	@Test
+	public void testAddDifferentPeriods() throws IOException {
+		RollupBuilder builder = new RollupBuilder();
+		builder.add(createPoint(HOUR, "{}"), Collections.<String>emptyList());
+		builder
+			.add(
+				createPoint(HOUR.plusHours(1), "{}"),
+				Collections.<String>emptyList());
+		
+		int days = 0;
+		int hours = 0;
+		for(DataRollup rollup : builder.getRollups()) {
+			if(DataSummary.Period.DAY.equals(rollup.getPeriod())) {
+				Assert.assertEquals(2, rollup.getCount());
+				days++;
+			}
+			else if(DataSummary.Period.HOUR.equals(rollup.getPeriod())) {
+				Assert.assertEquals(1, rollup.getCount());
+				hours++;
+			}
+		}
+		Assert.assertEquals(1, days);
+		Assert.assertEquals(2, hours);
+	}
+	
+	/**
+	 * Creates a point.
+	 * 
+	 * @param timestamp
+	 *        The point's timestamp or null.
+	 * 
+	 * @param data
+	 *        The point's data as JSON.
+	 * 
+	 * @return The point.
+	 */
+	private static Data createPoint(
+		final DateTime timestamp,
+		final String data)
+		throws IOException {
+		
+		return
+			new Data(
+				"owner",
+				"schema",
+				1,
+				new MetaData(null, timestamp),
+				JSON_MAPPER.readTree(data));
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link TimeZoneOffsets} class.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class TimeZoneOffsetsTest {
+	/**
+	 * A time zone with daylight saving time.
+	 */
+	public static final DateTimeZone TIME_ZONE =
+		DateTimeZone.forID("America/Los_Angeles");
+	/**
+	 * The number of milliseconds in an hour.
+	 */
+	public static final int HOUR = 60 * 60 * 1000;
+	
+	/**
+	 * Tests that the time zone must not be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testTimeZoneOffsetsTimeZoneNull() {
+		new TimeZoneOffsets(null, 0, 0);
+	}
+	
+	/**
+	 * Tests that the range must not end before it starts.
+	 */
+	@Test(expected = OmhException.class)
+	public void testTimeZoneOffsetsEndBeforeStart() {
+		new TimeZoneOffsets(DateTimeZone.UTC, 1, 0);
+	}
+	
+	/**
+	 * Tests that a fixed time zone has one offset.
+	 */
+	@Test
+	public void testTimeZoneOffsetsFixed() {
+		TimeZoneOffsets offsets =
+			new TimeZoneOffsets(
+				DateTimeZone.forOffsetHours(5),
+				0,
+				Long.MAX_VALUE / 2);
+		
+		Assert.assertEquals(1, offsets.size());
+		Assert.assertEquals(0, offsets.getTransition(0));
+		Assert.assertEquals(5 * HOUR, offsets.getOffset(0));
+	}
+	
+	/**
+	 * Tests that a range within standard time has one offset.
+	 */
+	@Test
+	public void testTimeZoneOffsetsNoTransition() {
+		TimeZoneOffsets offsets =
+			new TimeZoneOffsets(
+				TIME_ZONE,
+				new DateTime(2013, 1, 1, 0, 0, TIME_ZONE).getMillis(),
+				new DateTime(2013, 2, 1, 0, 0, TIME_ZONE).getMillis());
+		
+		Assert.assertEquals(1, offsets.size());
+		Assert.assertEquals(-8 * HOUR, offsets.getOffset(0));
+	}
+	
+	/**
+	 * Tests that a year has both daylight saving time transitions.
+	 */
+	@Test
+	public void testTimeZoneOffsetsTransitions() {
+		long start = new DateTime(2013, 1, 1, 0, 0, TIME_ZONE).getMillis();
+		long spring = new DateTime(2013, 3, 10, 3, 0, TIME_ZONE).getMillis();
+		long fall = new DateTime(2013, 11, 3, 1, 0, TIME_ZONE).getMillis();
+		TimeZoneOffsets offsets =
+			new TimeZoneOffsets(
+				TIME_ZONE,
+				start,
+				new DateTime(2013, 12, 31, 0, 0, TIME_ZONE).getMillis());
+		
+		Assert.assertEquals(3, offsets.size());
+		Assert.assertEquals(start, offsets.getTransition(0));
+		Assert.assertEquals(spring, offsets.getTransition(1));
+		Assert.assertEquals(fall + HOUR, offsets.getTransition(2));
+		Assert.assertEquals(-8 * HOUR, offsets.getOffset(0));
+		Assert.assertEquals(-7 * HOUR, offsets.getOffset(1));
+		Assert.assertEquals(-8 * HOUR, offsets.getOffset(2));
+		
+		Assert.assertEquals(-8 * HOUR, offsets.getOffsetAt(spring - 1));
+		Assert.assertEquals(-7 * HOUR, offsets.getOffsetAt(spring));
+		Assert.assertEquals(-7 * HOUR, offsets.getOffsetAt(fall));
+		Assert.assertEquals(-8 * HOUR, offsets.getOffsetAt(fall + HOUR));
+	}
+}